@@ -2,7 +2,6 @@ package com.limelight;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 
@@ -10,6 +9,7 @@ import com.limelight.computers.ComputerManagerService;
 import com.limelight.grid.AppGridAdapter;
 import com.limelight.grid.assets.CachedAppAssetLoader;
 import com.limelight.grid.assets.ScaledBitmap;
+import com.limelight.nvstream.http.AppListDiff;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
@@ -971,57 +971,24 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
 
     private void updateUiWithAppList(final List<NvApp> appList) {
         runOnUiThread(() -> {
-            // Prepare list of AppObjects in server order
-            List<AppObject> newAppObjects = new ArrayList<>();
-
-            // Create AppObjects from server list, preserving order
-            for (NvApp app : appList) {
-                // Look for existing AppObject to preserve running state
-                AppObject existingApp = null;
-                for (int i = 0; i < appGridAdapter.getCount(); i++) {
-                    AppObject candidate = (AppObject) appGridAdapter.getItem(i);
-                    if (candidate.app.getAppId() == app.getAppId()) {
-                        existingApp = candidate;
-                        // Update app properties if needed
-                        if (!candidate.app.getAppName().equals(app.getAppName())) {
-                            candidate.app.setAppName(app.getAppName());
-                        }
-                        break;
-                    }
-                }
-
-                if (existingApp != null) {
-                    // Use existing AppObject to preserve state (like isRunning)
-                    newAppObjects.add(existingApp);
-                } else {
-                    // Create new AppObject for new app
-                    AppObject newAppObject = new AppObject(app);
-                    newAppObjects.add(newAppObject);
-
-                    // Enable shortcuts for new apps
-                    shortcutHelper.enableAppShortcut(computer, app);
-                }
+            AppListDiff diff = AppListDiff.compute(appGridAdapter.getAllApps(), appList);
+            if (diff.isEmpty()) {
+                // Same apps in the same order, so there's nothing to redraw
+                return;
             }
 
             // Handle removed apps - disable shortcuts
-            for (int i = 0; i < appGridAdapter.getCount(); i++) {
-                AppObject existingApp = (AppObject) appGridAdapter.getItem(i);
-                boolean stillExists = false;
-
-                for (NvApp app : appList) {
-                    if (existingApp.app.getAppId() == app.getAppId()) {
-                        stillExists = true;
-                        break;
-                    }
-                }
+            for (NvApp app : diff.removed) {
+                shortcutHelper.disableAppShortcut(computer, app, "App removed from PC");
+            }
 
-                if (!stillExists) {
-                    shortcutHelper.disableAppShortcut(computer, existingApp.app, "App removed from PC");
-                }
+            // Enable shortcuts for new apps
+            for (NvApp app : diff.added) {
+                shortcutHelper.enableAppShortcut(computer, app);
             }
 
-            // Rebuild the entire list in server order
-            appGridAdapter.rebuildAppList(newAppObjects);
+            // Only new and changed apps get new AppObjects, the rest keep their state (like isRunning)
+            List<AppObject> newAppObjects = appGridAdapter.applyAppListDiff(diff);
             appGridAdapter.notifyDataSetChanged();
 
             // Set first app's cover as background if no current background
@@ -18,6 +18,7 @@ import com.limelight.binding.input.driver.UsbDriverService;
 import com.limelight.binding.input.evdev.EvdevListener;
 import com.limelight.binding.input.touch.TouchContext;
 import com.limelight.binding.input.virtual_controller.VirtualController;
+import com.limelight.binding.video.AdaptiveBitrateController;
 import com.limelight.binding.video.CrashListener;
 import com.limelight.binding.video.MediaCodecDecoderRenderer;
 import com.limelight.binding.video.MediaCodecHelper;
@@ -688,6 +689,12 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 new ComputerDetails.AddressTuple(host, port),
                 httpsPort, uniqueId, pairName, config,
                 PlatformBinding.getCryptoProvider(this), serverCert);
+        conn.setMouseMotionCoalesceInterval(prefConfig.mouseCoalesceIntervalMs);
+        if (prefConfig.enableAdaptiveBitrate) {
+            AdaptiveBitrateController bitrateController = createAdaptiveBitrateController();
+            decoderRenderer.setAdaptiveBitrateController(bitrateController);
+            decoderRenderer.setDecoderBackPressureListener(bitrateController);
+        }
         controllerHandler = new ControllerHandler(this, conn, this, prefConfig);
         keyboardTranslator = new KeyboardTranslator();
 
@@ -846,6 +853,39 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         isEventFromAccessibilityService = false;
     }
 
+    private AdaptiveBitrateController createAdaptiveBitrateController() {
+        // 码率上限为用户设置的码率，下限为其1/10（不低于2 Mbps）
+        final AdaptiveBitrateController[] controller = new AdaptiveBitrateController[1];
+        controller[0] = new AdaptiveBitrateController(new AdaptiveBitrateController.BitrateRequester() {
+            @Override
+            public int getCurrentBitrate() {
+                return conn.getCurrentBitrate();
+            }
+
+            @Override
+            public void requestBitrate(final int bitrateKbps) {
+                try {
+                    conn.setBitrate(bitrateKbps, new NvConnection.BitrateAdjustmentCallback() {
+                        @Override
+                        public void onSuccess(int newBitrate) {
+                            controller[0].onBitrateRequestComplete(newBitrate, true);
+                        }
+
+                        @Override
+                        public void onFailure(String errorMessage) {
+                            LimeLog.warning("Adaptive bitrate request failed: " + errorMessage);
+                            controller[0].onBitrateRequestComplete(bitrateKbps, false);
+                        }
+                    });
+                } catch (Exception e) {
+                    LimeLog.warning("Adaptive bitrate request failed: " + e.getMessage());
+                    controller[0].onBitrateRequestComplete(bitrateKbps, false);
+                }
+            }
+        }, prefConfig.bitrate, Math.max(2000, prefConfig.bitrate / 10));
+        return controller[0];
+    }
+
     private void setPreferredOrientationForCurrentDisplay() {
         Display display = externalDisplayManager != null ?
                 externalDisplayManager.getTargetDisplay() : getWindowManager().getDefaultDisplay();
@@ -1421,6 +1461,11 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             service.setKeyEventCallback(null);
         }
 
+        // 编辑按键时合并等待写入的修改，离开前写入数据库
+        if (controllerManager != null) {
+            controllerManager.getElementController().flushElementUpdates();
+        }
+
         if (isFinishing()) {
             // Stop any further input device notifications before we lose focus (and pointer capture)
             if (controllerHandler != null) {
@@ -2427,6 +2472,21 @@ public class Game extends Activity implements SurfaceHolder.Callback,
     // Returns true if the event was consumed
     // NB: View is only present if called from a view callback
     private boolean handleMotionEvent(View view, MotionEvent event) {
+        NvConnection batchConn = conn;
+        if (batchConn == null) {
+            return handleMotionEventInBatch(view, event);
+        }
+
+        // Mouse motion from this event and its historical samples goes out as one packet
+        batchConn.beginMouseMotionBatch();
+        try {
+            return handleMotionEventInBatch(view, event);
+        } finally {
+            batchConn.endMouseMotionBatch();
+        }
+    }
+
+    private boolean handleMotionEventInBatch(View view, MotionEvent event) {
         // Pass through mouse/touch/joystick input if we're not grabbing
         if (!grabbedInput) {
             return false;
@@ -9,7 +9,6 @@ import java.net.UnknownHostException;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.RequestOptions;
 import com.limelight.binding.PlatformBinding;
-import com.limelight.binding.crypto.AndroidCryptoProvider;
 import com.limelight.computers.ComputerManagerService;
 import com.limelight.grid.PcGridAdapter;
 import com.limelight.grid.assets.DiskAssetLoader;
@@ -129,7 +128,7 @@ public class PcView extends Activity implements AdapterFragmentCallbacks, ShakeD
                     startComputerUpdates();
 
                     // Force a keypair to be generated early to avoid discovery delays
-                    new AndroidCryptoProvider(PcView.this).getClientCertificate();
+                    PlatformBinding.getCryptoProvider(PcView.this).getClientCertificate();
                 }
             }.start();
         }
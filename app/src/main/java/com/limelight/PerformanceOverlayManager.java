@@ -30,6 +30,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 
+import com.limelight.binding.video.LatencyPercentiles;
 import com.limelight.binding.video.PerformanceInfo;
 import com.limelight.preferences.PerfOverlayDisplayItemsPreference;
 import com.limelight.preferences.PreferenceConfiguration;
@@ -493,12 +494,19 @@ public class PerformanceOverlayManager {
     private void updateDecodeLatencyText(TextView view, PerformanceInfo performanceInfo) {
         String icon = performanceInfo.decodeTimeMs < 15 ? "⏱️" : "🥵";
         @SuppressLint("DefaultLocale") String latencyValue = String.format("%.2f", performanceInfo.decodeTimeMs);
+        if (performanceInfo.decodeLatency.samples > 0) {
+            // Averages hide frame time spikes, so show the tail alongside them
+            latencyValue += String.format(Locale.US, " · p99 %.0f", performanceInfo.decodeLatency.p99);
+        }
         view.setText(createStyledText(icon, latencyValue, "ms", 0xFFD597E3));
     }
 
     private void updateHostLatencyText(TextView view, PerformanceInfo performanceInfo) {
         if (performanceInfo.framesWithHostProcessingLatency > 0) {
             @SuppressLint("DefaultLocale") String latencyValue = String.format("%.1f", performanceInfo.aveHostProcessingLatency);
+            if (performanceInfo.hostProcessingLatency.samples > 0) {
+                latencyValue += String.format(Locale.US, " · p99 %.1f", performanceInfo.hostProcessingLatency.p99);
+            }
             view.setText(createStyledText("🖥", latencyValue, "ms", 0xFF009688));
         } else {
             view.setText(createStyledText("🧋", "Ver.V+", "", 0xFF009688));
@@ -1118,11 +1126,42 @@ public class PerformanceOverlayManager {
     }
 
     private void showDecodeLatencyInfo() {
-        showPerformanceInfo(R.string.perf_decode_latency_title, R.string.perf_decode_latency_info);
+        showInfoDialog(
+                activity.getString(R.string.perf_decode_latency_title),
+                buildLatencyPercentilesInfo() + activity.getString(R.string.perf_decode_latency_info)
+        );
     }
 
     private void showHostLatencyInfo() {
-        showPerformanceInfo(R.string.perf_host_latency_title, R.string.perf_host_latency_info);
+        showInfoDialog(
+                activity.getString(R.string.perf_host_latency_title),
+                buildLatencyPercentilesInfo() + activity.getString(R.string.perf_host_latency_info)
+        );
+    }
+
+    /**
+     * 构建延迟分布（p50/p95/p99）信息
+     */
+    private String buildLatencyPercentilesInfo() {
+        if (currentPerformanceInfo == null) {
+            return "";
+        }
+
+        StringBuilder info = new StringBuilder();
+        appendLatencyPercentiles(info, activity.getString(R.string.perf_latency_percentiles_receive), currentPerformanceInfo.receiveLatency);
+        appendLatencyPercentiles(info, activity.getString(R.string.perf_latency_percentiles_decode), currentPerformanceInfo.decodeLatency);
+        appendLatencyPercentiles(info, activity.getString(R.string.perf_latency_percentiles_render), currentPerformanceInfo.renderingLatency);
+        appendLatencyPercentiles(info, activity.getString(R.string.perf_latency_percentiles_host), currentPerformanceInfo.hostProcessingLatency);
+        if (info.length() > 0) {
+            info.append("\n");
+        }
+        return info.toString();
+    }
+
+    private void appendLatencyPercentiles(StringBuilder info, String label, LatencyPercentiles percentiles) {
+        if (percentiles.samples > 0) {
+            info.append(label).append(": ").append(percentiles).append("\n");
+        }
     }
 
     private void showInfoDialog(String title, String message) {
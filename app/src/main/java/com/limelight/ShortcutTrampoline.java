@@ -333,7 +333,6 @@ public class ShortcutTrampoline extends Activity {
         super.onCreate(savedInstanceState);
 
         UiHelper.notifyNewRootView(this);
-        ComputerDatabaseManager dbManager = new ComputerDatabaseManager(this);
         ComputerDetails _computer = null;
 
         // PC arguments, both are optional, but at least one must be provided
@@ -350,8 +349,11 @@ public class ShortcutTrampoline extends Activity {
         }
 
         if (uuidString == null || uuidString.isEmpty()) {
-            // Use nameString to find the corresponding UUID
+            // Use nameString to find the corresponding UUID. This reads the same cache as
+            // ComputerManagerService, so it sees changes that aren't written yet.
+            ComputerDatabaseManager dbManager = new ComputerDatabaseManager(this);
             _computer = dbManager.getComputerByName(nameString);
+            dbManager.close();
 
             if (_computer == null) {
                 Dialog.displayDialog(ShortcutTrampoline.this,
@@ -8,7 +8,13 @@ import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.http.LimelightCryptoProvider;
 
 public class PlatformBinding {
-    public static LimelightCryptoProvider getCryptoProvider(Context c) {
-        return new AndroidCryptoProvider(c);
+    private static AndroidCryptoProvider cryptoProvider;
+
+    public static synchronized LimelightCryptoProvider getCryptoProvider(Context c) {
+        // One provider per process, so the client identity is only loaded once
+        if (cryptoProvider == null) {
+            cryptoProvider = new AndroidCryptoProvider(c.getApplicationContext());
+        }
+        return cryptoProvider;
     }
 }
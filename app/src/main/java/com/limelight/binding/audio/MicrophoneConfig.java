@@ -30,7 +30,6 @@ public class MicrophoneConfig {
     public static final int BYTES_PER_FRAME = SAMPLES_PER_FRAME * CHANNELS * 2; // 每帧字节数 (1920)
     
     // 发送线程参数
-    public static final int SENDER_THREAD_SLEEP_MS = 5; // 发送线程睡眠时间 (从100减少到5)
     public static final int SENDER_ERROR_RETRY_MS = 5; // 发送错误重试时间 (从10减少到5)
     
     // 音频捕获优化参数
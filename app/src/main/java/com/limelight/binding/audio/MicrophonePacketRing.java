@@ -0,0 +1,111 @@
+package com.limelight.binding.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 麦克风数据包环形队列
+ *
+ * Single-producer (capture thread) / single-consumer (sender thread) ring of preallocated packet
+ * slots. The producer encodes straight into a slot after the packet header, so nothing is
+ * allocated per packet. The consumer parks while the ring is empty and the producer unparks it
+ * after publishing, so there's no sleep polling on either side.
+ */
+class MicrophonePacketRing {
+
+    static class Slot {
+        final byte[] data;
+        int length;
+        long captureTimeNs;
+
+        Slot(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final Slot[] slots;
+
+    // head is only written by the producer, tail only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+    private volatile boolean clearRequested;
+
+    MicrophonePacketRing(int capacity, int slotSize) {
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot(slotSize);
+        }
+    }
+
+    /**
+     * Returns the next free slot for the producer to fill, or null if the ring is full.
+     * The slot isn't visible to the consumer until {@link #publish()} is called.
+     */
+    Slot claim() {
+        long h = head.get();
+        if (h - tail.get() >= slots.length) {
+            return null;
+        }
+        return slots[(int) (h % slots.length)];
+    }
+
+    void publish() {
+        head.lazySet(head.get() + 1);
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Waits up to timeoutMs for a filled slot. Returns null on timeout or interrupt.
+     * The slot must be handed back with {@link #release()} once it has been sent.
+     */
+    Slot take(long timeoutMs) {
+        if (clearRequested) {
+            clearRequested = false;
+            tail.set(head.get());
+        }
+
+        long t = tail.get();
+        if (t == head.get()) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+            waitingConsumer = Thread.currentThread();
+            try {
+                // Check again after registering so a publish() in between isn't missed
+                while (t == head.get()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+        }
+
+        return slots[(int) (t % slots.length)];
+    }
+
+    void release() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * Drops everything queued. The consumer does the actual work on its next take()
+     * since it owns the tail.
+     */
+    void clear() {
+        clearRequested = true;
+    }
+}
@@ -1,6 +1,8 @@
 package com.limelight.binding.audio;
 
 import com.limelight.LimeLog;
+import com.limelight.binding.video.LatencyHistogram;
+import com.limelight.binding.video.LatencyPercentiles;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.jni.MoonBridge;
 
@@ -8,14 +10,20 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallback {
-    
+
+    // 数据包头部: flags(1) + packetType(1) + sequenceNumber(2) + timestamp(4) + ssrc(4)
+    private static final int PACKET_HEADER_SIZE = 12;
+    private static final byte MIC_PACKET_TYPE_OPUS = 0x61;
+    // 保证单个UDP包不会被分片
+    private static final int MAX_OPUS_PACKET_SIZE = 1400;
+    // 发送线程空闲时的最长等待时间，用于检查停止标志
+    private static final int SENDER_IDLE_TIMEOUT_MS = 100;
+    private static final int STATS_INTERVAL_PACKETS = 100;
+
     private final NvConnection conn;
     private MicrophoneCapture capture;
     private OpusEncoder encoder;
@@ -26,13 +34,20 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
     private final AtomicBoolean running = new AtomicBoolean(false); // 麦克风流是否运行
     private final AtomicBoolean micActive = new AtomicBoolean(false); // 麦克风是否实际在捕获
     private final AtomicBoolean hostRequested = new AtomicBoolean(false); // 主机是否请求麦克风
-    private LinkedBlockingQueue<byte[]> packetQueue;
+    private final MicrophonePacketRing packetRing;
+    private DatagramPacket packet;
     private int sequenceNumber = 0;
+    private int ssrc;
     private int micPort;
+
+    // 从采集到发送的延迟，仅由发送线程写入
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyPercentiles lastSendLatency = new LatencyPercentiles();
     
     public MicrophoneStream(NvConnection conn) {
         this.conn = conn;
-        this.packetQueue = new LinkedBlockingQueue<>(MicrophoneConfig.MAX_QUEUE_SIZE);
+        this.packetRing = new MicrophonePacketRing(MicrophoneConfig.MAX_QUEUE_SIZE,
+                PACKET_HEADER_SIZE + MAX_OPUS_PACKET_SIZE);
         
         String hostAddress = conn.getHost();
         try {
@@ -154,7 +169,7 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
             socket = null;
         }
         
-        packetQueue.clear();
+        packetRing.clear();
         
         // 不停止发送线程，因为我们将来可能需要重新启动麦克风
     }
@@ -174,8 +189,16 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
                 LimeLog.info("使用协商的麦克风端口: " + micPort);
             }
             
-            // 创建发送socket
+            // 主机地址只解析一次
+            if (host == null) {
+                host = InetAddress.getByName(conn.getHost());
+            }
+
+            // 创建发送socket，连接后内核不再需要为每个包查找路由
             socket = new DatagramSocket();
+            socket.connect(host, micPort);
+            packet = new DatagramPacket(new byte[0], 0);
+            ssrc = new Random().nextInt();
             
             // 创建编码器
             encoder = new OpusEncoder(MicrophoneConfig.SAMPLE_RATE, MicrophoneConfig.CHANNELS, MicrophoneConfig.getOpusBitrate());
@@ -278,7 +301,7 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
      * 获取当前音频连续性状态
      */
     public String getAudioContinuityStatus() {
-        return AudioDiagnostics.getCurrentStats();
+        return AudioDiagnostics.getCurrentStats() + "\n发送延迟: " + lastSendLatency;
     }
     
     /**
@@ -299,19 +322,7 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
             socket = null;
         }
         
-        packetQueue.clear();
-    }
-    
-    private InetAddress getCurrentHost() {
-        try {
-            String hostAddress = conn.getHost();
-            if (hostAddress != null && !hostAddress.isEmpty()) {
-                return InetAddress.getByName(hostAddress);
-            }
-        } catch (Exception e) {
-            LimeLog.warning("动态获取主机地址失败: " + e.getMessage());
-        }
-        return host;
+        packetRing.clear();
     }
 
     @Override
@@ -319,29 +330,28 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
         if (!running.get() || !micActive.get() || encoder == null) {
             return;
         }
+
+        long captureTimeNs = System.nanoTime();
         
         try {
-            // 编码音频数据
-            byte[] encoded = encoder.encode(data, offset, length);
-            if (encoded != null) {
+            MicrophonePacketRing.Slot slot = packetRing.claim();
+            if (slot == null) {
+                // 队列已满，丢弃当前数据包（过期的旧包会由发送线程丢弃）
+                AudioDiagnostics.recordFrameDropped();
+                LimeLog.warning("音频队列已满，丢弃当前数据包");
+                return;
+            }
+
+            // 直接编码到数据包的负载位置
+            int encodedLength = encoder.encode(data, offset, length,
+                    slot.data, PACKET_HEADER_SIZE, MAX_OPUS_PACKET_SIZE);
+            if (encodedLength > 0) {
                 // 记录编码成功
                 AudioDiagnostics.recordFrameEncoded();
-                
-                int queueSize = packetQueue.size();
-                
-                if (queueSize >= MicrophoneConfig.MAX_QUEUE_SIZE) {
-                    // 队列已满，丢弃最旧的数据包
-                    packetQueue.poll();
-                    AudioDiagnostics.recordFrameDropped();
-                    LimeLog.warning("音频队列已满，丢弃最旧数据包");
-                }
-                
-                // 将编码数据加入队列
-                if (!packetQueue.offer(encoded)) {
-                    // 如果仍然无法加入队列，丢弃当前数据包
-                    AudioDiagnostics.recordFrameDropped();
-                    LimeLog.warning("无法将编码数据加入队列，丢弃当前数据包");
-                }
+
+                slot.length = PACKET_HEADER_SIZE + encodedLength;
+                slot.captureTimeNs = captureTimeNs;
+                packetRing.publish();
             }
         } catch (Exception e) {
             AudioDiagnostics.recordEncodingError();
@@ -350,111 +360,60 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
     }
     
     private void senderThreadProc() {
-        long lastSendTime = 0;
         long sendCount = 0;
-        long totalLatency = 0;
-        long maxLatency = 0;
         long lastStatsTime = System.currentTimeMillis();
         
         while (running.get()) {
+            // 等待采集线程交付数据包，没有数据时线程挂起而不是轮询
+            MicrophonePacketRing.Slot slot = packetRing.take(SENDER_IDLE_TIMEOUT_MS);
+            if (slot == null) {
+                continue;
+            }
+
             try {
-                // 检查连接状态和麦克风状态
-                if (!hostRequested.get() || !micActive.get()) {
-                    Thread.sleep(MicrophoneConfig.SENDER_THREAD_SLEEP_MS);
-                    continue;
-                }
-                
                 // 额外检查：如果连接已断开，立即停止发送
                 if (conn == null || !isConnectionActive()) {
                     LimeLog.info("检测到连接断开，停止麦克风发送");
                     break;
                 }
 
-                long currentTime = System.currentTimeMillis();
-                
-                // 动态调整发送频率，基于队列大小
-                int queueSize = packetQueue.size();
-                long targetInterval = MicrophoneConfig.FRAME_INTERVAL_MS;
-                
-                // 如果队列过大，加快发送频率
-                if (queueSize > MicrophoneConfig.MAX_QUEUE_SIZE * 0.7) {
-                    targetInterval = Math.max(5, MicrophoneConfig.FRAME_INTERVAL_MS / 2);
-                } else if (queueSize < MicrophoneConfig.MAX_QUEUE_SIZE * 0.3) {
-                    // 如果队列较小，可以稍微放慢
-                    targetInterval = MicrophoneConfig.FRAME_INTERVAL_MS;
-                }
-                
-                if (currentTime - lastSendTime < targetInterval) {
-                    Thread.sleep(1);
+                // 检查主机请求状态和麦克风状态
+                DatagramSocket currentSocket = socket;
+                if (!hostRequested.get() || !micActive.get() || currentSocket == null) {
                     continue;
                 }
 
-                byte[] encoded = packetQueue.poll();
-                if (encoded == null) {
-                    // 没有数据可发送，短暂等待
-                    Thread.sleep(1);
-                    continue;
-                }
-
-                // 动态获取当前主机地址
-                InetAddress currentHost = getCurrentHost();
-                if (currentHost == null) {
-                    LimeLog.warning("无法获取主机地址，跳过数据包发送");
-                    Thread.sleep(1);
+                // 积压过久的数据包直接丢弃，避免延迟累积
+                long now = System.nanoTime();
+                long latencyTenthsMs = (now - slot.captureTimeNs) / 100000;
+                if (latencyTenthsMs > MicrophoneConfig.MAX_FRAME_DELAY_MS * 10L) {
+                    AudioDiagnostics.recordFrameDropped();
                     continue;
                 }
 
-                // 计算发送延迟
-                long sendLatency = currentTime - lastSendTime;
-                totalLatency += sendLatency;
-                maxLatency = Math.max(maxLatency, sendLatency);
-
-                // 构建正确的麦克风数据包头部（12字节）
-                ByteBuffer packetBuf = ByteBuffer.allocate(encoded.length + 12);
-                packetBuf.order(ByteOrder.LITTLE_ENDIAN); // 使用小端字节序
+                writePacketHeader(slot.data, System.currentTimeMillis());
+                packet.setData(slot.data, 0, slot.length);
+                currentSocket.send(packet);
 
-                // flags (1字节)
-                packetBuf.put((byte) 0x00);
-                // packetType (1字节) - OPUS编码类型
-                packetBuf.put((byte) 0x61); // MIC_PACKET_TYPE_OPUS
-                // sequenceNumber (2字节)
-                packetBuf.putShort((short) (sequenceNumber++ & 0xFFFF));
-                // timestamp (4字节)
-                packetBuf.putInt((int)(currentTime & 0xFFFFFFFF));
-                // ssrc (4字节) - 同步源标识符
-                packetBuf.putInt(0x12345678); // 使用固定SSRC
-
-                // 添加opus编码数据
-                packetBuf.put(encoded);
-
-                DatagramPacket packet = new DatagramPacket(
-                        packetBuf.array(), packetBuf.capacity(),
-                        currentHost, micPort);
-                socket.send(packet);
-                
-                lastSendTime = currentTime;
+                sendLatency.recordTenthsMs((int) latencyTenthsMs);
                 sendCount++;
                 
                 // 记录发送成功
                 AudioDiagnostics.recordFrameSent();
                 
                 // 每100个包记录一次详细统计信息
-                if (sendCount % 100 == 0) {
+                if (sendCount % STATS_INTERVAL_PACKETS == 0) {
                     long currentStatsTime = System.currentTimeMillis();
-                    long statsInterval = currentStatsTime - lastStatsTime;
-                    double avgLatency = sendCount > 0 ? (double) totalLatency / sendCount : 0;
-                    
-                    LimeLog.info(String.format("麦克风发送统计: 包数=%d, 队列大小=%d, 平均延迟=%.1fms, 最大延迟=%dms, 统计间隔=%dms", 
-                        sendCount, queueSize, avgLatency, maxLatency, statsInterval));
+                    sendLatency.fillPercentiles(lastSendLatency);
+
+                    LimeLog.info(String.format("麦克风发送统计: 包数=%d, 队列大小=%d, 采集到发送延迟 %s, 统计间隔=%dms",
+                        sendCount, packetRing.size(), lastSendLatency, currentStatsTime - lastStatsTime));
                     
                     // 重置统计
                     lastStatsTime = currentStatsTime;
-                    totalLatency = 0;
-                    maxLatency = 0;
+                    sendLatency.clear();
                 }
                 
-            } catch (InterruptedException e) {
-                break;
             } catch (IOException e) {
                 AudioDiagnostics.recordSendingError();
                 LimeLog.warning("发送麦克风数据错误: " + e.getMessage());
@@ -470,11 +429,37 @@ public class MicrophoneStream implements MicrophoneCapture.MicrophoneDataCallbac
                 } catch (InterruptedException ex) {
                     break;
                 }
+            } finally {
+                packetRing.release();
             }
         }
         
         LimeLog.info("麦克风发送线程已结束");
     }
+
+    private void writePacketHeader(byte[] buf, long timestamp) {
+        int seq = sequenceNumber++ & 0xFFFF;
+        int ts = (int) timestamp;
+
+        // 小端字节序
+        // flags
+        buf[0] = 0x00;
+        // packetType
+        buf[1] = MIC_PACKET_TYPE_OPUS;
+        // sequenceNumber
+        buf[2] = (byte) seq;
+        buf[3] = (byte) (seq >>> 8);
+        // timestamp
+        buf[4] = (byte) ts;
+        buf[5] = (byte) (ts >>> 8);
+        buf[6] = (byte) (ts >>> 16);
+        buf[7] = (byte) (ts >>> 24);
+        // ssrc - 每次启动捕获时随机生成
+        buf[8] = (byte) ssrc;
+        buf[9] = (byte) (ssrc >>> 8);
+        buf[10] = (byte) (ssrc >>> 16);
+        buf[11] = (byte) (ssrc >>> 24);
+    }
     
     /**
      * 检查连接是否仍然活跃
@@ -30,6 +30,18 @@ public class OpusEncoder {
         
         return nativeEncode(nativePtr, pcmData, offset, length);
     }
+
+    /**
+     * 编码到调用方提供的缓冲区，不分配新数组
+     * @return 编码后的字节数，失败时返回负数
+     */
+    public int encode(byte[] pcmData, int offset, int length, byte[] out, int outOffset, int outCapacity) {
+        if (nativePtr == 0) {
+            return -1;
+        }
+
+        return nativeEncodeInto(nativePtr, pcmData, offset, length, out, outOffset, outCapacity);
+    }
     
     public void release() {
         if (nativePtr != 0) {
@@ -47,5 +59,7 @@ public class OpusEncoder {
     // 这些方法需要在原生代码中实现
     private static native long nativeInit(int sampleRate, int channels, int bitrate);
     private static native byte[] nativeEncode(long handle, byte[] pcmData, int offset, int length);
+    private static native int nativeEncodeInto(long handle, byte[] pcmData, int offset, int length,
+                                               byte[] out, int outOffset, int outCapacity);
     private static native void nativeDestroy(long handle);
 }
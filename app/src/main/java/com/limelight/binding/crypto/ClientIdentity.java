@@ -0,0 +1,194 @@
+package com.limelight.binding.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import com.limelight.LimeLog;
+
+/**
+ * The client certificate, private key and PEM encoded certificate, loaded together.
+ *
+ * Instances are immutable so a loaded identity can be shared by every thread without locking.
+ * This only depends on plain Java and BouncyCastle so it can be driven by the JVM tests.
+ */
+final class ClientIdentity {
+
+    private static final Provider bcProvider = new BouncyCastleProvider();
+
+    final X509Certificate cert;
+    final PrivateKey key;
+    final byte[] pemCertBytes;
+
+    private ClientIdentity(X509Certificate cert, PrivateKey key, byte[] pemCertBytes) {
+        this.cert = cert;
+        this.key = key;
+        this.pemCertBytes = pemCertBytes;
+    }
+
+    private static byte[] loadFileToBytes(File f) {
+        if (!f.exists()) {
+            return null;
+        }
+
+        try (final FileInputStream fin = new FileInputStream(f)) {
+            byte[] fileData = new byte[(int) f.length()];
+            if (fin.read(fileData) != f.length()) {
+                // Failed to read
+                fileData = null;
+            }
+            return fileData;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the identity from disk. Returns null if either file is missing or corrupt.
+     */
+    static ClientIdentity load(File certFile, File keyFile) {
+        byte[] certBytes = loadFileToBytes(certFile);
+        byte[] keyBytes = loadFileToBytes(keyFile);
+
+        // If either file was missing, we definitely can't succeed
+        if (certBytes == null || keyBytes == null) {
+            LimeLog.info("Missing cert or key; need to generate a new one");
+            return null;
+        }
+
+        try {
+            CertificateFactory certFactory = CertificateFactory.getInstance("X.509", bcProvider);
+            X509Certificate cert = (X509Certificate) certFactory.generateCertificate(new ByteArrayInputStream(certBytes));
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA", bcProvider);
+            PrivateKey key = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(keyBytes));
+            return new ClientIdentity(cert, key, certBytes);
+        } catch (CertificateException e) {
+            // May happen if the cert is corrupt
+            LimeLog.warning("Corrupted certificate");
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (InvalidKeySpecException e) {
+            // May happen if the key is corrupt
+            LimeLog.warning("Corrupted key");
+            return null;
+        }
+    }
+
+    /**
+     * Generates a new identity and saves it to disk, replacing any existing one.
+     */
+    static ClientIdentity generate(File certFile, File keyFile) {
+        byte[] snBytes = new byte[8];
+        new SecureRandom().nextBytes(snBytes);
+
+        KeyPair keyPair;
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA", bcProvider);
+            keyPairGenerator.initialize(2048);
+            keyPair = keyPairGenerator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        Date now = new Date();
+
+        // Expires in 20 years
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(now);
+        calendar.add(Calendar.YEAR, 20);
+        Date expirationDate = calendar.getTime();
+
+        BigInteger serial = new BigInteger(snBytes).abs();
+
+        X500NameBuilder nameBuilder = new X500NameBuilder(BCStyle.INSTANCE);
+        nameBuilder.addRDN(BCStyle.CN, "NVIDIA GameStream Client");
+        X500Name name = nameBuilder.build();
+
+        X509v3CertificateBuilder certBuilder = new X509v3CertificateBuilder(name, serial, now, expirationDate, Locale.ENGLISH, name,
+            SubjectPublicKeyInfo.getInstance(keyPair.getPublic().getEncoded()));
+
+        X509Certificate cert;
+        try {
+            ContentSigner sigGen = new JcaContentSignerBuilder("SHA256withRSA").setProvider(bcProvider).build(keyPair.getPrivate());
+            cert = new JcaX509CertificateConverter().setProvider(bcProvider).getCertificate(certBuilder.build(sigGen));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        LimeLog.info("Generated a new key pair");
+
+        // Save the resulting pair
+        save(certFile, keyFile, cert, keyPair.getPrivate());
+
+        // Load the saved pair back so we get the PEM bytes exactly as the server will see them
+        ClientIdentity identity = load(certFile, keyFile);
+        if (identity == null) {
+            // Saving failed, so we can use it now but will have to re-pair next time
+            identity = new ClientIdentity(cert, keyPair.getPrivate(), null);
+        }
+        return identity;
+    }
+
+    private static void save(File certFile, File keyFile, X509Certificate cert, PrivateKey key) {
+        try (final FileOutputStream certOut = new FileOutputStream(certFile);
+             final FileOutputStream keyOut = new FileOutputStream(keyFile)
+        ) {
+            // Write the certificate in OpenSSL PEM format (important for the server)
+            StringWriter strWriter = new StringWriter();
+            try (final JcaPEMWriter pemWriter = new JcaPEMWriter(strWriter)) {
+                pemWriter.writeObject(cert);
+            }
+
+            // Line endings MUST be UNIX for the PC to accept the cert properly
+            try (final OutputStreamWriter certWriter = new OutputStreamWriter(certOut)) {
+                String pemStr = strWriter.getBuffer().toString();
+                for (int i = 0; i < pemStr.length(); i++) {
+                    char c = pemStr.charAt(i);
+                    if (c != '\r')
+                        certWriter.append(c);
+                }
+            }
+
+            // Write the private out in PKCS8 format
+            keyOut.write(key.getEncoded());
+
+            LimeLog.info("Saved generated key pair to disk");
+        } catch (IOException e) {
+            // This isn't good because it means we'll have
+            // to re-pair next time
+            e.printStackTrace();
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.display.DisplayManager;
 import android.hardware.input.InputManager;
 import android.hardware.lights.Light;
 import android.hardware.lights.LightState;
@@ -26,6 +27,7 @@ import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.os.VibratorManager;
 import android.util.SparseArray;
+import android.view.Display;
 import android.view.InputDevice;
 import android.view.InputEvent;
 import android.view.KeyEvent;
@@ -55,6 +57,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -127,6 +130,15 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     private final Handler mainThreadHandler;
     private final HandlerThread backgroundHandlerThread;
     private final Handler backgroundThreadHandler;
+    private final ControllerStateFilter controllerStateFilter;
+    private final AtomicBoolean controllerStateFlushScheduled = new AtomicBoolean();
+    private final DisplayManager displayManager;
+    private final DisplayManager.DisplayListener displayListener;
+    private volatile int displayRotation;
+
+    // Motion report rates the host asked for, by controller number
+    private final short[] accelReportRatesHz = new short[MAX_GAMEPADS];
+    private final short[] gyroReportRatesHz = new short[MAX_GAMEPADS];
     private boolean hasGameController;
     private boolean stopped = false;
 
@@ -135,6 +147,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
     // Gyro-to-right-stick mapping sensitivity (deg/s for full deflection)
     private static final float GYRO_DEFAULT_FULL_DEFLECTION_DPS = 180.0f;
+    // Gyro to right stick updates are integrated over this fixed rate
+    private static final int GYRO_STICK_RATE_HZ = 250;
     private static final float TRIGGER_ACTIVATE_THRESHOLD = 0.2f;
     public static final int GYRO_ACTIVATION_ALWAYS = -1000;
     private static float clampFloat(float v, float min, float max) {
@@ -416,6 +430,39 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         this.inputManager = (InputManager) activityContext.getSystemService(Context.INPUT_SERVICE);
         this.mainThreadHandler = new Handler(Looper.getMainLooper());
 
+        // Drops controller packets that wouldn't change anything on the host
+        this.controllerStateFilter = new ControllerStateFilter(new ControllerStateFilter.Sink() {
+            @Override
+            public void sendControllerInput(short controllerNumber, short activeGamepadMask, int buttonFlags,
+                                            byte leftTrigger, byte rightTrigger,
+                                            short leftStickX, short leftStickY,
+                                            short rightStickX, short rightStickY) {
+                ControllerHandler.this.conn.sendControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+                        leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+            }
+        }, prefConfig.controllerMaxPacketRateHz);
+
+        // Sensor callbacks need the display rotation for every sample, so keep it
+        // up to date here instead of asking the window manager each time
+        this.displayRotation = activityContext.getWindowManager().getDefaultDisplay().getRotation();
+        this.displayManager = (DisplayManager) activityContext.getSystemService(Context.DISPLAY_SERVICE);
+        this.displayListener = new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int displayId) {}
+
+            @Override
+            public void onDisplayRemoved(int displayId) {}
+
+            @Override
+            public void onDisplayChanged(int displayId) {
+                Display display = ControllerHandler.this.activityContext.getWindowManager().getDefaultDisplay();
+                if (display.getDisplayId() == displayId) {
+                    displayRotation = display.getRotation();
+                }
+            }
+        };
+        this.displayManager.registerDisplayListener(displayListener, mainThreadHandler);
+
         // Create a HandlerThread to process battery state updates. These can be slow enough
         // that they lead to ANRs if we do them on the main thread.
         this.backgroundHandlerThread = new HandlerThread("ControllerHandler");
@@ -564,6 +611,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
 
         deviceVibrator.cancel();
+
+        mainThreadHandler.removeCallbacks(flushControllerStateRunnable);
+        LimeLog.info("Controller state filter: "+controllerStateFilter);
     }
 
     public void destroy() {
@@ -573,6 +623,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         sceManager.stop();
         backgroundHandlerThread.quit();
+        displayManager.unregisterDisplayListener(displayListener);
     }
 
     public void disableSensors() {
@@ -696,6 +747,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // We must do this after clearing the currentControllers entry so this
         // causes the device to be removed on the server PC.
         if (context.assignedControllerNumber) {
+            // This goes around the filter, so it must not skip the next state for this number
+            controllerStateFilter.invalidate(context.controllerNumber);
             conn.sendControllerInput(context.controllerNumber, getActiveControllerMask(),
                     (short) 0,
                     (byte) 0, (byte) 0,
@@ -1573,11 +1626,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                 }
             }
 
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
-                    (short)0, (byte)0, (byte)0, (short)0, (short)0, (short)0, (short)0);
+            sendControllerState(controllerNumber, 0, (byte)0, (byte)0, (short)0, (short)0, (short)0, (short)0);
         }
         else {
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            sendControllerState(controllerNumber,
                     inputMap,
                     leftTrigger, rightTrigger,
                     leftStickX, leftStickY,
@@ -1585,6 +1637,37 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
+    private final Runnable flushControllerStateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            controllerStateFlushScheduled.set(false);
+            long delayMs = controllerStateFilter.flushPending(System.nanoTime());
+            if (delayMs > 0) {
+                scheduleControllerStateFlush(delayMs);
+            }
+        }
+    };
+
+    private void scheduleControllerStateFlush(long delayMs) {
+        if (controllerStateFlushScheduled.compareAndSet(false, true)) {
+            mainThreadHandler.postDelayed(flushControllerStateRunnable, delayMs);
+        }
+    }
+
+    // Duplicate states are dropped and analog-only changes may be held back by the filter.
+    // This is called from USB and sensor threads too.
+    private void sendControllerState(short controllerNumber, int inputMap,
+                                     byte leftTrigger, byte rightTrigger,
+                                     short leftStickX, short leftStickY,
+                                     short rightStickX, short rightStickY) {
+        long delayMs = controllerStateFilter.submit(controllerNumber, getActiveControllerMask(),
+                inputMap, leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY,
+                System.nanoTime());
+        if (delayMs > 0 && !stopped) {
+            scheduleControllerStateFlush(delayMs);
+        }
+    }
+
     private final int REMAP_IGNORE = -1;
     private final int REMAP_CONSUME = -2;
 
@@ -2445,26 +2528,32 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
-    private SensorEventListener createSensorListener(final short controllerNumber, final byte motionType, final boolean needsDeviceOrientationCorrection) {
+    private MotionResampler createGyroStickResampler(final short controllerNumber) {
+        return new MotionResampler(new MotionResampler.Sink() {
+            @Override
+            public void onMotion(float x, float y, float z) {
+                applyGyroToRightStick(controllerNumber, x, y);
+            }
+        }, GYRO_STICK_RATE_HZ);
+    }
+
+    private SensorEventListener createSensorListener(final short controllerNumber, final byte motionType,
+                                                     final boolean needsDeviceOrientationCorrection, int reportRateHz) {
+        // Android delivers samples at whatever rate it likes, which is often faster than the
+        // host asked for. Resample to the requested rate. This also drops unchanged readings.
+        final MotionResampler hostResampler = new MotionResampler(new MotionResampler.Sink() {
+            @Override
+            public void onMotion(float x, float y, float z) {
+                conn.sendControllerMotionEvent((byte) controllerNumber, motionType, x, y, z);
+            }
+        }, reportRateHz);
+        final MotionResampler stickResampler = createGyroStickResampler(controllerNumber);
+
         return new SensorEventListener() {
-            private float[] lastValues = new float[3];
+            private boolean mappingToStick;
 
             @Override
             public void onSensorChanged(SensorEvent sensorEvent) {
-                // Android will invoke our callback any time we get a new reading,
-                // even if the values are the same as last time. Don't report a
-                // duplicate set of values to save bandwidth.
-                if (sensorEvent.values[0] == lastValues[0] &&
-                        sensorEvent.values[1] == lastValues[1] &&
-                        sensorEvent.values[2] == lastValues[2]) {
-                    return;
-                }
-                else {
-                    lastValues[0] = sensorEvent.values[0];
-                    lastValues[1] = sensorEvent.values[1];
-                    lastValues[2] = sensorEvent.values[2];
-                }
-
                 int x = 0;
                 int y = 1;
                 int z = 2;
@@ -2473,7 +2562,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                 int zFactor = 1;
 
                 if (needsDeviceOrientationCorrection) {
-                    int deviceRotation = activityContext.getWindowManager().getDefaultDisplay().getRotation();
+                    int deviceRotation = displayRotation;
                     switch (deviceRotation) {
                         case Surface.ROTATION_0:
                         case Surface.ROTATION_180:
@@ -2512,27 +2601,38 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                     float gy = sensorEvent.values[y] * yFactor * 57.2957795f;
                     float gz = sensorEvent.values[z] * zFactor * 57.2957795f;
 
-                    if (prefConfig.gyroToRightStick) {
+                    if (prefConfig.gyroToRightStick != mappingToStick) {
+                        // Don't integrate a sample held from before the mapping was toggled
+                        mappingToStick = prefConfig.gyroToRightStick;
+                        hostResampler.reset();
+                        stickResampler.reset();
+                    }
+
+                    if (mappingToStick) {
                         // Map device/controller gyro to right stick
-                        applyGyroToRightStick(controllerNumber, gz, gx);
+                        stickResampler.addSample(gz, gx, 0, sensorEvent.timestamp);
                         return;
                     }
 
-                    conn.sendControllerMotionEvent((byte) controllerNumber,
-                            motionType, gx, gy, gz);
+                    hostResampler.addSample(gx, gy, gz, sensorEvent.timestamp);
                 }
                 else {
                     // Pass m/s^2 directly without conversion
-                    conn.sendControllerMotionEvent((byte) controllerNumber,
-                            motionType,
+                    hostResampler.addSample(
                             sensorEvent.values[x] * xFactor,
                             sensorEvent.values[y] * yFactor,
-                            sensorEvent.values[z] * zFactor);
+                            sensorEvent.values[z] * zFactor,
+                            sensorEvent.timestamp);
                 }
             }
 
             @Override
             public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+            @Override
+            public String toString() {
+                return "host "+hostResampler+", right stick "+stickResampler;
+            }
         };
     }
 
@@ -2544,6 +2644,18 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // Report rate is restricted to <= 200 Hz without the HIGH_SAMPLING_RATE_SENSORS permission
         reportRateHz = (short) Math.min(200, reportRateHz);
 
+        // USB controllers report motion on their own, so they only need to know the rate
+        if (controllerNumber >= 0 && controllerNumber < MAX_GAMEPADS) {
+            switch (motionType) {
+                case MoonBridge.LI_MOTION_TYPE_ACCEL:
+                    accelReportRatesHz[controllerNumber] = reportRateHz;
+                    break;
+                case MoonBridge.LI_MOTION_TYPE_GYRO:
+                    gyroReportRatesHz[controllerNumber] = reportRateHz;
+                    break;
+            }
+        }
+
         for (int i = 0; i < inputDeviceContexts.size(); i++) {
             InputDeviceContext deviceContext = inputDeviceContexts.valueAt(i);
 
@@ -2578,7 +2690,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                         // Enable the accelerometer if requested
                         Sensor accelSensor = sm.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
                         if (reportRateHz != 0 && accelSensor != null) {
-                            deviceContext.accelListener = createSensorListener(controllerNumber, motionType, sm == deviceSensorManager);
+                            deviceContext.accelListener = createSensorListener(controllerNumber, motionType, sm == deviceSensorManager, reportRateHz);
                             sm.registerListener(deviceContext.accelListener, accelSensor, 1000000 / reportRateHz);
                         }
                         break;
@@ -2591,7 +2703,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                         // Enable the gyroscope if requested
                         Sensor gyroSensor = sm.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
                         if (reportRateHz != 0 && gyroSensor != null) {
-                            deviceContext.gyroListener = createSensorListener(controllerNumber, motionType, sm == deviceSensorManager);
+                            deviceContext.gyroListener = createSensorListener(controllerNumber, motionType, sm == deviceSensorManager, reportRateHz);
                             sm.registerListener(deviceContext.gyroListener, gyroSensor, 1000000 / reportRateHz);
                         }
                         break;
@@ -2651,24 +2763,14 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             keyCode = handleFlipFaceButtons(keyCode);
         }
 
-        // If the button hasn't been down long enough, sleep for a bit before sending the up event
-        // This allows "instant" button presses (like OUYA's virtual menu button) to work. This
-        // path should not be triggered during normal usage.
+        // If the button hasn't been down long enough, hold the input sent after this for a bit
+        // so the up event reaches the host later. This allows "instant" button presses (like
+        // OUYA's virtual menu button) to work. This path should not be triggered during normal
+        // usage. The delay happens on the input sender thread, so the UI thread doesn't wait.
         int buttonDownTime = (int)(event.getEventTime() - event.getDownTime());
         if (buttonDownTime < ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS)
         {
-            // Since our sleep time is so short (<= 25 ms), it shouldn't cause a problem doing this
-            // in the UI thread.
-            try {
-                Thread.sleep(ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS - buttonDownTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-
-                // InterruptedException clears the thread's interrupt status. Since we can't
-                // handle that here, we will re-interrupt the thread to set the interrupt
-                // status back to true.
-                Thread.currentThread().interrupt();
-            }
+            conn.delayInput(ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS - buttonDownTime);
         }
 
         switch (keyCode) {
@@ -3226,19 +3328,58 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
     @Override
     public void reportControllerMotion(int controllerId, byte motionType, float x, float y, float z) {
-        UsbDeviceContext context = usbDeviceContexts.get(controllerId);
+        final UsbDeviceContext context = usbDeviceContexts.get(controllerId);
         if (context == null) {
             return;
         }
 
+        long now = System.nanoTime();
+
         // 当启用“陀螺仪模拟右摇杆”时，将手柄IMU的陀螺仪数据映射为右摇杆输入
         if (motionType == MoonBridge.LI_MOTION_TYPE_GYRO && prefConfig.gyroToRightStick) {
-            applyGyroToRightStick(context.controllerNumber, x, y);
+            if (context.gyroStickResampler == null) {
+                context.gyroStickResampler = new MotionResampler(new MotionResampler.Sink() {
+                    @Override
+                    public void onMotion(float x, float y, float z) {
+                        applyGyroToRightStick(context.controllerNumber, x, y);
+                    }
+                }, GYRO_STICK_RATE_HZ);
+            }
+            context.gyroStickResampler.addSample(x, y, 0, now);
             return;
         }
 
-        // 否则照常上报IMU数据到主机
-        conn.sendControllerMotionEvent((byte) context.controllerNumber, motionType, x, y, z);
+        // 否则按主机请求的频率上报IMU数据到主机
+        MotionResampler resampler;
+        short reportRateHz;
+        if (motionType == MoonBridge.LI_MOTION_TYPE_GYRO) {
+            if (context.gyroResampler == null) {
+                context.gyroResampler = createUsbMotionResampler(context, motionType);
+            }
+            resampler = context.gyroResampler;
+            reportRateHz = context.controllerNumber < MAX_GAMEPADS ? gyroReportRatesHz[context.controllerNumber] : 0;
+        }
+        else {
+            if (context.accelResampler == null) {
+                context.accelResampler = createUsbMotionResampler(context, motionType);
+            }
+            resampler = context.accelResampler;
+            reportRateHz = context.controllerNumber < MAX_GAMEPADS ? accelReportRatesHz[context.controllerNumber] : 0;
+        }
+
+        // Pads that report faster than the host asked for are resampled. Until the host
+        // asks for a rate, every changed sample goes through as before.
+        resampler.setRate(reportRateHz);
+        resampler.addSample(x, y, z, now);
+    }
+
+    private MotionResampler createUsbMotionResampler(final UsbDeviceContext context, final byte motionType) {
+        return new MotionResampler(new MotionResampler.Sink() {
+            @Override
+            public void onMotion(float x, float y, float z) {
+                conn.sendControllerMotionEvent((byte) context.controllerNumber, motionType, x, y, z);
+            }
+        }, 0);
     }
 
     class GenericControllerContext implements GameInputDevice {
@@ -3437,9 +3578,11 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
             if (gyroListener != null) {
                 sensorManager.unregisterListener(gyroListener);
+                LimeLog.info("Controller "+controllerNumber+" gyro: "+gyroListener);
             }
             if (accelListener != null) {
                 sensorManager.unregisterListener(accelListener);
+                LimeLog.info("Controller "+controllerNumber+" accelerometer: "+accelListener);
             }
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
@@ -3642,11 +3785,24 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     class UsbDeviceContext extends GenericControllerContext {
         public AbstractController device;
 
+        // Only used on the device's input thread
+        public MotionResampler gyroResampler;
+        public MotionResampler accelResampler;
+        public MotionResampler gyroStickResampler;
+
         @Override
         public void destroy() {
             super.destroy();
 
-            // Nothing for now
+            if (gyroResampler != null) {
+                LimeLog.info("Controller "+controllerNumber+" gyro: "+gyroResampler);
+            }
+            if (accelResampler != null) {
+                LimeLog.info("Controller "+controllerNumber+" accelerometer: "+accelResampler);
+            }
+            if (gyroStickResampler != null) {
+                LimeLog.info("Controller "+controllerNumber+" gyro to right stick: "+gyroStickResampler);
+            }
         }
 
         @Override
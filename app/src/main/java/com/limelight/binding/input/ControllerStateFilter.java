@@ -0,0 +1,196 @@
+package com.limelight.binding.input;
+
+import java.util.Locale;
+
+/**
+ * Drops controller packets that wouldn't change anything on the host.
+ *
+ * The last state sent for each controller number is kept, and a packet identical to it is
+ * suppressed. Optionally, analog-only changes are limited to a maximum rate: a change that
+ * comes in too soon is held as pending and sent by {@link #flushPending(long)}, while button
+ * and controller mask changes always go out immediately. A held back state is only ever replaced
+ * by a newer one, so the host never sees states out of order.
+ *
+ * Sensor callbacks and USB driver threads submit states as well as the UI thread, so all
+ * methods are synchronized.
+ */
+public class ControllerStateFilter {
+
+    public interface Sink {
+        void sendControllerInput(short controllerNumber, short activeGamepadMask, int buttonFlags,
+                                 byte leftTrigger, byte rightTrigger,
+                                 short leftStickX, short leftStickY,
+                                 short rightStickX, short rightStickY);
+    }
+
+    private static final int MAX_CONTROLLERS = 16;
+
+    private static class State {
+        short activeGamepadMask;
+        int buttonFlags;
+        byte leftTrigger, rightTrigger;
+        short leftStickX, leftStickY;
+        short rightStickX, rightStickY;
+
+        boolean equals(short activeGamepadMask, int buttonFlags, byte leftTrigger, byte rightTrigger,
+                       short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+            return this.activeGamepadMask == activeGamepadMask && this.buttonFlags == buttonFlags &&
+                    this.leftTrigger == leftTrigger && this.rightTrigger == rightTrigger &&
+                    this.leftStickX == leftStickX && this.leftStickY == leftStickY &&
+                    this.rightStickX == rightStickX && this.rightStickY == rightStickY;
+        }
+
+        void set(short activeGamepadMask, int buttonFlags, byte leftTrigger, byte rightTrigger,
+                 short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+            this.activeGamepadMask = activeGamepadMask;
+            this.buttonFlags = buttonFlags;
+            this.leftTrigger = leftTrigger;
+            this.rightTrigger = rightTrigger;
+            this.leftStickX = leftStickX;
+            this.leftStickY = leftStickY;
+            this.rightStickX = rightStickX;
+            this.rightStickY = rightStickY;
+        }
+    }
+
+    private static class Slot {
+        final State sent = new State();
+        final State pending = new State();
+        boolean hasSent;
+        boolean hasPending;
+        long lastSendNs;
+    }
+
+    private final Sink sink;
+    private final Slot[] slots = new Slot[MAX_CONTROLLERS];
+    private long minIntervalNs;
+
+    private long packetsIn;
+    private long packetsSent;
+    private long duplicatesDropped;
+    private long rateLimited;
+
+    public ControllerStateFilter(Sink sink, int maxRateHz) {
+        this.sink = sink;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        setMaxRate(maxRateHz);
+    }
+
+    /**
+     * @param maxRateHz The maximum rate of analog-only updates per controller, or 0 for no limit
+     */
+    public synchronized void setMaxRate(int maxRateHz) {
+        minIntervalNs = maxRateHz > 0 ? 1000000000L / maxRateHz : 0;
+    }
+
+    private void send(short controllerNumber, Slot slot, long nowNs) {
+        State s = slot.pending;
+        sink.sendControllerInput(controllerNumber, s.activeGamepadMask, s.buttonFlags,
+                s.leftTrigger, s.rightTrigger, s.leftStickX, s.leftStickY, s.rightStickX, s.rightStickY);
+        slot.sent.set(s.activeGamepadMask, s.buttonFlags, s.leftTrigger, s.rightTrigger,
+                s.leftStickX, s.leftStickY, s.rightStickX, s.rightStickY);
+        slot.hasSent = true;
+        slot.hasPending = false;
+        slot.lastSendNs = nowNs;
+        packetsSent++;
+    }
+
+    /**
+     * Sends the state unless it's a duplicate or rate limited.
+     * @return 0, or the number of milliseconds after which {@link #flushPending(long)} must be
+     * called to send a state that was held back
+     */
+    public synchronized long submit(short controllerNumber, short activeGamepadMask, int buttonFlags,
+                                    byte leftTrigger, byte rightTrigger,
+                                    short leftStickX, short leftStickY,
+                                    short rightStickX, short rightStickY, long nowNs) {
+        packetsIn++;
+
+        if (controllerNumber < 0 || controllerNumber >= MAX_CONTROLLERS) {
+            sink.sendControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+                    leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+            packetsSent++;
+            return 0;
+        }
+
+        Slot slot = slots[controllerNumber];
+        if (slot.hasSent && slot.sent.equals(activeGamepadMask, buttonFlags, leftTrigger, rightTrigger,
+                leftStickX, leftStickY, rightStickX, rightStickY)) {
+            // Back to what the host already has, so anything pending is moot too
+            slot.hasPending = false;
+            duplicatesDropped++;
+            return 0;
+        }
+
+        boolean digitalChange = !slot.hasSent ||
+                slot.sent.buttonFlags != buttonFlags || slot.sent.activeGamepadMask != activeGamepadMask;
+        long sinceLastSendNs = nowNs - slot.lastSendNs;
+
+        slot.pending.set(activeGamepadMask, buttonFlags, leftTrigger, rightTrigger,
+                leftStickX, leftStickY, rightStickX, rightStickY);
+
+        if (minIntervalNs == 0 || digitalChange || sinceLastSendNs >= minIntervalNs) {
+            send(controllerNumber, slot, nowNs);
+            return 0;
+        }
+
+        // Hold this back and replace it if a newer state comes in before it's due
+        if (slot.hasPending) {
+            rateLimited++;
+        }
+        slot.hasPending = true;
+        return Math.max((minIntervalNs - sinceLastSendNs + 999999) / 1000000, 1);
+    }
+
+    /**
+     * Sends held back states that are due.
+     * @return 0, or the number of milliseconds after which this must be called again
+     */
+    public synchronized long flushPending(long nowNs) {
+        long nextMs = 0;
+        for (short i = 0; i < MAX_CONTROLLERS; i++) {
+            Slot slot = slots[i];
+            if (!slot.hasPending) {
+                continue;
+            }
+
+            long sinceLastSendNs = nowNs - slot.lastSendNs;
+            if (sinceLastSendNs >= minIntervalNs) {
+                send(i, slot, nowNs);
+            }
+            else {
+                long ms = Math.max((minIntervalNs - sinceLastSendNs + 999999) / 1000000, 1);
+                nextMs = nextMs == 0 ? ms : Math.min(nextMs, ms);
+            }
+        }
+        return nextMs;
+    }
+
+    /**
+     * Forgets what was sent for a controller number, for when its state was sent
+     * around this filter (e.g. zeroed on removal).
+     */
+    public synchronized void invalidate(short controllerNumber) {
+        if (controllerNumber >= 0 && controllerNumber < MAX_CONTROLLERS) {
+            slots[controllerNumber].hasSent = false;
+            slots[controllerNumber].hasPending = false;
+        }
+    }
+
+    public synchronized long getPacketsIn() {
+        return packetsIn;
+    }
+
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d controller packets in, %d sent, %d duplicates dropped, %d rate limited (%.1f%% saved)",
+                packetsIn, packetsSent, duplicatesDropped, rateLimited,
+                packetsIn > 0 ? 100.0 * (packetsIn - packetsSent) / packetsIn : 0.0);
+    }
+}
@@ -0,0 +1,150 @@
+package com.limelight.binding.input;
+
+import java.util.Locale;
+
+/**
+ * Resamples a 3-axis motion sensor stream to a fixed output rate.
+ *
+ * Each sample is held until the next one arrives and integrated over that time, and once an
+ * output period has passed the mean over the period is emitted. Periods follow a fixed clock, so
+ * uneven sample timing doesn't lower the output rate. For a gyro this keeps the total
+ * rotation the host sees the same no matter how many samples are dropped, and for an
+ * accelerometer it averages out noise. Output happens as samples arrive, so no timer is needed
+ * and the added latency is bounded by one output period plus one sample interval.
+ *
+ * Not thread-safe, each sensor stream owns one.
+ */
+public class MotionResampler {
+
+    public interface Sink {
+        void onMotion(float x, float y, float z);
+    }
+
+    // A sample isn't held for longer than this many periods, so a stalled sensor
+    // doesn't dominate the next output
+    private static final int MAX_HOLD_PERIODS = 4;
+
+    private final Sink sink;
+    private long periodNs;
+
+    private float lastX, lastY, lastZ;
+    private long lastSampleNs = -1;
+
+    private double sumX, sumY, sumZ;
+    private long weightNs;
+    private long windowStartNs;
+
+    private float sentX, sentY, sentZ;
+    private boolean hasSent;
+
+    private long firstSampleNs = -1;
+    private long latestSampleNs;
+    private long samplesIn;
+    private long packetsOut;
+
+    public MotionResampler(Sink sink, int rateHz) {
+        this.sink = sink;
+        setRate(rateHz);
+    }
+
+    /**
+     * @param rateHz The output rate, or 0 to pass every changed sample through
+     */
+    public void setRate(int rateHz) {
+        periodNs = rateHz > 0 ? 1000000000L / rateHz : 0;
+    }
+
+    public void addSample(float x, float y, float z, long timestampNs) {
+        samplesIn++;
+        if (firstSampleNs < 0) {
+            firstSampleNs = timestampNs;
+        }
+        latestSampleNs = timestampNs;
+
+        if (periodNs == 0) {
+            emit(x, y, z);
+            return;
+        }
+
+        if (lastSampleNs < 0) {
+            // Nothing to integrate yet
+            windowStartNs = timestampNs;
+        }
+        else {
+            // The previous sample held until now
+            long heldFromNs = Math.max(lastSampleNs, timestampNs - periodNs * MAX_HOLD_PERIODS);
+            long windowEndNs = windowStartNs + periodNs;
+            if (timestampNs >= windowEndNs) {
+                // Only the part up to the end of the period counts towards it
+                hold(windowEndNs - heldFromNs);
+                if (weightNs > 0) {
+                    emit((float) (sumX / weightNs), (float) (sumY / weightNs), (float) (sumZ / weightNs));
+                }
+                else {
+                    emit(x, y, z);
+                }
+                sumX = sumY = sumZ = 0;
+                weightNs = 0;
+
+                // Skip whole periods if the sensor stalled, rather than sending a burst to catch up
+                windowStartNs += (timestampNs - windowStartNs) / periodNs * periodNs;
+                heldFromNs = Math.max(heldFromNs, windowStartNs);
+            }
+            hold(timestampNs - heldFromNs);
+        }
+
+        lastX = x;
+        lastY = y;
+        lastZ = z;
+        lastSampleNs = timestampNs;
+    }
+
+    private void hold(long heldNs) {
+        if (heldNs > 0) {
+            sumX += (double) lastX * heldNs;
+            sumY += (double) lastY * heldNs;
+            sumZ += (double) lastZ * heldNs;
+            weightNs += heldNs;
+        }
+    }
+
+    private void emit(float x, float y, float z) {
+        // Sensors report at their own rate even when nothing changes
+        if (hasSent && x == sentX && y == sentY && z == sentZ) {
+            return;
+        }
+
+        sentX = x;
+        sentY = y;
+        sentZ = z;
+        hasSent = true;
+        packetsOut++;
+        sink.onMotion(x, y, z);
+    }
+
+    /**
+     * Forgets the held sample, for when the stream stops and later restarts.
+     */
+    public void reset() {
+        lastSampleNs = -1;
+        sumX = sumY = sumZ = 0;
+        weightNs = 0;
+        hasSent = false;
+    }
+
+    public long getSamplesIn() {
+        return samplesIn;
+    }
+
+    public long getPacketsOut() {
+        return packetsOut;
+    }
+
+    @Override
+    public String toString() {
+        double seconds = latestSampleNs > firstSampleNs ? (latestSampleNs - firstSampleNs) / 1e9 : 0;
+        return String.format(Locale.US, "%d samples in (%.0f Hz), %d packets out (%.0f Hz)",
+                samplesIn, seconds > 0 ? samplesIn / seconds : 0.0,
+                packetsOut, seconds > 0 ? packetsOut / seconds : 0.0);
+    }
+}
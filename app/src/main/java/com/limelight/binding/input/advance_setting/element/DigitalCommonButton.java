@@ -29,6 +29,8 @@ import com.limelight.binding.input.virtual_controller.DigitalButton;
 import com.limelight.binding.input.virtual_controller.VirtualControllerElement;
 import com.limelight.utils.ColorPickerDialog;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -79,6 +81,10 @@ public class DigitalCommonButton extends Element {
     private NumberSeekbar centralYNumberSeekbar;
 
     private DigitalCommonButton movingButton;
+    // 此按键滑动经过时按下的其他按键，滑出时需要释放
+    private final List<DigitalCommonButton> slidButtons = new ArrayList<>();
+    private final List<Element> hitElements = new ArrayList<>();
+    private final List<DigitalCommonButton> movementCandidates = new ArrayList<>();
 
 
     private long timerLongClickTimeout = 3000;
@@ -199,9 +205,13 @@ public class DigitalCommonButton extends Element {
             if (isPressed()) {
                 // is pressed set moving button and emit click event
                 this.movingButton = movingButton;
+                movingButton.slidButtons.add(this);
                 onClickCallback();
             } else {
                 // no longer pressed reset moving button and emit release event
+                if (this.movingButton != null) {
+                    this.movingButton.slidButtons.remove(this);
+                }
                 this.movingButton = null;
                 onReleaseCallback();
             }
@@ -218,9 +228,26 @@ public class DigitalCommonButton extends Element {
         if (inRange(x, y)) {
             return;
         }
-        for (Element element : elementController.getElements()) {
-            if (element != this && element instanceof DigitalCommonButton && element.getVisibility() == VISIBLE) {
-                ((DigitalCommonButton) element).checkMovement(x, y, this);
+
+        // 只有手指下的按键可能被按下，只有此前滑动按下的按键可能被释放，
+        // 其他按键的状态不会变化，所以不需要遍历所有元素
+        movementCandidates.clear();
+        hitElements.clear();
+        elementController.findElementsAt(x, y, hitElements);
+        for (Element element : hitElements) {
+            if (element != this && element instanceof DigitalCommonButton) {
+                movementCandidates.add((DigitalCommonButton) element);
+            }
+        }
+        for (DigitalCommonButton button : slidButtons) {
+            if (!movementCandidates.contains(button)) {
+                movementCandidates.add(button);
+            }
+        }
+
+        for (DigitalCommonButton button : movementCandidates) {
+            if (button.getVisibility() == VISIBLE) {
+                button.checkMovement(x, y, this);
             }
         }
     }
@@ -184,6 +184,7 @@ public abstract class Element extends View {
         }
         //保存中心点坐标
         requestLayout();
+        elementController.updateElementBounds(this);
     }
 
     private void innerSetElementCentralY(int centralY) {
@@ -196,6 +197,7 @@ public abstract class Element extends View {
             layoutParams.topMargin = centralY - layoutParams.height / 2;
         }
         requestLayout();
+        elementController.updateElementBounds(this);
     }
 
     protected void setElementWidth(int width) {
@@ -103,7 +103,6 @@ public class ElementController {
 
 
     private final List<Element> elements = new ArrayList<>();
-    private List<Long> elementIds;
     private Map<Short, Runnable> keyEventRunnableMap = new HashMap<>();
     private Map<Integer, Runnable> mouseEventRunnableMap = new HashMap<>();
     private FrameLayout elementsLayout;
@@ -122,6 +121,20 @@ public class ElementController {
     private static final int MOUSE_SCROLL_INITIAL_DELAY = 150; // 初始延迟（毫秒）
     private static int MOUSE_SCROLL_REPEAT_INTERVAL = 100; // 重复间隔（毫秒）
 
+    // 触摸命中检测网格的单元格大小（像素）
+    private static final int HIT_GRID_CELL_SIZE = 128;
+    private final ElementHitGrid<Element> hitGrid;
+
+    // 编辑时的元素修改先合并，再在一个事务中写入数据库
+    private static final int ELEMENT_UPDATE_FLUSH_DELAY_MS = 250;
+    private boolean elementUpdateFlushScheduled = false;
+    private final Runnable elementUpdateFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushElementUpdates();
+        }
+    };
+
     public static void setMouseScrollRepeatInterval(int interval) {
         MOUSE_SCROLL_REPEAT_INTERVAL = interval;
     }
@@ -184,6 +197,9 @@ public class ElementController {
         this.editGridView = new EditGridView(context);
         this.bottomViewAmount = elementsLayout.getChildCount();
         this.deviceVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        DisplayMetrics displayMetrics = new DisplayMetrics();
+        game.getWindowManager().getDefaultDisplay().getRealMetrics(displayMetrics);
+        this.hitGrid = new ElementHitGrid<>(displayMetrics.widthPixels, displayMetrics.heightPixels, HIT_GRID_CELL_SIZE);
         initEditPage();
     }
 
@@ -331,15 +347,16 @@ public class ElementController {
     public void loadAllElement(Long configId) {
         currentConfigId = configId;
         removeAllElementsOnScreen();
-        elementIds = controllerManager.getSuperConfigDatabaseHelper().queryAllElementIds(configId);
+        // 一次查询读取所有元素的属性，切换回读过的配置时直接使用缓存
+        List<Map<String, Object>> allElementAttributes = controllerManager.getSuperConfigDatabaseHelper().queryAllElementsAttributes(configId);
 
         // 用于在第二阶段链接关系的 GroupButton 列表
         List<GroupButton> groupButtonsToLink = new ArrayList<>();
 
         // --- 阶段一：创建所有 Element 对象 ---
-        // 遍历所有 elementId，不区分类型，统一调用 loadElement 创建对象
-        for (Long elementId : elementIds) {
-            Element newElement = loadElement(elementId);
+        // 遍历所有元素，不区分类型，统一调用 loadElement 创建对象
+        for (Map<String, Object> attributesMap : allElementAttributes) {
+            Element newElement = loadElement(attributesMap);
 
             // 如果创建的是一个 GroupButton，将其添加到待链接列表
             if (newElement instanceof GroupButton) {
@@ -362,11 +379,26 @@ public class ElementController {
         contentValues.put(Element.COLUMN_LONG_ELEMENT_ID, elementId);
         controllerManager.getSuperConfigDatabaseHelper().insertElement(contentValues);
 
-        return loadElement(elementId);
+        return loadElement(controllerManager.getSuperConfigDatabaseHelper().queryAllElementAttributes(currentConfigId, elementId));
     }
 
     protected void updateElement(long elementId, ContentValues contentValues) {
-        controllerManager.getSuperConfigDatabaseHelper().updateElement(currentConfigId, elementId, contentValues);
+        // 拖动组按键时会保存所有子元素，输入文字时每个字符都会保存，
+        // 合并后在一个事务中写入
+        controllerManager.getSuperConfigDatabaseHelper().queueElementUpdate(currentConfigId, elementId, contentValues);
+        if (!elementUpdateFlushScheduled) {
+            elementUpdateFlushScheduled = true;
+            handler.postDelayed(elementUpdateFlushRunnable, ELEMENT_UPDATE_FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * 立即写入等待中的元素修改，在退出编辑或离开界面时调用。
+     */
+    public void flushElementUpdates() {
+        handler.removeCallbacks(elementUpdateFlushRunnable);
+        elementUpdateFlushScheduled = false;
+        controllerManager.getSuperConfigDatabaseHelper().flushElementUpdates();
     }
 
     protected void deleteElement(Element element) {
@@ -374,6 +406,7 @@ public class ElementController {
         if (elements.contains(element)) {
             elementsLayout.removeView(element);
             elements.remove(element);
+            hitGrid.remove(element);
         }
     }
 
@@ -382,10 +415,10 @@ public class ElementController {
             elementsLayout.removeView(element);
         }
         elements.clear();
+        hitGrid.clear();
     }
 
-    private Element loadElement(Long elementId) {
-        Map<String, Object> attributesMap = controllerManager.getSuperConfigDatabaseHelper().queryAllElementAttributes(currentConfigId, elementId);
+    private Element loadElement(Map<String, Object> attributesMap) {
         int type = ((Long) attributesMap.get(Element.COLUMN_INT_ELEMENT_TYPE)).intValue();
         Element element = null;
         switch (type) {
@@ -495,6 +528,7 @@ public class ElementController {
         //限制element的位置范围
         element.setElementHeight(element.getElementHeight());
         element.setElementWidth(element.getElementWidth());
+        updateElementBounds(element);
 
         return element;
     }
@@ -527,8 +561,31 @@ public class ElementController {
                 break;
             }
         }
+        updateElementBounds(element);
+    }
 
+    /**
+     * 元素的位置、大小或层级变化后调用，使命中检测网格与布局保持一致。
+     */
+    protected void updateElementBounds(Element element) {
+        if (element.getParent() != elementsLayout) {
+            return;
+        }
+        FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) element.getLayoutParams();
+        hitGrid.put(element,
+                layoutParams.leftMargin,
+                layoutParams.topMargin,
+                layoutParams.leftMargin + layoutParams.width,
+                layoutParams.topMargin + layoutParams.height,
+                element.elementId + ((long) element.layer << 48));
+    }
 
+    /**
+     * 查找包含该点（elementsLayout 坐标）的所有元素，上层的元素在前。
+     * 只检查该点所在网格中的元素，不遍历全部元素。
+     */
+    protected void findElementsAt(float x, float y, List<Element> out) {
+        hitGrid.query(x, y, out);
     }
 
     protected int editGridHandle(int position) {
@@ -582,6 +639,7 @@ public class ElementController {
         this.mode = mode;
         switch (mode) {
             case Normal:
+                flushElementUpdates();
                 controllerManager.getTouchController().enableTouch(true);
                 this.mode = Mode.Normal;
                 elementsLayout.removeView(editGridView);
@@ -0,0 +1,173 @@
+package com.limelight.binding.input.advance_setting.element;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid over the screen for finding which elements lie under a touch point.
+ *
+ * Each item is put into every cell its bounds overlap, so a query only looks at the items in
+ * one cell instead of every element on the page. Bounds outside the grid are clamped into the
+ * edge cells, and every candidate is checked against its exact bounds, so results don't depend
+ * on the grid matching the screen exactly. Items are returned topmost first by their order.
+ *
+ * Not thread-safe, only used on the UI thread.
+ */
+public class ElementHitGrid<T> {
+
+    private static class Entry<T> {
+        final T item;
+        int left, top, right, bottom;
+        long order;
+        int minColumn, minRow, maxColumn, maxRow;
+
+        Entry(T item) {
+            this.item = item;
+        }
+
+        boolean contains(float x, float y) {
+            return left < x && right > x && top < y && bottom > y;
+        }
+    }
+
+    private final int cellSize;
+    private int columns;
+    private int rows;
+    private List<List<Entry<T>>> cells = new ArrayList<>();
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+
+    public ElementHitGrid(int width, int height, int cellSize) {
+        this.cellSize = cellSize;
+        resize(width, height);
+    }
+
+    /**
+     * Rebuilds the grid for a new screen size, keeping every item.
+     */
+    public void resize(int width, int height) {
+        columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        cells = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(new ArrayList<Entry<T>>());
+        }
+        for (Entry<T> entry : entries.values()) {
+            addToCells(entry);
+        }
+    }
+
+    private int column(float x) {
+        return Math.min(Math.max((int) x / cellSize, 0), columns - 1);
+    }
+
+    private int row(float y) {
+        return Math.min(Math.max((int) y / cellSize, 0), rows - 1);
+    }
+
+    private void addToCells(Entry<T> entry) {
+        entry.minColumn = column(entry.left);
+        entry.maxColumn = column(entry.right);
+        entry.minRow = row(entry.top);
+        entry.maxRow = row(entry.bottom);
+
+        for (int r = entry.minRow; r <= entry.maxRow; r++) {
+            for (int c = entry.minColumn; c <= entry.maxColumn; c++) {
+                List<Entry<T>> cell = cells.get(r * columns + c);
+
+                // Keep each cell sorted topmost first so queries don't have to sort
+                int i = 0;
+                while (i < cell.size() && cell.get(i).order > entry.order) {
+                    i++;
+                }
+                cell.add(i, entry);
+            }
+        }
+    }
+
+    private void removeFromCells(Entry<T> entry) {
+        for (int r = entry.minRow; r <= entry.maxRow; r++) {
+            for (int c = entry.minColumn; c <= entry.maxColumn; c++) {
+                cells.get(r * columns + c).remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Adds an item or updates its bounds and order.
+     *
+     * @param order Items with a higher order are drawn above items with a lower one
+     */
+    public void put(T item, int left, int top, int right, int bottom, long order) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item);
+            entries.put(item, entry);
+        }
+        else if (entry.left == left && entry.top == top && entry.right == right &&
+                entry.bottom == bottom && entry.order == order) {
+            return;
+        }
+        else {
+            removeFromCells(entry);
+        }
+
+        entry.left = left;
+        entry.top = top;
+        entry.right = right;
+        entry.bottom = bottom;
+        entry.order = order;
+        addToCells(entry);
+    }
+
+    public void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) {
+            removeFromCells(entry);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        for (List<Entry<T>> cell : cells) {
+            cell.clear();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Adds every item whose bounds contain the point to {@code out}, topmost first.
+     */
+    public void query(float x, float y, List<T> out) {
+        List<Entry<T>> cell = cells.get(row(y) * columns + column(x));
+        for (int i = 0; i < cell.size(); i++) {
+            Entry<T> entry = cell.get(i);
+            if (entry.contains(x, y)) {
+                out.add(entry.item);
+            }
+        }
+    }
+
+    /**
+     * @return The topmost item whose bounds contain the point, or null
+     */
+    public T findTopmost(float x, float y) {
+        List<Entry<T>> cell = cells.get(row(y) * columns + column(x));
+        for (int i = 0; i < cell.size(); i++) {
+            Entry<T> entry = cell.get(i);
+            if (entry.contains(x, y)) {
+                return entry.item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return entries.size()+" elements in a "+columns+"x"+rows+" grid";
+    }
+}
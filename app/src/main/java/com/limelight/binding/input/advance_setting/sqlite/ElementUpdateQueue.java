@@ -0,0 +1,49 @@
+package com.limelight.binding.input.advance_setting.sqlite;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 合并等待写入的元素修改。
+ * 同一元素的多次修改合并为一条，后写入的列覆盖之前的值；元素按第一次修改的顺序写入。
+ */
+class ElementUpdateQueue {
+
+    static class Update {
+        final long configId;
+        final long elementId;
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        Update(long configId, long elementId) {
+            this.configId = configId;
+            this.elementId = elementId;
+        }
+    }
+
+    private final Map<String, Update> updates = new LinkedHashMap<>();
+
+    void queue(long configId, long elementId, Iterable<Map.Entry<String, Object>> values) {
+        String key = configId + ":" + elementId;
+        Update update = updates.get(key);
+        if (update == null) {
+            update = new Update(configId, elementId);
+            updates.put(key, update);
+        }
+        for (Map.Entry<String, Object> entry : values) {
+            update.values.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    boolean isEmpty() {
+        return updates.isEmpty();
+    }
+
+    Collection<Update> getUpdates() {
+        return updates.values();
+    }
+
+    void clear() {
+        updates.clear();
+    }
+}
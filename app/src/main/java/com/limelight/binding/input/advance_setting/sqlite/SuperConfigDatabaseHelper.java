@@ -24,6 +24,7 @@ import com.limelight.utils.MathUtils;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -143,6 +144,12 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     private SQLiteDatabase writableDataBase;
     private SQLiteDatabase readableDataBase;
 
+    // 按配置缓存的元素属性，按层级排序。写入该配置的元素时失效
+    private final Map<Long, List<Map<String, Object>>> elementAttributesCache = new HashMap<>();
+
+    // 合并后等待在同一个事务中写入的元素修改
+    private final ElementUpdateQueue pendingElementUpdates = new ElementUpdateQueue();
+
     public SuperConfigDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         writableDataBase = getWritableDatabase();
@@ -343,9 +350,19 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
 
     public void insertElement(ContentValues values) {
         writableDataBase.insert("element", null, values);
+        Long configId = values.getAsLong(Element.COLUMN_LONG_CONFIG_ID);
+        if (configId != null) {
+            elementAttributesCache.remove(configId);
+        }
+        else {
+            elementAttributesCache.clear();
+        }
     }
 
     public void deleteElement(long configId, long elementId) {
+        // 先写入等待中的修改，避免删除后又被写回
+        flushElementUpdates();
+        elementAttributesCache.remove(configId);
 
         // 定义 WHERE 子句
         String selection = "config_id = ? AND element_id = ?";
@@ -357,6 +374,7 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public void updateElement(long configId, long elementId, ContentValues values) {
+        elementAttributesCache.remove(configId);
 
         // 定义 WHERE 子句
         String selection = "config_id = ? AND element_id = ?";
@@ -371,7 +389,130 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
         );
     }
 
+    /**
+     * 记录一次元素修改，与同一元素之前未写入的修改合并。
+     * 需要调用 {@link #flushElementUpdates()} 才会写入数据库，读取元素前会自动写入。
+     */
+    public void queueElementUpdate(long configId, long elementId, ContentValues values) {
+        pendingElementUpdates.queue(configId, elementId, values.valueSet());
+        elementAttributesCache.remove(configId);
+    }
+
+    /**
+     * 在一个事务中写入所有等待中的元素修改，只需要同步一次磁盘。
+     */
+    public void flushElementUpdates() {
+        if (pendingElementUpdates.isEmpty()) {
+            return;
+        }
+
+        writableDataBase.beginTransaction();
+        try {
+            for (ElementUpdateQueue.Update update : pendingElementUpdates.getUpdates()) {
+                updateElement(update.configId, update.elementId, toContentValues(update.values));
+            }
+            writableDataBase.setTransactionSuccessful();
+        } finally {
+            writableDataBase.endTransaction();
+        }
+        pendingElementUpdates.clear();
+    }
+
+    private static ContentValues toContentValues(Map<String, Object> values) {
+        ContentValues contentValues = new ContentValues(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == null) {
+                contentValues.putNull(key);
+            } else if (value instanceof Long) {
+                contentValues.put(key, (Long) value);
+            } else if (value instanceof Integer) {
+                contentValues.put(key, (Integer) value);
+            } else if (value instanceof Short) {
+                contentValues.put(key, (Short) value);
+            } else if (value instanceof Byte) {
+                contentValues.put(key, (Byte) value);
+            } else if (value instanceof Double) {
+                contentValues.put(key, (Double) value);
+            } else if (value instanceof Float) {
+                contentValues.put(key, (Float) value);
+            } else if (value instanceof Boolean) {
+                contentValues.put(key, (Boolean) value);
+            } else if (value instanceof byte[]) {
+                contentValues.put(key, (byte[]) value);
+            } else {
+                contentValues.put(key, value.toString());
+            }
+        }
+        return contentValues;
+    }
+
+    /**
+     * 一次查询读取配置中的所有元素，按层级排序（与 {@link #queryAllElementIds(long)} 相同）。
+     * 结果会被缓存，直到该配置的元素被修改。返回的列表和属性表不能修改，
+     * BLOB 列的 byte[] 也是缓存共享的，调用方不能修改其内容。
+     */
+    public List<Map<String, Object>> queryAllElementsAttributes(long configId) {
+        flushElementUpdates();
+
+        List<Map<String, Object>> elements = elementAttributesCache.get(configId);
+        if (elements != null) {
+            return elements;
+        }
+
+        String selection = "config_id = ?";
+        String[] selectionArgs = {String.valueOf(configId)};
+        String orderBy = "element_id + (element_layer * 281474976710656) ASC";
+
+        Cursor cursor = readableDataBase.query(
+                "element",   // 表名
+                null, // 要查询的列
+                selection,  // WHERE 子句
+                selectionArgs, // WHERE 子句中的参数
+                null, // 不分组
+                null, // 不过滤
+                orderBy  // 增序排序
+        );
+
+        elements = new ArrayList<>();
+        if (cursor != null) {
+            // 列名只取一次，不必每一行都查
+            int columnCount = cursor.getColumnCount();
+            String[] columnNames = cursor.getColumnNames();
+            while (cursor.moveToNext()) {
+                Map<String, Object> attributes = new HashMap<>(columnCount * 2);
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            attributes.put(columnNames[i], cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            attributes.put(columnNames[i], cursor.getString(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            attributes.put(columnNames[i], cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            // 与缓存共享，见方法说明
+                            attributes.put(columnNames[i], cursor.getBlob(i));
+                            break;
+                        case Cursor.FIELD_TYPE_NULL:
+                            break;
+                    }
+                }
+                elements.add(Collections.unmodifiableMap(attributes));
+            }
+            cursor.close();
+        }
+
+        elements = Collections.unmodifiableList(elements);
+        elementAttributesCache.put(configId, elements);
+        return elements;
+    }
+
     public List<Long> queryAllElementIds(long configId) {
+        flushElementUpdates();
 
         // 定义要查询的列
         String[] projection = {"element_id", "element_layer"};
@@ -408,6 +549,7 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public Object queryElementAttribute(long configId, long elementId, String elementAttribute) {
+        flushElementUpdates();
 
         // 定义要查询的列
         String[] projection = {elementAttribute};
@@ -457,6 +599,7 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public Map<String, Object> queryAllElementAttributes(long configId, long elementId) {
+        flushElementUpdates();
         Map<String, Object> resultMap = new HashMap<>();
         // 定义 WHERE 子句
         String selection = "config_id = ? AND element_id = ?";
@@ -508,6 +651,8 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public void deleteConfig(long configId) {
+        flushElementUpdates();
+        elementAttributesCache.remove(configId);
 
         // 定义 WHERE 子句
         String selection = "config_id = ?";
@@ -622,6 +767,7 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public String exportConfig(Long configId) {
+        flushElementUpdates();
         List<ContentValues> elementsValueList = new ArrayList<>();
         ContentValues settingValues = new ContentValues();
 
@@ -745,6 +891,8 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
      * @return 0表示成功，负数表示不同的错误代码。
      */
     public int importConfig(String configString) {
+        flushElementUpdates();
+        elementAttributesCache.clear();
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(ContentValues.class, new ContentValuesSerializer());
         Gson gson = gsonBuilder.create();
@@ -861,6 +1009,8 @@ public class SuperConfigDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public int mergeConfig(String configString, Long existConfigId) {
+        flushElementUpdates();
+        elementAttributesCache.clear();
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(ContentValues.class, new ContentValuesSerializer());
         Gson gson = gsonBuilder.create();
@@ -15,6 +15,8 @@ public abstract class AbstractController {
     protected short capabilities;
     protected byte type;
 
+    protected final UsbReportStats reportStats = new UsbReportStats();
+
     public int getControllerId() {
         return deviceId;
     }
@@ -39,6 +41,10 @@ public abstract class AbstractController {
         return type;
     }
 
+    public UsbReportStats getReportStats() {
+        return reportStats;
+    }
+
     protected void setButtonFlag(int buttonFlag, int data) {
         if (data != 0) {
             buttonFlags |= buttonFlag;
@@ -5,13 +5,11 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
-import android.os.SystemClock;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.input.ControllerPacket;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 /**
  * Minimal USB wired Nintendo Switch Pro Controller driver (input only).
@@ -30,7 +28,7 @@ public class SwitchProController extends AbstractController {
     private UsbEndpoint inEndpt;
     private UsbEndpoint outEndpt;
 
-    private Thread inputThread;
+    private UsbInputReader inputReader;
     private boolean stopped;
 
     public static boolean canClaimDevice(UsbDevice device) {
@@ -86,40 +84,27 @@ public class SwitchProController extends AbstractController {
             return false;
         }
 
-        // Start reading input
-        inputThread = new Thread(new Runnable() {
+        // Start reading input (after allowing the previous InputDevice to settle)
+        inputReader = new UsbInputReader(connection, inEndpt, new UsbInputReader.Callback() {
             @Override
-            public void run() {
-                try {
-                    // allow previous InputDevice to settle
-                    Thread.sleep(500);
-                } catch (InterruptedException ignored) {}
-
+            public void onReaderStarted() {
                 notifyDeviceAdded();
+            }
 
-                byte[] buffer = new byte[64];
-                while (!Thread.currentThread().isInterrupted() && !stopped) {
-                    long startMs = SystemClock.uptimeMillis();
-                    int res = connection.bulkTransfer(inEndpt, buffer, buffer.length, 3000);
-                    if (res == 0) {
-                        res = -1;
-                    }
-                    if (res == -1 && SystemClock.uptimeMillis() - startMs < 1000) {
-                        LimeLog.warning("Switch Pro I/O error; stopping");
-                        stop();
-                        break;
-                    }
-                    if (res <= 0 || stopped) {
-                        continue;
-                    }
-
-                    if (handleRead(ByteBuffer.wrap(buffer, 0, res).order(ByteOrder.LITTLE_ENDIAN))) {
-                        reportInput();
-                    }
+            @Override
+            public void onReport(ByteBuffer report) {
+                if (handleRead(report)) {
+                    reportInput();
                 }
             }
-        });
-        inputThread.start();
+
+            @Override
+            public void onReaderError() {
+                LimeLog.warning("Switch Pro I/O error; stopping");
+                stop();
+            }
+        }, reportStats, 500, "Switch Pro");
+        inputReader.start();
         return true;
     }
 
@@ -129,9 +114,9 @@ public class SwitchProController extends AbstractController {
             return;
         }
         stopped = true;
-        if (inputThread != null) {
-            inputThread.interrupt();
-            inputThread = null;
+        if (inputReader != null) {
+            inputReader.stop();
+            inputReader = null;
         }
         try {
             connection.close();
@@ -0,0 +1,226 @@
+package com.limelight.binding.input.driver;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads input reports from a USB IN endpoint on a dedicated thread.
+ *
+ * On Android 8.0+ several asynchronous transfers into preallocated buffers are kept queued, so
+ * the next report is already in flight while the previous one is being handled and a 1000 Hz
+ * pad never waits for a round trip. Older versions can't tell how much data an asynchronous
+ * transfer returned, so they use a synchronous transfer into a single preallocated buffer.
+ * Neither path allocates per report.
+ */
+class UsbInputReader {
+    interface Callback {
+        // Called on the input thread before the first report is read
+        void onReaderStarted();
+
+        // The report is only valid until this returns
+        void onReport(ByteBuffer report);
+
+        // Called on the input thread when the device has failed
+        void onReaderError();
+    }
+
+    private static final int QUEUED_TRANSFERS = 4;
+    private static final int MIN_REPORT_SIZE = 64;
+
+    // A device that keeps completing transfers without data has failed
+    private static final int MAX_EMPTY_COMPLETIONS = 100;
+
+    // How often a reader waiting on an idle device checks whether it was stopped
+    private static final long REQUEST_WAIT_TIMEOUT_MS = 1000;
+
+    private final UsbDeviceConnection connection;
+    private final UsbEndpoint endpoint;
+    private final Callback callback;
+    private final UsbReportStats stats;
+    private final int startDelayMs;
+    private final String name;
+
+    private Thread thread;
+    private volatile boolean stopped;
+
+    UsbInputReader(UsbDeviceConnection connection, UsbEndpoint endpoint, Callback callback,
+                   UsbReportStats stats, int startDelayMs, String name) {
+        this.connection = connection;
+        this.endpoint = endpoint;
+        this.callback = callback;
+        this.stats = stats;
+        this.startDelayMs = startDelayMs;
+        this.name = name;
+    }
+
+    void start() {
+        thread = new Thread(name+" Input") {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(startDelayMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (stopped) {
+                    return;
+                }
+
+                callback.onReaderStarted();
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    readQueued();
+                }
+                else {
+                    readSynchronous();
+                }
+
+                LimeLog.info(name+" input: "+stats);
+            }
+        };
+        thread.start();
+    }
+
+    /**
+     * Stops reading. Closing the connection afterwards wakes a thread waiting for a transfer,
+     * otherwise it exits within {@link #REQUEST_WAIT_TIMEOUT_MS}.
+     */
+    void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private int getReportSize() {
+        return Math.max(endpoint.getMaxPacketSize(), MIN_REPORT_SIZE);
+    }
+
+    private void fail() {
+        if (!stopped) {
+            LimeLog.warning("Detected device I/O error");
+            callback.onReaderError();
+        }
+    }
+
+    private void readQueued() {
+        UsbRequest[] requests = new UsbRequest[QUEUED_TRANSFERS];
+        try {
+            for (int i = 0; i < requests.length; i++) {
+                UsbRequest request = new UsbRequest();
+                if (!request.initialize(connection, endpoint)) {
+                    LimeLog.warning("Failed to initialize USB request");
+                    request.close();
+                    fail();
+                    return;
+                }
+                requests[i] = request;
+
+                ByteBuffer buffer = ByteBuffer.allocateDirect(getReportSize()).order(ByteOrder.LITTLE_ENDIAN);
+                request.setClientData(buffer);
+                if (!request.queue(buffer)) {
+                    fail();
+                    return;
+                }
+            }
+
+            int emptyCompletions = 0;
+            while (!stopped) {
+                // Returns null once the connection is closed or the device is gone. The
+                // timeout lets the thread exit even if the connection is never closed.
+                UsbRequest request;
+                try {
+                    request = connection.requestWait(REQUEST_WAIT_TIMEOUT_MS);
+                } catch (TimeoutException e) {
+                    // Idle devices don't send reports, so this isn't an error
+                    continue;
+                }
+                if (request == null) {
+                    fail();
+                    return;
+                }
+                if (stopped) {
+                    return;
+                }
+
+                // The position was advanced by the amount of data received
+                ByteBuffer buffer = (ByteBuffer) request.getClientData();
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    emptyCompletions = 0;
+                    stats.onReport(System.nanoTime());
+                    callback.onReport(buffer);
+                }
+                else if (++emptyCompletions >= MAX_EMPTY_COMPLETIONS) {
+                    fail();
+                    return;
+                }
+
+                buffer.clear();
+                if (!request.queue(buffer)) {
+                    fail();
+                    return;
+                }
+            }
+        } finally {
+            for (UsbRequest request : requests) {
+                if (request != null) {
+                    request.cancel();
+                    request.close();
+                }
+            }
+        }
+    }
+
+    private void readSynchronous() {
+        byte[] data = new byte[getReportSize()];
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (!stopped) {
+            int res;
+
+            //
+            // There's no way that I can tell to determine if a device has failed
+            // or if the timeout has simply expired. We'll check how long the transfer
+            // took to fail and assume the device failed if it happened before the timeout
+            // expired.
+            //
+
+            do {
+                // Read the next input state packet
+                long lastMillis = SystemClock.uptimeMillis();
+                res = connection.bulkTransfer(endpoint, data, data.length, 3000);
+
+                // If we get a zero length response, treat it as an error
+                if (res == 0) {
+                    res = -1;
+                }
+
+                if (res == -1 && SystemClock.uptimeMillis() - lastMillis < 1000) {
+                    fail();
+                    return;
+                }
+            } while (res == -1 && !stopped);
+
+            if (res == -1 || stopped) {
+                return;
+            }
+
+            buffer.clear();
+            buffer.limit(res);
+            stats.onReport(System.nanoTime());
+            callback.onReport(buffer);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.limelight.binding.input.driver;
+
+import java.util.Locale;
+
+/**
+ * Report rate and jitter of a USB controller's input reports.
+ *
+ * Updated from the input thread once per report without allocating. Jitter is the running
+ * mean deviation of the report interval, estimated like RTP interarrival jitter (RFC 3550 6.4.1).
+ */
+public class UsbReportStats {
+    // Gaps longer than this are idle time (nothing changed on a pad that only reports changes),
+    // not jitter
+    private static final long IDLE_GAP_NS = 100_000_000L;
+
+    private volatile long reports;
+    private volatile float avgIntervalNs;
+    private volatile float jitterNs;
+    private volatile long maxIntervalNs;
+    private long lastReportNs;
+
+    void onReport(long nowNs) {
+        if (reports != 0) {
+            long intervalNs = nowNs - lastReportNs;
+            if (intervalNs < IDLE_GAP_NS) {
+                if (avgIntervalNs == 0) {
+                    avgIntervalNs = intervalNs;
+                }
+                else {
+                    jitterNs += (Math.abs(intervalNs - avgIntervalNs) - jitterNs) / 16;
+                    avgIntervalNs += (intervalNs - avgIntervalNs) / 16;
+                }
+                if (intervalNs > maxIntervalNs) {
+                    maxIntervalNs = intervalNs;
+                }
+            }
+        }
+        lastReportNs = nowNs;
+        reports++;
+    }
+
+    public long getReportCount() {
+        return reports;
+    }
+
+    public float getReportRateHz() {
+        float interval = avgIntervalNs;
+        return interval > 0 ? 1e9f / interval : 0;
+    }
+
+    public float getJitterUs() {
+        return jitterNs / 1000;
+    }
+
+    public float getMaxIntervalUs() {
+        return maxIntervalNs / 1000f;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d reports, %.0f Hz, jitter %.0f us, max interval %.0f us",
+                getReportCount(), getReportRateHz(), getJitterUs(), getMaxIntervalUs());
+    }
+}
@@ -103,10 +103,13 @@ public class XboxOneController extends AbstractXboxController {
         rightStickY = ~buffer.getShort() / 32767.0f;
     }
 
+    // Only sent from the input thread
+    private final byte[] ackPayload = {0x01, 0x20, 0x00, 0x09, 0x00, 0x07, 0x20, 0x02,
+            0x00, 0x00, 0x00, 0x00, 0x00};
+
     private void ackModeReport(byte seqNum) {
-        byte[] payload = {0x01, 0x20, seqNum, 0x09, 0x00, 0x07, 0x20, 0x02,
-                0x00, 0x00, 0x00, 0x00, 0x00};
-        connection.bulkTransfer(outEndpt, payload, payload.length, 3000);
+        ackPayload[2] = seqNum;
+        connection.bulkTransfer(outEndpt, ackPayload, ackPayload.length, 3000);
     }
 
     @Override
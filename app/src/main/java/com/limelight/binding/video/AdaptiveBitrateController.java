@@ -0,0 +1,242 @@
+package com.limelight.binding.video;
+
+import com.limelight.LimeLog;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closed-loop bitrate control driven by the stream health seen on the client.
+ *
+ * Once per stats window it gets frame loss, the RTT and its variance, the decoder back-pressure
+ * level and the pending audio duration. As a {@link DecoderBackPressureListener} it also sees
+ * decoder stalls that clear up again before the end of the window. Loss, severe decoder
+ * back-pressure or a queueing delay trend (RTT rising above its recent minimum by more than the
+ * jitter explains) cut the bitrate multiplicatively. After a run of clean windows it is raised
+ * additively again, up to the bitrate the user picked. The step grows while increases keep
+ * succeeding, so the bitrate recovers quickly after moving back to a good spot. If an increase
+ * itself causes congestion, the controller waits longer before probing upwards again.
+ *
+ * Requests to the host are rate limited, with only one in flight at a time. Changes smaller than
+ * {@link #MIN_CHANGE_RATIO} are not sent at all.
+ */
+public class AdaptiveBitrateController implements DecoderBackPressureListener {
+
+    public interface BitrateRequester {
+        // The bitrate the host is currently streaming at
+        int getCurrentBitrate();
+
+        // Must not block. Must call onBitrateRequestComplete() once the request finishes.
+        void requestBitrate(int bitrateKbps);
+    }
+
+    public static class Sample {
+        public long timestampMs;
+        public int framesLost;
+        public int totalFrames;
+        public int rttMs;
+        public int rttVarianceMs;
+        public int decoderBackPressure;
+        public int pendingAudioMs;
+    }
+
+    // Loss above this fraction of frames in a window is congestion
+    private static final float LOSS_THRESHOLD = 0.02f;
+    private static final float HEAVY_LOSS_THRESHOLD = 0.10f;
+
+    // Queueing delay beyond the jitter explains, before it counts as congestion
+    private static final int MIN_QUEUEING_DELAY_MS = 15;
+
+    // Pending audio beyond this means packets are arriving in bursts after being held up
+    private static final int PENDING_AUDIO_THRESHOLD_MS = 100;
+
+    private static final float DECREASE_FACTOR = 0.85f;
+    private static final float HEAVY_DECREASE_FACTOR = 0.7f;
+    private static final float INCREASE_STEP_RATIO = 0.05f;
+    private static final float MAX_INCREASE_STEP_RATIO = 0.25f;
+    private static final int MIN_INCREASE_STEP_KBPS = 500;
+
+    // Congestion within this many windows of an increase means the increase caused it
+    private static final int PROBE_FAILURE_WINDOWS = 3;
+
+    // Number of clean windows needed before increasing. This grows after each failed probe.
+    private static final int MIN_CLEAN_WINDOWS = 4;
+    private static final int MAX_CLEAN_WINDOWS = 30;
+
+    private static final float MIN_CHANGE_RATIO = 0.05f;
+    private static final long MIN_DECREASE_INTERVAL_MS = 2000;
+    private static final long MIN_INCREASE_INTERVAL_MS = 5000;
+
+    // The RTT floor slowly drifts up so a route change doesn't leave it stuck too low
+    private static final int RTT_FLOOR_DECAY_WINDOWS = 30;
+
+    private final BitrateRequester requester;
+    private final int minBitrateKbps;
+    private int maxBitrateKbps;
+
+    private int targetBitrateKbps;
+    private int lastAppliedBitrateKbps;
+    private boolean requestInFlight;
+    private long lastRequestTimeMs;
+
+    private int rttFloorMs = -1;
+    private int windowsSinceRttFloor;
+    private int cleanWindows;
+    private int cleanWindowsToIncrease = MIN_CLEAN_WINDOWS;
+    private int windowsSinceIncrease = Integer.MAX_VALUE;
+    private int increaseStepKbps;
+
+    private int decreases, increases, failedRequests;
+
+    // Worst back-pressure level reported since the last sample, set on the decoder input thread
+    private final AtomicInteger peakBackPressure = new AtomicInteger(BACK_PRESSURE_NONE);
+
+    public AdaptiveBitrateController(BitrateRequester requester, int maxBitrateKbps, int minBitrateKbps) {
+        this.requester = requester;
+        this.maxBitrateKbps = maxBitrateKbps;
+        this.minBitrateKbps = Math.min(minBitrateKbps, maxBitrateKbps);
+        this.targetBitrateKbps = maxBitrateKbps;
+        this.lastAppliedBitrateKbps = maxBitrateKbps;
+        this.increaseStepKbps = getMinIncreaseStep();
+    }
+
+    private int getMinIncreaseStep() {
+        return Math.max(MIN_INCREASE_STEP_KBPS, (int) (maxBitrateKbps * INCREASE_STEP_RATIO));
+    }
+
+    @Override
+    public void onDecoderBackPressureChanged(int level) {
+        int peak;
+        do {
+            peak = peakBackPressure.get();
+        } while (level > peak && !peakBackPressure.compareAndSet(peak, level));
+    }
+
+    public synchronized void onSample(Sample sample) {
+        // If the bitrate changed without us (manually from the game menu), take that as the new ceiling
+        int currentBitrateKbps = requester.getCurrentBitrate();
+        if (!requestInFlight && currentBitrateKbps > 0 && currentBitrateKbps != lastAppliedBitrateKbps) {
+            LimeLog.info("Bitrate changed externally to " + currentBitrateKbps + " kbps");
+            maxBitrateKbps = Math.max(currentBitrateKbps, minBitrateKbps);
+            targetBitrateKbps = currentBitrateKbps;
+            lastAppliedBitrateKbps = currentBitrateKbps;
+            increaseStepKbps = getMinIncreaseStep();
+            cleanWindows = 0;
+        }
+
+        int queueingDelayMs = updateRttFloor(sample.rttMs);
+        float lossRatio = sample.totalFrames > 0 ? (float) sample.framesLost / sample.totalFrames : 0;
+        int backPressure = Math.max(sample.decoderBackPressure, peakBackPressure.getAndSet(BACK_PRESSURE_NONE));
+
+        boolean heavyCongestion = lossRatio >= HEAVY_LOSS_THRESHOLD ||
+                backPressure == BACK_PRESSURE_SEVERE;
+        boolean congestion = heavyCongestion ||
+                lossRatio >= LOSS_THRESHOLD ||
+                queueingDelayMs > Math.max(MIN_QUEUEING_DELAY_MS, 2 * sample.rttVarianceMs) ||
+                sample.pendingAudioMs > PENDING_AUDIO_THRESHOLD_MS;
+
+        if (windowsSinceIncrease != Integer.MAX_VALUE) {
+            windowsSinceIncrease++;
+        }
+
+        if (congestion) {
+            cleanWindows = 0;
+            increaseStepKbps = getMinIncreaseStep();
+
+            if (windowsSinceIncrease <= PROBE_FAILURE_WINDOWS) {
+                // Our own increase found the limit, so don't probe right back up to it
+                cleanWindowsToIncrease = Math.min(cleanWindowsToIncrease * 2, MAX_CLEAN_WINDOWS);
+            }
+            else {
+                // The link got worse by itself. Recover normally once it's better.
+                cleanWindowsToIncrease = MIN_CLEAN_WINDOWS;
+            }
+            windowsSinceIncrease = Integer.MAX_VALUE;
+
+            int newTarget = (int) (targetBitrateKbps * (heavyCongestion ? HEAVY_DECREASE_FACTOR : DECREASE_FACTOR));
+            targetBitrateKbps = Math.max(newTarget, minBitrateKbps);
+        }
+        else if (backPressure == BACK_PRESSURE_NONE &&
+                targetBitrateKbps < maxBitrateKbps) {
+            if (++cleanWindows >= cleanWindowsToIncrease) {
+                cleanWindows = 0;
+                targetBitrateKbps = Math.min(targetBitrateKbps + increaseStepKbps, maxBitrateKbps);
+                windowsSinceIncrease = 0;
+
+                // Grow the step while increases keep succeeding
+                increaseStepKbps = Math.min(increaseStepKbps * 2, (int) (maxBitrateKbps * MAX_INCREASE_STEP_RATIO));
+            }
+        }
+
+        maybeRequest(sample.timestampMs);
+    }
+
+    private int updateRttFloor(int rttMs) {
+        if (rttMs <= 0) {
+            return 0;
+        }
+
+        if (rttFloorMs < 0 || rttMs <= rttFloorMs) {
+            rttFloorMs = rttMs;
+            windowsSinceRttFloor = 0;
+        }
+        else if (++windowsSinceRttFloor >= RTT_FLOOR_DECAY_WINDOWS) {
+            rttFloorMs++;
+            windowsSinceRttFloor = 0;
+        }
+
+        return rttMs - rttFloorMs;
+    }
+
+    private void maybeRequest(long nowMs) {
+        if (requestInFlight) {
+            return;
+        }
+
+        int delta = targetBitrateKbps - lastAppliedBitrateKbps;
+        if (Math.abs(delta) < lastAppliedBitrateKbps * MIN_CHANGE_RATIO && targetBitrateKbps != maxBitrateKbps) {
+            return;
+        }
+        else if (delta == 0) {
+            return;
+        }
+
+        long minInterval = delta < 0 ? MIN_DECREASE_INTERVAL_MS : MIN_INCREASE_INTERVAL_MS;
+        if (lastRequestTimeMs != 0 && nowMs - lastRequestTimeMs < minInterval) {
+            return;
+        }
+
+        LimeLog.info("Adaptive bitrate: requesting " + targetBitrateKbps + " kbps (was " + lastAppliedBitrateKbps + " kbps)");
+        if (delta < 0) {
+            decreases++;
+        }
+        else {
+            increases++;
+        }
+
+        requestInFlight = true;
+        lastRequestTimeMs = nowMs;
+        requester.requestBitrate(targetBitrateKbps);
+    }
+
+    public synchronized void onBitrateRequestComplete(int bitrateKbps, boolean success) {
+        requestInFlight = false;
+        if (success) {
+            lastAppliedBitrateKbps = bitrateKbps;
+        }
+        else {
+            // Try again after the usual interval
+            failedRequests++;
+            targetBitrateKbps = lastAppliedBitrateKbps;
+        }
+    }
+
+    public synchronized int getTargetBitrateKbps() {
+        return targetBitrateKbps;
+    }
+
+    public synchronized String getStatsString() {
+        return "target " + targetBitrateKbps + " kbps, applied " + lastAppliedBitrateKbps +
+                " kbps, max " + maxBitrateKbps + " kbps, RTT floor " + rttFloorMs +
+                " ms, decreases " + decreases + ", increases " + increases + ", failed " + failedRequests;
+    }
+}
@@ -0,0 +1,243 @@
+package com.limelight.binding.video;
+
+import java.util.Locale;
+
+/**
+ * Frame pacer that picks its queue depth and release timestamps from measured conditions.
+ *
+ * It tracks frame arrival jitter (RFC 3550 style smoothed deviation from the stream frame interval)
+ * and the measured display vsync interval. When arrivals are steady relative to the vsync interval,
+ * it runs with a single frame queued and always renders the newest frame, which gives the lowest
+ * latency. When jitter grows or the display starts getting starved, it lets a spare frame stay
+ * queued (rendering the oldest frame) to ride out late arrivals. Depth changes are evaluated over
+ * windows of vsyncs with hysteresis so a single late frame doesn't flip the mode back and forth.
+ *
+ * Jitter alone doesn't say whether a single queued frame is safe: if frames arrive close to a
+ * vsync, even a fraction of a millisecond of jitter makes some of them miss it. So the spare frame
+ * is only given up when every frame in the window arrived well clear of the vsync that rendered it,
+ * and it is taken back as soon as one comes close.
+ */
+class AdaptiveFramePacer implements FramePacer {
+
+    // Number of due vsyncs between queue depth evaluations
+    private static final int EVALUATION_WINDOW = 120;
+
+    // Starving more than this fraction of due vsyncs in a window forces a deeper queue
+    private static final float MAX_STARVATION_RATIO = 0.02f;
+
+    // Consecutive clean windows required before giving up the spare frame. This doubles
+    // each time we have to grow again after starving, so an unlucky arrival phase against
+    // vsync doesn't cause a periodic stutter.
+    private static final int MIN_CLEAN_WINDOWS_TO_SHRINK = 4;
+    private static final int MAX_CLEAN_WINDOWS_TO_SHRINK = 64;
+
+    // Minimum distance between frame arrivals and vsync before running with a single frame
+    // queued, in multiples of the arrival jitter, and never less than the floor
+    private static final int SHRINK_MARGIN_JITTERS = 4;
+    private static final long MIN_SHRINK_MARGIN_NS = 1000000;
+
+    private final int maxQueueDepth;
+    private final long streamFrameIntervalNs;
+    private final long minRenderIntervalNs;
+
+    // Written on the renderer thread, read on the vsync thread
+    private volatile long lastArrivalNanos;
+    private volatile long arrivalJitterNs;
+
+    // Vsync thread state
+    private long lastVsyncNanos;
+    private long vsyncIntervalNs;
+    private long lastRenderedFrameTimeNanos;
+    private long pendingRenderFrameTimeNanos;
+    private int targetQueueDepth;
+    private int windowDueVsyncs;
+    private int windowStarvedVsyncs;
+    private long windowMinMarginNs = Long.MAX_VALUE;
+    private int cleanWindows;
+    private int cleanWindowsToShrink = MIN_CLEAN_WINDOWS_TO_SHRINK;
+
+    // Lifetime counters
+    private long starvedVsyncs;
+    private long droppedFrames;
+    private long depthChanges;
+
+    AdaptiveFramePacer(int streamFps, int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+        this.streamFrameIntervalNs = 1000000000L / streamFps;
+        this.minRenderIntervalNs = streamFrameIntervalNs * 8 / 10; // within 80% of the next frame
+
+        // Start out conservatively and shrink once we've seen how steady the stream is
+        this.targetQueueDepth = maxQueueDepth;
+    }
+
+    @Override
+    public void onFrameDecoded(long nowNanos) {
+        if (lastArrivalNanos != 0) {
+            long deviation = Math.abs((nowNanos - lastArrivalNanos) - streamFrameIntervalNs);
+
+            // Ignore huge gaps (stream paused, IDR recovery, etc.) so they don't poison the estimate
+            if (deviation < streamFrameIntervalNs * 4) {
+                arrivalJitterNs += (deviation - arrivalJitterNs) / 16;
+            }
+        }
+        lastArrivalNanos = nowNanos;
+    }
+
+    @Override
+    public void onVsync(long frameTimeNanos, int queuedFrames, Decision decision) {
+        decision.clear();
+
+        updateVsyncInterval(frameTimeNanos);
+
+        // With a backlog beyond our target, we always render now to shed latency.
+        // Otherwise, don't render unless a new frame is due for the stream frame rate.
+        boolean backlogged = queuedFrames > targetQueueDepth;
+        if (!backlogged && frameTimeNanos - lastRenderedFrameTimeNanos < minRenderIntervalNs) {
+            return;
+        }
+
+        windowDueVsyncs++;
+        if (queuedFrames == 0) {
+            windowStarvedVsyncs++;
+            starvedVsyncs++;
+        }
+        if (windowDueVsyncs >= EVALUATION_WINDOW) {
+            evaluateQueueDepth();
+        }
+
+        if (queuedFrames == 0) {
+            return;
+        }
+
+        trackArrivalMargin(frameTimeNanos);
+
+        // Drop the oldest frames beyond our target depth and render the next one
+        if (backlogged) {
+            decision.framesToDrop = queuedFrames - targetQueueDepth;
+            droppedFrames += decision.framesToDrop;
+        }
+        decision.render = true;
+        decision.releaseTimeNanos = frameTimeNanos - getReleaseAdvanceNs();
+        pendingRenderFrameTimeNanos = frameTimeNanos;
+    }
+
+    @Override
+    public void onFrameRendered(long releaseTimeNanos) {
+        // Pace against the vsync time rather than the advanced release time
+        lastRenderedFrameTimeNanos = pendingRenderFrameTimeNanos;
+    }
+
+    private void updateVsyncInterval(long frameTimeNanos) {
+        if (lastVsyncNanos != 0) {
+            long delta = frameTimeNanos - lastVsyncNanos;
+
+            // Skip missed callbacks rather than averaging them in
+            if (delta > 0 && (vsyncIntervalNs == 0 || delta < vsyncIntervalNs * 3 / 2)) {
+                if (vsyncIntervalNs == 0) {
+                    vsyncIntervalNs = delta;
+                }
+                else {
+                    vsyncIntervalNs += (delta - vsyncIntervalNs) / 8;
+                }
+            }
+        }
+        lastVsyncNanos = frameTimeNanos;
+    }
+
+    // How far the newest frame arrived from the closest vsync. Frames that land just before a
+    // vsync miss it when they run a little late, and frames that land just after one get
+    // rendered a vsync early when they run a little early, so both sides count.
+    private void trackArrivalMargin(long frameTimeNanos) {
+        long vsync = getVsyncIntervalNs();
+        long phase = (frameTimeNanos - lastArrivalNanos) % vsync;
+        if (phase < 0) {
+            phase += vsync;
+        }
+        long margin = Math.min(phase, vsync - phase);
+        windowMinMarginNs = Math.min(windowMinMarginNs, margin);
+
+        // With only one frame queued, a close call means the next late frame starves the display,
+        // so get the spare frame back now instead of at the end of the window
+        if (targetQueueDepth == 1 && maxQueueDepth > 1 && margin < getShrinkMarginNs() / 2) {
+            targetQueueDepth++;
+            depthChanges++;
+            cleanWindows = 0;
+            cleanWindowsToShrink = Math.min(cleanWindowsToShrink * 2, MAX_CLEAN_WINDOWS_TO_SHRINK);
+        }
+    }
+
+    private long getShrinkMarginNs() {
+        return Math.max(arrivalJitterNs * SHRINK_MARGIN_JITTERS, MIN_SHRINK_MARGIN_NS);
+    }
+
+    private void evaluateQueueDepth() {
+        long vsync = getVsyncIntervalNs();
+        long jitter = arrivalJitterNs;
+        float starvationRatio = (float) windowStarvedVsyncs / windowDueVsyncs;
+
+        int newDepth = targetQueueDepth;
+        if (starvationRatio > MAX_STARVATION_RATIO || jitter * 2 > vsync / 2) {
+            // Frames are arriving too unevenly to make every vsync with a single frame queued.
+            // Grow right away since starving the display is visible as stutter.
+            newDepth = Math.min(targetQueueDepth + 1, maxQueueDepth);
+            if (newDepth != targetQueueDepth && windowStarvedVsyncs != 0) {
+                cleanWindowsToShrink = Math.min(cleanWindowsToShrink * 2, MAX_CLEAN_WINDOWS_TO_SHRINK);
+            }
+            cleanWindows = 0;
+        }
+        else if (windowStarvedVsyncs == 0 && jitter * 2 < vsync / 4 && windowMinMarginNs >= getShrinkMarginNs()) {
+            // Comfortably steady, so trade the spare frame for latency once that
+            // has held for a while.
+            if (++cleanWindows >= cleanWindowsToShrink) {
+                newDepth = Math.max(targetQueueDepth - 1, 1);
+                cleanWindows = 0;
+            }
+        }
+        else {
+            cleanWindows = 0;
+        }
+
+        if (newDepth != targetQueueDepth) {
+            targetQueueDepth = newDepth;
+            depthChanges++;
+        }
+
+        windowDueVsyncs = 0;
+        windowStarvedVsyncs = 0;
+        windowMinMarginNs = Long.MAX_VALUE;
+    }
+
+    private long getVsyncIntervalNs() {
+        return vsyncIntervalNs != 0 ? vsyncIntervalNs : streamFrameIntervalNs;
+    }
+
+    // Pull the release timestamp in by up to half a vsync when arrivals are steady, but back
+    // off as jitter grows so we don't ask SurfaceFlinger for a slot we can't reliably make.
+    private long getReleaseAdvanceNs() {
+        long halfVsync = getVsyncIntervalNs() / 2;
+        return Math.max(0, Math.min(halfVsync, halfVsync - arrivalJitterNs));
+    }
+
+    int getTargetQueueDepth() {
+        return targetQueueDepth;
+    }
+
+    long getArrivalJitterNs() {
+        return arrivalJitterNs;
+    }
+
+    long getStarvedVsyncs() {
+        return starvedVsyncs;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public String getStatsString() {
+        return String.format(Locale.US, "Adaptive: depth %d, jitter %.2f ms, vsync %.2f ms, starved %d, dropped %d, depth changes %d",
+                targetQueueDepth, arrivalJitterNs / 1000000.0, getVsyncIntervalNs() / 1000000.0,
+                starvedVsyncs, droppedFrames, depthChanges);
+    }
+}
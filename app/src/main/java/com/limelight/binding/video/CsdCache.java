@@ -0,0 +1,133 @@
+package com.limelight.binding.video;
+
+import java.util.Arrays;
+
+/**
+ * Collects the raw parameter sets of an IDR frame and remembers the final CSD blob built from them.
+ *
+ * Hosts almost always resend identical parameter sets with every IDR frame, so the patched and
+ * concatenated CSD can be reused instead of re-parsing and re-writing the SPS each time. Entries
+ * are keyed by the raw parameter set bytes exactly as received, so a hit costs a hash and a compare.
+ *
+ * The blob for a given key must only depend on state that is fixed for the lifetime of the decoder
+ * configuration. Callers must clear the cache when that changes.
+ */
+class CsdCache {
+
+    private static final int MAX_ENTRIES = 4;
+
+    // Raw parameter sets of the current IDR frame, in arrival order
+    private byte[] rawData = new byte[256];
+    private int rawLength;
+    private int[] unitTypes = new int[8];
+    private int[] unitOffsets = new int[8];
+    private int[] unitLengths = new int[8];
+    private int unitCount;
+
+    private final byte[][] keys = new byte[MAX_ENTRIES][];
+    private final int[] keyHashes = new int[MAX_ENTRIES];
+    private final byte[][] blobs = new byte[MAX_ENTRIES][];
+    private int nextReplacement;
+
+    private int hits, misses;
+
+    /**
+     * Discards the parameter sets collected for the previous IDR frame.
+     */
+    void resetParameterSets() {
+        rawLength = 0;
+        unitCount = 0;
+    }
+
+    void addParameterSet(int type, byte[] data, int length) {
+        if (rawLength + length > rawData.length) {
+            rawData = Arrays.copyOf(rawData, Math.max(rawData.length * 2, rawLength + length));
+        }
+        if (unitCount == unitTypes.length) {
+            unitTypes = Arrays.copyOf(unitTypes, unitCount * 2);
+            unitOffsets = Arrays.copyOf(unitOffsets, unitCount * 2);
+            unitLengths = Arrays.copyOf(unitLengths, unitCount * 2);
+        }
+
+        System.arraycopy(data, 0, rawData, rawLength, length);
+        unitTypes[unitCount] = type;
+        unitOffsets[unitCount] = rawLength;
+        unitLengths[unitCount] = length;
+        unitCount++;
+        rawLength += length;
+    }
+
+    int getParameterSetCount() {
+        return unitCount;
+    }
+
+    int getParameterSetType(int index) {
+        return unitTypes[index];
+    }
+
+    byte[] copyParameterSet(int index) {
+        return Arrays.copyOfRange(rawData, unitOffsets[index], unitOffsets[index] + unitLengths[index]);
+    }
+
+    /**
+     * Returns the cached CSD blob for the current parameter sets or null if there isn't one.
+     */
+    byte[] lookup() {
+        int hash = hashRawData();
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            if (keys[i] != null && keyHashes[i] == hash && rawDataEquals(keys[i])) {
+                hits++;
+                return blobs[i];
+            }
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Caches the CSD blob built from the current parameter sets.
+     */
+    void store(byte[] blob) {
+        int slot = nextReplacement;
+        nextReplacement = (nextReplacement + 1) % MAX_ENTRIES;
+
+        keys[slot] = Arrays.copyOf(rawData, rawLength);
+        keyHashes[slot] = hashRawData();
+        blobs[slot] = blob;
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(blobs, null);
+        nextReplacement = 0;
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+
+    private int hashRawData() {
+        int hash = 1;
+        for (int i = 0; i < rawLength; i++) {
+            hash = 31 * hash + rawData[i];
+        }
+        return hash;
+    }
+
+    private boolean rawDataEquals(byte[] key) {
+        if (key.length != rawLength) {
+            return false;
+        }
+        for (int i = 0; i < rawLength; i++) {
+            if (key[i] != rawData[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
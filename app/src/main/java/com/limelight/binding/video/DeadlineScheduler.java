@@ -0,0 +1,148 @@
+package com.limelight.binding.video;
+
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for absolute deadlines on a dedicated timing thread.
+ *
+ * The thread parks until shortly before the deadline and only spins across the remaining slack.
+ * The slack is calibrated from how late the parks actually wake up (mean plus a few mean
+ * deviations), so it shrinks to the platform's real timer precision instead of a fixed guess.
+ *
+ * Only one thread may wait on a scheduler. Stats getters may be called from any thread.
+ */
+class DeadlineScheduler {
+
+    // Wake-up slack bounds
+    private static final long MIN_SLACK_NS = 50000;
+    private static final long MAX_SLACK_NS = 2000000;
+    private static final long INITIAL_SLACK_NS = 1000000;
+
+    // Wakes later than this past the deadline count as missed
+    private static final long LATE_THRESHOLD_NS = 500000;
+
+    // Oversleep estimate (EWMA of mean and mean deviation)
+    private long oversleepMeanNs;
+    private long oversleepDevNs;
+    private volatile long slackNs = INITIAL_SLACK_NS;
+
+    // Timing error of each wake relative to its deadline
+    private volatile long wakeCount;
+    private volatile long lateWakeCount;
+    private volatile long totalErrorNs;
+    private volatile long maxErrorNs;
+
+    // CPU time consumed by the waiting thread between samples
+    private long lastCpuTimeNs;
+    private long lastCpuSampleNs;
+    private volatile float cpuUsage;
+
+    /**
+     * Blocks until {@code deadlineNanos} (in {@link System#nanoTime()} time) and returns the time
+     * of the wake. Returns immediately if the deadline has already passed.
+     */
+    long awaitDeadline(long deadlineNanos) throws InterruptedException {
+        parkUntil(deadlineNanos);
+
+        long now = System.nanoTime();
+        recordWake(now - deadlineNanos);
+        return now;
+    }
+
+    private void parkUntil(long deadlineNanos) throws InterruptedException {
+        long wakeTarget = deadlineNanos - slackNs;
+        long now = System.nanoTime();
+
+        if (now < wakeTarget) {
+            do {
+                LockSupport.parkNanos(this, wakeTarget - now);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                now = System.nanoTime();
+            } while (now < wakeTarget);
+
+            calibrateSlack(now - wakeTarget);
+        }
+
+        // Spin across the remaining slack. This is bounded by MAX_SLACK_NS.
+        while (System.nanoTime() < deadlineNanos) {
+            Thread.yield();
+        }
+    }
+
+    private void calibrateSlack(long oversleepNs) {
+        if (oversleepMeanNs == 0 && oversleepDevNs == 0) {
+            oversleepMeanNs = oversleepNs;
+            oversleepDevNs = oversleepNs / 2;
+        }
+        else {
+            long deviation = Math.abs(oversleepNs - oversleepMeanNs);
+            oversleepMeanNs += (oversleepNs - oversleepMeanNs) / 8;
+            oversleepDevNs += (deviation - oversleepDevNs) / 4;
+        }
+
+        slackNs = Math.max(MIN_SLACK_NS, Math.min(MAX_SLACK_NS, oversleepMeanNs + 4 * oversleepDevNs));
+    }
+
+    private void recordWake(long errorNs) {
+        wakeCount++;
+        totalErrorNs += errorNs;
+        if (errorNs > maxErrorNs) {
+            maxErrorNs = errorNs;
+        }
+        if (errorNs > LATE_THRESHOLD_NS) {
+            lateWakeCount++;
+        }
+    }
+
+    /**
+     * Records the waiting thread's CPU time so usage since the previous sample can be reported.
+     * Must be called on the waiting thread.
+     */
+    void sampleCpuTime(long threadCpuTimeNanos, long nowNanos) {
+        if (lastCpuSampleNs != 0 && nowNanos > lastCpuSampleNs) {
+            cpuUsage = (float) (threadCpuTimeNanos - lastCpuTimeNs) / (nowNanos - lastCpuSampleNs);
+        }
+        lastCpuTimeNs = threadCpuTimeNanos;
+        lastCpuSampleNs = nowNanos;
+    }
+
+    /**
+     * Clears timing error stats, for example after a resync.
+     */
+    void resetErrorStats() {
+        wakeCount = 0;
+        lateWakeCount = 0;
+        totalErrorNs = 0;
+        maxErrorNs = 0;
+    }
+
+    float getCpuUsage() {
+        return cpuUsage;
+    }
+
+    float getAverageErrorMs() {
+        long wakes = wakeCount;
+        return wakes > 0 ? totalErrorNs / 1000000.0f / wakes : 0;
+    }
+
+    float getMaxErrorMs() {
+        return maxErrorNs / 1000000.0f;
+    }
+
+    long getLateWakeCount() {
+        return lateWakeCount;
+    }
+
+    long getSlackNs() {
+        return slackNs;
+    }
+
+    String getStatsString() {
+        return String.format(Locale.US, "CPU %.1f%%, wake error avg %.3f ms / max %.3f ms, late %d, slack %d us",
+                cpuUsage * 100, getAverageErrorMs(), getMaxErrorMs(),
+                lateWakeCount, slackNs / 1000);
+    }
+}
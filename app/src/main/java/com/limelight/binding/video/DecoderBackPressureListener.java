@@ -0,0 +1,11 @@
+package com.limelight.binding.video;
+
+public interface DecoderBackPressureListener {
+    int BACK_PRESSURE_NONE = 0;
+    int BACK_PRESSURE_ELEVATED = 1;
+    int BACK_PRESSURE_SEVERE = 2;
+
+    // Called on the decoder input thread when the back-pressure level changes.
+    // Implementations must not block.
+    void onDecoderBackPressureChanged(int level);
+}
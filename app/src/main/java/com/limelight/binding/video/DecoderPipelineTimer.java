@@ -0,0 +1,165 @@
+package com.limelight.binding.video;
+
+import java.util.Locale;
+
+/**
+ * Rolling per-stage timings of the decode pipeline and a decoder back-pressure signal.
+ *
+ * Each stage keeps its last {@link #WINDOW_SIZE} samples. Each stage has a single writer thread
+ * and samples are recorded without locking or allocation. Readers get approximate values, which
+ * is fine for stats.
+ *
+ * Back-pressure is derived from how long the input thread waits for the decoder to hand back an
+ * input buffer, relative to the frame interval. A healthy decoder returns input buffers almost
+ * immediately. Growing waits mean frames are piling up inside the decoder, which shows up well
+ * before the decoder actually hangs.
+ */
+class DecoderPipelineTimer {
+
+    static final int STAGE_DEQUEUE_INPUT = 0;
+    static final int STAGE_COPY = 1;
+    static final int STAGE_QUEUE_INPUT = 2;
+    static final int STAGE_DEQUEUE_OUTPUT = 3;
+    static final int STAGE_RENDER_RELEASE = 4;
+    private static final int STAGE_COUNT = 5;
+
+    private static final String[] STAGE_NAMES = {"dequeue in", "copy", "queue in", "dequeue out", "release"};
+
+    private static final int WINDOW_SIZE = 128;
+
+    // Average input wait as a fraction of the frame interval to enter/leave each level
+    private static final float ELEVATED_ENTER = 0.25f;
+    private static final float ELEVATED_LEAVE = 0.15f;
+    private static final float SEVERE_ENTER = 0.5f;
+    private static final float SEVERE_LEAVE = 0.35f;
+
+    // A single input wait this many frame intervals long is severe by itself
+    private static final int SEVERE_STALL_FRAMES = 2;
+
+    private final int[][] samplesUs = new int[STAGE_COUNT][WINDOW_SIZE];
+    private final long[] sampleCounts = new long[STAGE_COUNT];
+    private final long[] windowSumsUs = new long[STAGE_COUNT];
+
+    private volatile long frameIntervalNs = 1000000000L / 60;
+    private volatile DecoderBackPressureListener listener;
+    private volatile int backPressure = DecoderBackPressureListener.BACK_PRESSURE_NONE;
+    private volatile long backPressureEvents;
+
+    void setFrameRate(int frameRate) {
+        frameIntervalNs = 1000000000L / Math.max(frameRate, 1);
+    }
+
+    void setListener(DecoderBackPressureListener listener) {
+        this.listener = listener;
+    }
+
+    void record(int stage, long durationNs) {
+        int durationUs = (int) Math.min(durationNs / 1000, Integer.MAX_VALUE);
+        long count = sampleCounts[stage];
+        int slot = (int) (count % WINDOW_SIZE);
+
+        if (count >= WINDOW_SIZE) {
+            windowSumsUs[stage] -= samplesUs[stage][slot];
+        }
+        samplesUs[stage][slot] = durationUs;
+        windowSumsUs[stage] += durationUs;
+        sampleCounts[stage] = count + 1;
+
+        if (stage == STAGE_DEQUEUE_INPUT) {
+            updateBackPressure(durationNs);
+        }
+    }
+
+    /**
+     * Called periodically by the input thread while it is still waiting for an input buffer,
+     * so a stall is signalled while it happens instead of once it's over.
+     */
+    void onInputStall(long waitedNs) {
+        if (waitedNs >= frameIntervalNs * SEVERE_STALL_FRAMES) {
+            setBackPressure(DecoderBackPressureListener.BACK_PRESSURE_SEVERE);
+        }
+    }
+
+    private void updateBackPressure(long lastWaitNs) {
+        if (lastWaitNs >= frameIntervalNs * SEVERE_STALL_FRAMES) {
+            setBackPressure(DecoderBackPressureListener.BACK_PRESSURE_SEVERE);
+            return;
+        }
+
+        float pressure = getAverageUs(STAGE_DEQUEUE_INPUT) * 1000 / frameIntervalNs;
+        int level = backPressure;
+
+        switch (level) {
+            case DecoderBackPressureListener.BACK_PRESSURE_SEVERE:
+                if (pressure < ELEVATED_LEAVE) {
+                    level = DecoderBackPressureListener.BACK_PRESSURE_NONE;
+                }
+                else if (pressure < SEVERE_LEAVE) {
+                    level = DecoderBackPressureListener.BACK_PRESSURE_ELEVATED;
+                }
+                break;
+            case DecoderBackPressureListener.BACK_PRESSURE_ELEVATED:
+                if (pressure >= SEVERE_ENTER) {
+                    level = DecoderBackPressureListener.BACK_PRESSURE_SEVERE;
+                }
+                else if (pressure < ELEVATED_LEAVE) {
+                    level = DecoderBackPressureListener.BACK_PRESSURE_NONE;
+                }
+                break;
+            default:
+                if (pressure >= SEVERE_ENTER) {
+                    level = DecoderBackPressureListener.BACK_PRESSURE_SEVERE;
+                }
+                else if (pressure >= ELEVATED_ENTER) {
+                    level = DecoderBackPressureListener.BACK_PRESSURE_ELEVATED;
+                }
+                break;
+        }
+
+        setBackPressure(level);
+    }
+
+    private void setBackPressure(int level) {
+        if (level == backPressure) {
+            return;
+        }
+
+        if (level > backPressure) {
+            backPressureEvents++;
+        }
+        backPressure = level;
+
+        DecoderBackPressureListener listener = this.listener;
+        if (listener != null) {
+            listener.onDecoderBackPressureChanged(level);
+        }
+    }
+
+    int getBackPressure() {
+        return backPressure;
+    }
+
+    float getAverageUs(int stage) {
+        long count = Math.min(sampleCounts[stage], WINDOW_SIZE);
+        return count > 0 ? (float) windowSumsUs[stage] / count : 0;
+    }
+
+    int getMaxUs(int stage) {
+        int count = (int) Math.min(sampleCounts[stage], WINDOW_SIZE);
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, samplesUs[stage][i]);
+        }
+        return max;
+    }
+
+    String getStatsString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "back-pressure %d (%d events)", backPressure, backPressureEvents));
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            sb.append(String.format(Locale.US, ", %s %.2f/%.2f ms",
+                    STAGE_NAMES[stage], getAverageUs(stage) / 1000, getMaxUs(stage) / 1000f));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.limelight.binding.video;
+
+/**
+ * The fixed pacing rules used by the balanced and experimental low latency frame pacing modes.
+ *
+ * At most one frame is rendered per vsync, and only once at least 80% of a stream frame interval
+ * has passed since the last one. This prevents microstutter when streaming at a frame rate that
+ * doesn't match the display (such as 60 FPS on 120 Hz). In low latency mode, the release
+ * timestamp is pulled in by half a frame interval.
+ */
+class FixedFramePacer implements FramePacer {
+
+    private final long expectedFrameTimeDeltaNs;
+    private final long releaseAdvanceNs;
+
+    private long lastRenderedFrameTimeNanos;
+
+    FixedFramePacer(int streamFps, boolean lowLatency) {
+        this.expectedFrameTimeDeltaNs = 800000000 / streamFps; // within 80% of the next frame
+
+        // 实验性低延迟模式：进一步优化V-Sync处理
+        // 安全的提前量：不超过V-Sync周期的1/2
+        this.releaseAdvanceNs = lowLatency ? 500000000 / streamFps : 0;
+    }
+
+    @Override
+    public void onFrameDecoded(long nowNanos) {
+        // Nothing to track
+    }
+
+    @Override
+    public void onVsync(long frameTimeNanos, int queuedFrames, Decision decision) {
+        decision.clear();
+
+        // Don't render unless a new frame is due
+        if (frameTimeNanos - lastRenderedFrameTimeNanos < expectedFrameTimeDeltaNs) {
+            return;
+        }
+
+        // Render up to one frame when in frame pacing mode.
+        //
+        // NB: Since the queue limit is 2, we won't starve the decoder of output buffers
+        // by holding onto them for too long. This also ensures we will have that 1 extra
+        // frame of buffer to smooth over network/rendering jitter.
+        if (queuedFrames > 0) {
+            decision.render = true;
+            decision.releaseTimeNanos = frameTimeNanos - releaseAdvanceNs;
+        }
+    }
+
+    @Override
+    public void onFrameRendered(long releaseTimeNanos) {
+        lastRenderedFrameTimeNanos = releaseTimeNanos;
+    }
+
+    @Override
+    public String getStatsString() {
+        return releaseAdvanceNs != 0 ? "Fixed (low latency)" : "Fixed";
+    }
+}
@@ -0,0 +1,52 @@
+package com.limelight.binding.video;
+
+/**
+ * Strategy deciding when decoded frames are released to the display in the vsync-driven
+ * frame pacing modes.
+ *
+ * {@link #onFrameDecoded(long)} is called on the renderer thread and the remaining callbacks are
+ * called on the vsync (Choreographer) thread.
+ */
+interface FramePacer {
+
+    /**
+     * Per-vsync output of {@link #onVsync(long, int, Decision)}. Preallocated by the caller and
+     * overwritten on each call so the vsync path doesn't allocate.
+     */
+    final class Decision {
+        // Number of the oldest queued frames to release without rendering
+        int framesToDrop;
+
+        // Whether to render the next queued frame after dropping
+        boolean render;
+
+        // Timestamp to pass to releaseOutputBuffer() if rendering
+        long releaseTimeNanos;
+
+        void clear() {
+            framesToDrop = 0;
+            render = false;
+            releaseTimeNanos = 0;
+        }
+    }
+
+    /**
+     * Called when the decoder has produced a frame and it has been queued for release.
+     */
+    void onFrameDecoded(long nowNanos);
+
+    /**
+     * Called once per display vsync with the number of frames waiting in the queue.
+     */
+    void onVsync(long frameTimeNanos, int queuedFrames, Decision decision);
+
+    /**
+     * Called after a frame was successfully released for rendering.
+     */
+    void onFrameRendered(long releaseTimeNanos);
+
+    /**
+     * Short human-readable state for logs and crash reports.
+     */
+    String getStatsString();
+}
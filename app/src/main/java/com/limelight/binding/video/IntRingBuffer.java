@@ -0,0 +1,117 @@
+package com.limelight.binding.video;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring of non-negative ints, used to hand MediaCodec output buffer
+ * indices from the renderer thread to whichever thread paces their release.
+ *
+ * There is a single producer. When the ring is full, the producer atomically steals the
+ * oldest element and hands it back to the caller so it can be released without rendering.
+ * Because the producer may consume in that case, the head is advanced by CAS and it is also
+ * safe to poll from more than one consumer thread. Nothing here allocates or blocks.
+ */
+class IntRingBuffer {
+
+    static final int EMPTY = -1;
+
+    private final int[] slots;
+    private final int mask;
+
+    // Next slot to consume. Advanced by CAS by consumers and by the producer on overflow.
+    private final AtomicLong head = new AtomicLong();
+
+    // Next slot to produce into. Only written by the producer.
+    private volatile long tail;
+
+    private volatile long overflowCount;
+    private volatile int maxDepth;
+
+    IntRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds a value to the ring. If the ring is full, the oldest value is removed and returned so
+     * the caller can dispose of it. Returns {@link #EMPTY} if nothing was displaced.
+     *
+     * Must only be called from the producer thread.
+     */
+    int offerDropOldest(int value) {
+        int dropped = EMPTY;
+        long t = tail;
+
+        for (;;) {
+            long h = head.get();
+            if (t - h < slots.length) {
+                break;
+            }
+
+            // Full, so try to take the oldest element ourselves. If a consumer beats us to it,
+            // there's room now and we'll fall out of the loop on the next pass.
+            int oldest = slots[(int) (h & mask)];
+            if (head.compareAndSet(h, h + 1)) {
+                dropped = oldest;
+                overflowCount++;
+                break;
+            }
+        }
+
+        slots[(int) (t & mask)] = value;
+        tail = t + 1;
+
+        int depth = (int) (t + 1 - head.get());
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+
+        return dropped;
+    }
+
+    /**
+     * Removes and returns the oldest value or {@link #EMPTY} if the ring is empty.
+     */
+    int poll() {
+        for (;;) {
+            long h = head.get();
+            if (h >= tail) {
+                return EMPTY;
+            }
+
+            // Read the value before claiming it. The producer can't reuse this slot
+            // until head moves past it, and if it does our CAS will fail.
+            int value = slots[(int) (h & mask)];
+            if (head.compareAndSet(h, h + 1)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Discards all queued values. Callers must ensure the producer is quiesced.
+     */
+    void clear() {
+        head.set(tail);
+    }
+
+    int size() {
+        return (int) Math.max(0, tail - head.get());
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    long getOverflowCount() {
+        return overflowCount;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+}
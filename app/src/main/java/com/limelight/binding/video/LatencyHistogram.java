@@ -0,0 +1,141 @@
+package com.limelight.binding.video;
+
+/**
+ * Fixed-bucket latency histogram with 0.1 ms input resolution.
+ *
+ * Buckets are 0.5 ms wide up to 20 ms, 2 ms wide up to 100 ms, 20 ms wide up to 500 ms, and
+ * everything above that lands in a single overflow bucket. Each histogram is written by a single
+ * thread with plain array increments (no locks, no allocation) and is read by the stats
+ * aggregator after the owning {@link VideoStats} window has been flipped out. The microphone
+ * uplink keeps one on its sender thread in the same way.
+ */
+public class LatencyHistogram {
+
+    // Bucket upper bounds (exclusive) in tenths of a millisecond
+    private static final int FINE_LIMIT = 200;      // 20 ms
+    private static final int FINE_STEP = 5;         // 0.5 ms
+    private static final int MEDIUM_LIMIT = 1000;   // 100 ms
+    private static final int MEDIUM_STEP = 20;      // 2 ms
+    private static final int COARSE_LIMIT = 5000;   // 500 ms
+    private static final int COARSE_STEP = 200;     // 20 ms
+
+    private static final int FINE_BUCKETS = FINE_LIMIT / FINE_STEP;
+    private static final int MEDIUM_BUCKETS = (MEDIUM_LIMIT - FINE_LIMIT) / MEDIUM_STEP;
+    private static final int COARSE_BUCKETS = (COARSE_LIMIT - MEDIUM_LIMIT) / COARSE_STEP;
+    static final int BUCKET_COUNT = FINE_BUCKETS + MEDIUM_BUCKETS + COARSE_BUCKETS + 1;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private int totalCount;
+    private int maxTenthsMs;
+
+    void recordMs(long latencyMs) {
+        recordTenthsMs((int) Math.min(latencyMs * 10, Integer.MAX_VALUE));
+    }
+
+    public void recordTenthsMs(int latencyTenthsMs) {
+        if (latencyTenthsMs < 0) {
+            return;
+        }
+
+        counts[bucketFor(latencyTenthsMs)]++;
+        totalCount++;
+        if (latencyTenthsMs > maxTenthsMs) {
+            maxTenthsMs = latencyTenthsMs;
+        }
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the requested percentile in milliseconds,
+     * or 0 if nothing has been recorded. Values in the overflow bucket report the observed max.
+     */
+    float getPercentileMs(float percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        // Rank of the sample we're looking for (1-based)
+        int rank = (int) Math.ceil(percentile / 100 * totalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+
+        int seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Never report more than we actually observed
+                return Math.min(bucketUpperBound(i), maxTenthsMs) / 10.0f;
+            }
+        }
+
+        return maxTenthsMs / 10.0f;
+    }
+
+    float getMaxMs() {
+        return maxTenthsMs / 10.0f;
+    }
+
+    public void fillPercentiles(LatencyPercentiles out) {
+        out.samples = totalCount;
+        out.p50 = getPercentileMs(50);
+        out.p95 = getPercentileMs(95);
+        out.p99 = getPercentileMs(99);
+        out.max = getMaxMs();
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxTenthsMs = Math.max(maxTenthsMs, other.maxTenthsMs);
+    }
+
+    void copy(LatencyHistogram other) {
+        System.arraycopy(other.counts, 0, counts, 0, BUCKET_COUNT);
+        totalCount = other.totalCount;
+        maxTenthsMs = other.maxTenthsMs;
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        maxTenthsMs = 0;
+    }
+
+    private static int bucketFor(int tenthsMs) {
+        if (tenthsMs < FINE_LIMIT) {
+            return tenthsMs / FINE_STEP;
+        }
+        else if (tenthsMs < MEDIUM_LIMIT) {
+            return FINE_BUCKETS + (tenthsMs - FINE_LIMIT) / MEDIUM_STEP;
+        }
+        else if (tenthsMs < COARSE_LIMIT) {
+            return FINE_BUCKETS + MEDIUM_BUCKETS + (tenthsMs - MEDIUM_LIMIT) / COARSE_STEP;
+        }
+        else {
+            return BUCKET_COUNT - 1;
+        }
+    }
+
+    private static int bucketUpperBound(int bucket) {
+        if (bucket < FINE_BUCKETS) {
+            return (bucket + 1) * FINE_STEP;
+        }
+        bucket -= FINE_BUCKETS;
+        if (bucket < MEDIUM_BUCKETS) {
+            return FINE_LIMIT + (bucket + 1) * MEDIUM_STEP;
+        }
+        bucket -= MEDIUM_BUCKETS;
+        if (bucket < COARSE_BUCKETS) {
+            return MEDIUM_LIMIT + (bucket + 1) * COARSE_STEP;
+        }
+        return Integer.MAX_VALUE;
+    }
+}
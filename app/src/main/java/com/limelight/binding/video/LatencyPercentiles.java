@@ -0,0 +1,17 @@
+package com.limelight.binding.video;
+
+import java.util.Locale;
+
+public class LatencyPercentiles {
+
+    public int samples;
+    public float p50;
+    public float p95;
+    public float p99;
+    public float max;
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "p50 %.1f / p95 %.1f / p99 %.1f / max %.1f ms", p50, p95, p99, max);
+    }
+}
@@ -1,12 +1,11 @@
 package com.limelight.binding.video;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jcodec.codecs.h264.H264Utils;
@@ -29,6 +28,7 @@ import android.media.MediaFormat;
 import android.media.MediaCodec.BufferInfo;
 import android.media.MediaCodec.CodecException;
 import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Process;
@@ -49,14 +49,19 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private MediaCodecInfo hevcDecoder;
     private MediaCodecInfo av1Decoder;
 
-    private final ArrayList<byte[]> vpsBuffers = new ArrayList<>();
-    private final ArrayList<byte[]> spsBuffers = new ArrayList<>();
-    private final ArrayList<byte[]> ppsBuffers = new ArrayList<>();
+    private final CsdCache csdCache = new CsdCache();
+    private byte[] currentCsd;
     private boolean submittedCsd;
     private byte[] currentHdrMetadata;
 
     private int nextInputBufferIndex = -1;
     private ByteBuffer nextInputBuffer;
+
+    // Carried from preparePictureData() to the submission of the picture data
+    private long pendingTimestampUs;
+    private int pendingCodecFlags;
+    private int pendingDecodeUnitStatus;
+    private boolean decodeUnitBufferHandedOut;
     
 
     private Context context;
@@ -108,32 +113,34 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private long initialExceptionTimestamp;
     private static final int EXCEPTION_REPORT_DELAY_MS = 3000;
 
-    private VideoStats activeWindowVideoStats;
-    private VideoStats lastWindowVideoStats;
-    private VideoStats globalVideoStats;
+    private final VideoStatsAggregator statsAggregator;
+    private final VideoStats globalVideoStats;
+    private final DecoderPipelineTimer pipelineTimer = new DecoderPipelineTimer();
+    private volatile AdaptiveBitrateController bitrateController;
+    private long decodeUnitBufferHandoffNs;
 
     private long lastTimestampUs;
     private int lastFrameNumber;
     private int refreshRate;
     private PreferenceConfiguration prefs;
 
-    private LinkedBlockingQueue<Integer> outputBufferQueue = new LinkedBlockingQueue<>();
     private static final int OUTPUT_BUFFER_QUEUE_LIMIT = 2;
-    private long lastRenderedFrameTimeNanos;
+    private final IntRingBuffer outputBufferQueue = new IntRingBuffer(OUTPUT_BUFFER_QUEUE_LIMIT);
+    private FramePacer framePacer;
+    private final FramePacer.Decision framePacingDecision = new FramePacer.Decision();
     private HandlerThread choreographerHandlerThread;
     private Handler choreographerHandler;
     
     // Surface Flinger Raw模式相关变量
     private Thread surfaceFlingerThread;
     private volatile boolean surfaceFlingerActive;
-    private long surfaceFlingerLastFrameTime;
     private long surfaceFlingerFrameInterval;
     private int surfaceFlingerFrameCount;
     private int surfaceFlingerSkippedFrames; // 记录跳过的帧数
 
     // 高精度帧率控制
     private long surfaceFlingerTargetTime; // 目标渲染时间（绝对时间）
-    private long surfaceFlingerTimingError; // 累积时间误差
+    private DeadlineScheduler surfaceFlingerScheduler;
     
     /**
      * 安全地设置线程优先级
@@ -336,6 +343,24 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return decoderInfo;
     }
 
+    public void setDecoderBackPressureListener(DecoderBackPressureListener listener) {
+        pipelineTimer.setListener(listener);
+    }
+
+    // Returns one of the DecoderBackPressureListener.BACK_PRESSURE_* levels
+    public int getDecoderBackPressure() {
+        return pipelineTimer.getBackPressure();
+    }
+
+    // The controller is fed from the stats thread once per stats window
+    public void setAdaptiveBitrateController(AdaptiveBitrateController controller) {
+        bitrateController = controller;
+    }
+
+    AdaptiveBitrateController getAdaptiveBitrateController() {
+        return bitrateController;
+    }
+
     public void setRenderTarget(SurfaceHolder renderTarget) {
         this.renderTarget = renderTarget;
     }
@@ -354,9 +379,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.glRenderer = glRenderer;
         this.perfListener = perfListener;
 
-        this.activeWindowVideoStats = new VideoStats();
-        this.lastWindowVideoStats = new VideoStats();
-        this.globalVideoStats = new VideoStats();
+        this.statsAggregator = new VideoStatsAggregator(this, perfListener);
+        this.globalVideoStats = statsAggregator.getGlobalVideoStats();
 
         avcDecoder = findAvcDecoder();
         if (avcDecoder != null) {
@@ -659,6 +683,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         String mimeType;
         MediaCodecInfo selectedDecoderInfo;
 
+        // Cached CSD blobs were patched for the previous format and decoder fixups
+        csdCache.clear();
+
         if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
             mimeType = "video/avc";
             selectedDecoderInfo = avcDecoder;
@@ -758,8 +785,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                     // 过滤掉异常值
                     if (delta >= 0 && delta < 1000) {
+                        VideoStats activeWindowVideoStats = statsAggregator.acquireWindow();
                         activeWindowVideoStats.renderingTimeMs += delta;
                         activeWindowVideoStats.totalTimeMs += delta;
+                        activeWindowVideoStats.renderingLatency.recordMs(delta);
+                        statsAggregator.releaseWindow(activeWindowVideoStats);
                     }
                 }
             }, null);
@@ -774,6 +804,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.initialHeight = height;
         this.videoFormat = format;
         this.refreshRate = redrawRate;
+        pipelineTimer.setFrameRate(redrawRate);
 
         return initializeDecoder(false);
     }
@@ -1049,33 +1080,38 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             frameTimeNanos -= activity.getWindowManager().getDefaultDisplay().getAppVsyncOffsetNanos();
         }
 
-        // Don't render unless a new frame is due. This prevents microstutter when streaming
-        // at a frame rate that doesn't match the display (such as 60 FPS on 120 Hz).
-        long actualFrameTimeDeltaNs = frameTimeNanos - lastRenderedFrameTimeNanos;
-        long expectedFrameTimeDeltaNs = 800000000 / refreshRate; // within 80% of the next frame
-        if (actualFrameTimeDeltaNs >= expectedFrameTimeDeltaNs) {
-            // Render up to one frame when in frame pacing mode.
-            //
-            // NB: Since the queue limit is 2, we won't starve the decoder of output buffers
-            // by holding onto them for too long. This also ensures we will have that 1 extra
-            // frame of buffer to smooth over network/rendering jitter.
-            Integer nextOutputBuffer = outputBufferQueue.poll();
-            if (nextOutputBuffer != null) {
-                if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_EXPERIMENTAL_LOW_LATENCY) {
-                    // 实验性低延迟模式：进一步优化V-Sync处理
-                    // 安全的提前量：不超过V-Sync周期的1/2
-                    frameTimeNanos -= 500000000 / refreshRate;
-                }
+        // Let the frame pacer decide whether a frame is due, and which one
+        framePacer.onVsync(frameTimeNanos, outputBufferQueue.size(), framePacingDecision);
+
+        for (int i = 0; i < framePacingDecision.framesToDrop; i++) {
+            int droppedOutputBuffer = outputBufferQueue.poll();
+            if (droppedOutputBuffer == IntRingBuffer.EMPTY) {
+                break;
+            }
+
+            try {
+                videoDecoder.releaseOutputBuffer(droppedOutputBuffer, false);
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                handleDecoderException(e);
+            }
+        }
+
+        if (framePacingDecision.render) {
+            int nextOutputBuffer = outputBufferQueue.poll();
+            if (nextOutputBuffer != IntRingBuffer.EMPTY) {
                 try {
+                    long releaseStartNs = System.nanoTime();
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, frameTimeNanos);
+                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, framePacingDecision.releaseTimeNanos);
                     }
                     else {
                         videoDecoder.releaseOutputBuffer(nextOutputBuffer, true);
                     }
+                    pipelineTimer.record(DecoderPipelineTimer.STAGE_RENDER_RELEASE, System.nanoTime() - releaseStartNs);
 
-                    lastRenderedFrameTimeNanos = frameTimeNanos;
-                    activeWindowVideoStats.totalFramesRendered++;
+                    framePacer.onFrameRendered(framePacingDecision.releaseTimeNanos);
+                    countFrameRendered();
                 } catch (IllegalStateException ignored) {
                     try {
                         // Try to avoid leaking the output buffer by releasing it without rendering
@@ -1097,16 +1133,34 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         Choreographer.getInstance().postFrameCallback(this);
     }
 
+    private boolean usesChoreographerPacing() {
+        return prefs.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED ||
+                prefs.framePacing == PreferenceConfiguration.FRAME_PACING_EXPERIMENTAL_LOW_LATENCY ||
+                prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE;
+    }
+
+    private FramePacer createFramePacer() {
+        switch (prefs.framePacing) {
+            case PreferenceConfiguration.FRAME_PACING_ADAPTIVE:
+                return new AdaptiveFramePacer(refreshRate, OUTPUT_BUFFER_QUEUE_LIMIT);
+            case PreferenceConfiguration.FRAME_PACING_EXPERIMENTAL_LOW_LATENCY:
+                return new FixedFramePacer(refreshRate, true);
+            default:
+                return new FixedFramePacer(refreshRate, false);
+        }
+    }
+
     private void startChoreographerThread() {
-        if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED && 
-            prefs.framePacing != PreferenceConfiguration.FRAME_PACING_EXPERIMENTAL_LOW_LATENCY) {
+        if (!usesChoreographerPacing()) {
             // Not using Choreographer in this pacing mode
             return;
         }
 
+        framePacer = createFramePacer();
+
         // We use a separate thread to avoid any main thread delays from delaying rendering
         choreographerHandlerThread = new HandlerThread("Video - Choreographer", 
-            prefs.framePacing == PreferenceConfiguration.FRAME_PACING_EXPERIMENTAL_LOW_LATENCY ?
+            prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED ?
             Process.THREAD_PRIORITY_DISPLAY : Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE);
         choreographerHandlerThread.start();
 
@@ -1130,10 +1184,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         surfaceFlingerActive = true;
         surfaceFlingerFrameInterval = 1000000000L / refreshRate; // 纳秒
         surfaceFlingerTargetTime = System.nanoTime() + surfaceFlingerFrameInterval;
-        surfaceFlingerLastFrameTime = System.nanoTime();
         surfaceFlingerFrameCount = 0;
         surfaceFlingerSkippedFrames = 0;
-        surfaceFlingerTimingError = 0;
+        surfaceFlingerScheduler = new DeadlineScheduler();
 
         surfaceFlingerThread = new Thread() {
             @Override
@@ -1142,79 +1195,57 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 // 使用安全的线程优先级设置
                 setThreadPrioritySafely(Thread.currentThread(), Process.THREAD_PRIORITY_URGENT_DISPLAY);
                 
+                surfaceFlingerScheduler.sampleCpuTime(Debug.threadCpuTimeNanos(), System.nanoTime());
+
                 while (surfaceFlingerActive && !stopping) {
                     try {
-                        long currentTime = System.nanoTime();
-
                         // 使用绝对目标时间而不是相对时间间隔
-                        if (currentTime >= surfaceFlingerTargetTime) {
-                            // 检查是否有待渲染的帧
-                            Integer nextOutputBuffer = outputBufferQueue.poll();
-                            if (nextOutputBuffer != null) {
-                                // 直接释放缓冲区进行渲染，不使用时间戳
-                                try {
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Surface Flinger Raw模式：直接渲染，让系统处理同步
-                                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, 0);
-                                    } else {
-                                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, true);
-                                    }
-                                    
-                                    surfaceFlingerLastFrameTime = currentTime;
-                                    surfaceFlingerFrameCount++;
-                                    activeWindowVideoStats.totalFramesRendered++;
-
-                                    // 计算时间误差并进行补偿
-                                    long actualInterval = currentTime - surfaceFlingerLastFrameTime;
-                                    surfaceFlingerTimingError += (actualInterval - surfaceFlingerFrameInterval);
-                                    
-                                    // 每100帧记录一次性能数据
-                                    if (surfaceFlingerFrameCount % 100 == 0) {
-                                        float avgError = surfaceFlingerTimingError / 1000000.0f / surfaceFlingerFrameCount;
-                                        LimeLog.info(String.format("SF Raw: %d帧, 跳帧: %d, 平均误差: %.3fms",
-                                                surfaceFlingerFrameCount, surfaceFlingerSkippedFrames, avgError));
-                                    }
-                                    
-                                } catch (IllegalStateException e) {
-                                    LimeLog.warning("Surface Flinger Raw渲染异常: " + e.getMessage());
-                                    handleDecoderException(e);
+                        long currentTime = surfaceFlingerScheduler.awaitDeadline(surfaceFlingerTargetTime);
+
+                        // 检查是否有待渲染的帧
+                        int nextOutputBuffer = outputBufferQueue.poll();
+                        if (nextOutputBuffer != IntRingBuffer.EMPTY) {
+                            // 直接释放缓冲区进行渲染，不使用时间戳
+                            try {
+                                long releaseStartNs = System.nanoTime();
+                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                                    // Surface Flinger Raw模式：直接渲染，让系统处理同步
+                                    videoDecoder.releaseOutputBuffer(nextOutputBuffer, 0);
+                                } else {
+                                    videoDecoder.releaseOutputBuffer(nextOutputBuffer, true);
+                                }
+                                pipelineTimer.record(DecoderPipelineTimer.STAGE_RENDER_RELEASE, System.nanoTime() - releaseStartNs);
+
+                                surfaceFlingerFrameCount++;
+                                countFrameRendered();
+
+                                // 每100帧记录一次性能数据
+                                if (surfaceFlingerFrameCount % 100 == 0) {
+                                    surfaceFlingerScheduler.sampleCpuTime(Debug.threadCpuTimeNanos(), System.nanoTime());
+                                    LimeLog.info(String.format("SF Raw: %d帧, 跳帧: %d, 队列溢出: %d, %s",
+                                            surfaceFlingerFrameCount, surfaceFlingerSkippedFrames,
+                                            outputBufferQueue.getOverflowCount(),
+                                            surfaceFlingerScheduler.getStatsString()));
                                 }
-                            } else {
-                                // 没有可用的帧，记录为跳帧
-                                surfaceFlingerSkippedFrames++;
-                            }
-
-                            // 更新下一帧的绝对目标时间
-                            surfaceFlingerTargetTime += surfaceFlingerFrameInterval;
 
-                            // 如果累积误差过大（>2帧），重新同步
-                            if (Math.abs(currentTime - surfaceFlingerTargetTime) > surfaceFlingerFrameInterval * 2) {
-                                LimeLog.warning("SF Raw: 时间漂移过大，重新同步");
-                                surfaceFlingerTargetTime = currentTime + surfaceFlingerFrameInterval;
-                                surfaceFlingerTimingError = 0;
+                            } catch (IllegalStateException e) {
+                                LimeLog.warning("Surface Flinger Raw渲染异常: " + e.getMessage());
+                                handleDecoderException(e);
                             }
+                        } else {
+                            // 没有可用的帧，记录为跳帧
+                            surfaceFlingerSkippedFrames++;
                         }
 
-                        // 精确休眠到下一帧
-                        currentTime = System.nanoTime();
-                        long sleepTimeNs = surfaceFlingerTargetTime - currentTime;
+                        // 更新下一帧的绝对目标时间
+                        surfaceFlingerTargetTime += surfaceFlingerFrameInterval;
 
-                        if (sleepTimeNs > 2000000) { // 超过2ms，使用sleep
-                            // 提前1ms醒来，用忙等待精确控制
-                            long sleepMs = (sleepTimeNs - 1000000) / 1000000;
-                            if (sleepMs > 0) {
-                                Thread.sleep(sleepMs);
-                            }
-                        }
-
-                        // 忙等待最后的微秒级精度
-                        while (System.nanoTime() < surfaceFlingerTargetTime) {
-                            // 短暂让出CPU，避免100%占用
-                            if (surfaceFlingerTargetTime - System.nanoTime() > 100000) {
-                                Thread.yield();
-                            }
+                        // 如果累积误差过大（>2帧），重新同步
+                        if (Math.abs(currentTime - surfaceFlingerTargetTime) > surfaceFlingerFrameInterval * 2) {
+                            LimeLog.warning("SF Raw: 时间漂移过大，重新同步");
+                            surfaceFlingerTargetTime = currentTime + surfaceFlingerFrameInterval;
+                            surfaceFlingerScheduler.resetErrorStats();
                         }
-                        
                     } catch (InterruptedException e) {
                         LimeLog.info("Surface Flinger线程被中断");
                         break;
@@ -1240,16 +1271,17 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 while (!stopping) {
                     try {
                         // Try to output a frame
+                        long dequeueStartNs = System.nanoTime();
                         int outIndex = videoDecoder.dequeueOutputBuffer(info, 50000);
                         if (outIndex >= 0) {
+                            pipelineTimer.record(DecoderPipelineTimer.STAGE_DEQUEUE_OUTPUT, System.nanoTime() - dequeueStartNs);
                             long presentationTimeUs = info.presentationTimeUs;
                             int lastIndex = outIndex;
 
                             numFramesOut++;
 
-                            // Render the latest frame now if frame pacing isn't in balanced mode or Surface Flinger mode
-                            if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED && 
-                                prefs.framePacing != PreferenceConfiguration.FRAME_PACING_EXPERIMENTAL_LOW_LATENCY &&
+                            // Render the latest frame now if frame pacing isn't in a vsync-paced mode or Surface Flinger mode
+                            if (!usesChoreographerPacing() &&
                                 prefs.framePacing != PreferenceConfiguration.FRAME_PACING_SURFACE_FLINGER_RAW) {
                                 // Get the last output buffer in the queue
                                 while ((outIndex = videoDecoder.dequeueOutputBuffer(info, 0)) >= 0) {
@@ -1261,6 +1293,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                                     presentationTimeUs = info.presentationTimeUs;
                                 }
 
+                                long releaseStartNs = System.nanoTime();
                                 if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
                                         prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
                                     // In max smoothness or cap FPS mode, we want to never drop frames
@@ -1279,40 +1312,41 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                                         videoDecoder.releaseOutputBuffer(lastIndex, true);
                                     }
                                 }
+                                pipelineTimer.record(DecoderPipelineTimer.STAGE_RENDER_RELEASE, System.nanoTime() - releaseStartNs);
 
-                                activeWindowVideoStats.totalFramesRendered++;
+                                countFrameRendered();
                             }
                             else {
-                                // For balanced frame pacing, experimental low latency, and Surface Flinger modes
+                                // For balanced, experimental low latency, adaptive, and Surface Flinger modes
                                 // The respective callback threads will handle rendering.
                                 // We just put all frames into the output buffer queue and let them handle things.
 
-                                // Discard the oldest buffer if we've exceeded our limit.
+                                // Add this buffer, discarding the oldest buffer if we've exceeded our limit.
                                 //
                                 // NB: We have to do this on the producer side because the consumer may not
                                 // run for a while (if there is a huge mismatch between stream FPS and display
-                                // refresh rate).
-                                if (outputBufferQueue.size() == OUTPUT_BUFFER_QUEUE_LIMIT) {
-                                    try {
-                                        videoDecoder.releaseOutputBuffer(outputBufferQueue.take(), false);
-                                    } catch (InterruptedException e) {
-                                        // We're shutting down, so we can just drop this buffer on the floor
-                                        // and it will be reclaimed when the codec is released.
-                                        return;
-                                    }
+                                // refresh rate). The ring takes the oldest entry atomically, so we can't race
+                                // with the consumer and release a buffer that it is about to render.
+                                int droppedIndex = outputBufferQueue.offerDropOldest(lastIndex);
+                                if (droppedIndex != IntRingBuffer.EMPTY) {
+                                    videoDecoder.releaseOutputBuffer(droppedIndex, false);
                                 }
 
-                                // Add this buffer
-                                outputBufferQueue.add(lastIndex);
+                                if (framePacer != null) {
+                                    framePacer.onFrameDecoded(System.nanoTime());
+                                }
                             }
 
                             // Add delta time to the totals (excluding probable outliers)
                             long delta = calculateDecoderTime(presentationTimeUs);
                             if (delta >= 0 && delta < 1000) {
+                                VideoStats activeWindowVideoStats = statsAggregator.acquireWindow();
                                 activeWindowVideoStats.decoderTimeMs += delta;
+                                activeWindowVideoStats.decoderLatency.recordMs(delta);
                                 if (!USE_FRAME_RENDER_TIME) {
                                     activeWindowVideoStats.totalTimeMs += delta;
                                 }
+                                statsAggregator.releaseWindow(activeWindowVideoStats);
                             }
                         } else {
                             switch (outIndex) {
@@ -1353,8 +1387,20 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         try {
             // If we don't have an input buffer index yet, fetch one now
-            while (nextInputBufferIndex < 0 && !stopping) {
-                nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+            if (nextInputBufferIndex < 0) {
+                long dequeueStartNs = System.nanoTime();
+
+                while (nextInputBufferIndex < 0 && !stopping) {
+                    nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                    if (nextInputBufferIndex < 0) {
+                        // Let the watchdog know we're still waiting on the decoder
+                        pipelineTimer.onInputStall(System.nanoTime() - dequeueStartNs);
+                    }
+                }
+
+                if (nextInputBufferIndex >= 0) {
+                    pipelineTimer.record(DecoderPipelineTimer.STAGE_DEQUEUE_INPUT, System.nanoTime() - dequeueStartNs);
+                }
             }
 
             // Get the backing ByteBuffer for the input buffer index
@@ -1416,6 +1462,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     @Override
     public void start() {
+        statsAggregator.start();
         startRendererThread();
         startChoreographerThread();
         startSurfaceFlingerThread();
@@ -1502,11 +1549,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // status back to true.
             Thread.currentThread().interrupt();
         }
+
+        // Stop publishing stats and fold in the final partial window
+        statsAggregator.stop();
     }
 
     @Override
     public void cleanup() {
         videoDecoder.release();
+        csdCache.clear();
     }
 
     @Override
@@ -1543,9 +1594,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         boolean codecRecovered;
 
         try {
+            long queueStartNs = System.nanoTime();
             videoDecoder.queueInputBuffer(nextInputBufferIndex,
                     0, nextInputBuffer.position(),
                     timestampUs, codecFlags);
+            pipelineTimer.record(DecoderPipelineTimer.STAGE_QUEUE_INPUT, System.nanoTime() - queueStartNs);
 
             // We need a new buffer now
             nextInputBufferIndex = -1;
@@ -1600,307 +1653,300 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         }
     }
 
-    @SuppressWarnings("deprecation")
-    @Override
-    public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
-                                int frameNumber, int frameType, char frameHostProcessingLatency,
-                                long receiveTimeMs, long enqueueTimeMs) {
-        if (stopping) {
-            // Don't bother if we're stopping
-            return MoonBridge.DR_OK;
+    private byte[] patchH264Sps(byte[] decodeUnitData, int decodeUnitLength) {
+        ByteBuffer spsBuf = ByteBuffer.wrap(decodeUnitData);
+        int startSeqLen = decodeUnitData[2] == 0x01 ? 3 : 4;
+
+        // Skip to the start of the NALU data
+        spsBuf.position(startSeqLen + 1);
+
+        // The H264Utils.readSPS function safely handles
+        // Annex B NALUs (including NALUs with escape sequences)
+        SeqParameterSet sps = H264Utils.readSPS(spsBuf);
+
+        // Some decoders rely on H264 level to decide how many buffers are needed
+        // Since we only need one frame buffered, we'll set the level as low as we can
+        // for known resolution combinations. Reference frame invalidation may need
+        // these, so leave them be for those decoders.
+        if (!refFrameInvalidationActive) {
+            if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
+                // Max 5 buffered frames at 720x480x60
+                LimeLog.info("Patching level_idc to 31");
+                sps.levelIdc = 31;
+            }
+            else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
+                // Max 5 buffered frames at 1280x720x60
+                LimeLog.info("Patching level_idc to 32");
+                sps.levelIdc = 32;
+            }
+            else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
+                // Max 4 buffered frames at 1920x1080x64
+                LimeLog.info("Patching level_idc to 42");
+                sps.levelIdc = 42;
+            }
+            else {
+                // Leave the profile alone (currently 5.0)
+            }
+        }
+
+        // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
+        // also requires this fixup.
+        //
+        // I'm doing this fixup for all devices because I haven't seen any devices that
+        // this causes issues for. At worst, it seems to do nothing and at best it fixes
+        // issues with video lag, hangs, and crashes.
+        //
+        // It does break reference frame invalidation, so we will not do that for decoders
+        // where we've enabled reference frame invalidation.
+        if (!refFrameInvalidationActive) {
+            LimeLog.info("Patching num_ref_frames in SPS");
+            sps.numRefFrames = 1;
+        }
+
+        // GFE 2.5.11 changed the SPS to add additional extensions. Some devices don't like these
+        // so we remove them here on old devices unless these devices also support HEVC.
+        // See getPreferredColorSpace() for further information.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O &&
+                sps.vuiParams != null &&
+                hevcDecoder == null &&
+                av1Decoder == null) {
+            sps.vuiParams.videoSignalTypePresentFlag = false;
+            sps.vuiParams.colourDescriptionPresentFlag = false;
+            sps.vuiParams.chromaLocInfoPresentFlag = false;
+        }
+
+        // Some older devices used to choke on a bitstream restrictions, so we won't provide them
+        // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
+        if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
+            // or max_dec_frame_buffering which increases decoding latency on Tegra.
+
+            // If the encoder didn't include VUI parameters in the SPS, add them now
+            if (sps.vuiParams == null) {
+                LimeLog.info("Adding VUI parameters");
+                sps.vuiParams = new VUIParameters();
+            }
+
+            // GFE 2.5.11 started sending bitstream restrictions
+            if (sps.vuiParams.bitstreamRestriction == null) {
+                LimeLog.info("Adding bitstream restrictions");
+                sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
+                sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
+                sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+                sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+                sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
+                sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
+                sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
+            }
+            else {
+                LimeLog.info("Patching bitstream restrictions");
+            }
+
+            // Some devices throw errors if maxDecFrameBuffering < numRefFrames
+            sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
+
+            // These values are the defaults for the fields, but they are more aggressive
+            // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
+            // We'll leave these alone for "modern" devices just in case they care.
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+                sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+            }
+
+            // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
+            // conservative values by GFE 2.5.11. We'll let those values stand.
+        }
+        else if (sps.vuiParams != null) {
+            // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
+            // will continue to not receive them now
+            sps.vuiParams.bitstreamRestriction = null;
         }
 
-        if (lastFrameNumber == 0) {
-            activeWindowVideoStats.measurementStartTimestamp = SystemClock.uptimeMillis();
-        } else if (frameNumber != lastFrameNumber && frameNumber != lastFrameNumber + 1) {
+        // If we need to hack this SPS to say we're baseline, do so now
+        if (needsBaselineSpsHack) {
+            LimeLog.info("Hacking SPS to baseline");
+            sps.profileIdc = 66;
+            savedSps = sps;
+        }
+
+        // Patch the SPS constraint flags
+        doProfileSpecificSpsPatching(sps);
+
+        // The H264Utils.writeSPS function safely handles
+        // Annex B NALUs (including NALUs with escape sequences)
+        ByteBuffer escapedNalu = H264Utils.writeSPS(sps, decodeUnitLength);
+
+        // Construct the patched SPS
+        byte[] naluBuffer = new byte[startSeqLen + 1 + escapedNalu.limit()];
+        System.arraycopy(decodeUnitData, 0, naluBuffer, 0, startSeqLen + 1);
+        escapedNalu.get(naluBuffer, startSeqLen + 1, escapedNalu.limit());
+
+        return naluBuffer;
+    }
+
+    // Returns the CSD blob for the parameter sets of the current IDR frame, building
+    // and caching it if these parameter sets haven't been seen before.
+    private byte[] getCurrentCsd() {
+        if (currentCsd != null) {
+            return currentCsd;
+        }
+
+        // The baseline SPS hack changes how the SPS is patched until the SPS is replayed,
+        // so don't use or populate the cache until that's done.
+        if (!needsBaselineSpsHack) {
+            currentCsd = csdCache.lookup();
+            if (currentCsd != null) {
+                return currentCsd;
+            }
+        }
+
+        // Assemble all VPS, then SPS, then PPS buffers
+        ByteArrayOutputStream csd = new ByteArrayOutputStream();
+        int[] csdTypeOrder = {MoonBridge.BUFFER_TYPE_VPS, MoonBridge.BUFFER_TYPE_SPS, MoonBridge.BUFFER_TYPE_PPS};
+        for (int type : csdTypeOrder) {
+            for (int i = 0; i < csdCache.getParameterSetCount(); i++) {
+                if (csdCache.getParameterSetType(i) != type) {
+                    continue;
+                }
+
+                byte[] naluBuffer = csdCache.copyParameterSet(i);
+                if (type == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
+                    naluBuffer = patchH264Sps(naluBuffer, naluBuffer.length);
+                }
+                csd.write(naluBuffer, 0, naluBuffer.length);
+            }
+        }
+
+        currentCsd = csd.toByteArray();
+        if (!needsBaselineSpsHack) {
+            csdCache.store(currentCsd);
+        }
+
+        return currentCsd;
+    }
+
+    private void countFrameRendered() {
+        VideoStats activeWindowVideoStats = statsAggregator.acquireWindow();
+        activeWindowVideoStats.totalFramesRendered++;
+        statsAggregator.releaseWindow(activeWindowVideoStats);
+    }
+
+    private void trackFrameNumber(int frameNumber, int frameType) {
+        if (lastFrameNumber != 0 && frameNumber != lastFrameNumber && frameNumber != lastFrameNumber + 1) {
             // We can receive the same "frame" multiple times if it's an IDR frame.
             // In that case, each frame start NALU is submitted independently.
+            VideoStats activeWindowVideoStats = statsAggregator.acquireWindow();
             activeWindowVideoStats.framesLost += frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.totalFrames += frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.frameLossEvents++;
+            statsAggregator.releaseWindow(activeWindowVideoStats);
         }
 
         // Reset CSD data for each IDR frame
         if (lastFrameNumber != frameNumber && frameType == MoonBridge.FRAME_TYPE_IDR) {
-            vpsBuffers.clear();
-            spsBuffers.clear();
-            ppsBuffers.clear();
+            csdCache.resetParameterSets();
+            currentCsd = null;
         }
 
         lastFrameNumber = frameNumber;
+    }
 
-        // Flip stats windows roughly every second
-        if (SystemClock.uptimeMillis() >= activeWindowVideoStats.measurementStartTimestamp + 1000) {
-            VideoStats lastTwo = new VideoStats();
-            lastTwo.add(lastWindowVideoStats);
-            lastTwo.add(activeWindowVideoStats);
-            VideoStatsFps fps = lastTwo.getFps();
-            String decoder;
-
-            if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                decoder = avcDecoder.getName();
-            } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
-                decoder = hevcDecoder.getName();
-            } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
-                decoder = av1Decoder.getName();
-            } else {
-                decoder = "(unknown)";
-            }
-            float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
-            long rttInfo = MoonBridge.getEstimatedRttInfo();
-            float lostFrameRate = (float)lastTwo.framesLost / lastTwo.totalFrames * 100;
-            float minHostProcessingLatency = (float)lastTwo.minHostProcessingLatency / 10;
-            float maxHostProcessingLatency = (float)lastTwo.minHostProcessingLatency / 10;
-            float aveHostProcessingLatency = (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency;
-            
-            // 计算平均“解码+渲染”总时间
-            float aveTotalProcessingTimeMs = 0;
-            if (lastTwo.totalFramesRendered > 0) {
-                aveTotalProcessingTimeMs = (float) lastTwo.totalTimeMs / lastTwo.totalFramesRendered;
-            }
-
-            // 计算平均"纯渲染延迟"
-            // 注意：这里用总处理时间减去解码时间。如果结果为负，说明数据有抖动，取0即可。
-            float avePureRenderingLatencyMs = Math.max(0, aveTotalProcessingTimeMs - decodeTimeMs);
-
-            PerformanceInfo performanceInfo = new PerformanceInfo();
-            performanceInfo.context = context;
-            performanceInfo.initialWidth = initialWidth;
-            performanceInfo.initialHeight = initialHeight;
-            performanceInfo.decoder = decoder;
-            performanceInfo.totalFps = fps.totalFps;
-            performanceInfo.receivedFps = fps.receivedFps;
-            performanceInfo.renderedFps = fps.renderedFps;
-            performanceInfo.lostFrameRate = lostFrameRate;
-            performanceInfo.rttInfo = rttInfo;
-            performanceInfo.framesWithHostProcessingLatency = frameHostProcessingLatency;
-            performanceInfo.isHdrActive = (currentHdrMetadata != null); // 基于实际HDR元数据状态
-            performanceInfo.minHostProcessingLatency = minHostProcessingLatency;
-            performanceInfo.maxHostProcessingLatency = maxHostProcessingLatency;
-            performanceInfo.aveHostProcessingLatency = aveHostProcessingLatency;
-            performanceInfo.decodeTimeMs = decodeTimeMs;
-            performanceInfo.renderingLatencyMs = avePureRenderingLatencyMs;
-            performanceInfo.totalTimeMs = aveTotalProcessingTimeMs;
-
-            perfListener.onPerfUpdateV(performanceInfo);
-            perfListener.onPerfUpdateWG(performanceInfo);
-
-            globalVideoStats.add(activeWindowVideoStats);
-            lastWindowVideoStats.copy(activeWindowVideoStats);
-            activeWindowVideoStats.clear();
-            activeWindowVideoStats.measurementStartTimestamp = SystemClock.uptimeMillis();
+    @SuppressWarnings("deprecation")
+    @Override
+    public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
+                                int frameNumber, int frameType, char frameHostProcessingLatency,
+                                long receiveTimeMs, long enqueueTimeMs) {
+        if (stopping) {
+            // Don't bother if we're stopping
+            return MoonBridge.DR_OK;
         }
 
-        boolean csdSubmittedForThisFrame = false;
+        trackFrameNumber(frameNumber, frameType);
 
         // IDR frames require special handling for CSD buffer submission
         if (frameType == MoonBridge.FRAME_TYPE_IDR) {
-            // H264 SPS
-            if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                numSpsIn++;
-
-                ByteBuffer spsBuf = ByteBuffer.wrap(decodeUnitData);
-                int startSeqLen = decodeUnitData[2] == 0x01 ? 3 : 4;
-
-                // Skip to the start of the NALU data
-                spsBuf.position(startSeqLen + 1);
-
-                // The H264Utils.readSPS function safely handles
-                // Annex B NALUs (including NALUs with escape sequences)
-                SeqParameterSet sps = H264Utils.readSPS(spsBuf);
-
-                // Some decoders rely on H264 level to decide how many buffers are needed
-                // Since we only need one frame buffered, we'll set the level as low as we can
-                // for known resolution combinations. Reference frame invalidation may need
-                // these, so leave them be for those decoders.
-                if (!refFrameInvalidationActive) {
-                    if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
-                        // Max 5 buffered frames at 720x480x60
-                        LimeLog.info("Patching level_idc to 31");
-                        sps.levelIdc = 31;
-                    }
-                    else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
-                        // Max 5 buffered frames at 1280x720x60
-                        LimeLog.info("Patching level_idc to 32");
-                        sps.levelIdc = 32;
-                    }
-                    else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
-                        // Max 4 buffered frames at 1920x1080x64
-                        LimeLog.info("Patching level_idc to 42");
-                        sps.levelIdc = 42;
-                    }
-                    else {
-                        // Leave the profile alone (currently 5.0)
-                    }
+            if (decodeUnitType == MoonBridge.BUFFER_TYPE_VPS ||
+                    decodeUnitType == MoonBridge.BUFFER_TYPE_SPS ||
+                    decodeUnitType == MoonBridge.BUFFER_TYPE_PPS) {
+                if (decodeUnitType == MoonBridge.BUFFER_TYPE_VPS) {
+                    numVpsIn++;
                 }
-
-                // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
-                // also requires this fixup.
-                //
-                // I'm doing this fixup for all devices because I haven't seen any devices that
-                // this causes issues for. At worst, it seems to do nothing and at best it fixes
-                // issues with video lag, hangs, and crashes.
-                //
-                // It does break reference frame invalidation, so we will not do that for decoders
-                // where we've enabled reference frame invalidation.
-                if (!refFrameInvalidationActive) {
-                    LimeLog.info("Patching num_ref_frames in SPS");
-                    sps.numRefFrames = 1;
+                else if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS) {
+                    numSpsIn++;
                 }
-
-                // GFE 2.5.11 changed the SPS to add additional extensions. Some devices don't like these
-                // so we remove them here on old devices unless these devices also support HEVC.
-                // See getPreferredColorSpace() for further information.
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O &&
-                        sps.vuiParams != null &&
-                        hevcDecoder == null &&
-                        av1Decoder == null) {
-                    sps.vuiParams.videoSignalTypePresentFlag = false;
-                    sps.vuiParams.colourDescriptionPresentFlag = false;
-                    sps.vuiParams.chromaLocInfoPresentFlag = false;
+                else {
+                    numPpsIn++;
                 }
 
-                // Some older devices used to choke on a bitstream restrictions, so we won't provide them
-                // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
-                if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
-                    // or max_dec_frame_buffering which increases decoding latency on Tegra.
+                // Batch this to submit together with other CSD per AOSP docs. The raw
+                // parameter sets are only patched if we haven't seen them before.
+                csdCache.addParameterSet(decodeUnitType, decodeUnitData, decodeUnitLength);
+                return MoonBridge.DR_OK;
+            }
+        }
 
-                    // If the encoder didn't include VUI parameters in the SPS, add them now
-                    if (sps.vuiParams == null) {
-                        LimeLog.info("Adding VUI parameters");
-                        sps.vuiParams = new VUIParameters();
-                    }
+        int err = preparePictureData(decodeUnitLength, frameType, frameHostProcessingLatency,
+                receiveTimeMs, enqueueTimeMs);
+        if (err != MoonBridge.DR_OK) {
+            return err;
+        }
 
-                    // GFE 2.5.11 started sending bitstream restrictions
-                    if (sps.vuiParams.bitstreamRestriction == null) {
-                        LimeLog.info("Adding bitstream restrictions");
-                        sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
-                        sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
-                        sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                        sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-                        sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
-                        sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
-                        sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
-                    }
-                    else {
-                        LimeLog.info("Patching bitstream restrictions");
-                    }
+        // Copy data from our buffer list into the input buffer
+        long copyStartNs = System.nanoTime();
+        nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
+        pipelineTimer.record(DecoderPipelineTimer.STAGE_COPY, System.nanoTime() - copyStartNs);
 
-                    // Some devices throw errors if maxDecFrameBuffering < numRefFrames
-                    sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
+        if (!queueNextInputBuffer(pendingTimestampUs, pendingCodecFlags)) {
+            return MoonBridge.DR_NEED_IDR;
+        }
 
-                    // These values are the defaults for the fields, but they are more aggressive
-                    // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
-                    // We'll leave these alone for "modern" devices just in case they care.
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-                        sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                        sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-                    }
+        return MoonBridge.DR_OK;
+    }
 
-                    // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
-                    // conservative values by GFE 2.5.11. We'll let those values stand.
-                }
-                else if (sps.vuiParams != null) {
-                    // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
-                    // will continue to not receive them now
-                    sps.vuiParams.bitstreamRestriction = null;
-                }
+    // Handles everything for a picture data decode unit up to writing the picture data itself.
+    // On success, nextInputBuffer is positioned where the data goes and has room for it.
+    private int preparePictureData(int decodeUnitLength, int frameType, char frameHostProcessingLatency,
+                                   long receiveTimeMs, long enqueueTimeMs) {
+        boolean csdSubmittedForThisFrame = false;
 
-                // If we need to hack this SPS to say we're baseline, do so now
-                if (needsBaselineSpsHack) {
-                    LimeLog.info("Hacking SPS to baseline");
-                    sps.profileIdc = 66;
-                    savedSps = sps;
+        if (frameType == MoonBridge.FRAME_TYPE_IDR &&
+                (videoFormat & (MoonBridge.VIDEO_FORMAT_MASK_H264 | MoonBridge.VIDEO_FORMAT_MASK_H265)) != 0) {
+            // If this is the first CSD blob or we aren't supporting fused IDR frames, we will
+            // submit the CSD blob in a separate input buffer for each IDR frame.
+            if (!submittedCsd || !fusedIdrFrame) {
+                if (!fetchNextInputBuffer()) {
+                    return MoonBridge.DR_NEED_IDR;
                 }
 
-                // Patch the SPS constraint flags
-                doProfileSpecificSpsPatching(sps);
-
-                // The H264Utils.writeSPS function safely handles
-                // Annex B NALUs (including NALUs with escape sequences)
-                ByteBuffer escapedNalu = H264Utils.writeSPS(sps, decodeUnitLength);
+                // Submit all CSD when we receive the first non-CSD blob in an IDR frame
+                nextInputBuffer.put(getCurrentCsd());
 
-                // Construct the patched SPS
-                byte[] naluBuffer = new byte[startSeqLen + 1 + escapedNalu.limit()];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, startSeqLen + 1);
-                escapedNalu.get(naluBuffer, startSeqLen + 1, escapedNalu.limit());
-
-                // Batch this to submit together with other CSD per AOSP docs
-                spsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
-            }
-            else if (decodeUnitType == MoonBridge.BUFFER_TYPE_VPS) {
-                numVpsIn++;
+                if (!queueNextInputBuffer(0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
+                    return MoonBridge.DR_NEED_IDR;
+                }
 
-                // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                vpsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
-            }
-            // Only the HEVC SPS hits this path (H.264 is handled above)
-            else if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS) {
-                numSpsIn++;
+                // Remember that we already submitted CSD for this frame, so we don't do it
+                // again in the fused IDR case below.
+                csdSubmittedForThisFrame = true;
 
-                // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                spsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
-            }
-            else if (decodeUnitType == MoonBridge.BUFFER_TYPE_PPS) {
-                numPpsIn++;
+                // Remember that we submitted CSD globally for this MediaCodec instance
+                submittedCsd = true;
 
-                // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                ppsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
-            }
-            else if ((videoFormat & (MoonBridge.VIDEO_FORMAT_MASK_H264 | MoonBridge.VIDEO_FORMAT_MASK_H265)) != 0) {
-                // If this is the first CSD blob or we aren't supporting fused IDR frames, we will
-                // submit the CSD blob in a separate input buffer for each IDR frame.
-                if (!submittedCsd || !fusedIdrFrame) {
-                    if (!fetchNextInputBuffer()) {
-                        return MoonBridge.DR_NEED_IDR;
-                    }
-
-                    // Submit all CSD when we receive the first non-CSD blob in an IDR frame
-                    for (byte[] vpsBuffer : vpsBuffers) {
-                        nextInputBuffer.put(vpsBuffer);
-                    }
-                    for (byte[] spsBuffer : spsBuffers) {
-                        nextInputBuffer.put(spsBuffer);
-                    }
-                    for (byte[] ppsBuffer : ppsBuffers) {
-                        nextInputBuffer.put(ppsBuffer);
-                    }
+                if (needsBaselineSpsHack) {
+                    needsBaselineSpsHack = false;
 
-                    if (!queueNextInputBuffer(0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
+                    if (!replaySps()) {
                         return MoonBridge.DR_NEED_IDR;
                     }
 
-                    // Remember that we already submitted CSD for this frame, so we don't do it
-                    // again in the fused IDR case below.
-                    csdSubmittedForThisFrame = true;
-
-                    // Remember that we submitted CSD globally for this MediaCodec instance
-                    submittedCsd = true;
-
-                    if (needsBaselineSpsHack) {
-                        needsBaselineSpsHack = false;
-
-                        if (!replaySps()) {
-                            return MoonBridge.DR_NEED_IDR;
-                        }
-
-                        LimeLog.info("SPS replay complete");
-                    }
+                    LimeLog.info("SPS replay complete");
                 }
             }
         }
 
+        // Only hold the stats window for the counter updates, never across a dequeue,
+        // or the stats thread would stall waiting to flip it
+        VideoStats activeWindowVideoStats = statsAggregator.acquireWindow();
         if (frameHostProcessingLatency != 0) {
             if (activeWindowVideoStats.minHostProcessingLatency != 0) {
                 activeWindowVideoStats.minHostProcessingLatency = (char) Math.min(activeWindowVideoStats.minHostProcessingLatency, frameHostProcessingLatency);
@@ -1908,6 +1954,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 activeWindowVideoStats.minHostProcessingLatency = frameHostProcessingLatency;
             }
             activeWindowVideoStats.framesWithHostProcessingLatency += 1;
+            activeWindowVideoStats.hostProcessingLatency.recordTenthsMs(frameHostProcessingLatency);
         }
         activeWindowVideoStats.maxHostProcessingLatency = (char) Math.max(activeWindowVideoStats.maxHostProcessingLatency, frameHostProcessingLatency);
         activeWindowVideoStats.totalHostProcessingLatency += frameHostProcessingLatency;
@@ -1921,6 +1968,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // caused by a slow decoder.
             activeWindowVideoStats.totalTimeMs += enqueueTimeMs - receiveTimeMs;
         }
+        activeWindowVideoStats.receiveLatency.recordMs(enqueueTimeMs - receiveTimeMs);
+        statsAggregator.releaseWindow(activeWindowVideoStats);
 
         if (!fetchNextInputBuffer()) {
             return MoonBridge.DR_NEED_IDR;
@@ -1933,15 +1982,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
             // If we are using fused IDR frames, submit the CSD with each IDR frame
             if (fusedIdrFrame && !csdSubmittedForThisFrame) {
-                for (byte[] vpsBuffer : vpsBuffers) {
-                    nextInputBuffer.put(vpsBuffer);
-                }
-                for (byte[] spsBuffer : spsBuffers) {
-                    nextInputBuffer.put(spsBuffer);
-                }
-                for (byte[] ppsBuffer : ppsBuffers) {
-                    nextInputBuffer.put(ppsBuffer);
-                }
+                nextInputBuffer.put(getCurrentCsd());
             }
         }
 
@@ -1965,16 +2006,89 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             throw new RendererException(this, exception);
         }
 
-        // Copy data from our buffer list into the input buffer
-        nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
+        pendingTimestampUs = timestampUs;
+        pendingCodecFlags = codecFlags;
+        return MoonBridge.DR_OK;
+    }
+
+    @Override
+    public boolean supportsDirectBufferSubmit() {
+        // MediaCodec input buffers are always direct
+        return true;
+    }
 
-        if (!queueNextInputBuffer(timestampUs, codecFlags)) {
+    @Override
+    public ByteBuffer getDecodeUnitBuffer(int decodeUnitLength, int frameNumber, int frameType,
+                                          char frameHostProcessingLatency, long receiveTimeMs, long enqueueTimeMs) {
+        decodeUnitBufferHandedOut = false;
+        if (stopping) {
+            // Don't bother if we're stopping
+            pendingDecodeUnitStatus = MoonBridge.DR_OK;
+            return null;
+        }
+
+        trackFrameNumber(frameNumber, frameType);
+
+        pendingDecodeUnitStatus = preparePictureData(decodeUnitLength, frameType, frameHostProcessingLatency,
+                receiveTimeMs, enqueueTimeMs);
+        if (pendingDecodeUnitStatus != MoonBridge.DR_OK) {
+            return null;
+        }
+
+        decodeUnitBufferHandoffNs = System.nanoTime();
+        decodeUnitBufferHandedOut = true;
+        return nextInputBuffer;
+    }
+
+    @Override
+    public int submitDecodeUnitBuffer(int decodeUnitLength) {
+        if (!decodeUnitBufferHandedOut) {
+            // getDecodeUnitBuffer() returned null, either because it failed or because
+            // we're stopping, so there's nothing to submit
+            return pendingDecodeUnitStatus;
+        }
+        decodeUnitBufferHandedOut = false;
+
+        if (decodeUnitLength < 0) {
+            // The native code couldn't write into the buffer. Throw away anything
+            // already written for this frame and ask for an IDR frame to recover.
+            LimeLog.warning("Decode unit buffer was not written");
+            nextInputBuffer.clear();
+            return MoonBridge.DR_NEED_IDR;
+        }
+
+        // The data was written after the buffer's position without moving it
+        nextInputBuffer.position(nextInputBuffer.position() + decodeUnitLength);
+        pipelineTimer.record(DecoderPipelineTimer.STAGE_COPY, System.nanoTime() - decodeUnitBufferHandoffNs);
+
+        if (!queueNextInputBuffer(pendingTimestampUs, pendingCodecFlags)) {
             return MoonBridge.DR_NEED_IDR;
         }
 
         return MoonBridge.DR_OK;
     }
 
+    // Called by the stats aggregator thread to fill in the non-statistical parts of a snapshot
+    void populateStreamInfo(PerformanceInfo performanceInfo) {
+        String decoder;
+
+        if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
+            decoder = avcDecoder.getName();
+        } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
+            decoder = hevcDecoder.getName();
+        } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
+            decoder = av1Decoder.getName();
+        } else {
+            decoder = "(unknown)";
+        }
+
+        performanceInfo.context = context;
+        performanceInfo.initialWidth = initialWidth;
+        performanceInfo.initialHeight = initialHeight;
+        performanceInfo.decoder = decoder;
+        performanceInfo.isHdrActive = (currentHdrMetadata != null); // 基于实际HDR元数据状态
+    }
+
     private boolean replaySps() {
         if (!fetchNextInputBuffer()) {
             return false;
@@ -2042,7 +2156,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     }
 
     public String getSurfaceFlingerStats() {
-        if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_SURFACE_FLINGER_RAW) {
+        if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_SURFACE_FLINGER_RAW || surfaceFlingerScheduler == null) {
             return null;
         }
         
@@ -2060,10 +2174,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             skipRate = (float)surfaceFlingerSkippedFrames / totalFramesExpected * 100f;
         }
         
-        return String.format("[SF Raw: %d渲染/%d接收, 跳帧率: %.1f%%]", 
+        return String.format("[SF Raw: %d渲染/%d接收, 跳帧率: %.1f%%, CPU: %.1f%%, 唤醒误差: %.2fms]", 
             (int)globalVideoStats.totalFramesRendered, 
             (int)globalVideoStats.totalFramesReceived, 
-            skipRate);
+            skipRate,
+            surfaceFlingerScheduler.getCpuUsage() * 100,
+            surfaceFlingerScheduler.getAverageErrorMs());
     }
 
     static class DecoderHungException extends RuntimeException {
@@ -2191,13 +2307,22 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             str += "FPS target: "+renderer.refreshRate+DELIMITER;
             str += "Bitrate: "+renderer.prefs.bitrate+" Kbps"+DELIMITER;
             str += "CSD stats: "+renderer.numVpsIn+", "+renderer.numSpsIn+", "+renderer.numPpsIn+DELIMITER;
+            str += "CSD cache: "+renderer.csdCache.getHits()+" hits, "+renderer.csdCache.getMisses()+" misses"+DELIMITER;
             str += "Frames in-out: "+renderer.numFramesIn+", "+renderer.numFramesOut+DELIMITER;
+            str += "Output queue depth (max)/overflows: "+renderer.outputBufferQueue.size()+" ("+renderer.outputBufferQueue.getMaxDepth()+")/"+renderer.outputBufferQueue.getOverflowCount()+DELIMITER;
             str += "Total frames received: "+renderer.globalVideoStats.totalFramesReceived+DELIMITER;
             str += "Total frames rendered: "+renderer.globalVideoStats.totalFramesRendered+DELIMITER;
             str += "Frame losses: "+renderer.globalVideoStats.framesLost+" in "+renderer.globalVideoStats.frameLossEvents+" loss events"+DELIMITER;
             str += "Average end-to-end client latency: "+renderer.getAverageEndToEndLatency()+"ms"+DELIMITER;
             str += "Average hardware decoder latency: "+renderer.getAverageDecoderLatency()+"ms"+DELIMITER;
             str += "Frame pacing mode: "+renderer.prefs.framePacing+DELIMITER;
+            if (renderer.framePacer != null) {
+                str += "Frame pacer: "+renderer.framePacer.getStatsString()+DELIMITER;
+            }
+            str += "Pipeline: "+renderer.pipelineTimer.getStatsString()+DELIMITER;
+            if (renderer.surfaceFlingerScheduler != null) {
+                str += "SF Raw scheduler: "+renderer.surfaceFlingerScheduler.getStatsString()+DELIMITER;
+            }
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                 if (originalException instanceof CodecException) {
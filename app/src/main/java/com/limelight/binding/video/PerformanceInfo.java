@@ -22,4 +22,10 @@ public class PerformanceInfo {
     public String bandWidth;
     public boolean isHdrActive; // 实际HDR激活状态
     public float renderingLatencyMs; // 渲染时间
+
+    // Latency distributions over the same window as the averages above
+    public final LatencyPercentiles receiveLatency = new LatencyPercentiles();
+    public final LatencyPercentiles decodeLatency = new LatencyPercentiles();
+    public final LatencyPercentiles renderingLatency = new LatencyPercentiles();
+    public final LatencyPercentiles hostProcessingLatency = new LatencyPercentiles();
 }
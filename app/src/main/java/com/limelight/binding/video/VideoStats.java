@@ -1,7 +1,5 @@
 package com.limelight.binding.video;
 
-import android.os.SystemClock;
-
 class VideoStats {
 
     long decoderTimeMs;
@@ -18,6 +16,12 @@ class VideoStats {
     long measurementStartTimestamp;
     public long renderingTimeMs;// 渲染时间
 
+    // Per-frame latency distributions, so we can report tail latency and not just averages
+    final LatencyHistogram receiveLatency = new LatencyHistogram();
+    final LatencyHistogram decoderLatency = new LatencyHistogram();
+    final LatencyHistogram renderingLatency = new LatencyHistogram();
+    final LatencyHistogram hostProcessingLatency = new LatencyHistogram();
+
     void add(VideoStats other) {
         this.decoderTimeMs += other.decoderTimeMs;
         this.totalTimeMs += other.totalTimeMs;
@@ -39,6 +43,11 @@ class VideoStats {
         this.totalHostProcessingLatency += other.totalHostProcessingLatency;
         this.framesWithHostProcessingLatency += other.framesWithHostProcessingLatency;
 
+        this.receiveLatency.add(other.receiveLatency);
+        this.decoderLatency.add(other.decoderLatency);
+        this.renderingLatency.add(other.renderingLatency);
+        this.hostProcessingLatency.add(other.hostProcessingLatency);
+
         if (this.measurementStartTimestamp == 0) {
             this.measurementStartTimestamp = other.measurementStartTimestamp;
         }
@@ -62,6 +71,11 @@ class VideoStats {
 
         // 复制渲染时间
         this.renderingTimeMs = other.renderingTimeMs;
+
+        this.receiveLatency.copy(other.receiveLatency);
+        this.decoderLatency.copy(other.decoderLatency);
+        this.renderingLatency.copy(other.renderingLatency);
+        this.hostProcessingLatency.copy(other.hostProcessingLatency);
     }
 
     void clear() {
@@ -78,18 +92,23 @@ class VideoStats {
         this.framesWithHostProcessingLatency = 0;
         this.measurementStartTimestamp = 0;
         this.renderingTimeMs = 0;
+        this.receiveLatency.clear();
+        this.decoderLatency.clear();
+        this.renderingLatency.clear();
+        this.hostProcessingLatency.clear();
     }
 
-    VideoStatsFps getFps() {
-        float elapsed = (SystemClock.uptimeMillis() - this.measurementStartTimestamp) / (float) 1000;
+    void getFps(long now, VideoStatsFps fps) {
+        float elapsed = (now - this.measurementStartTimestamp) / (float) 1000;
 
-        VideoStatsFps fps = new VideoStatsFps();
         if (elapsed > 0) {
             fps.totalFps = this.totalFrames / elapsed;
             fps.receivedFps = this.totalFramesReceived / elapsed;
             fps.renderedFps = this.totalFramesRendered / elapsed;
         }
-        return fps;
+        else {
+            fps.totalFps = fps.receivedFps = fps.renderedFps = 0;
+        }
     }
 }
 
@@ -0,0 +1,204 @@
+package com.limelight.binding.video;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.limelight.nvstream.jni.MoonBridge;
+
+/**
+ * Owns the video statistics windows for a {@link MediaCodecDecoderRenderer}.
+ *
+ * The decode unit submission thread (and the other renderer threads) only bump primitive
+ * counters in the currently active {@link VideoStats} window. Roughly once per second a
+ * low-priority thread flips the double-buffered {@link VideoStatsWindows}, computes the FPS, loss
+ * and latency averages from the window that just closed, and publishes a fresh
+ * {@link PerformanceInfo} snapshot to the {@link PerfOverlayListener}. Nothing on the submission
+ * path allocates.
+ */
+class VideoStatsAggregator {
+
+    private static final int WINDOW_MS = 1000;
+
+    // How soon to look again when a writer still holds the window that was just closed
+    private static final int CLOSING_RETRY_MS = 5;
+
+    private final MediaCodecDecoderRenderer renderer;
+    private final PerfOverlayListener perfListener;
+
+    // The aggregator thread is the only one that flips the windows and reads/clears the closed one
+    private final VideoStatsWindows windows = new VideoStatsWindows();
+
+    // All of these are only touched by the aggregator thread, except globalVideoStats which
+    // is read (racily, like before) for the end-of-stream latency toast and crash reports.
+    private final VideoStats lastWindowVideoStats = new VideoStats();
+    private final VideoStats lastTwo = new VideoStats();
+    private final VideoStats globalVideoStats = new VideoStats();
+    private final VideoStatsFps fps = new VideoStatsFps();
+    private final AdaptiveBitrateController.Sample bitrateSample = new AdaptiveBitrateController.Sample();
+
+    private HandlerThread aggregatorThread;
+    private Handler aggregatorHandler;
+    private long nextWindowTime;
+
+    private final Runnable windowFlipRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!flipWindows()) {
+                aggregatorHandler.postAtTime(this, SystemClock.uptimeMillis() + CLOSING_RETRY_MS);
+                return;
+            }
+
+            nextWindowTime += WINDOW_MS;
+            long now = SystemClock.uptimeMillis();
+            if (nextWindowTime <= now) {
+                // We fell behind (device suspended, etc.) so don't try to catch up
+                nextWindowTime = now + WINDOW_MS;
+            }
+            aggregatorHandler.postAtTime(this, nextWindowTime);
+        }
+    };
+
+    VideoStatsAggregator(MediaCodecDecoderRenderer renderer, PerfOverlayListener perfListener) {
+        this.renderer = renderer;
+        this.perfListener = perfListener;
+    }
+
+    /**
+     * Returns the window that writers should currently count into. Callers must hand it back
+     * with {@link #releaseWindow(VideoStats)} when they're done with it.
+     */
+    VideoStats acquireWindow() {
+        return windows.acquire();
+    }
+
+    void releaseWindow(VideoStats window) {
+        windows.release(window);
+    }
+
+    VideoStats getGlobalVideoStats() {
+        return globalVideoStats;
+    }
+
+    void start() {
+        windows.getActive().measurementStartTimestamp = SystemClock.uptimeMillis();
+
+        aggregatorThread = new HandlerThread("Video - Stats", Process.THREAD_PRIORITY_BACKGROUND);
+        aggregatorThread.start();
+
+        aggregatorHandler = new Handler(aggregatorThread.getLooper());
+        nextWindowTime = SystemClock.uptimeMillis() + WINDOW_MS;
+        aggregatorHandler.postAtTime(windowFlipRunnable, nextWindowTime);
+    }
+
+    void stop() {
+        if (aggregatorThread == null) {
+            return;
+        }
+
+        aggregatorThread.quit();
+        try {
+            aggregatorThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+        aggregatorThread = null;
+
+        // Fold the partial window into the global stats so the end-of-stream
+        // latency numbers include the final second of the stream.
+        windows.drainInto(globalVideoStats);
+    }
+
+    // Returns false if the closed window still has a writer and should be collected later
+    private boolean flipWindows() {
+        long now = SystemClock.uptimeMillis();
+
+        // Point the writers at the other (already cleared) window. The closed window is only
+        // returned once nobody is writing to it anymore.
+        VideoStats completedWindow = windows.flip(now);
+        if (completedWindow == null) {
+            return false;
+        }
+
+        lastTwo.clear();
+        lastTwo.add(lastWindowVideoStats);
+        lastTwo.add(completedWindow);
+        lastTwo.getFps(now, fps);
+
+        long rttInfo = MoonBridge.getEstimatedRttInfo();
+        publishSnapshot(rttInfo);
+        updateBitrateController(now, completedWindow, rttInfo);
+
+        globalVideoStats.add(completedWindow);
+        lastWindowVideoStats.copy(completedWindow);
+        completedWindow.clear();
+        return true;
+    }
+
+    private void updateBitrateController(long now, VideoStats completedWindow, long rttInfo) {
+        AdaptiveBitrateController controller = renderer.getAdaptiveBitrateController();
+        if (controller == null) {
+            return;
+        }
+
+        bitrateSample.timestampMs = now;
+        bitrateSample.framesLost = completedWindow.framesLost;
+        bitrateSample.totalFrames = completedWindow.totalFrames;
+        bitrateSample.rttMs = (int) (rttInfo >> 32);
+        bitrateSample.rttVarianceMs = (int) rttInfo;
+        bitrateSample.decoderBackPressure = renderer.getDecoderBackPressure();
+        bitrateSample.pendingAudioMs = MoonBridge.getPendingAudioDuration();
+        controller.onSample(bitrateSample);
+    }
+
+    private void publishSnapshot(long rttInfo) {
+        float decodeTimeMs = lastTwo.totalFramesReceived > 0 ?
+                (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived : 0;
+        float lostFrameRate = lastTwo.totalFrames > 0 ?
+                (float)lastTwo.framesLost / lastTwo.totalFrames * 100 : 0;
+        float minHostProcessingLatency = (float)lastTwo.minHostProcessingLatency / 10;
+        float maxHostProcessingLatency = (float)lastTwo.maxHostProcessingLatency / 10;
+        float aveHostProcessingLatency = lastTwo.framesWithHostProcessingLatency > 0 ?
+                (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency : 0;
+
+        // 计算平均“解码+渲染”总时间
+        float aveTotalProcessingTimeMs = 0;
+        if (lastTwo.totalFramesRendered > 0) {
+            aveTotalProcessingTimeMs = (float) lastTwo.totalTimeMs / lastTwo.totalFramesRendered;
+        }
+
+        // 计算平均"纯渲染延迟"
+        // 注意：这里用总处理时间减去解码时间。如果结果为负，说明数据有抖动，取0即可。
+        float avePureRenderingLatencyMs = Math.max(0, aveTotalProcessingTimeMs - decodeTimeMs);
+
+        // Each snapshot is a new object that we never touch again after publishing it,
+        // so listeners are free to hand it off to other threads.
+        PerformanceInfo performanceInfo = new PerformanceInfo();
+        renderer.populateStreamInfo(performanceInfo);
+        performanceInfo.totalFps = fps.totalFps;
+        performanceInfo.receivedFps = fps.receivedFps;
+        performanceInfo.renderedFps = fps.renderedFps;
+        performanceInfo.lostFrameRate = lostFrameRate;
+        performanceInfo.rttInfo = rttInfo;
+        performanceInfo.framesWithHostProcessingLatency = lastTwo.framesWithHostProcessingLatency;
+        performanceInfo.minHostProcessingLatency = minHostProcessingLatency;
+        performanceInfo.maxHostProcessingLatency = maxHostProcessingLatency;
+        performanceInfo.aveHostProcessingLatency = aveHostProcessingLatency;
+        performanceInfo.decodeTimeMs = decodeTimeMs;
+        performanceInfo.renderingLatencyMs = avePureRenderingLatencyMs;
+        performanceInfo.totalTimeMs = aveTotalProcessingTimeMs;
+        lastTwo.receiveLatency.fillPercentiles(performanceInfo.receiveLatency);
+        lastTwo.decoderLatency.fillPercentiles(performanceInfo.decodeLatency);
+        lastTwo.renderingLatency.fillPercentiles(performanceInfo.renderingLatency);
+        lastTwo.hostProcessingLatency.fillPercentiles(performanceInfo.hostProcessingLatency);
+
+        perfListener.onPerfUpdateV(performanceInfo);
+        perfListener.onPerfUpdateWG(performanceInfo);
+    }
+}
@@ -0,0 +1,85 @@
+package com.limelight.binding.video;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The pair of {@link VideoStats} windows that the renderer threads count into.
+ *
+ * Writers bracket their updates with {@link #acquire()} and {@link #release(VideoStats)}, which
+ * only bump a per-window writer count. {@link #flip(long)} points new writers at the other window
+ * and hands back the old one only once every writer that picked it up before the flip has released
+ * it, so the aggregator never reads or clears a window that is still being written.
+ */
+class VideoStatsWindows {
+
+    private final VideoStats[] windows = { new VideoStats(), new VideoStats() };
+    private final AtomicIntegerArray writers = new AtomicIntegerArray(2);
+    private volatile int activeIndex;
+
+    // Only touched by the flipping thread. -1 when no window is waiting for its writers to leave.
+    private int closingIndex = -1;
+
+    /**
+     * Returns the window to count into. Must be followed by {@link #release(VideoStats)}
+     * once the caller is done writing to it.
+     */
+    VideoStats acquire() {
+        for (;;) {
+            int index = activeIndex;
+            writers.incrementAndGet(index);
+
+            // If the windows were flipped after we read the index, the flipper may not have seen
+            // our count, so back out and take the new window instead
+            if (index == activeIndex) {
+                return windows[index];
+            }
+            writers.decrementAndGet(index);
+        }
+    }
+
+    void release(VideoStats window) {
+        writers.decrementAndGet(window == windows[0] ? 0 : 1);
+    }
+
+    /**
+     * Returns the active window for setup and teardown, when no writers are running.
+     */
+    VideoStats getActive() {
+        return windows[activeIndex];
+    }
+
+    /**
+     * Starts a new window and returns the one that was closed, or null if a writer is still
+     * using it. In that case the caller should try again shortly, new samples already go to the
+     * new window. The returned window must be cleared before the next flip.
+     */
+    VideoStats flip(long now) {
+        if (closingIndex < 0) {
+            closingIndex = activeIndex;
+            windows[closingIndex ^ 1].measurementStartTimestamp = now;
+            activeIndex = closingIndex ^ 1;
+        }
+
+        if (writers.get(closingIndex) != 0) {
+            return null;
+        }
+
+        VideoStats closedWindow = windows[closingIndex];
+        closingIndex = -1;
+        return closedWindow;
+    }
+
+    /**
+     * Adds whatever is left in the windows to {@code target} and clears them. Only call this
+     * once the writers have stopped.
+     */
+    void drainInto(VideoStats target) {
+        if (closingIndex >= 0) {
+            target.add(windows[closingIndex]);
+            windows[closingIndex].clear();
+            closingIndex = -1;
+        }
+        target.add(windows[activeIndex]);
+        windows[activeIndex].clear();
+    }
+}
@@ -5,9 +5,13 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.http.ComputerDetails;
@@ -41,22 +45,89 @@ public class ComputerDatabaseManager {
     private static final String MAC_ADDRESS_COLUMN_NAME = "MacAddress";
     private static final String SERVER_CERT_COLUMN_NAME = "ServerCert";
 
-    private SQLiteDatabase computerDb;
+    // Long enough to fold a burst of changes into one transaction, short enough
+    // that a change is on disk well before the process could plausibly be killed
+    private static final int WRITE_DELAY_MS = 500;
+
+    // Shared by all instances, so one that's never closed doesn't keep a thread around
+    private static final ScheduledExecutorService dbWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Computer DB writer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // The DB and its cache are shared by every open manager in the process, so one
+    // never reads a snapshot that misses changes another hasn't written yet
+    private static final Object sharedLock = new Object();
+    private static SQLiteDatabase sharedDb;
+    private static ComputerWriteBehindCache sharedCache;
+    private static int sharedRefCount;
+
+    private final SQLiteDatabase computerDb;
+
+    // Serves all reads, and writes changes back to computerDb in batches
+    private final ComputerWriteBehindCache cache;
+
+    private boolean closed;
 
     public ComputerDatabaseManager(Context c) {
-        try {
-            // Create or open an existing DB
-            computerDb = c.openOrCreateDatabase(COMPUTER_DB_NAME, 0, null);
-        } catch (SQLiteException e) {
-            // Delete the DB and try again
-            c.deleteDatabase(COMPUTER_DB_NAME);
-            computerDb = c.openOrCreateDatabase(COMPUTER_DB_NAME, 0, null);
+        synchronized (sharedLock) {
+            if (sharedRefCount == 0) {
+                SQLiteDatabase db;
+                try {
+                    // Create or open an existing DB
+                    db = c.openOrCreateDatabase(COMPUTER_DB_NAME, 0, null);
+                } catch (SQLiteException e) {
+                    // Delete the DB and try again
+                    c.deleteDatabase(COMPUTER_DB_NAME);
+                    db = c.openOrCreateDatabase(COMPUTER_DB_NAME, 0, null);
+                }
+
+                final SQLiteDatabase writerDb = db;
+                sharedDb = db;
+                sharedCache = new ComputerWriteBehindCache(new ComputerWriteBehindCache.Store() {
+                    @Override
+                    public void writeBatch(List<ComputerRecord> upserts, List<String> deletes) {
+                        writeRecords(writerDb, upserts, deletes);
+                    }
+                }, dbWriter, WRITE_DELAY_MS);
+            }
+
+            computerDb = sharedDb;
+            cache = sharedCache;
+            if (sharedRefCount == 0) {
+                initializeDb(c);
+            }
+            sharedRefCount++;
         }
-        initializeDb(c);
     }
 
     public void close() {
-        computerDb.close();
+        synchronized (sharedLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (--sharedRefCount == 0) {
+                // Don't lose changes that haven't been written yet
+                cache.close();
+                computerDb.close();
+                sharedDb = null;
+                sharedCache = null;
+            }
+        }
+    }
+
+    /**
+     * Writes any changes that are still queued. Updates are normally written
+     * in the background shortly after they're made.
+     */
+    public void flush() {
+        cache.flush();
     }
 
     private void initializeDb(Context c) {
@@ -66,6 +137,9 @@ public class ComputerDatabaseManager {
                 COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME, COMPUTER_NAME_COLUMN_NAME,
                 ADDRESSES_COLUMN_NAME, MAC_ADDRESS_COLUMN_NAME, SERVER_CERT_COLUMN_NAME));
 
+        // The table is only read once, everything after this is served from the cache
+        cache.load(readAllRecords());
+
         // Move all computers from the old DB (if any) to the new one
         List<ComputerDetails> oldComputers = LegacyDatabaseReader.migrateAllComputers(c);
         for (ComputerDetails computer : oldComputers) {
@@ -79,10 +153,13 @@ public class ComputerDatabaseManager {
         for (ComputerDetails computer : oldComputers) {
             updateComputer(computer);
         }
+
+        // Migrated computers must be in the DB before the legacy DBs are gone for good
+        cache.flush();
     }
 
     public void deleteComputer(ComputerDetails details) {
-        computerDb.delete(COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME+"=?", new String[]{details.uuid});
+        cache.delete(details.uuid);
     }
 
     public static JSONObject tupleToJson(ComputerDetails.AddressTuple tuple) throws JSONException {
@@ -107,26 +184,54 @@ public class ComputerDatabaseManager {
                 address.getString(AddressFields.ADDRESS), address.getInt(AddressFields.PORT));
     }
 
+    /**
+     * Stores the persistent part of a computer's details. Nothing is written if that
+     * hasn't changed, otherwise the write happens shortly after in the background.
+     * @param details The computer details
+     * @return True if anything changed
+     */
     public boolean updateComputer(ComputerDetails details) {
+        return cache.update(new ComputerRecord(details.uuid, details.name,
+                details.localAddress, details.remoteAddress, details.manualAddress, details.ipv6Address,
+                details.macAddress, details.serverCert)) != 0;
+    }
+
+    // Called on the writer with a batch of coalesced changes
+    private static void writeRecords(SQLiteDatabase computerDb, List<ComputerRecord> upserts, List<String> deletes) {
+        computerDb.beginTransaction();
+        try {
+            for (String uuid : deletes) {
+                computerDb.delete(COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME+"=?", new String[]{uuid});
+            }
+            for (ComputerRecord record : upserts) {
+                computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null, recordToValues(record), SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            computerDb.setTransactionSuccessful();
+        } finally {
+            computerDb.endTransaction();
+        }
+    }
+
+    private static ContentValues recordToValues(ComputerRecord record) {
         ContentValues values = new ContentValues();
-        values.put(COMPUTER_UUID_COLUMN_NAME, details.uuid);
-        values.put(COMPUTER_NAME_COLUMN_NAME, details.name);
+        values.put(COMPUTER_UUID_COLUMN_NAME, record.uuid);
+        values.put(COMPUTER_NAME_COLUMN_NAME, record.name);
 
         try {
             JSONObject addresses = new JSONObject();
-            addresses.put(AddressFields.LOCAL, tupleToJson(details.localAddress));
-            addresses.put(AddressFields.REMOTE, tupleToJson(details.remoteAddress));
-            addresses.put(AddressFields.MANUAL, tupleToJson(details.manualAddress));
-            addresses.put(AddressFields.IPv6, tupleToJson(details.ipv6Address));
+            addresses.put(AddressFields.LOCAL, tupleToJson(record.localAddress));
+            addresses.put(AddressFields.REMOTE, tupleToJson(record.remoteAddress));
+            addresses.put(AddressFields.MANUAL, tupleToJson(record.manualAddress));
+            addresses.put(AddressFields.IPv6, tupleToJson(record.ipv6Address));
             values.put(ADDRESSES_COLUMN_NAME, addresses.toString());
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
 
-        values.put(MAC_ADDRESS_COLUMN_NAME, details.macAddress);
+        values.put(MAC_ADDRESS_COLUMN_NAME, record.macAddress);
         try {
-            if (details.serverCert != null) {
-                values.put(SERVER_CERT_COLUMN_NAME, details.serverCert.getEncoded());
+            if (record.serverCert != null) {
+                values.put(SERVER_CERT_COLUMN_NAME, record.serverCert.getEncoded());
             }
             else {
                 values.put(SERVER_CERT_COLUMN_NAME, (byte[])null);
@@ -135,45 +240,70 @@ public class ComputerDatabaseManager {
             values.put(SERVER_CERT_COLUMN_NAME, (byte[])null);
             e.printStackTrace();
         }
-        return -1 != computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        return values;
     }
 
-    private ComputerDetails getComputerFromCursor(Cursor c) {
-        ComputerDetails details = new ComputerDetails();
-
-        details.uuid = c.getString(0);
-        details.name = c.getString(1);
+    private ComputerRecord getRecordFromCursor(Cursor c) {
+        ComputerDetails.AddressTuple localAddress, remoteAddress, manualAddress, ipv6Address;
         try {
             JSONObject addresses = new JSONObject(c.getString(2));
-            details.localAddress = tupleFromJson(addresses, AddressFields.LOCAL);
-            details.remoteAddress = tupleFromJson(addresses, AddressFields.REMOTE);
-            details.manualAddress = tupleFromJson(addresses, AddressFields.MANUAL);
-            details.ipv6Address = tupleFromJson(addresses, AddressFields.IPv6);
+            localAddress = tupleFromJson(addresses, AddressFields.LOCAL);
+            remoteAddress = tupleFromJson(addresses, AddressFields.REMOTE);
+            manualAddress = tupleFromJson(addresses, AddressFields.MANUAL);
+            ipv6Address = tupleFromJson(addresses, AddressFields.IPv6);
         } catch (JSONException e) {
             throw new RuntimeException(e);
-         }
-
-        // External port is persisted in the remote address field
-        if (details.remoteAddress != null) {
-            details.externalPort = details.remoteAddress.port;
-        }
-        else {
-            details.externalPort = NvHTTP.DEFAULT_HTTP_PORT;
         }
 
-        details.macAddress = c.getString(3);
-
+        X509Certificate serverCert = null;
         try {
             byte[] derCertData = c.getBlob(4);
 
             if (derCertData != null) {
-                details.serverCert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                serverCert = (X509Certificate) CertificateFactory.getInstance("X.509")
                         .generateCertificate(new ByteArrayInputStream(derCertData));
             }
         } catch (CertificateException e) {
             e.printStackTrace();
         }
 
+        return new ComputerRecord(c.getString(0), c.getString(1),
+                localAddress, remoteAddress, manualAddress, ipv6Address,
+                c.getString(3), serverCert);
+    }
+
+    private List<ComputerRecord> readAllRecords() {
+        try (final Cursor c = computerDb.rawQuery("SELECT * FROM "+COMPUTER_TABLE_NAME, null)) {
+            List<ComputerRecord> records = new ArrayList<>();
+            while (c.moveToNext()) {
+                records.add(getRecordFromCursor(c));
+            }
+            return records;
+        }
+    }
+
+    // Callers are free to modify what they get, so each call gets a new object
+    private static ComputerDetails recordToDetails(ComputerRecord record) {
+        ComputerDetails details = new ComputerDetails();
+
+        details.uuid = record.uuid;
+        details.name = record.name;
+        details.localAddress = ComputerRecord.copyOf(record.localAddress);
+        details.remoteAddress = ComputerRecord.copyOf(record.remoteAddress);
+        details.manualAddress = ComputerRecord.copyOf(record.manualAddress);
+        details.ipv6Address = ComputerRecord.copyOf(record.ipv6Address);
+
+        // External port is persisted in the remote address field
+        if (details.remoteAddress != null) {
+            details.externalPort = details.remoteAddress.port;
+        }
+        else {
+            details.externalPort = NvHTTP.DEFAULT_HTTP_PORT;
+        }
+
+        details.macAddress = record.macAddress;
+        details.serverCert = record.serverCert;
+
         // This signifies we don't have dynamic state (like pair state)
         details.state = ComputerDetails.State.UNKNOWN;
 
@@ -181,13 +311,11 @@ public class ComputerDatabaseManager {
     }
 
     public List<ComputerDetails> getAllComputers() {
-        try (final Cursor c = computerDb.rawQuery("SELECT * FROM "+COMPUTER_TABLE_NAME, null)) {
-            LinkedList<ComputerDetails> computerList = new LinkedList<>();
-            while (c.moveToNext()) {
-                computerList.add(getComputerFromCursor(c));
-            }
-            return computerList;
+        LinkedList<ComputerDetails> computerList = new LinkedList<>();
+        for (ComputerRecord record : cache.getAll()) {
+            computerList.add(recordToDetails(record));
         }
+        return computerList;
     }
 
     /**
@@ -200,17 +328,8 @@ public class ComputerDatabaseManager {
      * @return The computer details, or null if no computer with that name exists
      */
     public ComputerDetails getComputerByName(String name) {
-        try (final Cursor c = computerDb.query(
-                COMPUTER_TABLE_NAME, null, COMPUTER_NAME_COLUMN_NAME+"=?",
-                new String[]{ name }, null, null, null)
-        ) {
-            if (!c.moveToFirst()) {
-                // No matching computer
-                return null;
-            }
-
-            return getComputerFromCursor(c);
-        }
+        ComputerRecord record = cache.getByName(name);
+        return record != null ? recordToDetails(record) : null;
     }
 
     /**
@@ -220,16 +339,7 @@ public class ComputerDatabaseManager {
      * @return The computer details, or null if no computer with that UUID exists
      */
     public ComputerDetails getComputerByUUID(String uuid) {
-        try (final Cursor c = computerDb.query(
-                COMPUTER_TABLE_NAME, null, COMPUTER_UUID_COLUMN_NAME+"=?",
-                new String[]{ uuid }, null, null, null)
-        ) {
-            if (!c.moveToFirst()) {
-                // No matching computer
-                return null;
-            }
-
-            return getComputerFromCursor(c);
-        }
+        ComputerRecord record = cache.get(uuid);
+        return record != null ? recordToDetails(record) : null;
     }
 }
@@ -1,11 +1,11 @@
 package com.limelight.computers;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -13,10 +13,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.limelight.BuildConfig;
 import com.limelight.LimeLog;
 import com.limelight.binding.PlatformBinding;
 import com.limelight.discovery.DiscoveryService;
+import com.limelight.nvstream.AddressRacer;
 import com.limelight.nvstream.NvConnection;
+import com.limelight.nvstream.http.AppListDiff;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
@@ -51,6 +54,8 @@ public class ComputerManagerService extends Service {
     private static final int INITIAL_POLL_TRIES = 2;
     private static final int EMPTY_LIST_THRESHOLD = 3;
     private static final int POLL_DATA_TTL_MS = 30000;
+    // How long to wait for a preferred address after a less preferred one answered
+    private static final int POLL_PRECEDENCE_GRACE_MS = 500;
 
     private final ComputerManagerBinder binder = new ComputerManagerBinder();
 
@@ -59,6 +64,8 @@ public class ComputerManagerService extends Service {
 
     private IdentityManager idManager;
     private final LinkedList<PollingTuple> pollingTuples = new LinkedList<>();
+    private PollScheduler pollScheduler;
+    private AddressRacer pollRacer;
     private ComputerManagerListener listener = null;
     private final AtomicInteger activePolls = new AtomicInteger(0);
     private boolean pollingActive = false;
@@ -161,36 +168,42 @@ public class ComputerManagerService extends Service {
         return true;
     }
 
-    private Thread createPollingThread(final PollingTuple tuple) {
-        Thread t = new Thread() {
+    private PollScheduler.Handle schedulePolling(final PollingTuple tuple) {
+        return pollScheduler.scheduleHost(tuple.computer.name, new Runnable() {
+            private int offlineCount = 0;
+
             @Override
             public void run() {
+                if (!pollingActive) {
+                    return;
+                }
 
-                int offlineCount = 0;
-                while (!isInterrupted() && pollingActive && tuple.thread == this) {
-                    try {
-                        // Only allow one request to the machine at a time
-                        synchronized (tuple.networkLock) {
-                            // Check if this poll has modified the details
-                            if (!runPoll(tuple.computer, false, offlineCount)) {
-                                LimeLog.warning(tuple.computer.name + " is offline (try " + offlineCount + ")");
-                                offlineCount++;
-                            } else {
-                                tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
-                                offlineCount = 0;
-                            }
+                try {
+                    // Only allow one request to the machine at a time
+                    synchronized (tuple.networkLock) {
+                        // Check if this poll has modified the details
+                        if (!runPoll(tuple.computer, false, offlineCount)) {
+                            LimeLog.warning(tuple.computer.name + " is offline (try " + offlineCount + ")");
+                            offlineCount++;
+                        } else {
+                            tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
+                            offlineCount = 0;
                         }
-
-                        // Wait until the next polling interval
-                        Thread.sleep(SERVERINFO_POLLING_PERIOD_MS);
-                    } catch (InterruptedException e) {
-                        break;
                     }
+                } catch (InterruptedException e) {
+                    // Polling of this machine was cancelled. The scheduler won't run it again.
+                    Thread.currentThread().interrupt();
                 }
             }
-        };
-        t.setName("Polling thread for " + tuple.computer.name);
-        return t;
+        }, SERVERINFO_POLLING_PERIOD_MS);
+    }
+
+    private void stopPolling(PollingTuple tuple) {
+        if (tuple.pollHandle != null) {
+            // Cancel future polls and interrupt the current one
+            pollScheduler.remove(tuple.pollHandle);
+            tuple.pollHandle = null;
+        }
     }
 
     public class ComputerManagerBinder extends Binder {
@@ -215,10 +228,9 @@ public class ComputerManagerService extends Service {
                     // Report this computer initially
                     listener.notifyComputerUpdated(tuple.computer);
 
-                    // This polling thread might already be there
-                    if (tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // Polling might already be scheduled
+                    if (tuple.pollHandle == null) {
+                        tuple.pollHandle = schedulePolling(tuple);
                     }
                 }
             }
@@ -314,13 +326,12 @@ public class ComputerManagerService extends Service {
 
         // Stop polling
         pollingActive = false;
+        if (BuildConfig.DEBUG) {
+            LimeLog.info("Poll stats: "+pollScheduler.getStatsString());
+        }
         synchronized (pollingTuples) {
             for (PollingTuple tuple : pollingTuples) {
-                if (tuple.thread != null) {
-                    // Interrupt and remove the thread
-                    tuple.thread.interrupt();
-                    tuple.thread = null;
-                }
+                stopPolling(tuple);
             }
         }
 
@@ -443,10 +454,9 @@ public class ComputerManagerService extends Service {
                     // Update the saved computer with potentially new details
                     tuple.computer.update(details);
 
-                    // Start a polling thread if polling is active
-                    if (pollingActive && tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // Start polling if polling is active
+                    if (pollingActive && tuple.pollHandle == null) {
+                        tuple.pollHandle = schedulePolling(tuple);
                     }
 
                     // Found an entry so we're done
@@ -456,12 +466,9 @@ public class ComputerManagerService extends Service {
 
             // If we got here, we didn't find an entry
             PollingTuple tuple = new PollingTuple(details, null);
-            if (pollingActive) {
-                tuple.thread = createPollingThread(tuple);
-            }
             pollingTuples.add(tuple);
-            if (tuple.thread != null) {
-                tuple.thread.start();
+            if (pollingActive) {
+                tuple.pollHandle = schedulePolling(tuple);
             }
         }
     }
@@ -491,7 +498,7 @@ public class ComputerManagerService extends Service {
         if (fakeDetails.state == ComputerDetails.State.ONLINE) {
             LimeLog.info("New PC ("+fakeDetails.name+") is UUID "+fakeDetails.uuid);
 
-            // Start a polling thread for this machine
+            // Start polling this machine
             addTuple(fakeDetails);
             return true;
         }
@@ -512,12 +519,9 @@ public class ComputerManagerService extends Service {
             // Remove the computer from the computer list
             for (PollingTuple tuple : pollingTuples) {
                 if (tuple.computer.uuid.equals(computer.uuid)) {
-                    if (tuple.thread != null) {
-                        // Interrupt the thread on this entry
-                        tuple.thread.interrupt();
-                        tuple.thread = null;
-                    }
+                    stopPolling(tuple);
                     pollingTuples.remove(tuple);
+                    AddressRacer.forgetHost(computer.uuid);
                     break;
                 }
             }
@@ -541,7 +545,7 @@ public class ComputerManagerService extends Service {
         }
     }
 
-    private ComputerDetails tryPollIp(ComputerDetails details, ComputerDetails.AddressTuple address) {
+    private ComputerDetails tryPollIp(ComputerDetails details, ComputerDetails.AddressTuple address, AddressRacer.Abort abort) {
         try {
             // If the current address's port number matches the active address's port number, we can also assume
             // the HTTPS port will also match. This assumption is currently safe because Sunshine sets all ports
@@ -552,6 +556,9 @@ public class ComputerManagerService extends Service {
             NvHTTP http = new NvHTTP(address, portMatchesActiveAddress ? details.httpsPort : 0, idManager.getUniqueId(), "", details.serverCert,
                     PlatformBinding.getCryptoProvider(ComputerManagerService.this));
 
+            // Requests block in socket I/O that ignores interrupts, so cancel them outright if this poll loses
+            abort.onAbort(http::cancelRequests);
+
             // If this PC is currently online at this address, extend the timeouts to allow more time for the PC to respond.
             boolean isLikelyOnline = details.state == ComputerDetails.State.ONLINE && address.equals(details.activeAddress);
 
@@ -583,133 +590,43 @@ public class ComputerManagerService extends Service {
         }
     }
 
-    private static class ParallelPollTuple {
-        public ComputerDetails.AddressTuple address;
-        public ComputerDetails existingDetails;
-
-        public boolean complete;
-        public Thread pollingThread;
-        public ComputerDetails returnedDetails;
-
-        public ParallelPollTuple(ComputerDetails.AddressTuple address, ComputerDetails existingDetails) {
-            this.address = address;
-            this.existingDetails = existingDetails;
-        }
-
-        public void interrupt() {
-            if (pollingThread != null) {
-                pollingThread.interrupt();
-            }
+    private static void addPollCandidate(List<AddressRacer.Candidate<ComputerDetails.AddressTuple>> candidates,
+                                         HashSet<ComputerDetails.AddressTuple> uniqueAddresses,
+                                         ComputerDetails.AddressTuple address, String family) {
+        // Don't bother polling an address that doesn't exist
+        // or if the address has already been polled with an earlier candidate
+        if (address != null && uniqueAddresses.add(address)) {
+            candidates.add(new AddressRacer.Candidate<>(address, family));
         }
     }
 
-    private void startParallelPollThread(ParallelPollTuple tuple, HashSet<ComputerDetails.AddressTuple> uniqueAddresses) {
-        // Don't bother starting a polling thread for an address that doesn't exist
-        // or if the address has already been polled with an earlier tuple
-        if (tuple.address == null || !uniqueAddresses.add(tuple.address)) {
-            tuple.complete = true;
-            tuple.returnedDetails = null;
-            return;
-        }
-
-        tuple.pollingThread = new Thread() {
-            @Override
-            public void run() {
-                ComputerDetails details = tryPollIp(tuple.existingDetails, tuple.address);
-
-                synchronized (tuple) {
-                    tuple.complete = true; // Done
-                    tuple.returnedDetails = details; // Polling result
-
-                    tuple.notify();
-                }
-            }
-        };
-        tuple.pollingThread.setName("Parallel Poll - "+tuple.address+" - "+tuple.existingDetails.name);
-        tuple.pollingThread.start();
-    }
-
-    private ComputerDetails parallelPollPc(ComputerDetails details) throws InterruptedException {
-        ParallelPollTuple localInfo = new ParallelPollTuple(details.localAddress, details);
-        ParallelPollTuple manualInfo = new ParallelPollTuple(details.manualAddress, details);
-        ParallelPollTuple remoteInfo = new ParallelPollTuple(details.remoteAddress, details);
-        ParallelPollTuple ipv6Info = new ParallelPollTuple(details.ipv6Address, details);
-
-        // These must be started in order of precedence for the deduplication algorithm
+    private ComputerDetails parallelPollPc(final ComputerDetails details) throws InterruptedException {
+        // These must be added in order of precedence for the deduplication algorithm
         // to result in the correct behavior.
+        List<AddressRacer.Candidate<ComputerDetails.AddressTuple>> candidates = new ArrayList<>();
         HashSet<ComputerDetails.AddressTuple> uniqueAddresses = new HashSet<>();
-        startParallelPollThread(localInfo, uniqueAddresses);
-        startParallelPollThread(manualInfo, uniqueAddresses);
-        startParallelPollThread(remoteInfo, uniqueAddresses);
-        startParallelPollThread(ipv6Info, uniqueAddresses);
-
-        ComputerDetails result = null;
-        ComputerDetails.AddressTuple primaryAddress = null;
-
-        try {
-            // 等待所有轮询完成
-            synchronized (localInfo) {
-                while (!localInfo.complete) {
-                    localInfo.wait();
-                }
-            }
-            synchronized (manualInfo) {
-                while (!manualInfo.complete) {
-                    manualInfo.wait();
-                }
-            }
-            synchronized (remoteInfo) {
-                while (!remoteInfo.complete) {
-                    remoteInfo.wait();
-                }
-            }
-            synchronized (ipv6Info) {
-                while (!ipv6Info.complete) {
-                    ipv6Info.wait();
-                }
-            }
-
-            // 按优先级收集所有成功的地址
-            if (localInfo.returnedDetails != null) {
-                result = localInfo.returnedDetails;
-                primaryAddress = localInfo.address;
-                result.addAvailableAddress(localInfo.address);
-            }
-            if (manualInfo.returnedDetails != null) {
-                if (result == null) {
-                    result = manualInfo.returnedDetails;
-                    primaryAddress = manualInfo.address;
-                }
-                result.addAvailableAddress(manualInfo.address);
-            }
-            if (remoteInfo.returnedDetails != null) {
-                if (result == null) {
-                    result = remoteInfo.returnedDetails;
-                    primaryAddress = remoteInfo.address;
-                }
-                result.addAvailableAddress(remoteInfo.address);
-            }
-            if (ipv6Info.returnedDetails != null) {
-                if (result == null) {
-                    result = ipv6Info.returnedDetails;
-                    primaryAddress = ipv6Info.address;
-                }
-                result.addAvailableAddress(ipv6Info.address);
-            }
-
-            // 设置主要活跃地址
-            if (result != null && primaryAddress != null) {
-                result.activeAddress = primaryAddress;
-            }
+        addPollCandidate(candidates, uniqueAddresses, details.localAddress, "local");
+        addPollCandidate(candidates, uniqueAddresses, details.manualAddress, "manual");
+        addPollCandidate(candidates, uniqueAddresses, details.remoteAddress, "remote");
+        addPollCandidate(candidates, uniqueAddresses, details.ipv6Address, "ipv6");
+
+        // Return as soon as the best reachable address answers and cancel the slower ones, so
+        // they don't hold a probe thread until their timeout. The racer tries an address that
+        // keeps winning first next time.
+        AddressRacer.Result<ComputerDetails.AddressTuple, ComputerDetails> race = pollRacer.race(
+                details.uuid, candidates,
+                (address, abort) -> tryPollIp(details, address, abort),
+                null);
+        if (race == null) {
+            return null;
+        }
 
-        } finally {
-            // Stop any further polling if we've found a working address or we've been
-            // interrupted by an attempt to stop polling.
-            localInfo.interrupt();
-            manualInfo.interrupt();
-            remoteInfo.interrupt();
-            ipv6Info.interrupt();
+        // 收集所有成功的地址，并设置主要活跃地址
+        ComputerDetails result = race.value;
+        for (ComputerDetails.AddressTuple address : race.successfulAddresses) {
+            result.addAvailableAddress(address);
         }
+        result.activeAddress = race.address;
 
         return result;
     }
@@ -738,6 +655,10 @@ public class ComputerManagerService extends Service {
         // Lookup or generate this device's UID
         idManager = new IdentityManager(this);
 
+        // All hosts are polled on this shared scheduler
+        pollScheduler = new PollScheduler();
+        pollRacer = new AddressRacer(pollScheduler.getProbeExecutor(), 0, POLL_PRECEDENCE_GRACE_MS, true);
+
         // Initialize the DB
         dbManager = new ComputerDatabaseManager(this);
         dbRefCount.set(1);
@@ -802,8 +723,10 @@ public class ComputerManagerService extends Service {
         }
 
         // FIXME: Should await termination here but we have timeout issues in HttpURLConnection
+        pollScheduler.shutdown();
 
-        // Remove the initial DB reference
+        // Remove the initial DB reference. Once the last poll releases its reference,
+        // the DB is closed and any queued computer updates are written.
         releaseLocalDatabaseReference();
     }
 
@@ -818,6 +741,10 @@ public class ComputerManagerService extends Service {
         private final Object pollEvent = new Object();
         private boolean receivedAppList = false;
 
+        // Hash of the last app list we accepted, to skip unchanged responses cheaply
+        private long lastAppListHash;
+        private boolean haveAppListHash;
+
         public ApplistPoller(ComputerDetails computer) {
             this.computer = computer;
         }
@@ -900,6 +827,12 @@ public class ComputerManagerService extends Service {
                                 appList = http.getAppListRaw();
                             }
 
+                            if (!appList.isEmpty() && haveAppListHash && AppListDiff.hash(appList) == lastAppListHash) {
+                                // Nothing changed, so there's nothing to parse, save or notify
+                                receivedAppList = true;
+                                continue;
+                            }
+
                             List<NvApp> list = NvHTTP.getAppListByReader(new StringReader(appList));
                             if (list.isEmpty()) {
                                 LimeLog.warning("Empty app list received from "+computer.uuid);
@@ -910,11 +843,9 @@ public class ComputerManagerService extends Service {
                             }
                             if (!appList.isEmpty() &&
                                     (!list.isEmpty() || emptyAppListResponses >= EMPTY_LIST_THRESHOLD)) {
-                                // Open the cache file
-                                try (final OutputStream cacheOut = CacheHelper.openCacheFileForOutput(
-                                        getCacheDir(), "applist", computer.uuid)
-                                ) {
-                                    CacheHelper.writeStringToOutputStream(cacheOut, appList);
+                                // Replace the cache file atomically so a reader never sees a partial list
+                                try {
+                                    CacheHelper.writeStringToCacheFileAtomically(appList, getCacheDir(), "applist", computer.uuid);
                                 } catch (IOException e) {
                                     e.printStackTrace();
                                 }
@@ -927,6 +858,8 @@ public class ComputerManagerService extends Service {
                                 // Update the computer
                                 computer.rawAppList = appList;
                                 receivedAppList = true;
+                                lastAppListHash = AppListDiff.hash(appList);
+                                haveAppListHash = true;
 
                                 // Notify that the app list has been updated
                                 // and ensure that the thread is still active
@@ -967,14 +900,14 @@ public class ComputerManagerService extends Service {
 }
 
 class PollingTuple {
-    public Thread thread;
+    public PollScheduler.Handle pollHandle;
     public final ComputerDetails computer;
     public final Object networkLock;
     public long lastSuccessfulPollMs;
 
-    public PollingTuple(ComputerDetails computer, Thread thread) {
+    public PollingTuple(ComputerDetails computer, PollScheduler.Handle pollHandle) {
         this.computer = computer;
-        this.thread = thread;
+        this.pollHandle = pollHandle;
         this.networkLock = new Object();
     }
 }
@@ -0,0 +1,92 @@
+package com.limelight.computers;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.limelight.nvstream.http.ComputerDetails;
+
+/**
+ * The persisted part of a computer, i.e. exactly what a row of the computer DB holds.
+ *
+ * Address tuples are copied in and out because ComputerDetails.update() modifies the
+ * remote address in place, which would otherwise change the cached copy behind our back.
+ */
+final class ComputerRecord {
+    static final int FIELD_NAME = 1;
+    static final int FIELD_ADDRESSES = 1 << 1;
+    static final int FIELD_MAC_ADDRESS = 1 << 2;
+    static final int FIELD_SERVER_CERT = 1 << 3;
+    static final int ALL_FIELDS = FIELD_NAME | FIELD_ADDRESSES | FIELD_MAC_ADDRESS | FIELD_SERVER_CERT;
+
+    final String uuid;
+    final String name;
+    final ComputerDetails.AddressTuple localAddress;
+    final ComputerDetails.AddressTuple remoteAddress;
+    final ComputerDetails.AddressTuple manualAddress;
+    final ComputerDetails.AddressTuple ipv6Address;
+    final String macAddress;
+    final X509Certificate serverCert;
+
+    ComputerRecord(String uuid, String name,
+                   ComputerDetails.AddressTuple localAddress, ComputerDetails.AddressTuple remoteAddress,
+                   ComputerDetails.AddressTuple manualAddress, ComputerDetails.AddressTuple ipv6Address,
+                   String macAddress, X509Certificate serverCert) {
+        this.uuid = uuid;
+        this.name = name;
+        this.localAddress = copyOf(localAddress);
+        this.remoteAddress = copyOf(remoteAddress);
+        this.manualAddress = copyOf(manualAddress);
+        this.ipv6Address = copyOf(ipv6Address);
+        this.macAddress = macAddress;
+        this.serverCert = serverCert;
+    }
+
+    static ComputerDetails.AddressTuple copyOf(ComputerDetails.AddressTuple tuple) {
+        return tuple != null ? new ComputerDetails.AddressTuple(tuple.address, tuple.port) : null;
+    }
+
+    /**
+     * Returns a mask of the FIELD_* values that differ between this record and that one.
+     */
+    int diff(ComputerRecord that) {
+        int dirty = 0;
+
+        if (!Objects.equals(name, that.name)) {
+            dirty |= FIELD_NAME;
+        }
+        if (!Objects.equals(localAddress, that.localAddress) ||
+                !Objects.equals(remoteAddress, that.remoteAddress) ||
+                !Objects.equals(manualAddress, that.manualAddress) ||
+                !Objects.equals(ipv6Address, that.ipv6Address)) {
+            dirty |= FIELD_ADDRESSES;
+        }
+        if (!Objects.equals(macAddress, that.macAddress)) {
+            dirty |= FIELD_MAC_ADDRESS;
+        }
+        // Certificate.equals() compares the encoded form if these aren't the same object
+        if (!Objects.equals(serverCert, that.serverCert)) {
+            dirty |= FIELD_SERVER_CERT;
+        }
+
+        return dirty;
+    }
+
+    static String describeFields(int fields) {
+        List<String> names = new ArrayList<>();
+        if ((fields & FIELD_NAME) != 0) {
+            names.add("name");
+        }
+        if ((fields & FIELD_ADDRESSES) != 0) {
+            names.add("addresses");
+        }
+        if ((fields & FIELD_MAC_ADDRESS) != 0) {
+            names.add("mac");
+        }
+        if ((fields & FIELD_SERVER_CERT) != 0) {
+            names.add("cert");
+        }
+        return names.toString();
+    }
+}
@@ -0,0 +1,223 @@
+package com.limelight.computers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.limelight.LimeLog;
+
+/**
+ * In-memory copy of the computer DB that all reads are served from, with write-behind.
+ *
+ * Every successful poll of a host stores its details again, but nearly all of them are
+ * identical to what's already stored. Updates are compared field by field against the cached
+ * record and dropped if nothing changed. Real changes are queued and written shortly after on
+ * the writer, so a burst of changes (e.g. mDNS and a poll finding new addresses at once) costs
+ * a single transaction. {@link #flush()} writes anything still queued right away. A batch that
+ * fails to write is queued again behind any newer changes and retried with backoff.
+ */
+class ComputerWriteBehindCache {
+
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+
+    interface Store {
+        /**
+         * Writes a batch of changes in one transaction. No UUID appears in both lists.
+         */
+        void writeBatch(List<ComputerRecord> upserts, List<String> deletes);
+    }
+
+    private final Store store;
+    private final ScheduledExecutorService writer;
+    private final long writeDelayMs;
+
+    // Held while a batch is written, so batches reach the store in the order they were taken
+    private final Object writeLock = new Object();
+
+    private final Map<String, ComputerRecord> records = new LinkedHashMap<>();
+    private final Map<String, ComputerRecord> pendingUpserts = new LinkedHashMap<>();
+    private final Set<String> pendingDeletes = new LinkedHashSet<>();
+    private boolean writeScheduled;
+    private boolean closed;
+
+    // Doubles after every failed write until one succeeds
+    private long retryDelayMs;
+
+    private final AtomicLong skippedUpdates = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    ComputerWriteBehindCache(Store store, ScheduledExecutorService writer, long writeDelayMs) {
+        this.store = store;
+        this.writer = writer;
+        this.writeDelayMs = writeDelayMs;
+        this.retryDelayMs = writeDelayMs;
+    }
+
+    /**
+     * Fills the cache with what's already in the store. This doesn't write anything.
+     */
+    synchronized void load(Collection<ComputerRecord> storedRecords) {
+        for (ComputerRecord record : storedRecords) {
+            records.put(record.uuid, record);
+        }
+    }
+
+    synchronized ComputerRecord get(String uuid) {
+        return records.get(uuid);
+    }
+
+    synchronized ComputerRecord getByName(String name) {
+        for (ComputerRecord record : records.values()) {
+            if (name.equals(record.name)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    synchronized List<ComputerRecord> getAll() {
+        return new ArrayList<>(records.values());
+    }
+
+    /**
+     * Stores a record, queueing a write only if it differs from the cached one.
+     * @return The FIELD_* mask of what changed, or 0 if nothing will be written
+     */
+    synchronized int update(ComputerRecord record) {
+        ComputerRecord existing = records.get(record.uuid);
+        int dirty = existing != null ? existing.diff(record) : ComputerRecord.ALL_FIELDS;
+        if (dirty == 0) {
+            skippedUpdates.incrementAndGet();
+            return 0;
+        }
+
+        if (existing != null) {
+            LimeLog.info("Computer "+record.uuid+" changed: "+ComputerRecord.describeFields(dirty));
+        }
+
+        records.put(record.uuid, record);
+        pendingDeletes.remove(record.uuid);
+        pendingUpserts.put(record.uuid, record);
+        scheduleWrite();
+        return dirty;
+    }
+
+    synchronized void delete(String uuid) {
+        records.remove(uuid);
+        pendingUpserts.remove(uuid);
+        pendingDeletes.add(uuid);
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        scheduleWrite(writeDelayMs);
+    }
+
+    private void scheduleWrite(long delayMs) {
+        if (writeScheduled || closed) {
+            // A scheduled write will pick this up, or close() is about to flush it
+            return;
+        }
+
+        try {
+            writer.schedule(writeTask, delayMs, TimeUnit.MILLISECONDS);
+            writeScheduled = true;
+        } catch (RejectedExecutionException e) {
+            // Left for the next flush()
+            LimeLog.warning("Computer DB writer rejected write: "+e.getMessage());
+        }
+    }
+
+    private void writePending() {
+        synchronized (writeLock) {
+            List<ComputerRecord> upserts;
+            List<String> deletes;
+            synchronized (this) {
+                writeScheduled = false;
+                if (pendingUpserts.isEmpty() && pendingDeletes.isEmpty()) {
+                    return;
+                }
+
+                upserts = new ArrayList<>(pendingUpserts.values());
+                deletes = new ArrayList<>(pendingDeletes);
+                pendingUpserts.clear();
+                pendingDeletes.clear();
+            }
+
+            try {
+                store.writeBatch(upserts, deletes);
+                writtenBatches.incrementAndGet();
+                writtenRows.addAndGet(upserts.size() + deletes.size());
+                synchronized (this) {
+                    retryDelayMs = writeDelayMs;
+                }
+            } catch (RuntimeException e) {
+                LimeLog.warning("Failed to write "+(upserts.size() + deletes.size())+" computer updates: "+e);
+                requeue(upserts, deletes);
+            }
+        }
+    }
+
+    private synchronized void requeue(List<ComputerRecord> upserts, List<String> deletes) {
+        // Anything changed again since the batch was taken is already queued with newer data
+        for (ComputerRecord record : upserts) {
+            if (!pendingUpserts.containsKey(record.uuid) && !pendingDeletes.contains(record.uuid)) {
+                pendingUpserts.put(record.uuid, record);
+            }
+        }
+        for (String uuid : deletes) {
+            if (!pendingUpserts.containsKey(uuid) && !pendingDeletes.contains(uuid)) {
+                pendingDeletes.add(uuid);
+            }
+        }
+
+        scheduleWrite(retryDelayMs);
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+    }
+
+    /**
+     * Writes any queued changes on the calling thread.
+     */
+    void flush() {
+        writePending();
+    }
+
+    /**
+     * Flushes and stops queueing further writes. Changes made after this are only
+     * written by another flush().
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    long getSkippedUpdates() {
+        return skippedUpdates.get();
+    }
+
+    long getWrittenBatches() {
+        return writtenBatches.get();
+    }
+
+    long getWrittenRows() {
+        return writtenRows.get();
+    }
+}
@@ -0,0 +1,243 @@
+package com.limelight.computers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the periodic serverinfo polls of all hosts on a small shared set of threads.
+ *
+ * Host polls are scheduled with a fixed delay on a bounded scheduled pool, so each host has at
+ * most one poll outstanding no matter how slow it responds. The per-address requests a host poll
+ * fans out to run on a separate bounded probe pool, since the host poll blocks on them. Neither
+ * pool grows with the number of hosts or addresses, and idle threads exit when polling stops.
+ */
+class PollScheduler {
+
+    private static final int DEFAULT_HOST_THREADS = 4;
+    private static final int DEFAULT_PROBE_THREADS = 8;
+    private static final int IDLE_THREAD_TIMEOUT_S = 10;
+
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    static class Handle {
+        final String name;
+        private volatile ScheduledFuture<?> future;
+
+        private volatile int polls;
+        private volatile long lastLatencyMs;
+        private volatile long maxLatencyMs;
+        private volatile float avgLatencyMs;
+        private volatile long maxStartDelayMs;
+        private long nextDueMs;
+
+        private Handle(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Stops further polls and interrupts the current one, if any.
+         */
+        void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+        }
+
+        boolean isCancelled() {
+            ScheduledFuture<?> f = future;
+            return f != null && f.isCancelled();
+        }
+
+        int getPollCount() {
+            return polls;
+        }
+
+        long getLastLatencyMs() {
+            return lastLatencyMs;
+        }
+
+        float getAverageLatencyMs() {
+            return avgLatencyMs;
+        }
+
+        long getMaxLatencyMs() {
+            return maxLatencyMs;
+        }
+
+        // How late a poll started at worst compared to its period, because all host threads were busy
+        long getMaxStartDelayMs() {
+            return maxStartDelayMs;
+        }
+
+        private void recordPoll(long startMs, long endMs, long periodMs) {
+            long latency = endMs - startMs;
+            if (nextDueMs != 0) {
+                maxStartDelayMs = Math.max(maxStartDelayMs, startMs - nextDueMs);
+            }
+            nextDueMs = endMs + periodMs;
+
+            lastLatencyMs = latency;
+            maxLatencyMs = Math.max(maxLatencyMs, latency);
+            avgLatencyMs = polls == 0 ? latency : avgLatencyMs * 0.8f + latency * 0.2f;
+            polls++;
+        }
+    }
+
+    private final Clock clock;
+    private final ScheduledThreadPoolExecutor hostPool;
+    private final ThreadPoolExecutor probePool;
+    private final List<Handle> handles = new ArrayList<>();
+
+    private final AtomicInteger probesSubmitted = new AtomicInteger();
+    private volatile int maxProbeQueueDepth;
+
+    private final Executor probeExecutor = new Executor() {
+        @Override
+        public void execute(Runnable probe) {
+            probesSubmitted.incrementAndGet();
+            probePool.execute(probe);
+
+            int depth = probePool.getQueue().size();
+            if (depth > maxProbeQueueDepth) {
+                maxProbeQueueDepth = depth;
+            }
+        }
+    };
+
+    PollScheduler() {
+        this(DEFAULT_HOST_THREADS, DEFAULT_PROBE_THREADS, SYSTEM_CLOCK);
+    }
+
+    // The clock only feeds the latency stats, polls are still scheduled in real time
+    PollScheduler(int hostThreads, int probeThreads, Clock clock) {
+        this.clock = clock;
+        hostPool = new ScheduledThreadPoolExecutor(hostThreads, createThreadFactory("Host poll"));
+        hostPool.setKeepAliveTime(IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS);
+        hostPool.allowCoreThreadTimeOut(true);
+        hostPool.setRemoveOnCancelPolicy(true);
+
+        probePool = new ThreadPoolExecutor(probeThreads, probeThreads,
+                IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                createThreadFactory("Address probe"));
+        probePool.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory createThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + " " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Runs poll immediately and then again periodMs after each run finishes, until the returned
+     * handle is cancelled.
+     */
+    Handle scheduleHost(String name, final Runnable poll, final long periodMs) {
+        final Handle handle = new Handle(name);
+        handle.future = hostPool.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                long start = clock.currentTimeMillis();
+                try {
+                    poll.run();
+                } catch (RuntimeException e) {
+                    // An exception would silently stop all future polls of this host
+                    e.printStackTrace();
+                }
+                handle.recordPoll(start, clock.currentTimeMillis(), periodMs);
+            }
+        }, 0, periodMs, TimeUnit.MILLISECONDS);
+
+        synchronized (handles) {
+            handles.add(handle);
+        }
+        return handle;
+    }
+
+    void remove(Handle handle) {
+        handle.cancel();
+        synchronized (handles) {
+            handles.remove(handle);
+        }
+    }
+
+    <T> Future<T> submitProbe(Callable<T> probe) {
+        FutureTask<T> task = new FutureTask<>(probe);
+        probeExecutor.execute(task);
+        return task;
+    }
+
+    Executor getProbeExecutor() {
+        return probeExecutor;
+    }
+
+    int getProbeQueueDepth() {
+        return probePool.getQueue().size();
+    }
+
+    int getMaxProbeQueueDepth() {
+        return maxProbeQueueDepth;
+    }
+
+    int getActiveProbes() {
+        return probePool.getActiveCount();
+    }
+
+    // Most threads both pools have had at the same time
+    int getLargestThreadCount() {
+        return hostPool.getLargestPoolSize() + probePool.getLargestPoolSize();
+    }
+
+    String getStatsString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Host polls: %d threads, %d active; probes: %d submitted, %d active, queue %d (max %d)",
+                hostPool.getPoolSize(), hostPool.getActiveCount(), probesSubmitted.get(),
+                probePool.getActiveCount(), probePool.getQueue().size(), maxProbeQueueDepth));
+
+        synchronized (handles) {
+            for (Handle handle : handles) {
+                sb.append(String.format(Locale.US, "\n%s: %d polls, latency %d ms (avg %.0f, max %d), max start delay %d ms",
+                        handle.name, handle.polls, handle.lastLatencyMs, handle.avgLatencyMs,
+                        handle.maxLatencyMs, handle.maxStartDelayMs));
+            }
+        }
+        return sb.toString();
+    }
+
+    void shutdown() {
+        synchronized (handles) {
+            handles.clear();
+        }
+        hostPool.shutdownNow();
+        probePool.shutdownNow();
+    }
+}
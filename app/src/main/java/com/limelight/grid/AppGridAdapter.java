@@ -17,15 +17,19 @@ import com.limelight.grid.assets.DiskAssetLoader;
 import com.limelight.grid.assets.MemoryAssetLoader;
 import com.limelight.grid.assets.NetworkAssetLoader;
 import com.limelight.grid.assets.ScaledBitmap;
+import com.limelight.nvstream.http.AppListDiff;
 import com.limelight.nvstream.http.ComputerDetails;
+import com.limelight.nvstream.http.NvApp;
 import com.limelight.preferences.PreferenceConfiguration;
 import com.limelight.utils.AppIconCache;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @SuppressWarnings("unchecked")
@@ -159,26 +163,58 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
         allApps.remove(app);
     }
 
-    public void rebuildAppList(List<AppView.AppObject> newApps) {
-        // Clear existing lists
-        allApps.clear();
+    public List<NvApp> getAllApps() {
+        List<NvApp> apps = new ArrayList<>(allApps.size());
+        for (AppView.AppObject app : allApps) {
+            apps.add(app.app);
+        }
+        return apps;
+    }
+
+    /**
+     * Applies an app list diff against the apps currently in the adapter. Apps that didn't change
+     * keep their AppObject (and running state) and don't queue another asset load.
+     *
+     * @return all apps in server order, including hidden ones
+     */
+    public List<AppView.AppObject> applyAppListDiff(AppListDiff diff) {
+        Map<Integer, AppView.AppObject> existingApps = new HashMap<>();
+        for (AppView.AppObject app : allApps) {
+            existingApps.put(app.app.getAppId(), app);
+        }
+
+        Set<Integer> changedAppIds = new HashSet<>();
+        for (NvApp app : diff.changed) {
+            changedAppIds.add(app.getAppId());
+        }
+
+        ArrayList<AppView.AppObject> newApps = new ArrayList<>(diff.newList.size());
+        for (NvApp app : diff.newList) {
+            AppView.AppObject obj = existingApps.get(app.getAppId());
+            if (obj == null || changedAppIds.contains(app.getAppId())) {
+                AppView.AppObject newObj = new AppView.AppObject(app);
+                newObj.isHidden = hiddenAppIds.contains(app.getAppId());
+                if (obj != null) {
+                    newObj.isRunning = obj.isRunning;
+                }
+                else if (showHiddenApps || !newObj.isHidden) {
+                    // Queue a request to fetch this bitmap into cache
+                    loader.queueCacheLoad(app);
+                }
+                obj = newObj;
+            }
+            newApps.add(obj);
+        }
+
+        allApps = newApps;
         itemList.clear();
-        
-        // Add all new apps in server order
-        for (AppView.AppObject app : newApps) {
-            // Update hidden state
-            app.isHidden = hiddenAppIds.contains(app.app.getAppId());
-            
-            // Always add to allApps
-            allApps.add(app);
-            
-            // Add to itemList if not hidden or if showing hidden apps
+        for (AppView.AppObject app : allApps) {
             if (showHiddenApps || !app.isHidden) {
-                // Queue a request to fetch this bitmap into cache
-                loader.queueCacheLoad(app.app);
                 itemList.add(app);
             }
         }
+
+        return allApps;
     }
 
     @Override
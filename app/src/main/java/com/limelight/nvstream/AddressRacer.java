@@ -0,0 +1,403 @@
+package com.limelight.nvstream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races attempts against the addresses of a host, in the spirit of RFC 8305 (Happy Eyeballs).
+ *
+ * Candidates are given in order of precedence. Attempts are started one after another, each
+ * {@code staggerMs} after the previous one or immediately once all running attempts have
+ * failed. The race returns as soon as it has a success that no pending higher precedence
+ * attempt could beat, or once {@code precedenceGraceMs} has passed since the first success.
+ *
+ * For each host the winning address family is remembered across races. That family is tried
+ * first next time, and higher precedence families that lost to it are not waited for. An attempt
+ * on an address that is still running from an earlier race is not started again. If such a
+ * leftover attempt succeeds after all, it becomes the remembered winner, so a recovered address
+ * is picked up again. Only the most recently raced hosts are remembered.
+ */
+public class AddressRacer {
+
+    public static class Candidate<A> {
+        public final A address;
+
+        // Key the winner is remembered by (e.g. "local" or "ipv6")
+        public final String family;
+
+        public Candidate(A address, String family) {
+            this.address = address;
+            this.family = family;
+        }
+    }
+
+    public interface Attempt<A, R> {
+        // Returns null or throws on failure
+        R attempt(A address, Abort abort) throws Exception;
+    }
+
+    /**
+     * Lets an attempt stop blocking I/O that ignores interrupts, such as a socket connect or an
+     * HTTP call, when the race cancels it.
+     */
+    public static class Abort {
+        private Closeable action;
+        private boolean aborted;
+
+        /**
+         * Closes the given resource if the attempt is cancelled. If it already was, the resource
+         * is closed right away.
+         */
+        public void onAbort(Closeable action) {
+            synchronized (this) {
+                if (!aborted) {
+                    this.action = action;
+                    return;
+                }
+            }
+            close(action);
+        }
+
+        private void abort() {
+            Closeable toClose;
+            synchronized (this) {
+                aborted = true;
+                toClose = action;
+                action = null;
+            }
+            if (toClose != null) {
+                close(toClose);
+            }
+        }
+
+        private static void close(Closeable action) {
+            try {
+                action.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public interface LateSuccessListener<A, R> {
+        // Called on the attempt's thread when an attempt succeeds after the race has returned
+        void onLateSuccess(A address, R result);
+    }
+
+    public static class Result<A, R> {
+        public final A address;
+        public final R value;
+
+        // Every address that had succeeded when the race returned, in order of precedence
+        public final List<A> successfulAddresses;
+
+        private Result(A address, R value, List<A> successfulAddresses) {
+            this.address = address;
+            this.value = value;
+            this.successfulAddresses = successfulAddresses;
+        }
+    }
+
+    private static class HostHistory {
+        String winnerFamily;
+
+        // A host can have several addresses in the same family, so this is keyed by address
+        final Set<Object> inFlight = new HashSet<>();
+    }
+
+    private static final int MAX_HISTORIES = 32;
+
+    // Least recently raced hosts are forgotten first
+    private static final Map<String, HostHistory> histories = new LinkedHashMap<String, HostHistory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HostHistory> eldest) {
+            return size() > MAX_HISTORIES;
+        }
+    };
+
+    private final Executor executor;
+    private final long staggerMs;
+    private final long precedenceGraceMs;
+    private final boolean cancelLosers;
+
+    /**
+     * @param cancelLosers whether attempts still running when the race returns are cancelled.
+     *                     If not, they run to completion and may report a late success.
+     */
+    public AddressRacer(Executor executor, long staggerMs, long precedenceGraceMs, boolean cancelLosers) {
+        this.executor = executor;
+        this.staggerMs = staggerMs;
+        this.precedenceGraceMs = precedenceGraceMs;
+        this.cancelLosers = cancelLosers;
+    }
+
+    private static HostHistory getHistory(String hostKey) {
+        if (hostKey == null) {
+            // Nothing is remembered for hosts we can't identify yet
+            return new HostHistory();
+        }
+
+        synchronized (histories) {
+            HostHistory history = histories.get(hostKey);
+            if (history == null) {
+                history = new HostHistory();
+                histories.put(hostKey, history);
+            }
+            return history;
+        }
+    }
+
+    /**
+     * Forgets what was learned about a host, such as when it is removed.
+     */
+    public static void forgetHost(String hostKey) {
+        synchronized (histories) {
+            histories.remove(hostKey);
+        }
+    }
+
+    public static String getRememberedWinner(String hostKey) {
+        HostHistory history = getHistory(hostKey);
+        synchronized (history) {
+            return history.winnerFamily;
+        }
+    }
+
+    private class Race<A, R> {
+        final HostHistory history;
+        final List<Candidate<A>> candidates;
+        final Attempt<A, R> attempt;
+        final LateSuccessListener<A, R> lateListener;
+
+        final FutureTask<?>[] tasks;
+        final Abort[] aborts;
+        final boolean[] done;
+        final Object[] results;
+        boolean finished;
+        int winner = -1;
+
+        Race(HostHistory history, List<Candidate<A>> candidates, Attempt<A, R> attempt,
+             LateSuccessListener<A, R> lateListener) {
+            this.history = history;
+            this.candidates = candidates;
+            this.attempt = attempt;
+            this.lateListener = lateListener;
+            this.tasks = new FutureTask<?>[candidates.size()];
+            this.aborts = new Abort[candidates.size()];
+            this.done = new boolean[candidates.size()];
+            this.results = new Object[candidates.size()];
+        }
+
+        void start(final int index) {
+            final Candidate<A> candidate = candidates.get(index);
+            synchronized (history) {
+                history.inFlight.add(candidate.address);
+            }
+
+            final Abort abort = new Abort();
+            FutureTask<R> task = new FutureTask<R>(() -> attempt.attempt(candidate.address, abort)) {
+                @Override
+                protected void done() {
+                    R result = null;
+                    if (!isCancelled()) {
+                        try {
+                            result = get();
+                        } catch (ExecutionException | InterruptedException ignored) {
+                        }
+                    }
+                    onComplete(index, result);
+                }
+            };
+            tasks[index] = task;
+            aborts[index] = abort;
+            executor.execute(task);
+        }
+
+        void cancelRunning() {
+            for (int i = 0; i < tasks.length; i++) {
+                if (tasks[i] != null && !tasks[i].isDone()) {
+                    tasks[i].cancel(true);
+                    aborts[i].abort();
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void onComplete(int index, R result) {
+            Candidate<A> candidate = candidates.get(index);
+            boolean late;
+            int raceWinner;
+
+            synchronized (this) {
+                done[index] = true;
+                results[index] = result;
+                late = finished;
+                raceWinner = winner;
+                notifyAll();
+            }
+
+            synchronized (history) {
+                history.inFlight.remove(candidate.address);
+                if (late && result != null && (raceWinner < 0 || index < raceWinner)) {
+                    // A better address came back, so prefer it next time
+                    history.winnerFamily = candidate.family;
+                }
+            }
+
+            if (late && result != null && lateListener != null) {
+                lateListener.onLateSuccess(candidate.address, result);
+            }
+        }
+    }
+
+    /**
+     * Races attempts against the candidates, which must be in order of precedence.
+     * Returns null if every attempt failed. A null hostKey races without any history.
+     */
+    public <A, R> Result<A, R> race(String hostKey, List<Candidate<A>> candidates, Attempt<A, R> attempt,
+                                    LateSuccessListener<A, R> lateListener) throws InterruptedException {
+        final int count = candidates.size();
+        HostHistory history = getHistory(hostKey);
+        Race<A, R> race = new Race<>(history, candidates, attempt, lateListener);
+
+        // Attempts still running from the last race are neither restarted nor waited for
+        boolean[] skipped = new boolean[count];
+        int remembered = -1;
+        synchronized (history) {
+            for (int i = 0; i < count; i++) {
+                String family = candidates.get(i).family;
+                if (history.inFlight.contains(candidates.get(i).address)) {
+                    skipped[i] = true;
+                }
+                else if (remembered < 0 && family.equals(history.winnerFamily)) {
+                    remembered = i;
+                }
+            }
+        }
+
+        // The remembered winner goes first, then the rest by precedence
+        int[] order = new int[count];
+        int orderLength = 0;
+        if (remembered >= 0) {
+            order[orderLength++] = remembered;
+        }
+        for (int i = 0; i < count; i++) {
+            if (i != remembered && !skipped[i]) {
+                order[orderLength++] = i;
+            }
+        }
+
+        int started = 0;
+        long nextStartNs = System.nanoTime();
+        long graceDeadlineNs = 0;
+
+        try {
+            synchronized (race) {
+                while (true) {
+                    long now = System.nanoTime();
+                    int best = -1;
+                    boolean anyRunning = false;
+                    for (int i = 0; i < count; i++) {
+                        if (race.done[i] && race.results[i] != null && best < 0) {
+                            best = i;
+                        }
+                        if (race.tasks[i] != null && !race.done[i]) {
+                            anyRunning = true;
+                        }
+                    }
+
+                    // Start the next attempt once it's due or when everything running has failed
+                    while (started < orderLength && (now - nextStartNs >= 0 || !anyRunning)) {
+                        int next = order[started++];
+                        if (best >= 0 && next > best) {
+                            // Can't beat what we already have
+                            continue;
+                        }
+                        race.start(next);
+                        anyRunning = true;
+                        nextStartNs = now + TimeUnit.MILLISECONDS.toNanos(staggerMs);
+                    }
+
+                    if (best >= 0) {
+                        if (graceDeadlineNs == 0) {
+                            graceDeadlineNs = now + TimeUnit.MILLISECONDS.toNanos(precedenceGraceMs);
+                        }
+
+                        // Wait for better addresses unless they lost last time
+                        boolean betterPending = false;
+                        for (int i = 0; i < best; i++) {
+                            if (!race.done[i] && !skipped[i] && (remembered < 0 || i >= remembered)) {
+                                betterPending = true;
+                                break;
+                            }
+                        }
+
+                        if (!betterPending || now - graceDeadlineNs >= 0) {
+                            return finish(race, best);
+                        }
+                    }
+                    else if (started == orderLength && !anyRunning) {
+                        return finish(race, -1);
+                    }
+
+                    long waitNs = Long.MAX_VALUE;
+                    if (started < orderLength) {
+                        waitNs = nextStartNs - now;
+                    }
+                    if (best >= 0) {
+                        waitNs = Math.min(waitNs, graceDeadlineNs - now);
+                    }
+
+                    if (waitNs == Long.MAX_VALUE) {
+                        race.wait();
+                    }
+                    else if (waitNs > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(race, waitNs);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (race) {
+                race.cancelRunning();
+            }
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A, R> Result<A, R> finish(Race<A, R> race, int best) {
+        // Called with the race locked
+        race.finished = true;
+        race.winner = best;
+
+        if (cancelLosers) {
+            race.cancelRunning();
+        }
+
+        if (best < 0) {
+            return null;
+        }
+
+        synchronized (race.history) {
+            race.history.winnerFamily = race.candidates.get(best).family;
+        }
+
+        List<A> successes = new ArrayList<>();
+        for (int i = 0; i < race.candidates.size(); i++) {
+            if (race.done[i] && race.results[i] != null) {
+                successes.add(race.candidates.get(i).address);
+            }
+        }
+
+        return new Result<>(race.candidates.get(best).address, (R) race.results[best], successes);
+    }
+}
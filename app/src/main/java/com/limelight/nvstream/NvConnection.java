@@ -10,9 +10,13 @@ import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
 import android.net.RouteInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -20,6 +24,8 @@ import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 
 import javax.crypto.KeyGenerator;
@@ -36,7 +42,10 @@ import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
+import com.limelight.nvstream.http.ServerInfo;
+import com.limelight.nvstream.input.InputSendQueue;
 import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.nvstream.input.MouseMotionCoalescer;
 import com.limelight.nvstream.jni.MoonBridge;
 
 public class NvConnection {
@@ -46,10 +55,112 @@ public class NvConnection {
     private String clientName;
     private ConnectionContext context;
     private static Semaphore connectionAllowed = new Semaphore(1);
+
+    // Delay before racing the next address (RFC 8305 recommends 250 ms)
+    private static final int CONNECTION_ATTEMPT_DELAY_MS = 250;
     private final boolean isMonkey;
     private final Context appContext;
     private ComputerDetails.AddressTuple host;
 
+    // Input records for the input sender thread
+    private static final int INPUT_MOUSE_MOVE = 0;
+    private static final int INPUT_MOUSE_POSITION = 1;
+    private static final int INPUT_MOUSE_MOVE_AS_POSITION = 2;
+    private static final int INPUT_MOUSE_BUTTON = 3;
+    private static final int INPUT_MOUSE_SCROLL = 4;
+    private static final int INPUT_MOUSE_HSCROLL = 5;
+    private static final int INPUT_KEYBOARD = 6;
+    private static final int INPUT_UTF8_TEXT = 7;
+    private static final int INPUT_CONTROLLER = 8;
+    private static final int INPUT_CONTROLLER_TOUCH = 9;
+    private static final int INPUT_CONTROLLER_MOTION = 10;
+    private static final int INPUT_CONTROLLER_BATTERY = 11;
+    private static final int INPUT_TOUCH = 12;
+    private static final int INPUT_PEN = 13;
+
+    private static final int INPUT_QUEUE_CAPACITY = 1024;
+
+    // All input goes through here, so the thread that delivered an event never waits on
+    // the native input code
+    private final InputSendQueue inputQueue = new InputSendQueue(new InputSendQueue.Sink() {
+        @Override
+        public void send(InputSendQueue.Record r) {
+            int[] i = r.ints;
+            float[] f = r.floats;
+            switch (r.type) {
+                case INPUT_MOUSE_MOVE:
+                    MoonBridge.sendMouseMove((short) i[0], (short) i[1]);
+                    break;
+                case INPUT_MOUSE_POSITION:
+                    MoonBridge.sendMousePosition((short) i[0], (short) i[1], (short) i[2], (short) i[3]);
+                    break;
+                case INPUT_MOUSE_MOVE_AS_POSITION:
+                    MoonBridge.sendMouseMoveAsMousePosition((short) i[0], (short) i[1], (short) i[2], (short) i[3]);
+                    break;
+                case INPUT_MOUSE_BUTTON:
+                    MoonBridge.sendMouseButton((byte) i[0], (byte) i[1]);
+                    break;
+                case INPUT_MOUSE_SCROLL:
+                    MoonBridge.sendMouseHighResScroll((short) i[0]);
+                    break;
+                case INPUT_MOUSE_HSCROLL:
+                    MoonBridge.sendMouseHighResHScroll((short) i[0]);
+                    break;
+                case INPUT_KEYBOARD:
+                    MoonBridge.sendKeyboardInput((short) i[0], (byte) i[1], (byte) i[2], (byte) i[3]);
+                    break;
+                case INPUT_UTF8_TEXT:
+                    MoonBridge.sendUtf8Text((String) r.object);
+                    break;
+                case INPUT_CONTROLLER:
+                    MoonBridge.sendMultiControllerInput((short) i[0], (short) i[1], i[2],
+                            (byte) i[3], (byte) i[4], (short) i[5], (short) i[6], (short) i[7], (short) i[8]);
+                    break;
+                case INPUT_CONTROLLER_TOUCH:
+                    MoonBridge.sendControllerTouchEvent((byte) i[0], (byte) i[1], i[2], f[0], f[1], f[2]);
+                    break;
+                case INPUT_CONTROLLER_MOTION:
+                    MoonBridge.sendControllerMotionEvent((byte) i[0], (byte) i[1], f[0], f[1], f[2]);
+                    break;
+                case INPUT_CONTROLLER_BATTERY:
+                    MoonBridge.sendControllerBatteryEvent((byte) i[0], (byte) i[1], (byte) i[2]);
+                    break;
+                case INPUT_TOUCH:
+                    MoonBridge.sendTouchEvent((byte) i[0], i[1], f[0], f[1], f[2], f[3], f[4], (short) i[2]);
+                    break;
+                case INPUT_PEN:
+                    MoonBridge.sendPenEvent((byte) i[0], (byte) i[1], (byte) i[2], f[0], f[1], f[2], f[3], f[4],
+                            (short) i[3], (byte) i[4]);
+                    break;
+            }
+        }
+    }, INPUT_QUEUE_CAPACITY, "Input Sender");
+
+    // Mouse motion goes through here so a batch of samples becomes one packet
+    private final MouseMotionCoalescer mouseMotion = new MouseMotionCoalescer(new MouseMotionCoalescer.Sink() {
+        @Override
+        public void sendMouseMove(short deltaX, short deltaY) {
+            inputQueue.enqueue(INPUT_MOUSE_MOVE, deltaX, deltaY, 0, 0);
+        }
+
+        @Override
+        public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight) {
+            inputQueue.enqueue(INPUT_MOUSE_POSITION, x, y, referenceWidth, referenceHeight);
+        }
+
+        @Override
+        public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+            inputQueue.enqueue(INPUT_MOUSE_MOVE_AS_POSITION, deltaX, deltaY, referenceWidth, referenceHeight);
+        }
+    });
+    private final Handler mouseMotionHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mouseMotionFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduleMouseMotionFlush(mouseMotion.flushIfDue(System.nanoTime()));
+        }
+    };
+
     public NvConnection(Context appContext, ComputerDetails.AddressTuple host, int httpsPort, String uniqueId, String pairName, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert)
     {
         this.appContext = appContext;
@@ -90,6 +201,14 @@ public class NvConnection {
     }
 
     public void stop() {
+        mouseMotionHandler.removeCallbacks(mouseMotionFlushRunnable);
+        mouseMotion.flush();
+        LimeLog.info("Mouse motion: "+mouseMotion);
+
+        // Send what's still queued before the connection goes away
+        inputQueue.stop();
+        LimeLog.info("Input queue: "+inputQueue);
+
         // Interrupt any pending connection. This is thread-safe.
         MoonBridge.interruptConnection();
 
@@ -107,14 +226,48 @@ public class NvConnection {
     private InetAddress resolveServerAddress() throws IOException {
         // Try to find an address that works for this host
         InetAddress[] addrs = InetAddress.getAllByName(context.serverAddress.address);
+
+        // Race connections to the addresses (RFC 8305). Alternate between address families,
+        // otherwise keeping the order DNS returned them in.
+        List<AddressRacer.Candidate<InetAddress>> candidates = new ArrayList<>();
+        List<InetAddress> sameFamily = new ArrayList<>();
+        List<InetAddress> otherFamily = new ArrayList<>();
         for (InetAddress addr : addrs) {
-            try (Socket s = new Socket()) {
-                s.setSoLinger(true, 0);
-                s.connect(new InetSocketAddress(addr, context.serverAddress.port), 1000);
-                return addr;
-            } catch (IOException e) {
-                e.printStackTrace();
+            if ((addr instanceof Inet6Address) == (addrs[0] instanceof Inet6Address)) {
+                sameFamily.add(addr);
+            }
+            else {
+                otherFamily.add(addr);
+            }
+        }
+        for (int i = 0; i < Math.max(sameFamily.size(), otherFamily.size()); i++) {
+            if (i < sameFamily.size()) {
+                candidates.add(createAddressCandidate(sameFamily.get(i)));
+            }
+            if (i < otherFamily.size()) {
+                candidates.add(createAddressCandidate(otherFamily.get(i)));
+            }
+        }
+
+        AddressRacer racer = new AddressRacer(r -> new Thread(r, "Address race").start(),
+                CONNECTION_ATTEMPT_DELAY_MS, 0, true);
+        try {
+            AddressRacer.Result<InetAddress, InetAddress> result = racer.race(
+                    "connect:" + context.serverAddress.address, candidates, (addr, abort) -> {
+                        try (Socket s = new Socket()) {
+                            // Connecting doesn't respond to interrupts, but closing the socket ends it
+                            abort.onAbort(s);
+                            s.setSoLinger(true, 0);
+                            s.connect(new InetSocketAddress(addr, context.serverAddress.port), 1000);
+                            return addr;
+                        }
+                    }, null);
+            if (result != null) {
+                return result.address;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resolving "+context.serverAddress);
         }
 
         // If we made it here, we didn't manage to find a working address. If DNS returned any
@@ -127,6 +280,10 @@ public class NvConnection {
         }
     }
 
+    private static AddressRacer.Candidate<InetAddress> createAddressCandidate(InetAddress addr) {
+        return new AddressRacer.Candidate<>(addr, addr instanceof Inet6Address ? "ipv6" : "ipv4");
+    }
+
     private int detectServerConnectionType() {
         ConnectivityManager connMgr = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -225,9 +382,9 @@ public class NvConnection {
     private boolean startApp() throws XmlPullParserException, IOException, InterruptedException {
         NvHTTP h = new NvHTTP(context.serverAddress, context.httpsPort, uniqueId, clientName, context.serverCert, cryptoProvider);
 
-        String serverInfo = h.getServerInfo(true);
+        ServerInfo serverInfo = ServerInfo.parse(h.getServerInfo(true));
         
-        context.serverAppVersion = h.getServerVersion(serverInfo);
+        context.serverAppVersion = serverInfo.getServerVersion();
         if (context.serverAppVersion == null) {
             context.connListener.displayMessage("Server version malformed");
             return false;
@@ -237,14 +394,14 @@ public class NvConnection {
         context.isNvidiaServerSoftware = details.nvidiaServer;
 
         // May be missing for older servers
-        context.serverGfeVersion = h.getGfeVersion(serverInfo);
+        context.serverGfeVersion = serverInfo.getGfeVersion();
                 
-        if (h.getPairState(serverInfo) != PairingManager.PairState.PAIRED) {
+        if (serverInfo.getPairState() != PairingManager.PairState.PAIRED) {
             context.connListener.displayMessage("Device not paired with computer");
             return false;
         }
 
-        context.serverCodecModeSupport = (int)h.getServerCodecModeSupport(serverInfo);
+        context.serverCodecModeSupport = (int)serverInfo.getServerCodecModeSupport();
 
         context.negotiatedHdr = (context.streamConfig.getSupportedVideoFormats() & MoonBridge.VIDEO_FORMAT_MASK_10BIT) != 0;
         if ((context.serverCodecModeSupport & 0x20200) == 0 && context.negotiatedHdr) {
@@ -258,7 +415,7 @@ public class NvConnection {
         
         // Check for a supported stream resolution
         if ((context.streamConfig.getReqWidth() > 4096 || context.streamConfig.getReqHeight() > 4096) &&
-                (h.getServerCodecModeSupport(serverInfo) & 0x200) == 0 && context.isNvidiaServerSoftware) {
+                (serverInfo.getServerCodecModeSupport() & 0x200) == 0 && context.isNvidiaServerSoftware) {
             context.connListener.displayMessage("Your host PC does not support streaming at resolutions above 4K.");
             return false;
         }
@@ -267,7 +424,7 @@ public class NvConnection {
             context.connListener.displayMessage("Your streaming device must support HEVC or AV1 to stream at resolutions above 4K.");
             return false;
         }
-        else if (context.streamConfig.getReqHeight() >= 2160 && !h.supports4K(serverInfo)) {
+        else if (context.streamConfig.getReqHeight() >= 2160 && !serverInfo.supports4K()) {
             // Client wants 4K but the server can't do it
             context.connListener.displayTransientMessage("You must update GeForce Experience to stream in 4K. The stream will be 1080p.");
             
@@ -310,9 +467,9 @@ public class NvConnection {
         }
         
         // If there's a game running, resume it
-        if (h.getCurrentGame(serverInfo) != 0) {
+        if (serverInfo.getCurrentGame() != 0) {
             try {
-                if (h.getCurrentGame(serverInfo) == app.getAppId()) {
+                if (serverInfo.getCurrentGame() == app.getAppId()) {
                     if (!h.launchApp(context, "resume", app.getAppId(), context.negotiatedHdr)) {
                         context.connListener.displayMessage("Failed to resume existing session");
                         return false;
@@ -430,6 +587,10 @@ public class NvConnection {
             // Moonlight-core is not thread-safe with respect to connection start and stop, so
             // we must not invoke that functionality in parallel.
             synchronized (MoonBridge.class) {
+                // Started here rather than up front, since stop() is only called once the
+                // connection has started
+                inputQueue.start();
+
                 MoonBridge.setupBridge(videoDecoderRenderer, audioRenderer, connectionListener);
                 int ret = MoonBridge.startConnection(context.serverAddress.address,
                         context.serverAppVersion, context.serverGfeVersion, context.rtspSessionUrl,
@@ -450,44 +611,84 @@ public class NvConnection {
                     // to stop the connection themselves. We need to release their
                     // semaphore count for them.
                     connectionAllowed.release();
+                    inputQueue.stop();
                     return;
                 }
             }
         }).start();
     }
     
+    /**
+     * Sets how long mouse motion may be held to merge it with later samples. With 0, motion is
+     * only merged within a batch.
+     */
+    public void setMouseMotionCoalesceInterval(int intervalMs) {
+        mouseMotion.setInterval(intervalMs);
+    }
+
+    /**
+     * Holds mouse motion until {@link #endMouseMotionBatch()}, so all the samples of one
+     * input event are sent as one packet.
+     */
+    public void beginMouseMotionBatch() {
+        mouseMotion.beginBatch();
+    }
+
+    public void endMouseMotionBatch() {
+        scheduleMouseMotionFlush(mouseMotion.endBatch(System.nanoTime()));
+    }
+
+    private void scheduleMouseMotionFlush(long delayMs) {
+        if (delayMs > 0) {
+            mouseMotionHandler.removeCallbacks(mouseMotionFlushRunnable);
+            mouseMotionHandler.postDelayed(mouseMotionFlushRunnable, delayMs);
+        }
+    }
+
+    /**
+     * Holds all input sent after this for the given time, without blocking the caller.
+     */
+    public void delayInput(int delayMs) {
+        mouseMotion.flush();
+        inputQueue.enqueueDelay(delayMs * 1000000L);
+    }
+
     public void sendMouseMove(final short deltaX, final short deltaY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMove(deltaX, deltaY);
+            scheduleMouseMotionFlush(mouseMotion.addRelative(deltaX, deltaY, System.nanoTime()));
         }
     }
 
     public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            scheduleMouseMotionFlush(mouseMotion.setPosition(x, y, referenceWidth, referenceHeight, System.nanoTime()));
         }
     }
 
     public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            scheduleMouseMotionFlush(mouseMotion.addRelativeAsPosition(deltaX, deltaY,
+                    referenceWidth, referenceHeight, System.nanoTime()));
         }
     }
 
     public void sendMouseButtonDown(final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
+            // The host must see the pointer where it was when the button went down
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_MOUSE_BUTTON, MouseButtonPacket.PRESS_EVENT, mouseButton, 0, 0);
         }
     }
     
     public void sendMouseButtonUp(final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_MOUSE_BUTTON, MouseButtonPacket.RELEASE_EVENT, mouseButton, 0, 0);
         }
     }
     
@@ -498,46 +699,58 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+            inputQueue.enqueue(INPUT_CONTROLLER, controllerNumber, activeGamepadMask, buttonFlags,
                     leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
         }
     }
 
     public void sendKeyboardInput(final short keyMap, final byte keyDirection, final byte modifier, final byte flags) {
         if (!isMonkey) {
-            MoonBridge.sendKeyboardInput(keyMap, keyDirection, modifier, flags);
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_KEYBOARD, keyMap, keyDirection, modifier, flags);
         }
     }
     
     public void sendMouseScroll(final byte scrollClicks) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_MOUSE_SCROLL, scrollClicks * 120, 0, 0, 0); // WHEEL_DELTA
         }
     }
 
     public void sendMouseHScroll(final byte scrollClicks) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResHScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_MOUSE_HSCROLL, scrollClicks * 120, 0, 0, 0); // WHEEL_DELTA
         }
     }
 
     public void sendMouseHighResScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll(scrollAmount);
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_MOUSE_SCROLL, scrollAmount, 0, 0, 0);
         }
     }
 
     public void sendMouseHighResHScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResHScroll(scrollAmount);
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_MOUSE_HSCROLL, scrollAmount, 0, 0, 0);
         }
     }
 
     public int sendTouchEvent(byte eventType, int pointerId, float x, float y, float pressureOrDistance,
                               float contactAreaMajor, float contactAreaMinor, short rotation) {
         if (!isMonkey) {
-            return MoonBridge.sendTouchEvent(eventType, pointerId, x, y, pressureOrDistance,
-                    contactAreaMajor, contactAreaMinor, rotation);
+            // Answer from the feature flags the native code would check, since the event
+            // is sent later on the input sender thread
+            if ((MoonBridge.getHostFeatureFlags() & MoonBridge.LI_FF_PEN_TOUCH_EVENTS) == 0) {
+                return MoonBridge.LI_ERR_UNSUPPORTED;
+            }
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_TOUCH, eventType, pointerId, rotation, 0, 0,
+                    x, y, pressureOrDistance, contactAreaMajor, contactAreaMinor);
+            return 0;
         }
         else {
             return MoonBridge.LI_ERR_UNSUPPORTED;
@@ -548,8 +761,13 @@ public class NvConnection {
                             float pressureOrDistance, float contactAreaMajor, float contactAreaMinor,
                             short rotation, byte tilt) {
         if (!isMonkey) {
-            return MoonBridge.sendPenEvent(eventType, toolType, penButtons, x, y, pressureOrDistance,
-                    contactAreaMajor, contactAreaMinor, rotation, tilt);
+            if ((MoonBridge.getHostFeatureFlags() & MoonBridge.LI_FF_PEN_TOUCH_EVENTS) == 0) {
+                return MoonBridge.LI_ERR_UNSUPPORTED;
+            }
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_PEN, eventType, toolType, penButtons, rotation, tilt,
+                    x, y, pressureOrDistance, contactAreaMajor, contactAreaMinor);
+            return 0;
         }
         else {
             return MoonBridge.LI_ERR_UNSUPPORTED;
@@ -558,13 +776,20 @@ public class NvConnection {
 
     public int sendControllerArrivalEvent(byte controllerNumber, short activeGamepadMask, byte type,
                                           int supportedButtonFlags, short capabilities) {
+        // Arrival is rare and its result matters to the caller, so it isn't queued. The
+        // controller's input is only queued after this returns, so it still follows the arrival.
         return MoonBridge.sendControllerArrivalEvent(controllerNumber, activeGamepadMask, type, supportedButtonFlags, capabilities);
     }
 
     public int sendControllerTouchEvent(byte controllerNumber, byte eventType, int pointerId,
                                         float x, float y, float pressure) {
         if (!isMonkey) {
-            return MoonBridge.sendControllerTouchEvent(controllerNumber, eventType, pointerId, x, y, pressure);
+            if ((MoonBridge.getHostFeatureFlags() & MoonBridge.LI_FF_CONTROLLER_TOUCH_EVENTS) == 0) {
+                return MoonBridge.LI_ERR_UNSUPPORTED;
+            }
+            inputQueue.enqueue(INPUT_CONTROLLER_TOUCH, controllerNumber, eventType, pointerId, 0, 0,
+                    x, y, pressure, 0f, 0f);
+            return 0;
         }
         else {
             return MoonBridge.LI_ERR_UNSUPPORTED;
@@ -574,7 +799,12 @@ public class NvConnection {
     public int sendControllerMotionEvent(byte controllerNumber, byte motionType,
                                          float x, float y, float z) {
         if (!isMonkey) {
-            return MoonBridge.sendControllerMotionEvent(controllerNumber, motionType, x, y, z);
+            if ((MoonBridge.getHostFeatureFlags() & MoonBridge.LI_FF_CONTROLLER_TOUCH_EVENTS) == 0) {
+                return MoonBridge.LI_ERR_UNSUPPORTED;
+            }
+            inputQueue.enqueue(INPUT_CONTROLLER_MOTION, controllerNumber, motionType, 0, 0, 0,
+                    x, y, z, 0f, 0f);
+            return 0;
         }
         else {
             return MoonBridge.LI_ERR_UNSUPPORTED;
@@ -582,12 +812,13 @@ public class NvConnection {
     }
 
     public void sendControllerBatteryEvent(byte controllerNumber, byte batteryState, byte batteryPercentage) {
-        MoonBridge.sendControllerBatteryEvent(controllerNumber, batteryState, batteryPercentage);
+        inputQueue.enqueue(INPUT_CONTROLLER_BATTERY, controllerNumber, batteryState, batteryPercentage, 0);
     }
 
     public void sendUtf8Text(final String text) {
         if (!isMonkey) {
-            MoonBridge.sendUtf8Text(text);
+            mouseMotion.flush();
+            inputQueue.enqueue(INPUT_UTF8_TEXT, text);
         }
     }
 
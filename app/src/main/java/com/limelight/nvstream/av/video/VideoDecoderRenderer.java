@@ -1,5 +1,9 @@
 package com.limelight.nvstream.av.video;
 
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.nio.ByteBuffer;
+
 public abstract class VideoDecoderRenderer {
     public abstract int setup(int format, int width, int height, int redrawRate);
 
@@ -12,6 +16,26 @@ public abstract class VideoDecoderRenderer {
     public abstract int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                          int frameNumber, int frameType, char frameHostProcessingLatency,
                                          long receiveTimeMs, long enqueueTimeMs);
+
+    // Renderers that return true here will have picture data written by the native code directly
+    // into the buffer returned by getDecodeUnitBuffer(), followed by a call to submitDecodeUnitBuffer().
+    // Parameter sets are still submitted with submitDecodeUnit().
+    public boolean supportsDirectBufferSubmit() {
+        return false;
+    }
+
+    // Returns a direct buffer with room for decodeUnitLength bytes at its current position, or null
+    // if the decode unit can't be accepted. The position must not be changed by the caller.
+    public ByteBuffer getDecodeUnitBuffer(int decodeUnitLength, int frameNumber, int frameType,
+                                          char frameHostProcessingLatency, long receiveTimeMs, long enqueueTimeMs) {
+        return null;
+    }
+
+    // Called after each getDecodeUnitBuffer() call, even if it returned null. A negative length
+    // means the data could not be written into the buffer.
+    public int submitDecodeUnitBuffer(int decodeUnitLength) {
+        return MoonBridge.DR_OK;
+    }
     
     public abstract void cleanup();
 
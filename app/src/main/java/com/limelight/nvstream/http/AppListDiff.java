@@ -0,0 +1,104 @@
+package com.limelight.nvstream.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The difference between two app lists of the same host, keyed by app ID.
+ *
+ * Lets the UI apply only what changed instead of rebuilding the whole grid, and
+ * {@link #hash(String)} lets the poller skip parsing a raw list that hasn't changed at all.
+ */
+public class AppListDiff {
+    // Apps that weren't in the old list, in server order
+    public final List<NvApp> added;
+
+    // Apps that aren't in the new list anymore
+    public final List<NvApp> removed;
+
+    // New versions of apps whose name, HDR support or commands changed
+    public final List<NvApp> changed;
+
+    // Whether the apps present in both lists are in a different order now
+    public final boolean orderChanged;
+
+    // The complete new list, in server order
+    public final List<NvApp> newList;
+
+    private AppListDiff(List<NvApp> added, List<NvApp> removed, List<NvApp> changed,
+                        boolean orderChanged, List<NvApp> newList) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+        this.orderChanged = orderChanged;
+        this.newList = Collections.unmodifiableList(newList);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && !orderChanged;
+    }
+
+    private static boolean sameDetails(NvApp a, NvApp b) {
+        return a.getAppName().equals(b.getAppName()) &&
+                a.isHdrSupported() == b.isHdrSupported() &&
+                Objects.equals(a.getCmdList(), b.getCmdList());
+    }
+
+    public static AppListDiff compute(List<NvApp> oldList, List<NvApp> newList) {
+        Map<Integer, NvApp> oldById = new HashMap<>();
+        for (NvApp app : oldList) {
+            oldById.put(app.getAppId(), app);
+        }
+
+        List<NvApp> added = new ArrayList<>();
+        List<NvApp> changed = new ArrayList<>();
+        Map<Integer, NvApp> newById = new HashMap<>();
+        List<Integer> keptOrder = new ArrayList<>();
+        for (NvApp app : newList) {
+            newById.put(app.getAppId(), app);
+
+            NvApp oldApp = oldById.get(app.getAppId());
+            if (oldApp == null) {
+                added.add(app);
+            }
+            else {
+                keptOrder.add(app.getAppId());
+                if (!sameDetails(oldApp, app)) {
+                    changed.add(app);
+                }
+            }
+        }
+
+        List<NvApp> removed = new ArrayList<>();
+        boolean orderChanged = false;
+        int keptIndex = 0;
+        for (NvApp app : oldList) {
+            if (!newById.containsKey(app.getAppId())) {
+                removed.add(app);
+            }
+            else if (!orderChanged) {
+                // The kept apps must appear in the same relative order in both lists
+                orderChanged = keptIndex >= keptOrder.size() || keptOrder.get(keptIndex++) != app.getAppId();
+            }
+        }
+
+        return new AppListDiff(added, removed, changed, orderChanged, new ArrayList<>(newList));
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a raw app list, so an unchanged response can be recognized
+     * without parsing it or keeping every old response around.
+     */
+    public static long hash(String rawAppList) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < rawAppList.length(); i++) {
+            hash ^= rawAppList.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
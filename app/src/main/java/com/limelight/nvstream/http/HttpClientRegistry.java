@@ -0,0 +1,254 @@
+package com.limelight.nvstream.http;
+
+import java.net.Proxy;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * Process-wide OkHttp clients for talking to hosts, shared by all NvHTTP instances.
+ *
+ * Clients are keyed by pinned server certificate and client certificate, so all addresses of a
+ * paired host share one entry. Each entry has its own connection pool and a single SSLContext, so
+ * connections are kept alive between requests and TLS sessions are resumed instead of doing a full
+ * mutual TLS handshake every time. Both are looked up per address within the entry. Since the
+ * pinned certificate is part of the key, a connection or session that was validated against one
+ * pin is never reused for a request made with a different one (or without one). A host that
+ * presents a different certificate fails the handshake as before, so callers can still fall back
+ * on a certificate mismatch.
+ */
+class HttpClientRegistry {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+
+    // Hosts drop idle connections on their own, so don't keep them around too long
+    private static final int KEEP_ALIVE_MS = 10000;
+
+    static class Clients {
+        final OkHttpClient longConnectTimeout;
+        final OkHttpClient shortConnectTimeout;
+        final OkHttpClient longConnectNoReadTimeout;
+        final ConnectionPool connectionPool;
+
+        private Clients(OkHttpClient longConnectTimeout, ConnectionPool connectionPool) {
+            this.longConnectTimeout = longConnectTimeout;
+            this.shortConnectTimeout = longConnectTimeout.newBuilder()
+                    .connectTimeout(NvHTTP.SHORT_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .build();
+            this.longConnectNoReadTimeout = longConnectTimeout.newBuilder()
+                    .readTimeout(0, TimeUnit.MILLISECONDS)
+                    .build();
+            this.connectionPool = connectionPool;
+        }
+    }
+
+    private static class Key {
+        final X509Certificate serverCert;
+        final X509Certificate clientCert;
+
+        Key(X509Certificate serverCert, X509Certificate clientCert) {
+            this.serverCert = serverCert;
+            this.clientCert = clientCert;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equals(serverCert, other.serverCert) &&
+                    Objects.equals(clientCert, other.clientCert);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(serverCert, clientCert);
+        }
+    }
+
+    private static final LinkedHashMap<Key, Clients> entries = new LinkedHashMap<Key, Clients>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Clients> eldest) {
+            if (size() > MAX_ENTRIES) {
+                eldest.getValue().connectionPool.evictAll();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static X509TrustManager defaultTrustManager;
+
+    private HttpClientRegistry() {}
+
+    static Clients getClients(X509Certificate serverCert, LimelightCryptoProvider cryptoProvider) {
+        // Snapshot the client identity so the entry can't change under an open connection
+        X509Certificate clientCert = cryptoProvider.getClientCertificate();
+        PrivateKey clientKey = cryptoProvider.getClientPrivateKey();
+        Key key = new Key(serverCert, clientCert);
+
+        synchronized (entries) {
+            Clients clients = entries.get(key);
+            if (clients == null) {
+                clients = createClients(serverCert, clientCert, clientKey);
+                entries.put(key, clients);
+            }
+            return clients;
+        }
+    }
+
+    /**
+     * Drops the clients for a pinned certificate along with their idle connections and TLS
+     * sessions, e.g. after unpairing so nothing authenticated under the old pairing is reused.
+     */
+    static void removeServerCert(X509Certificate serverCert) {
+        synchronized (entries) {
+            Iterator<Map.Entry<Key, Clients>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Clients> entry = it.next();
+                if (Objects.equals(entry.getKey().serverCert, serverCert)) {
+                    entry.getValue().connectionPool.evictAll();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static synchronized X509TrustManager getDefaultTrustManager() {
+        if (defaultTrustManager != null) {
+            return defaultTrustManager;
+        }
+
+        try {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init((KeyStore) null);
+
+            for (TrustManager tm : tmf.getTrustManagers()) {
+                if (tm instanceof X509TrustManager) {
+                    defaultTrustManager = (X509TrustManager) tm;
+                    return defaultTrustManager;
+                }
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (KeyStoreException e) {
+            throw new RuntimeException(e);
+        }
+
+        throw new IllegalStateException("No X509 trust manager found");
+    }
+
+    private static Clients createClients(final X509Certificate serverCert, final X509Certificate clientCert, final PrivateKey clientKey) {
+        X509KeyManager keyManager = new X509KeyManager() {
+            public String chooseClientAlias(String[] keyTypes,
+                    Principal[] issuers, Socket socket) { return "Limelight-RSA"; }
+            public String chooseServerAlias(String keyType, Principal[] issuers,
+                    Socket socket) { return null; }
+            public X509Certificate[] getCertificateChain(String alias) {
+                return new X509Certificate[] {clientCert};
+            }
+            public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
+            public PrivateKey getPrivateKey(String alias) {
+                return clientKey;
+            }
+            public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
+        };
+
+        final X509TrustManager defaultTrustManager = getDefaultTrustManager();
+        X509TrustManager trustManager = new X509TrustManager() {
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+            public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                throw new IllegalStateException("Should never be called");
+            }
+            public void checkServerTrusted(X509Certificate[] certs, String authType) throws CertificateException {
+                try {
+                    // Try the default trust manager first to allow pairing with certificates
+                    // that chain up to a trusted root CA. This will raise CertificateException
+                    // if the certificate is not trusted (expected for GFE's self-signed certs).
+                    defaultTrustManager.checkServerTrusted(certs, authType);
+                } catch (CertificateException e) {
+                    // Check the server certificate if we've paired to this host
+                    if (certs.length == 1 && serverCert != null) {
+                        if (!certs[0].equals(serverCert)) {
+                            throw new CertificateException("Certificate mismatch");
+                        }
+                    }
+                    else {
+                        // The cert chain doesn't look like a self-signed cert or we don't have
+                        // a certificate pinned, so re-throw the original validation error.
+                        throw e;
+                    }
+                }
+            }
+        };
+
+        HostnameVerifier hv = new HostnameVerifier() {
+            public boolean verify(String hostname, SSLSession session) {
+                try {
+                    Certificate[] certificates = session.getPeerCertificates();
+                    if (certificates.length == 1 && certificates[0].equals(serverCert)) {
+                        // Allow any hostname if it's our pinned cert
+                        return true;
+                    }
+                } catch (SSLPeerUnverifiedException e) {
+                    e.printStackTrace();
+                }
+
+                // Fall back to default HostnameVerifier for validating CA-issued certs
+                return HttpsURLConnection.getDefaultHostnameVerifier().verify(hostname, session);
+            }
+        };
+
+        // One SSLContext per entry, so its session cache lets later connections resume
+        SSLContext sc;
+        try {
+            sc = SSLContext.getInstance("TLS");
+            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new RuntimeException(e);
+        }
+
+        ConnectionPool connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .sslSocketFactory(sc.getSocketFactory(), trustManager)
+                .hostnameVerifier(hv)
+                .readTimeout(NvHTTP.READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                .connectTimeout(NvHTTP.LONG_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                .proxy(Proxy.NO_PROXY)
+                .build();
+
+        return new Clients(client, connectionPool);
+    }
+}
@@ -9,38 +9,18 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.Proxy;
-import java.net.Socket;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.Principal;
-import java.security.PrivateKey;
-import java.security.SecureRandom;
-import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Objects;
 import java.util.Stack;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
-import javax.net.ssl.SSLPeerUnverifiedException;
-import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509KeyManager;
-import javax.net.ssl.X509TrustManager;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -52,7 +32,7 @@ import com.limelight.nvstream.ConnectionContext;
 import com.limelight.nvstream.http.PairingManager.PairState;
 import com.limelight.nvstream.jni.MoonBridge;
 
-import okhttp3.ConnectionPool;
+import okhttp3.Call;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -65,7 +45,7 @@ public class NvHTTP {
     private PairingManager pm;
     private String clientName;
 
-    private static final int DEFAULT_HTTPS_PORT = 47984;
+    static final int DEFAULT_HTTPS_PORT = 47984;
     public static final int DEFAULT_HTTP_PORT = 47989;
     public static final int SHORT_CONNECTION_TIMEOUT = 3000;
     public static final int LONG_CONNECTION_TIMEOUT = 5000;
@@ -82,112 +62,26 @@ public class NvHTTP {
     private OkHttpClient httpClientLongConnectNoReadTimeout;
     private OkHttpClient httpClientShortConnectTimeout;
 
-    private X509TrustManager defaultTrustManager;
-    private X509TrustManager trustManager;
-    private X509KeyManager keyManager;
     private X509Certificate serverCert;
+    private final LimelightCryptoProvider cryptoProvider;
+
+    // Calls in flight, so cancelRequests() can abort them from another thread
+    private final HashSet<Call> pendingCalls = new HashSet<>();
+    private boolean requestsCancelled;
 
     void setServerCert(X509Certificate serverCert) {
         this.serverCert = serverCert;
-    }
-
-    private static X509TrustManager getDefaultTrustManager() {
-        try {
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init((KeyStore) null);
-
-            for (TrustManager tm : tmf.getTrustManagers()) {
-                if (tm instanceof X509TrustManager) {
-                    return (X509TrustManager) tm;
-                }
-            }
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        } catch (KeyStoreException e) {
-            throw new RuntimeException(e);
-        }
 
-        throw new IllegalStateException("No X509 trust manager found");
+        // The pinned cert is part of the client key, so connections and TLS sessions
+        // validated against the old pin are never reused for the new one
+        initializeHttpClients();
     }
 
-    private void initializeHttpState(final LimelightCryptoProvider cryptoProvider) {
-        keyManager = new X509KeyManager() {
-            public String chooseClientAlias(String[] keyTypes,
-                    Principal[] issuers, Socket socket) { return "Limelight-RSA"; }
-            public String chooseServerAlias(String keyType, Principal[] issuers,
-                    Socket socket) { return null; }
-            public X509Certificate[] getCertificateChain(String alias) {
-                return new X509Certificate[] {cryptoProvider.getClientCertificate()};
-            }
-            public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
-            public PrivateKey getPrivateKey(String alias) {
-                return cryptoProvider.getClientPrivateKey();
-            }
-            public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
-        };
-
-        defaultTrustManager = getDefaultTrustManager();
-        trustManager = new X509TrustManager() {
-            public X509Certificate[] getAcceptedIssuers() {
-                return new X509Certificate[0];
-            }
-            public void checkClientTrusted(X509Certificate[] certs, String authType) {
-                throw new IllegalStateException("Should never be called");
-            }
-            public void checkServerTrusted(X509Certificate[] certs, String authType) throws CertificateException {
-                try {
-                    // Try the default trust manager first to allow pairing with certificates
-                    // that chain up to a trusted root CA. This will raise CertificateException
-                    // if the certificate is not trusted (expected for GFE's self-signed certs).
-                    defaultTrustManager.checkServerTrusted(certs, authType);
-                } catch (CertificateException e) {
-                    // Check the server certificate if we've paired to this host
-                    if (certs.length == 1 && NvHTTP.this.serverCert != null) {
-                        if (!certs[0].equals(NvHTTP.this.serverCert)) {
-                            throw new CertificateException("Certificate mismatch");
-                        }
-                    }
-                    else {
-                        // The cert chain doesn't look like a self-signed cert or we don't have
-                        // a certificate pinned, so re-throw the original validation error.
-                        throw e;
-                    }
-                }
-            }
-        };
-
-        HostnameVerifier hv = new HostnameVerifier() {
-            public boolean verify(String hostname, SSLSession session) {
-                try {
-                    Certificate[] certificates = session.getPeerCertificates();
-                    if (certificates.length == 1 && certificates[0].equals(NvHTTP.this.serverCert)) {
-                        // Allow any hostname if it's our pinned cert
-                        return true;
-                    }
-                } catch (SSLPeerUnverifiedException e) {
-                    e.printStackTrace();
-                }
-
-                // Fall back to default HostnameVerifier for validating CA-issued certs
-                return HttpsURLConnection.getDefaultHostnameVerifier().verify(hostname, session);
-            }
-        };
-
-        httpClientLongConnectTimeout = new OkHttpClient.Builder()
-                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
-                .hostnameVerifier(hv)
-                .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
-                .connectTimeout(LONG_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
-                .proxy(Proxy.NO_PROXY)
-                .build();
-
-        httpClientShortConnectTimeout = httpClientLongConnectTimeout.newBuilder()
-                .connectTimeout(SHORT_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
-                .build();
-
-        httpClientLongConnectNoReadTimeout = httpClientLongConnectTimeout.newBuilder()
-                .readTimeout(0, TimeUnit.MILLISECONDS)
-                .build();
+    private void initializeHttpClients() {
+        HttpClientRegistry.Clients clients = HttpClientRegistry.getClients(serverCert, cryptoProvider);
+        httpClientLongConnectTimeout = clients.longConnectTimeout;
+        httpClientShortConnectTimeout = clients.shortConnectTimeout;
+        httpClientLongConnectNoReadTimeout = clients.longConnectNoReadTimeout;
     }
 
     public HttpUrl getHttpsUrl(boolean likelyOnline) throws IOException, InterruptedException {
@@ -208,8 +102,7 @@ public class NvHTTP {
         if (!clientName.isEmpty()) this.clientName = clientName;
 
         this.serverCert = serverCert;
-
-        initializeHttpState(cryptoProvider);
+        this.cryptoProvider = cryptoProvider;
 
         this.httpsPort = httpsPort;
 
@@ -236,6 +129,8 @@ public class NvHTTP {
             throw new IOException(e);
         }
 
+        initializeHttpClients();
+
         this.pm = new PairingManager(this, cryptoProvider);
     }
 
@@ -252,7 +147,7 @@ public class NvHTTP {
             switch (eventType) {
             case (XmlPullParser.START_TAG):
                 if (xpp.getName().equals("root")) {
-                    verifyResponseStatus(xpp);
+                    ServerInfo.verifyResponseStatus(xpp);
                 }
                 currentTag.push(xpp.getName());
                 break;
@@ -283,24 +178,6 @@ public class NvHTTP {
         return getXmlString(new StringReader(str), tagname, throwIfMissing);
     }
     
-    private static void verifyResponseStatus(XmlPullParser xpp) throws HostHttpResponseException {
-        // We use Long.parseLong() because in rare cases GFE can send back a status code of
-        // 0xFFFFFFFF, which will cause Integer.parseInt() to throw a NumberFormatException due
-        // to exceeding Integer.MAX_VALUE. We'll get the desired error code of -1 by just casting
-        // the resulting long into an int.
-        int statusCode = (int)Long.parseLong(xpp.getAttributeValue(XmlPullParser.NO_NAMESPACE, "status_code"));
-        if (statusCode != 200) {
-            String statusMsg = xpp.getAttributeValue(XmlPullParser.NO_NAMESPACE, "status_message");
-            if (statusCode == -1 && "Invalid".equals(statusMsg)) {
-                // Special case handling an audio capture error which GFE doesn't
-                // provide any useful status message for.
-                statusCode = 418;
-                statusMsg = "Missing audio capture device. Reinstall GeForce Experience.";
-            }
-            throw new HostHttpResponseException(statusCode, statusMsg);
-        }
-    }
-    
     public String getServerInfo(boolean likelyOnline) throws IOException, XmlPullParserException, InterruptedException {
         String resp;
 
@@ -361,32 +238,35 @@ public class NvHTTP {
     }
 
     public ComputerDetails getComputerDetails(String serverInfo) throws IOException, XmlPullParserException {
+        return getComputerDetails(ServerInfo.parse(serverInfo));
+    }
+
+    public ComputerDetails getComputerDetails(ServerInfo serverInfo) throws XmlPullParserException {
         ComputerDetails details = new ComputerDetails();
 
-        details.name = getXmlString(serverInfo, "hostname", false);
+        details.name = serverInfo.getHostname();
         if (details.name == null || details.name.isEmpty()) {
             details.name = "UNKNOWN";
         }
 
         // UUID is mandatory to determine which machine is responding
-        details.uuid = getXmlString(serverInfo, "uniqueid", true);
+        details.uuid = serverInfo.getUniqueId();
 
-        details.httpsPort = getHttpsPort(serverInfo);
+        details.httpsPort = serverInfo.getHttpsPort();
 
-        details.macAddress = getXmlString(serverInfo, "mac", false);
+        details.macAddress = serverInfo.getMacAddress();
 
         // FIXME: Do we want to use the current port?
-        details.localAddress = makeTuple(getXmlString(serverInfo, "LocalIP", false), baseUrlHttp.port());
+        details.localAddress = makeTuple(serverInfo.getLocalIp(), baseUrlHttp.port());
 
         // This is missing on on recent GFE versions, but it's present on Sunshine
-        details.externalPort = getExternalPort(serverInfo);
-        details.remoteAddress = makeTuple(getXmlString(serverInfo, "ExternalIP", false), details.externalPort);
+        details.externalPort = serverInfo.getExternalPort(baseUrlHttp.port());
+        details.remoteAddress = makeTuple(serverInfo.getExternalIp(), details.externalPort);
 
-        details.pairState = getPairState(serverInfo);
-        details.runningGameId = getCurrentGame(serverInfo);
+        details.pairState = serverInfo.getPairState();
+        details.runningGameId = serverInfo.getCurrentGame();
 
-        // The MJOLNIR codename was used by GFE but never by any third-party server
-        details.nvidiaServer = getXmlString(serverInfo, "state", true).contains("MJOLNIR");
+        details.nvidiaServer = serverInfo.isNvidiaServer();
 
         // We could reach it so it's online
         details.state = ComputerDetails.State.ONLINE;
@@ -398,20 +278,6 @@ public class NvHTTP {
         return getComputerDetails(getServerInfo(likelyOnline));
     }
 
-    // This hack is Android-specific but we do it on all platforms
-    // because it doesn't really matter
-    private OkHttpClient performAndroidTlsHack(OkHttpClient client) {
-        // Doing this each time we create a socket is required
-        // to avoid the SSLv3 fallback that causes connection failures
-        try {
-            SSLContext sc = SSLContext.getInstance("TLS");
-            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
-            return client.newBuilder().sslSocketFactory(sc.getSocketFactory(), trustManager).build();
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private HttpUrl getCompleteUrl(HttpUrl baseUrl, String path, String query) {
         return baseUrl.newBuilder()
                 .addPathSegment(path)
@@ -422,6 +288,36 @@ public class NvHTTP {
                 .build();
     }
 
+    private Response executeCall(OkHttpClient client, Request request) throws IOException {
+        Call call = client.newCall(request);
+        synchronized (pendingCalls) {
+            if (requestsCancelled) {
+                call.cancel();
+            }
+            pendingCalls.add(call);
+        }
+        try {
+            return call.execute();
+        } finally {
+            synchronized (pendingCalls) {
+                pendingCalls.remove(call);
+            }
+        }
+    }
+
+    /**
+     * Cancels the requests in flight on this instance and fails any made after it. Blocking socket
+     * I/O doesn't respond to thread interrupts, so this is how a request is stopped early.
+     */
+    public void cancelRequests() {
+        synchronized (pendingCalls) {
+            requestsCancelled = true;
+            for (Call call : pendingCalls) {
+                call.cancel();
+            }
+        }
+    }
+
     private ResponseBody openHttpConnection(OkHttpClient client, HttpUrl baseUrl, String path) throws IOException, InterruptedException {
         return openHttpConnection(client, baseUrl, path, null);
     }
@@ -433,7 +329,7 @@ public class NvHTTP {
     private ResponseBody openHttpConnection(OkHttpClient client, HttpUrl baseUrl, String path, String query) throws IOException, InterruptedException {
         HttpUrl completeUrl = getCompleteUrl(baseUrl, path, query);
         Request request = new Request.Builder().url(completeUrl).get().build();
-        Response response = performAndroidTlsHack(client).newCall(request).execute();
+        Response response = executeCall(client, request);
 
         ResponseBody body = response.body();
         
@@ -502,7 +398,7 @@ public class NvHTTP {
             .addHeader("Content-Type", "application/json")
             .build();
             
-        Response response = performAndroidTlsHack(client).newCall(request).execute();
+        Response response = executeCall(client, request);
         ResponseBody responseBody = response.body();
         
         if (response.isSuccessful() && responseBody != null) {
@@ -529,8 +425,7 @@ public class NvHTTP {
     }
 
     public String getServerVersion(String serverInfo) throws XmlPullParserException, IOException {
-        // appversion is present in all supported GFE versions
-        return getXmlString(serverInfo, "appversion", true);
+        return ServerInfo.parse(serverInfo).getServerVersion();
     }
 
     public PairingManager.PairState getPairState() throws IOException, XmlPullParserException, InterruptedException {
@@ -538,29 +433,15 @@ public class NvHTTP {
     }
 
     public PairingManager.PairState getPairState(String serverInfo) throws IOException, XmlPullParserException {
-        // appversion is present in all supported GFE versions
-        return NvHTTP.getXmlString(serverInfo, "PairStatus", true).equals("1") ?
-                PairState.PAIRED : PairState.NOT_PAIRED;
+        return ServerInfo.parse(serverInfo).getPairState();
     }
     
     public long getMaxLumaPixelsH264(String serverInfo) throws XmlPullParserException, IOException {
-        // MaxLumaPixelsH264 wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "MaxLumaPixelsH264", false);
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
+        return ServerInfo.parse(serverInfo).getMaxLumaPixelsH264();
     }
     
     public long getMaxLumaPixelsHEVC(String serverInfo) throws XmlPullParserException, IOException {
-        // MaxLumaPixelsHEVC wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "MaxLumaPixelsHEVC", false);
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
+        return ServerInfo.parse(serverInfo).getMaxLumaPixelsHEVC();
     }
 
     // Possible meaning of bits
@@ -572,50 +453,28 @@ public class NvHTTP {
     // Bit 10: HEVC Main10 4:4:4
     // Bit 11: ???
     public long getServerCodecModeSupport(String serverInfo) throws XmlPullParserException, IOException {
-        // ServerCodecModeSupport wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "ServerCodecModeSupport", false);
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
+        return ServerInfo.parse(serverInfo).getServerCodecModeSupport();
     }
     
     public String getGpuType(String serverInfo) throws XmlPullParserException, IOException {
-        // ServerCodecModeSupport wasn't present on old GFE versions
-        return getXmlString(serverInfo, "gputype", false);
+        return ServerInfo.parse(serverInfo).getGpuType();
     }
 
     public String getGfeVersion(String serverInfo) throws XmlPullParserException, IOException {
-        // ServerCodecModeSupport wasn't present on old GFE versions
-        return getXmlString(serverInfo, "GfeVersion", false);
+        return ServerInfo.parse(serverInfo).getGfeVersion();
     }
     
     public boolean supports4K(String serverInfo) throws XmlPullParserException, IOException {
-        // Only allow 4K on GFE 3.x. GfeVersion wasn't present on very old versions of GFE.
-        String gfeVersionStr = getXmlString(serverInfo, "GfeVersion", false);
-        if (gfeVersionStr == null || gfeVersionStr.startsWith("2.")) {
-            return false;
-        }
-
-        return true;
+        return ServerInfo.parse(serverInfo).supports4K();
     }
 
     public int getCurrentGame(String serverInfo) throws IOException, XmlPullParserException {
-        // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
-        // has the semantics that its name would indicate. To contain the effects of this change as much
-        // as possible, we'll force the current game to zero if the server isn't in a streaming session.
-        if (getXmlString(serverInfo, "state", true).endsWith("_SERVER_BUSY")) {
-            return Integer.parseInt(getXmlString(serverInfo, "currentgame", true));
-        }
-        else {
-            return 0;
-        }
+        return ServerInfo.parse(serverInfo).getCurrentGame();
     }
 
     public int getHttpsPort(String serverInfo) {
         try {
-            return Integer.parseInt(getXmlString(serverInfo, "HttpsPort", true));
+            return ServerInfo.parse(serverInfo).getHttpsPort();
         } catch (XmlPullParserException e) {
             e.printStackTrace();
             return DEFAULT_HTTPS_PORT;
@@ -626,12 +485,10 @@ public class NvHTTP {
     }
 
     public int getExternalPort(String serverInfo) {
-        // This is an extension which is not present in GFE. It is present for Sunshine to be able
-        // to support dynamic HTTP WAN ports without requiring the user to manually enter the port.
         try {
-            return Integer.parseInt(getXmlString(serverInfo, "ExternalPort", true));
+            return ServerInfo.parse(serverInfo).getExternalPort(baseUrlHttp.port());
         } catch (XmlPullParserException e) {
-            // Expected on non-Sunshine servers
+            e.printStackTrace();
             return baseUrlHttp.port();
         } catch (IOException e) {
             e.printStackTrace();
@@ -693,7 +550,7 @@ public class NvHTTP {
             switch (eventType) {
             case (XmlPullParser.START_TAG):
                 if (xpp.getName().equals("root")) {
-                    verifyResponseStatus(xpp);
+                    ServerInfo.verifyResponseStatus(xpp);
                 }
                 currentTag.push(xpp.getName());
                 if (xpp.getName().equals("App")) {
@@ -773,6 +630,10 @@ public class NvHTTP {
 
     public void unpair() throws IOException, InterruptedException {
         openHttpConnectionToString(httpClientLongConnectTimeout, baseUrlHttp, "unpair");
+
+        // Don't keep using connections or TLS sessions from the old pairing
+        HttpClientRegistry.removeServerCert(serverCert);
+        initializeHttpClients();
     }
     
     public InputStream getBoxArt(NvApp app) throws IOException, InterruptedException {
@@ -785,19 +646,7 @@ public class NvHTTP {
     }
     
     public int[] getServerAppVersionQuad(String serverInfo) throws XmlPullParserException, IOException {
-        String serverVersion = getServerVersion(serverInfo);
-        if (serverVersion == null) {
-            throw new IllegalArgumentException("Missing server version field");
-        }
-        String[] serverVersionSplit = serverVersion.split("\\.");
-        if (serverVersionSplit.length != 4) {
-            throw new IllegalArgumentException("Malformed server version field: "+serverVersion);
-        }
-        int[] ret = new int[serverVersionSplit.length];
-        for (int i = 0; i < ret.length; i++) {
-            ret[i] = Integer.parseInt(serverVersionSplit[i]);
-        }
-        return ret;
+        return ServerInfo.parse(serverInfo).getServerAppVersionQuad();
     }
 
     final private static char[] hexArray = "0123456789ABCDEF".toCharArray();
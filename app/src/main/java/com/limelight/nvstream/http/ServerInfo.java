@@ -0,0 +1,256 @@
+package com.limelight.nvstream.http;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import com.limelight.LimeLog;
+
+/**
+ * An immutable snapshot of a serverinfo response, parsed in a single pass.
+ *
+ * The text of every element is collected once up front, so reading any number of fields costs a
+ * map lookup instead of another full parse of the XML. Field lookups keep the semantics of
+ * {@link NvHTTP#getXmlString(String, String, boolean)}: the first element with a given name wins,
+ * and a missing mandatory field throws when it's read rather than when the response is parsed.
+ */
+public class ServerInfo {
+
+    private static XmlPullParserFactory factory;
+
+    // Callers tend to read several fields from the same response in a row (e.g. the poll
+    // thread in getServerInfo() and then getComputerDetails()), so remember the last one
+    private static final ThreadLocal<ServerInfo> lastParsed = new ThreadLocal<>();
+
+    private final String xml;
+    private final Map<String, String> fields;
+
+    private ServerInfo(String xml, Map<String, String> fields) {
+        this.xml = xml;
+        this.fields = fields;
+    }
+
+    private static synchronized XmlPullParser newPullParser() throws XmlPullParserException {
+        if (factory == null) {
+            factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+        }
+        return factory.newPullParser();
+    }
+
+    /**
+     * Parses a serverinfo response. Throws {@link HostHttpResponseException} if the host
+     * returned an error status, like every field lookup on the raw response used to.
+     */
+    public static ServerInfo parse(String serverInfo) throws XmlPullParserException, IOException {
+        ServerInfo last = lastParsed.get();
+        if (last != null && last.xml.equals(serverInfo)) {
+            return last;
+        }
+
+        ServerInfo info = parseUncached(serverInfo);
+        lastParsed.set(info);
+        return info;
+    }
+
+    static ServerInfo parseUncached(String serverInfo) throws XmlPullParserException, IOException {
+        XmlPullParser xpp = newPullParser();
+        xpp.setInput(new StringReader(serverInfo));
+
+        Map<String, String> fields = new HashMap<>();
+        String[] tagStack = new String[8];
+        int depth = 0;
+
+        int eventType = xpp.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+            case (XmlPullParser.START_TAG):
+                if (xpp.getName().equals("root")) {
+                    verifyResponseStatus(xpp);
+                }
+                if (depth == tagStack.length) {
+                    String[] newStack = new String[depth * 2];
+                    System.arraycopy(tagStack, 0, newStack, 0, depth);
+                    tagStack = newStack;
+                }
+                tagStack[depth++] = xpp.getName();
+                break;
+            case (XmlPullParser.END_TAG):
+                depth--;
+                break;
+            case (XmlPullParser.TEXT):
+                if (depth > 0 && !fields.containsKey(tagStack[depth - 1])) {
+                    fields.put(tagStack[depth - 1], xpp.getText());
+                }
+                break;
+            }
+            eventType = xpp.next();
+        }
+
+        return new ServerInfo(serverInfo, fields);
+    }
+
+    static void verifyResponseStatus(XmlPullParser xpp) throws HostHttpResponseException {
+        // We use Long.parseLong() because in rare cases GFE can send back a status code of
+        // 0xFFFFFFFF, which will cause Integer.parseInt() to throw a NumberFormatException due
+        // to exceeding Integer.MAX_VALUE. We'll get the desired error code of -1 by just casting
+        // the resulting long into an int.
+        int statusCode = (int)Long.parseLong(xpp.getAttributeValue(XmlPullParser.NO_NAMESPACE, "status_code"));
+        if (statusCode != 200) {
+            String statusMsg = xpp.getAttributeValue(XmlPullParser.NO_NAMESPACE, "status_message");
+            if (statusCode == -1 && "Invalid".equals(statusMsg)) {
+                // Special case handling an audio capture error which GFE doesn't
+                // provide any useful status message for.
+                statusCode = 418;
+                statusMsg = "Missing audio capture device. Reinstall GeForce Experience.";
+            }
+            throw new HostHttpResponseException(statusCode, statusMsg);
+        }
+    }
+
+    public String getString(String tagname, boolean throwIfMissing) throws XmlPullParserException {
+        String value = fields.get(tagname);
+        if (value == null && throwIfMissing) {
+            // Same exception as NvHTTP.getXmlString() so callers can tell garbage XML
+            // from unreachable hosts
+            throw new XmlPullParserException("Missing mandatory field in host response: "+tagname);
+        }
+        return value;
+    }
+
+    private long getLong(String tagname) throws XmlPullParserException {
+        String str = getString(tagname, false);
+        if (str != null) {
+            return Long.parseLong(str);
+        } else {
+            return 0;
+        }
+    }
+
+    public String getXml() {
+        return xml;
+    }
+
+    public String getHostname() throws XmlPullParserException {
+        return getString("hostname", false);
+    }
+
+    public String getUniqueId() throws XmlPullParserException {
+        // UUID is mandatory to determine which machine is responding
+        return getString("uniqueid", true);
+    }
+
+    public String getMacAddress() throws XmlPullParserException {
+        return getString("mac", false);
+    }
+
+    public String getLocalIp() throws XmlPullParserException {
+        return getString("LocalIP", false);
+    }
+
+    public String getExternalIp() throws XmlPullParserException {
+        return getString("ExternalIP", false);
+    }
+
+    public String getState() throws XmlPullParserException {
+        return getString("state", true);
+    }
+
+    public boolean isNvidiaServer() throws XmlPullParserException {
+        // The MJOLNIR codename was used by GFE but never by any third-party server
+        return getState().contains("MJOLNIR");
+    }
+
+    public String getServerVersion() throws XmlPullParserException {
+        // appversion is present in all supported GFE versions
+        return getString("appversion", true);
+    }
+
+    public int[] getServerAppVersionQuad() throws XmlPullParserException {
+        String serverVersion = getServerVersion();
+        String[] serverVersionSplit = serverVersion.split("\\.");
+        if (serverVersionSplit.length != 4) {
+            throw new IllegalArgumentException("Malformed server version field: "+serverVersion);
+        }
+        int[] ret = new int[serverVersionSplit.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = Integer.parseInt(serverVersionSplit[i]);
+        }
+        return ret;
+    }
+
+    public PairingManager.PairState getPairState() throws XmlPullParserException {
+        return getString("PairStatus", true).equals("1") ?
+                PairingManager.PairState.PAIRED : PairingManager.PairState.NOT_PAIRED;
+    }
+
+    public int getCurrentGame() throws XmlPullParserException {
+        // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
+        // has the semantics that its name would indicate. To contain the effects of this change as much
+        // as possible, we'll force the current game to zero if the server isn't in a streaming session.
+        if (getState().endsWith("_SERVER_BUSY")) {
+            return Integer.parseInt(getString("currentgame", true));
+        }
+        else {
+            return 0;
+        }
+    }
+
+    public int getHttpsPort() {
+        String str = fields.get("HttpsPort");
+        if (str == null) {
+            LimeLog.warning("Missing mandatory field in host response: HttpsPort");
+            return NvHTTP.DEFAULT_HTTPS_PORT;
+        }
+        return Integer.parseInt(str);
+    }
+
+    public int getExternalPort(int defaultPort) {
+        // This is an extension which is not present in GFE. It is present for Sunshine to be able
+        // to support dynamic HTTP WAN ports without requiring the user to manually enter the port.
+        String str = fields.get("ExternalPort");
+        if (str == null) {
+            // Expected on non-Sunshine servers
+            return defaultPort;
+        }
+        return Integer.parseInt(str);
+    }
+
+    public long getMaxLumaPixelsH264() throws XmlPullParserException {
+        // MaxLumaPixelsH264 wasn't present on old GFE versions
+        return getLong("MaxLumaPixelsH264");
+    }
+
+    public long getMaxLumaPixelsHEVC() throws XmlPullParserException {
+        // MaxLumaPixelsHEVC wasn't present on old GFE versions
+        return getLong("MaxLumaPixelsHEVC");
+    }
+
+    public long getServerCodecModeSupport() throws XmlPullParserException {
+        // ServerCodecModeSupport wasn't present on old GFE versions
+        return getLong("ServerCodecModeSupport");
+    }
+
+    public String getGpuType() throws XmlPullParserException {
+        return getString("gputype", false);
+    }
+
+    public String getGfeVersion() throws XmlPullParserException {
+        return getString("GfeVersion", false);
+    }
+
+    public boolean supports4K() throws XmlPullParserException {
+        // Only allow 4K on GFE 3.x. GfeVersion wasn't present on very old versions of GFE.
+        String gfeVersionStr = getGfeVersion();
+        if (gfeVersionStr == null || gfeVersionStr.startsWith("2.")) {
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,366 @@
+package com.limelight.nvstream.input;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands input records from any thread to a single sender thread, in order.
+ *
+ * Records are primitive values written into preallocated slots of a bounded ring, so enqueueing
+ * never allocates or takes a lock: producers claim a slot with a CAS and publish it by bumping
+ * its sequence number (D. Vyukov's bounded MPMC queue, with a single consumer). A record may
+ * carry a delay, which holds it and everything queued after it, so ordering is kept without
+ * sleeping the producer.
+ *
+ * If the ring stays full because the sender is stuck, a producer waits a bounded time for a slot
+ * and then drops its record, so input callers never block indefinitely. Drops are counted.
+ *
+ * The time from enqueue (or the end of the delay) to the sink returning is kept in a log2
+ * histogram of microseconds.
+ */
+public class InputSendQueue {
+
+    public static final int MAX_INTS = 9;
+    public static final int MAX_FLOATS = 5;
+
+    // Bucket i counts latencies in [2^(i-1), 2^i) us, bucket 0 is under 1 us
+    public static final int HISTOGRAM_BUCKETS = 20;
+
+    // A record with no payload, used only to hold back what comes after it
+    private static final int TYPE_DELAY = -1;
+
+    // How long a producer waits for a slot in a full ring before dropping its record
+    private static final long DEFAULT_MAX_FULL_WAIT_NS = 20000000L;
+
+    /**
+     * One record as seen by the sink. The same instance is reused for every record, so
+     * it must not be kept after {@link Sink#send(Record)} returns.
+     */
+    public static class Record {
+        public int type;
+        public final int[] ints = new int[MAX_INTS];
+        public final float[] floats = new float[MAX_FLOATS];
+        public Object object;
+    }
+
+    public interface Sink {
+        void send(Record record);
+    }
+
+    private final Sink sink;
+    private final int mask;
+    private final long maxFullWaitNs;
+
+    private final AtomicLongArray sequences;
+    private final int[] types;
+    private final int[] ints;
+    private final float[] floats;
+    private final Object[] objects;
+    private final long[] enqueueTimesNs;
+    private final long[] dueTimesNs;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final Thread thread;
+    private volatile boolean consumerWaiting;
+    private volatile boolean started;
+    private volatile boolean stopped;
+
+    // Only written by the sender thread
+    private final long[] latencyHistogram = new long[HISTOGRAM_BUCKETS];
+    private volatile long maxLatencyNs;
+    private volatile long sent;
+    private final AtomicLong producerWaits = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of 2
+     */
+    public InputSendQueue(Sink sink, int capacity, String threadName) {
+        this(sink, capacity, threadName, DEFAULT_MAX_FULL_WAIT_NS);
+    }
+
+    InputSendQueue(Sink sink, int capacity, String threadName, long maxFullWaitNs) {
+        this.sink = sink;
+        this.maxFullWaitNs = maxFullWaitNs;
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        types = new int[size];
+        ints = new int[size * MAX_INTS];
+        floats = new float[size * MAX_FLOATS];
+        objects = new Object[size];
+        enqueueTimesNs = new long[size];
+        dueTimesNs = new long[size];
+
+        thread = new Thread(threadName) {
+            @Override
+            public void run() {
+                consume();
+            }
+        };
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        started = true;
+        thread.start();
+    }
+
+    /**
+     * Sends what's already queued, ignoring delays, then stops the sender thread.
+     * Records enqueued after this are dropped.
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns the claimed position, or -1 if not started, stopped or full for too long
+    private long claim() {
+        long fullSinceNs = 0;
+        for (;;) {
+            // Nothing would drain records enqueued before start(), so they're dropped
+            if (!started || stopped) {
+                return -1;
+            }
+
+            long pos = tail.get();
+            long dif = sequences.get((int) pos & mask) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    return pos;
+                }
+            }
+            else if (dif < 0) {
+                // Full, so wait for the sender to catch up, but not forever
+                long now = System.nanoTime();
+                if (fullSinceNs == 0) {
+                    fullSinceNs = now;
+                    producerWaits.incrementAndGet();
+                }
+                else if (now - fullSinceNs >= maxFullWaitNs) {
+                    dropped.incrementAndGet();
+                    return -1;
+                }
+                LockSupport.unpark(thread);
+                Thread.yield();
+            }
+        }
+    }
+
+    private void publish(long pos, int type, long delayNs) {
+        int slot = (int) pos & mask;
+        long now = System.nanoTime();
+        types[slot] = type;
+        enqueueTimesNs[slot] = now;
+        dueTimesNs[slot] = delayNs > 0 ? now + delayNs : 0;
+
+        // Volatile write, so the slot is visible before the sequence says it's ready
+        sequences.set(slot, pos + 1);
+        if (consumerWaiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public void enqueue(int type, int i0, int i1, int i2, int i3) {
+        long pos = claim();
+        if (pos < 0) {
+            return;
+        }
+        int base = ((int) pos & mask) * MAX_INTS;
+        ints[base] = i0;
+        ints[base + 1] = i1;
+        ints[base + 2] = i2;
+        ints[base + 3] = i3;
+        publish(pos, type, 0);
+    }
+
+    public void enqueue(int type, int i0, int i1, int i2, int i3, int i4, int i5, int i6, int i7, int i8) {
+        long pos = claim();
+        if (pos < 0) {
+            return;
+        }
+        int base = ((int) pos & mask) * MAX_INTS;
+        ints[base] = i0;
+        ints[base + 1] = i1;
+        ints[base + 2] = i2;
+        ints[base + 3] = i3;
+        ints[base + 4] = i4;
+        ints[base + 5] = i5;
+        ints[base + 6] = i6;
+        ints[base + 7] = i7;
+        ints[base + 8] = i8;
+        publish(pos, type, 0);
+    }
+
+    public void enqueue(int type, int i0, int i1, int i2, int i3, int i4,
+                        float f0, float f1, float f2, float f3, float f4) {
+        long pos = claim();
+        if (pos < 0) {
+            return;
+        }
+        int slot = (int) pos & mask;
+        int base = slot * MAX_INTS;
+        ints[base] = i0;
+        ints[base + 1] = i1;
+        ints[base + 2] = i2;
+        ints[base + 3] = i3;
+        ints[base + 4] = i4;
+        base = slot * MAX_FLOATS;
+        floats[base] = f0;
+        floats[base + 1] = f1;
+        floats[base + 2] = f2;
+        floats[base + 3] = f3;
+        floats[base + 4] = f4;
+        publish(pos, type, 0);
+    }
+
+    public void enqueue(int type, Object object) {
+        long pos = claim();
+        if (pos < 0) {
+            return;
+        }
+        objects[(int) pos & mask] = object;
+        publish(pos, type, 0);
+    }
+
+    /**
+     * Holds everything enqueued after this until the delay has passed.
+     */
+    public void enqueueDelay(long delayNs) {
+        long pos = claim();
+        if (pos < 0) {
+            return;
+        }
+        publish(pos, TYPE_DELAY, delayNs);
+    }
+
+    private void consume() {
+        Record record = new Record();
+
+        for (;;) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                if (stopped) {
+                    return;
+                }
+
+                // Nothing ready, so sleep until a producer wakes us. Checking again after
+                // raising the flag makes sure we can't miss a wakeup.
+                consumerWaiting = true;
+                if (sequences.get(slot) != head + 1 && !stopped) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+                continue;
+            }
+
+            long dueNs = dueTimesNs[slot];
+            if (dueNs != 0 && !stopped) {
+                long waitNs = dueNs - System.nanoTime();
+                if (waitNs > 0) {
+                    LockSupport.parkNanos(this, waitNs);
+                    continue;
+                }
+            }
+
+            int type = types[slot];
+            long readyNs = Math.max(enqueueTimesNs[slot], dueNs);
+            if (type != TYPE_DELAY) {
+                record.type = type;
+                System.arraycopy(ints, slot * MAX_INTS, record.ints, 0, MAX_INTS);
+                System.arraycopy(floats, slot * MAX_FLOATS, record.floats, 0, MAX_FLOATS);
+                record.object = objects[slot];
+                objects[slot] = null;
+            }
+
+            // Hand the slot back to producers before sending, since that may block
+            sequences.set(slot, head + mask + 1);
+            head++;
+
+            if (type != TYPE_DELAY) {
+                sink.send(record);
+                record.object = null;
+                recordLatency(System.nanoTime() - readyNs);
+            }
+        }
+    }
+
+    private void recordLatency(long latencyNs) {
+        long us = latencyNs / 1000;
+        int bucket = us <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(us), HISTOGRAM_BUCKETS - 1);
+        latencyHistogram[bucket]++;
+        if (latencyNs > maxLatencyNs) {
+            maxLatencyNs = latencyNs;
+        }
+        sent++;
+    }
+
+    /**
+     * @return A copy of the latency histogram. Bucket i counts latencies under 2^i us
+     * and at least 2^(i-1) us.
+     */
+    public long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    public long getSentCount() {
+        return sent;
+    }
+
+    public long getMaxLatencyNs() {
+        return maxLatencyNs;
+    }
+
+    public long getProducerWaitCount() {
+        return producerWaits.get();
+    }
+
+    // Records dropped because the ring stayed full
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Upper bound of the bucket holding the given percentile
+    public long getLatencyPercentileUs(double percentile) {
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (histogram.length - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d input records sent, latency p50 < %d us, p99 < %d us, max %d us, %d waits on a full queue, %d dropped",
+                getSentCount(), getLatencyPercentileUs(50), getLatencyPercentileUs(99),
+                getMaxLatencyNs() / 1000, getProducerWaitCount(), getDroppedCount());
+    }
+}
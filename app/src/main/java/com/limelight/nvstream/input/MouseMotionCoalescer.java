@@ -0,0 +1,188 @@
+package com.limelight.nvstream.input;
+
+import java.util.Locale;
+
+/**
+ * Merges mouse motion into fewer packets.
+ *
+ * Relative deltas are summed and absolute positions replace each other until the motion is
+ * flushed. Motion is held while a batch is open (one dispatched MotionEvent, including its
+ * historical samples) and, if an interval is set, until the interval has passed since the first
+ * held sample. With no batch open and no interval every sample is sent right away, as before.
+ *
+ * Callers must {@link #flush()} before sending anything else that the host has to see in order
+ * with the motion, like button presses and scrolling. A change between relative and absolute
+ * motion, or of the reference size, flushes what was held first.
+ *
+ * Input arrives on the UI thread and evdev and controller threads, so all methods are
+ * synchronized.
+ */
+public class MouseMotionCoalescer {
+
+    public interface Sink {
+        void sendMouseMove(short deltaX, short deltaY);
+        void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight);
+        void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight);
+    }
+
+    private static final int KIND_NONE = 0;
+    private static final int KIND_RELATIVE = 1;
+    private static final int KIND_RELATIVE_AS_POSITION = 2;
+    private static final int KIND_POSITION = 3;
+
+    private final Sink sink;
+    private long intervalNs;
+    private int batchDepth;
+
+    // What's being held
+    private int pendingKind = KIND_NONE;
+    private int pendingX, pendingY;
+    private short referenceWidth, referenceHeight;
+    private long pendingSinceNs;
+
+    private long samplesIn;
+    private long packetsOut;
+
+    public MouseMotionCoalescer(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @param intervalMs How long motion may be held for, or 0 to only merge within a batch
+     */
+    public synchronized void setInterval(int intervalMs) {
+        intervalNs = intervalMs * 1000000L;
+    }
+
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * @return 0, or the number of milliseconds after which {@link #flushIfDue(long)} must be
+     * called to send motion that's still held
+     */
+    public synchronized long endBatch(long nowNs) {
+        if (batchDepth > 0) {
+            batchDepth--;
+        }
+        return release(nowNs);
+    }
+
+    public synchronized long addRelative(int deltaX, int deltaY, long nowNs) {
+        return add(KIND_RELATIVE, deltaX, deltaY, (short) 0, (short) 0, nowNs);
+    }
+
+    public synchronized long addRelativeAsPosition(int deltaX, int deltaY,
+                                                   short referenceWidth, short referenceHeight, long nowNs) {
+        return add(KIND_RELATIVE_AS_POSITION, deltaX, deltaY, referenceWidth, referenceHeight, nowNs);
+    }
+
+    public synchronized long setPosition(int x, int y, short referenceWidth, short referenceHeight, long nowNs) {
+        return add(KIND_POSITION, x, y, referenceWidth, referenceHeight, nowNs);
+    }
+
+    private long add(int kind, int x, int y, short referenceWidth, short referenceHeight, long nowNs) {
+        samplesIn++;
+
+        if (pendingKind != KIND_NONE && (pendingKind != kind ||
+                this.referenceWidth != referenceWidth || this.referenceHeight != referenceHeight)) {
+            flush();
+        }
+
+        if (pendingKind == KIND_NONE) {
+            pendingKind = kind;
+            pendingX = 0;
+            pendingY = 0;
+            this.referenceWidth = referenceWidth;
+            this.referenceHeight = referenceHeight;
+            pendingSinceNs = nowNs;
+        }
+
+        if (kind == KIND_POSITION) {
+            pendingX = x;
+            pendingY = y;
+        }
+        else {
+            pendingX += x;
+            pendingY += y;
+        }
+
+        return release(nowNs);
+    }
+
+    // Sends what's held unless it may still be held, returning when to check again
+    private long release(long nowNs) {
+        if (pendingKind == KIND_NONE) {
+            return 0;
+        }
+
+        long heldNs = nowNs - pendingSinceNs;
+        if (heldNs >= intervalNs) {
+            if (batchDepth == 0) {
+                flush();
+            }
+            return 0;
+        }
+
+        return Math.max((intervalNs - heldNs + 999999) / 1000000, 1);
+    }
+
+    /**
+     * Sends held motion once it's due, for the timer that {@link #endBatch(long)} and the add
+     * methods ask for.
+     * @return 0, or the number of milliseconds after which this must be called again
+     */
+    public synchronized long flushIfDue(long nowNs) {
+        return release(nowNs);
+    }
+
+    /**
+     * Sends held motion now.
+     */
+    public synchronized void flush() {
+        switch (pendingKind) {
+            case KIND_NONE:
+                return;
+
+            case KIND_RELATIVE:
+            case KIND_RELATIVE_AS_POSITION:
+                // Split sums that don't fit in a packet. Moves that cancel out send nothing.
+                while (pendingX != 0 || pendingY != 0) {
+                    short dx = (short) Math.max(Math.min(pendingX, Short.MAX_VALUE), Short.MIN_VALUE);
+                    short dy = (short) Math.max(Math.min(pendingY, Short.MAX_VALUE), Short.MIN_VALUE);
+                    if (pendingKind == KIND_RELATIVE) {
+                        sink.sendMouseMove(dx, dy);
+                    }
+                    else {
+                        sink.sendMouseMoveAsMousePosition(dx, dy, referenceWidth, referenceHeight);
+                    }
+                    packetsOut++;
+                    pendingX -= dx;
+                    pendingY -= dy;
+                }
+                break;
+
+            case KIND_POSITION:
+                sink.sendMousePosition((short) pendingX, (short) pendingY, referenceWidth, referenceHeight);
+                packetsOut++;
+                break;
+        }
+
+        pendingKind = KIND_NONE;
+    }
+
+    public synchronized long getSamplesIn() {
+        return samplesIn;
+    }
+
+    public synchronized long getPacketsOut() {
+        return packetsOut;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d mouse motion samples in, %d packets out (%.1f%% saved)",
+                samplesIn, packetsOut, samplesIn > 0 ? 100.0 * (samplesIn - packetsOut) / samplesIn : 0.0);
+    }
+}
@@ -4,6 +4,8 @@ import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 
+import java.nio.ByteBuffer;
+
 public class MoonBridge {
     /* See documentation in Limelight.h for information about these functions and constants */
 
@@ -78,6 +80,9 @@ public class MoonBridge {
 
     public static final int LI_ERR_UNSUPPORTED = -5501;
 
+    public static final int LI_FF_PEN_TOUCH_EVENTS = 0x01;
+    public static final int LI_FF_CONTROLLER_TOUCH_EVENTS = 0x02;
+
     public static final byte LI_TOUCH_EVENT_HOVER       = 0x00;
     public static final byte LI_TOUCH_EVENT_DOWN        = 0x01;
     public static final byte LI_TOUCH_EVENT_UP          = 0x02;
@@ -227,6 +232,31 @@ public class MoonBridge {
         }
     }
 
+    public static boolean bridgeDrSupportsDirectBufferSubmit() {
+        return videoRenderer != null && videoRenderer.supportsDirectBufferSubmit();
+    }
+
+    public static ByteBuffer bridgeDrGetDecodeUnitBuffer(int decodeUnitLength, int frameNumber, int frameType,
+                                                         char frameHostProcessingLatency,
+                                                         long receiveTimeMs, long enqueueTimeMs) {
+        if (videoRenderer != null) {
+            return videoRenderer.getDecodeUnitBuffer(decodeUnitLength, frameNumber, frameType,
+                    frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        }
+        else {
+            return null;
+        }
+    }
+
+    public static int bridgeDrSubmitDecodeUnitBuffer(int decodeUnitLength) {
+        if (videoRenderer != null) {
+            return videoRenderer.submitDecodeUnitBuffer(decodeUnitLength);
+        }
+        else {
+            return DR_OK;
+        }
+    }
+
     public static int bridgeArInit(int audioConfiguration, int sampleRate, int samplesPerFrame) {
         if (audioRenderer != null) {
             return audioRenderer.setup(new AudioConfiguration(audioConfiguration), sampleRate, samplesPerFrame);
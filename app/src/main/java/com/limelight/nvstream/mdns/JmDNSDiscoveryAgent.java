@@ -4,11 +4,12 @@ import android.content.Context;
 import android.net.wifi.WifiManager;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 import javax.jmdns.JmmDNS;
 import javax.jmdns.NetworkTopologyDiscovery;
@@ -21,9 +22,20 @@ import com.limelight.LimeLog;
 
 public class JmDNSDiscoveryAgent extends MdnsDiscoveryAgent implements ServiceListener {
     private static final String SERVICE_TYPE = "_nvstream._tcp.local.";
+    private static final int RESOLVE_TIMEOUT_MS = 500;
+
+    // Once every name is resolved, the browse query backs off to this
+    private static final int MAX_QUERY_INTERVAL_MS = 16000;
+
+    // Names that don't resolve are retried at most this far apart
+    private static final int MAX_RESOLVE_BACKOFF_MS = 30000;
+
+    // jmDNS doesn't expose record TTLs, so use the recommended TTL of host
+    // address records (RFC 6762 10) which are the first to go stale
+    private static final int RECORD_TTL_MS = 120000;
+
     private WifiManager.MulticastLock multicastLock;
-    private Thread discoveryThread;
-    private HashSet<String> pendingResolution = new HashSet<>();
+    private MdnsDiscoverySession session;
     
     // The resolver factory's instance member has a static lifetime which
     // means our ref count and listener must be static also.
@@ -148,83 +160,88 @@ public class JmDNSDiscoveryAgent extends MdnsDiscoveryAgent implements ServiceLi
         multicastLock.setReferenceCounted(false);
     }
 
-    private void handleResolvedServiceInfo(ServiceInfo info) {
-        synchronized (pendingResolution) {
-            pendingResolution.remove(info.getName());
+    private static MdnsDiscoverySession.ResolvedService toResolvedService(String name, ServiceInfo[] infos) {
+        // jmDNS returns one entry per interface the host answered on, so merge their addresses
+        LinkedHashSet<Inet4Address> v4Addrs = new LinkedHashSet<>();
+        LinkedHashSet<Inet6Address> v6Addrs = new LinkedHashSet<>();
+        for (ServiceInfo info : infos) {
+            for (Inet4Address addr : info.getInet4Addresses()) {
+                v4Addrs.add(addr);
+            }
+            for (Inet6Address addr : info.getInet6Addresses()) {
+                v6Addrs.add(addr);
+            }
         }
 
-        try {
-            handleServiceInfo(info);
-        } catch (UnsupportedEncodingException e) {
-            // Invalid DNS response
-            LimeLog.info("mDNS: Invalid response for machine: "+info.getName());
-            return;
-        }
+        return new MdnsDiscoverySession.ResolvedService(name, infos[0].getPort(),
+                v4Addrs.toArray(new Inet4Address[0]), v6Addrs.toArray(new Inet6Address[0]));
     }
 
-    private void handleServiceInfo(ServiceInfo info) throws UnsupportedEncodingException {
-        reportNewComputer(info.getName(), info.getPort(), info.getInet4Addresses(), info.getInet6Addresses());
+    private MdnsDiscoverySession createSession(final int discoveryIntervalMs) {
+        final MdnsDiscoverySession.Resolver resolver = new MdnsDiscoverySession.Resolver() {
+            private JmmDNS instance;
+
+            @Override
+            public void open() {
+                // This may result in listener callbacks so we must register
+                // our listener first.
+                instance = referenceResolver();
+            }
+
+            @Override
+            public void close() {
+                dereferenceResolver();
+            }
+
+            @Override
+            public void query() {
+                instance.requestServiceInfo(SERVICE_TYPE, null, discoveryIntervalMs);
+            }
+
+            @Override
+            public MdnsDiscoverySession.ResolvedService resolve(String name) {
+                ServiceInfo[] infos = instance.getServiceInfos(SERVICE_TYPE, name, RESOLVE_TIMEOUT_MS);
+                if (infos == null || infos.length == 0) {
+                    return null;
+                }
+
+                LimeLog.info("mDNS: Resolved "+name+" with "+infos.length+" service entries");
+                return toResolvedService(name, infos);
+            }
+        };
+
+        MdnsDiscoverySession.Listener sessionListener = new MdnsDiscoverySession.Listener() {
+            @Override
+            public void onServiceResolved(MdnsDiscoverySession.ResolvedService service) {
+                reportNewComputer(service.name, service.port, service.v4Addrs, service.v6Addrs);
+            }
+
+            @Override
+            public void onServiceRemoved(String name) {
+                reportComputerRemoved(name);
+            }
+        };
+
+        return new MdnsDiscoverySession(resolver, sessionListener, discoveryIntervalMs,
+                MAX_QUERY_INTERVAL_MS, MAX_RESOLVE_BACKOFF_MS, RECORD_TTL_MS);
     }
-    
-    public void startDiscovery(final int discoveryIntervalMs) {
+
+    public synchronized void startDiscovery(final int discoveryIntervalMs) {
         // Kill any existing discovery before starting a new one
         stopDiscovery();
 
         // Acquire the multicast lock to start receiving mDNS traffic
         multicastLock.acquire();
-        
-        // Add our listener to the set
+
+        // Add our listener to the set before the session references the resolver
+        session = createSession(discoveryIntervalMs);
         synchronized (listeners) {
             listeners.add(JmDNSDiscoveryAgent.this);
         }
-        
-        discoveryThread = new Thread() {
-            @Override
-            public void run() {
-                // This may result in listener callbacks so we must register
-                // our listener first.
-                JmmDNS resolver = referenceResolver();
-                
-                try {
-                    while (!Thread.interrupted()) {
-                        // Start an mDNS request
-                        resolver.requestServiceInfo(SERVICE_TYPE, null, discoveryIntervalMs);
-                        
-                        // Run service resolution again for pending machines
-                        ArrayList<String> pendingNames;
-                        synchronized (pendingResolution) {
-                            pendingNames = new ArrayList<String>(pendingResolution);
-                        }
-                        for (String name : pendingNames) {
-                            LimeLog.info("mDNS: Retrying service resolution for machine: "+name);
-                            ServiceInfo[] infos = resolver.getServiceInfos(SERVICE_TYPE, name, 500);
-                            if (infos != null && infos.length != 0) {
-                                LimeLog.info("mDNS: Resolved (retry) with "+infos.length+" service entries");
-                                for (ServiceInfo svcinfo : infos) {
-                                    handleResolvedServiceInfo(svcinfo);
-                                }
-                            }
-                        }
-                        
-                        // Wait for the next polling interval
-                        try {
-                            Thread.sleep(discoveryIntervalMs);
-                        } catch (InterruptedException e) {
-                            break;
-                        }
-                    }
-                }
-                finally {
-                    // Dereference the resolver
-                    dereferenceResolver();
-                }
-            }
-        };
-        discoveryThread.setName("mDNS Discovery Thread");
-        discoveryThread.start();
+        session.start();
     }
-    
-    public void stopDiscovery() {
+
+    public synchronized void stopDiscovery() {
         // Release the multicast lock to stop receiving mDNS traffic
         multicastLock.release();
 
@@ -232,38 +249,40 @@ public class JmDNSDiscoveryAgent extends MdnsDiscoveryAgent implements ServiceLi
         synchronized (listeners) {
             listeners.remove(JmDNSDiscoveryAgent.this);
         }
-        
-        // If there's already a running thread, interrupt it
-        if (discoveryThread != null) {
-            discoveryThread.interrupt();
-            discoveryThread = null;
+
+        // Stop the session, which releases the resolver once it's done
+        if (session != null) {
+            session.stop();
+            session = null;
         }
     }
 
+    private synchronized MdnsDiscoverySession getSession() {
+        return session;
+    }
+
+    // These are called on jmDNS threads, so just hand them to the session
     @Override
     public void serviceAdded(ServiceEvent event) {
-        LimeLog.info("mDNS: Machine appeared: "+event.getInfo().getName());
-
-        ServiceInfo info = event.getDNS().getServiceInfo(SERVICE_TYPE, event.getInfo().getName(), 500);
-        if (info == null) {
-            // This machine is pending resolution
-            synchronized (pendingResolution) {
-                pendingResolution.add(event.getInfo().getName());
-            }
-            return;
+        MdnsDiscoverySession currentSession = getSession();
+        if (currentSession != null) {
+            currentSession.serviceAdded(event.getInfo().getName());
         }
-        
-        LimeLog.info("mDNS: Resolved (blocking)");
-        handleResolvedServiceInfo(info);
     }
 
     @Override
     public void serviceRemoved(ServiceEvent event) {
-        LimeLog.info("mDNS: Machine disappeared: "+event.getInfo().getName());
+        MdnsDiscoverySession currentSession = getSession();
+        if (currentSession != null) {
+            currentSession.serviceRemoved(event.getInfo().getName());
+        }
     }
 
     @Override
     public void serviceResolved(ServiceEvent event) {
-        // We handle this synchronously
+        MdnsDiscoverySession currentSession = getSession();
+        if (currentSession != null) {
+            currentSession.serviceResolved(event.getInfo().getName());
+        }
     }
 }
@@ -6,6 +6,7 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 public abstract class MdnsDiscoveryAgent {
@@ -52,6 +53,18 @@ public abstract class MdnsDiscoveryAgent {
         }
     }
 
+    protected void reportComputerRemoved(String name) {
+        // Forget it, so it's reported again if it comes back
+        synchronized (computers) {
+            Iterator<MdnsComputer> it = computers.iterator();
+            while (it.hasNext()) {
+                if (it.next().getName().equals(name)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
     public List<MdnsComputer> getComputerSet() {
         synchronized (computers) {
             return new ArrayList<>(computers);
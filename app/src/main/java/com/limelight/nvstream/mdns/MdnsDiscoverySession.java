@@ -0,0 +1,344 @@
+package com.limelight.nvstream.mdns;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.limelight.LimeLog;
+
+/**
+ * One run of mDNS discovery, from startDiscovery() to stopDiscovery().
+ *
+ * Everything happens on the session's own thread in response to events: service events from the
+ * mDNS stack and timers. Names that don't resolve are retried with exponential backoff instead
+ * of on every query. Resolved names are cached for the TTL of their records and quietly
+ * re-resolved before that runs out, so the listener only hears about new hosts and hosts whose
+ * addresses changed. The browse query is sent every base interval while any name is still
+ * unresolved and backs off up to maxQueryIntervalMs once everything is known.
+ */
+class MdnsDiscoverySession {
+
+    // Re-resolve at 80% of the TTL like an mDNS cache refreshes its records (RFC 6762 5.2)
+    private static final int REFRESH_PERCENT = 80;
+
+    static class ResolvedService {
+        final String name;
+        final int port;
+        final Inet4Address[] v4Addrs;
+        final Inet6Address[] v6Addrs;
+
+        ResolvedService(String name, int port, Inet4Address[] v4Addrs, Inet6Address[] v6Addrs) {
+            this.name = name;
+            this.port = port;
+            this.v4Addrs = v4Addrs;
+            this.v6Addrs = v6Addrs;
+        }
+
+        // Addresses may come back in any order
+        boolean sameAs(ResolvedService other) {
+            return port == other.port &&
+                    new HashSet<>(Arrays.asList(v4Addrs)).equals(new HashSet<>(Arrays.asList(other.v4Addrs))) &&
+                    new HashSet<>(Arrays.asList(v6Addrs)).equals(new HashSet<>(Arrays.asList(other.v6Addrs)));
+        }
+    }
+
+    interface Resolver {
+        // Called on the session thread before anything else and after everything else
+        void open();
+        void close();
+
+        // Sends a browse query. Answers arrive later as service events.
+        void query();
+
+        // Blocks until the name resolves or times out. Returns null if it didn't resolve.
+        ResolvedService resolve(String name);
+    }
+
+    interface Listener {
+        void onServiceResolved(ResolvedService service);
+        void onServiceRemoved(String name);
+    }
+
+    private static class Host {
+        final String name;
+        ResolvedService resolved;
+        long expiresAtMs;
+        int failedAttempts;
+        ScheduledFuture<?> task;
+
+        Host(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Resolver resolver;
+    private final Listener listener;
+    private final long baseIntervalMs;
+    private final long maxQueryIntervalMs;
+    private final long maxResolveBackoffMs;
+    private final long ttlMs;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    // Only touched on the session thread
+    private final Map<String, Host> hosts = new HashMap<>();
+    private long queryIntervalMs;
+    private ScheduledFuture<?> queryTask;
+    private boolean stopped;
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger resolveAttempts = new AtomicInteger();
+    private final AtomicInteger unresolvedCount = new AtomicInteger();
+
+    MdnsDiscoverySession(Resolver resolver, Listener listener, long baseIntervalMs,
+                         long maxQueryIntervalMs, long maxResolveBackoffMs, long ttlMs) {
+        this.resolver = resolver;
+        this.listener = listener;
+        this.baseIntervalMs = baseIntervalMs;
+        this.maxQueryIntervalMs = maxQueryIntervalMs;
+        this.maxResolveBackoffMs = maxResolveBackoffMs;
+        this.ttlMs = ttlMs;
+        this.queryIntervalMs = baseIntervalMs;
+
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "mDNS Discovery Thread");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private void post(Runnable r) {
+        try {
+            executor.execute(r);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    void start() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                // This may result in service events, which are queued behind us
+                resolver.open();
+                runQuery();
+            }
+        });
+    }
+
+    void stop() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                stopped = true;
+                if (queryTask != null) {
+                    queryTask.cancel(false);
+                }
+                for (Host host : hosts.values()) {
+                    if (host.task != null) {
+                        host.task.cancel(false);
+                    }
+                }
+                hosts.clear();
+                resolver.close();
+            }
+        });
+        executor.shutdown();
+    }
+
+    void serviceAdded(final String name) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (hosts.containsKey(name)) {
+                    // Already resolving or refreshing this one
+                    return;
+                }
+
+                Host host = new Host(name);
+                hosts.put(name, host);
+                unresolvedCount.incrementAndGet();
+
+                LimeLog.info("mDNS: Machine appeared: "+name);
+                scheduleResolve(host, 0);
+
+                // Look for more answers at the base rate again while this one is unknown
+                if (queryIntervalMs != baseIntervalMs) {
+                    queryIntervalMs = baseIntervalMs;
+                    scheduleQuery(baseIntervalMs);
+                }
+            }
+        });
+    }
+
+    void serviceResolved(final String name) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                // The stack has the records now, so resolving won't block long
+                Host host = hosts.get(name);
+                if (host != null && host.resolved == null) {
+                    scheduleResolve(host, 0);
+                }
+            }
+        });
+    }
+
+    void serviceRemoved(final String name) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Host host = hosts.remove(name);
+                if (host == null) {
+                    return;
+                }
+
+                LimeLog.info("mDNS: Machine disappeared: "+name);
+                if (host.task != null) {
+                    host.task.cancel(false);
+                }
+                if (host.resolved == null) {
+                    unresolvedCount.decrementAndGet();
+                }
+                else {
+                    listener.onServiceRemoved(name);
+                }
+            }
+        });
+    }
+
+    private void scheduleQuery(long delayMs) {
+        if (stopped || executor.isShutdown()) {
+            return;
+        }
+        if (queryTask != null) {
+            queryTask.cancel(false);
+        }
+        queryTask = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runQuery();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runQuery() {
+        if (stopped) {
+            return;
+        }
+
+        queries.incrementAndGet();
+        resolver.query();
+
+        if (unresolvedCount.get() > 0) {
+            // Query as often as the most recently seen unknown name is being retried, so
+            // names that never resolve (like stale records) don't keep us at the base rate
+            long intervalMs = maxQueryIntervalMs;
+            for (Host host : hosts.values()) {
+                if (host.resolved == null) {
+                    intervalMs = Math.min(intervalMs, getResolveBackoffMs(host.failedAttempts));
+                }
+            }
+            queryIntervalMs = intervalMs;
+        }
+        else {
+            queryIntervalMs = Math.min(queryIntervalMs * 2, maxQueryIntervalMs);
+        }
+        scheduleQuery(queryIntervalMs);
+    }
+
+    // 1x, 2x, 4x... the base interval up to the limit
+    private long getResolveBackoffMs(int failedAttempts) {
+        if (failedAttempts == 0) {
+            return baseIntervalMs;
+        }
+        return Math.min(baseIntervalMs << Math.min(failedAttempts - 1, 20), maxResolveBackoffMs);
+    }
+
+    private void scheduleResolve(final Host host, long delayMs) {
+        if (stopped || executor.isShutdown()) {
+            return;
+        }
+        if (host.task != null) {
+            host.task.cancel(false);
+        }
+        host.task = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runResolve(host);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runResolve(Host host) {
+        if (stopped || hosts.get(host.name) != host) {
+            // Stopped or removed while this was queued
+            return;
+        }
+
+        resolveAttempts.incrementAndGet();
+        ResolvedService service = resolver.resolve(host.name);
+        long now = System.currentTimeMillis();
+
+        if (service != null) {
+            boolean changed = host.resolved == null || !host.resolved.sameAs(service);
+            if (host.resolved == null) {
+                unresolvedCount.decrementAndGet();
+            }
+
+            host.resolved = service;
+            host.expiresAtMs = now + ttlMs;
+            host.failedAttempts = 0;
+            scheduleResolve(host, ttlMs * REFRESH_PERCENT / 100);
+
+            // Refreshes that didn't change anything aren't news to anyone
+            if (changed) {
+                LimeLog.info("mDNS: Resolved "+host.name);
+                listener.onServiceResolved(service);
+            }
+            return;
+        }
+
+        if (host.resolved != null && now >= host.expiresAtMs) {
+            // The records ran out without being refreshed, so this is unknown again
+            LimeLog.info("mDNS: Cached records expired for machine: "+host.name);
+            host.resolved = null;
+            unresolvedCount.incrementAndGet();
+            listener.onServiceRemoved(host.name);
+        }
+
+        host.failedAttempts++;
+        long backoffMs = getResolveBackoffMs(host.failedAttempts);
+        if (host.resolved != null) {
+            // Keep trying to refresh until the cached records expire
+            backoffMs = Math.max(Math.min(backoffMs, host.expiresAtMs - now), 0);
+        }
+        LimeLog.info("mDNS: Retrying service resolution for machine in "+backoffMs+" ms: "+host.name);
+        scheduleResolve(host, backoffMs);
+    }
+
+    int getQueryCount() {
+        return queries.get();
+    }
+
+    int getResolveAttemptCount() {
+        return resolveAttempts.get();
+    }
+
+    int getUnresolvedCount() {
+        return unresolvedCount.get();
+    }
+}
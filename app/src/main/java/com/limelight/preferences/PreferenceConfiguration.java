@@ -97,6 +97,7 @@ public class PreferenceConfiguration {
     private static final String LATENCY_TOAST_PREF_STRING = "checkbox_enable_post_stream_toast";
     private static final String LOCK_SCREEN_AFTER_DISCONNECT_PREF_STRING = "checkbox_lock_screen_after_disconnect";
     private static final String FRAME_PACING_PREF_STRING = "frame_pacing";
+    private static final String ENABLE_ADAPTIVE_BITRATE_PREF_STRING = "checkbox_enable_adaptive_bitrate";
     private static final String ABSOLUTE_MOUSE_MODE_PREF_STRING = "checkbox_absolute_mouse_mode";
     private static final String ENABLE_NATIVE_MOUSE_POINTER_PREF_STRING = "checkbox_enable_native_mouse_pointer";
     // Card visibility preferences
@@ -123,6 +124,8 @@ public class PreferenceConfiguration {
     private static final String GYRO_INVERT_X_AXIS_PREF_STRING = "gyro_invert_x_axis";
     private static final String GYRO_INVERT_Y_AXIS_PREF_STRING = "gyro_invert_y_axis";
     private static final String GYRO_ACTIVATION_KEY_CODE_PREF_STRING = "gyro_activation_key_code";
+    private static final String CONTROLLER_MAX_PACKET_RATE_PREF_STRING = "controller_max_packet_rate_hz";
+    private static final String MOUSE_COALESCE_INTERVAL_PREF_STRING = "mouse_coalesce_interval_ms";
 
     // 麦克风设置
     private static final String ENABLE_MIC_PREF_STRING = "checkbox_enable_mic";
@@ -185,6 +188,8 @@ public class PreferenceConfiguration {
     private static final boolean DEFAULT_GYRO_INVERT_X_AXIS = false;
     private static final boolean DEFAULT_GYRO_INVERT_Y_AXIS = false;
     private static final int DEFAULT_GYRO_ACTIVATION_KEY_CODE = KeyEvent.KEYCODE_BUTTON_L2;
+    private static final int DEFAULT_CONTROLLER_MAX_PACKET_RATE = 0;
+    private static final int DEFAULT_MOUSE_COALESCE_INTERVAL = 0;
 
     // 麦克风设置默认值
     private static final boolean DEFAULT_ENABLE_MIC = false;
@@ -199,6 +204,7 @@ public class PreferenceConfiguration {
     public static final int FRAME_PACING_MAX_SMOOTHNESS = 3;
     public static final int FRAME_PACING_EXPERIMENTAL_LOW_LATENCY = 4;
     public static final int FRAME_PACING_SURFACE_FLINGER_RAW = 5;
+    public static final int FRAME_PACING_ADAPTIVE = 6;
 
     public static final String RES_360P = "640x360";
     public static final String RES_480P = "854x480";
@@ -307,6 +313,12 @@ public class PreferenceConfiguration {
     public boolean gyroInvertXAxis;
     // Persistent: invert Y-axis direction for gyro input
     public boolean gyroInvertYAxis;
+    // Persistent: max rate of analog-only controller packets per controller, 0 means unlimited
+    public int controllerMaxPacketRateHz;
+    // Persistent: how long mouse motion may be held to merge samples, 0 means only within one input event
+    public int mouseCoalesceIntervalMs;
+    // Lower the bitrate automatically when the network can't keep up
+    public boolean enableAdaptiveBitrate;
     // Card visibility
     public boolean showBitrateCard;
     public boolean showGyroCard;
@@ -560,6 +572,9 @@ public class PreferenceConfiguration {
         else if (str.equals("surface-flinger-raw")) {
             return FRAME_PACING_SURFACE_FLINGER_RAW;
         }
+        else if (str.equals("adaptive")) {
+            return FRAME_PACING_ADAPTIVE;
+        }
         else {
             // Should never get here
             return FRAME_PACING_MIN_LATENCY;
@@ -792,6 +807,10 @@ public class PreferenceConfiguration {
         config.gyroInvertXAxis = prefs.getBoolean(GYRO_INVERT_X_AXIS_PREF_STRING, DEFAULT_GYRO_INVERT_X_AXIS);
         config.gyroInvertYAxis = prefs.getBoolean(GYRO_INVERT_Y_AXIS_PREF_STRING, DEFAULT_GYRO_INVERT_Y_AXIS);
         config.gyroActivationKeyCode = prefs.getInt(GYRO_ACTIVATION_KEY_CODE_PREF_STRING, DEFAULT_GYRO_ACTIVATION_KEY_CODE);
+        config.controllerMaxPacketRateHz = prefs.getInt(CONTROLLER_MAX_PACKET_RATE_PREF_STRING, DEFAULT_CONTROLLER_MAX_PACKET_RATE);
+        config.mouseCoalesceIntervalMs = prefs.getInt(MOUSE_COALESCE_INTERVAL_PREF_STRING, DEFAULT_MOUSE_COALESCE_INTERVAL);
+
+        config.enableAdaptiveBitrate = prefs.getBoolean(ENABLE_ADAPTIVE_BITRATE_PREF_STRING, false);
 
         // Cards visibility (defaults to true)
         config.showBitrateCard = prefs.getBoolean(SHOW_BITRATE_CARD_PREF_STRING, true);
@@ -967,6 +986,9 @@ public class PreferenceConfiguration {
         copy.gyroActivationKeyCode = this.gyroActivationKeyCode;
         copy.gyroInvertXAxis = this.gyroInvertXAxis;
         copy.gyroInvertYAxis = this.gyroInvertYAxis;
+        copy.controllerMaxPacketRateHz = this.controllerMaxPacketRateHz;
+        copy.mouseCoalesceIntervalMs = this.mouseCoalesceIntervalMs;
+        copy.enableAdaptiveBitrate = this.enableAdaptiveBitrate;
         copy.showBitrateCard = this.showBitrateCard;
         copy.showGyroCard = this.showGyroCard;
         return copy;
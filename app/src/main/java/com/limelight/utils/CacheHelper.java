@@ -83,4 +83,23 @@ public class CacheHelper {
     public static void writeStringToOutputStream(OutputStream out, String str) throws IOException {
         out.write(str.getBytes("UTF-8"));
     }
+
+    /**
+     * Writes str to a temporary file and renames it over the cache file, so readers
+     * never see a partially written file if we're killed in the middle.
+     */
+    public static void writeStringToCacheFileAtomically(String str, File root, String... path) throws IOException {
+        File target = openPath(true, root, path);
+        File temp = new File(target.getPath() + ".tmp");
+
+        try (final FileOutputStream out = new FileOutputStream(temp)) {
+            writeStringToOutputStream(out, str);
+            out.getFD().sync();
+        }
+
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + target);
+        }
+    }
 }
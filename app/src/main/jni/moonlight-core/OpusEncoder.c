@@ -94,6 +94,44 @@ Java_com_limelight_binding_audio_OpusEncoder_nativeEncode(JNIEnv* env, jclass cl
     return result;
 }
 
+JNIEXPORT jint JNICALL
+Java_com_limelight_binding_audio_OpusEncoder_nativeEncodeInto(JNIEnv* env, jclass clazz,
+                                                            jlong handle, jbyteArray pcmData,
+                                                            jint offset, jint length,
+                                                            jbyteArray out, jint outOffset, jint outCapacity) {
+    OpusContext* ctx = (OpusContext*)handle;
+    jbyte* pcm;
+    unsigned char encoded[4000];
+    int encodedLength;
+
+    if (!ctx || !ctx->encoder || !out || outCapacity <= 0 || outOffset < 0) {
+        return OPUS_BAD_ARG;
+    }
+
+    pcm = (*env)->GetByteArrayElements(env, pcmData, NULL);
+    if (!pcm) {
+        return -1;
+    }
+
+    encodedLength = opus_encode(ctx->encoder, (const opus_int16*)(pcm + offset),
+                              ctx->frameSize, encoded,
+                              outCapacity < (int)sizeof(encoded) ? outCapacity : (int)sizeof(encoded));
+
+    (*env)->ReleaseByteArrayElements(env, pcmData, pcm, JNI_ABORT);
+
+    if (encodedLength > 0) {
+        // 写入前检查越界，SetByteArrayRegion越界会抛出异常
+        if (encodedLength > (*env)->GetArrayLength(env, out) - outOffset) {
+            return OPUS_BUFFER_TOO_SMALL;
+        }
+
+        // 直接写入调用方的数据包缓冲区
+        (*env)->SetByteArrayRegion(env, out, outOffset, encodedLength, (jbyte*)encoded);
+    }
+
+    return encodedLength;
+}
+
 JNIEXPORT void JNICALL
 Java_com_limelight_binding_audio_OpusEncoder_nativeDestroy(JNIEnv* env, jclass clazz, jlong handle) {
     OpusContext* ctx = (OpusContext*)handle;
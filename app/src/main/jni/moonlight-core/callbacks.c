@@ -22,6 +22,10 @@ static jmethodID BridgeDrStartMethod;
 static jmethodID BridgeDrStopMethod;
 static jmethodID BridgeDrCleanupMethod;
 static jmethodID BridgeDrSubmitDecodeUnitMethod;
+static jmethodID BridgeDrSupportsDirectBufferSubmitMethod;
+static jmethodID BridgeDrGetDecodeUnitBufferMethod;
+static jmethodID BridgeDrSubmitDecodeUnitBufferMethod;
+static jmethodID BufferPositionMethod;
 static jmethodID BridgeArInitMethod;
 static jmethodID BridgeArStartMethod;
 static jmethodID BridgeArStopMethod;
@@ -39,6 +43,7 @@ static jmethodID BridgeClRumbleTriggersMethod;
 static jmethodID BridgeClSetMotionEventStateMethod;
 static jmethodID BridgeClSetControllerLEDMethod;
 static jbyteArray DecodedFrameBuffer;
+static jboolean DirectBufferSubmit;
 static jshortArray DecodedAudioBuffer;
 
 void DetachThread(void* context) {
@@ -86,6 +91,10 @@ Java_com_limelight_nvstream_jni_MoonBridge_init(JNIEnv *env, jclass clazz) {
     BridgeDrStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrStop", "()V");
     BridgeDrCleanupMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrCleanup", "()V");
     BridgeDrSubmitDecodeUnitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitDecodeUnit", "([BIIIICJJ)I");
+    BridgeDrSupportsDirectBufferSubmitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSupportsDirectBufferSubmit", "()Z");
+    BridgeDrGetDecodeUnitBufferMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrGetDecodeUnitBuffer", "(IIICJJ)Ljava/nio/ByteBuffer;");
+    BridgeDrSubmitDecodeUnitBufferMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitDecodeUnitBuffer", "(I)I");
+    BufferPositionMethod = (*env)->GetMethodID(env, (*env)->FindClass(env, "java/nio/Buffer"), "position", "()I");
     BridgeArInitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArInit", "(III)I");
     BridgeArStartMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStart", "()V");
     BridgeArStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStop", "()V");
@@ -120,6 +129,13 @@ int BridgeDrSetup(int videoFormat, int width, int height, int redrawRate, void*
     // Use a 32K frame buffer that will increase if needed
     DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, 32768));
 
+    // If the renderer supports it, picture data will be written straight into its buffers
+    DirectBufferSubmit = (*env)->CallStaticBooleanMethod(env, GlobalBridgeClass, BridgeDrSupportsDirectBufferSubmitMethod);
+    if ((*env)->ExceptionCheck(env)) {
+        // This is called on a Java thread, so it's safe to return
+        return -1;
+    }
+
     return 0;
 }
 
@@ -143,6 +159,62 @@ void BridgeDrCleanup(void) {
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeDrCleanupMethod);
 }
 
+static int SubmitPictureDataDirect(JNIEnv* env, PDECODE_UNIT decodeUnit, int length) {
+    jobject buffer;
+    int ret;
+
+    buffer = (*env)->CallStaticObjectMethod(env, GlobalBridgeClass, BridgeDrGetDecodeUnitBufferMethod,
+                                            length, decodeUnit->frameNumber, decodeUnit->frameType,
+                                            (jchar)decodeUnit->frameHostProcessingLatency,
+                                            (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+    if ((*env)->ExceptionCheck(env)) {
+        // We will crash here
+        (*JVM)->DetachCurrentThread(JVM);
+        return DR_OK;
+    }
+
+    if (buffer != NULL) {
+        char* base = (*env)->GetDirectBufferAddress(env, buffer);
+        jlong capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+        jint position = (*env)->CallIntMethod(env, buffer, BufferPositionMethod);
+
+        (*env)->DeleteLocalRef(env, buffer);
+
+        if ((*env)->ExceptionCheck(env)) {
+            // We will crash here
+            (*JVM)->DetachCurrentThread(JVM);
+            return DR_OK;
+        }
+
+        if (base != NULL && position + length <= capacity) {
+            PLENTRY currentEntry;
+            int offset = position;
+
+            // Copy the picture data straight into the decoder's input buffer
+            for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+                if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+                    memcpy(base + offset, currentEntry->data, currentEntry->length);
+                    offset += currentEntry->length;
+                }
+            }
+        }
+        else {
+            __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "Unable to write decode unit into direct buffer");
+            length = -1;
+        }
+    }
+
+    ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitBufferMethod, length);
+    if ((*env)->ExceptionCheck(env)) {
+        // We will crash here
+        (*JVM)->DetachCurrentThread(JVM);
+        return DR_OK;
+    }
+    else {
+        return ret;
+    }
+}
+
 int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
     JNIEnv* env = GetThreadEnv();
     int ret;
@@ -179,13 +251,20 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
             }
         }
         else {
-            (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+            // With direct buffer submission, the picture data is copied later straight into the decoder's buffer
+            if (!DirectBufferSubmit) {
+                (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+            }
             offset += currentEntry->length;
         }
 
         currentEntry = currentEntry->next;
     }
 
+    if (DirectBufferSubmit) {
+        return SubmitPictureDataDirect(env, decodeUnit, offset);
+    }
+
     ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
                                        DecodedFrameBuffer, offset, BUFFER_TYPE_PICDATA,
                                        decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
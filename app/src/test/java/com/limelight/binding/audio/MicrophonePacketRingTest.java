@@ -0,0 +1,181 @@
+package com.limelight.binding.audio;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MicrophonePacketRingTest {
+
+    private static void put(MicrophonePacketRing ring, int value) {
+        MicrophonePacketRing.Slot slot = ring.claim();
+        assertNotNull("Ring was full", slot);
+        slot.data[0] = (byte) value;
+        slot.length = 1;
+        slot.captureTimeNs = value;
+        ring.publish();
+    }
+
+    private static int takeNow(MicrophonePacketRing ring) {
+        MicrophonePacketRing.Slot slot = ring.take(0);
+        assertNotNull("Ring was empty", slot);
+        int value = slot.data[0];
+        assertEquals(value, slot.captureTimeNs);
+        ring.release();
+        return value;
+    }
+
+    @Test
+    public void claimReturnsNullWhenFull() {
+        MicrophonePacketRing ring = new MicrophonePacketRing(3, 16);
+        put(ring, 1);
+        put(ring, 2);
+        put(ring, 3);
+
+        assertEquals(3, ring.size());
+        assertNull(ring.claim());
+
+        assertEquals(1, takeNow(ring));
+        assertNotNull(ring.claim());
+    }
+
+    @Test
+    public void unpublishedClaimIsInvisibleAndReused() {
+        MicrophonePacketRing ring = new MicrophonePacketRing(2, 16);
+        MicrophonePacketRing.Slot first = ring.claim();
+
+        // Encoding failed, so the producer never published it
+        assertSame(first, ring.claim());
+        assertEquals(0, ring.size());
+        assertNull(ring.take(0));
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        MicrophonePacketRing ring = new MicrophonePacketRing(4, 16);
+        int next = 0;
+        int expected = 0;
+        put(ring, next++);
+        for (int round = 0; round < 10; round++) {
+            // Stays one behind so the slots in use move around the ring
+            put(ring, next++);
+            put(ring, next++);
+            put(ring, next++);
+            assertEquals(expected++, takeNow(ring));
+            assertEquals(expected++, takeNow(ring));
+            assertEquals(expected++, takeNow(ring));
+        }
+        while (ring.size() > 0) {
+            assertEquals(expected++, takeNow(ring));
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void takeTimesOutWhenEmpty() {
+        MicrophonePacketRing ring = new MicrophonePacketRing(2, 16);
+
+        long start = System.nanoTime();
+        assertNull(ring.take(50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void takeReturnsNullWhenInterrupted() {
+        MicrophonePacketRing ring = new MicrophonePacketRing(2, 16);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertNull(ring.take(60000));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void publishWakesWaitingConsumer() throws InterruptedException {
+        final MicrophonePacketRing ring = new MicrophonePacketRing(2, 16);
+        final CountDownLatch taken = new CountDownLatch(1);
+        final AtomicReference<MicrophonePacketRing.Slot> result = new AtomicReference<>();
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(ring.take(60000));
+                taken.countDown();
+            }
+        });
+        consumer.start();
+
+        // Let the consumer park before publishing
+        Thread.sleep(50);
+        put(ring, 42);
+
+        assertTrue("Consumer wasn't woken", taken.await(10, TimeUnit.SECONDS));
+        assertNotNull(result.get());
+        assertEquals(42, result.get().data[0]);
+        consumer.join();
+    }
+
+    @Test
+    public void clearDropsQueuedPackets() {
+        MicrophonePacketRing ring = new MicrophonePacketRing(4, 16);
+        put(ring, 1);
+        put(ring, 2);
+        put(ring, 3);
+
+        ring.clear();
+        assertNull(ring.take(0));
+        assertEquals(0, ring.size());
+
+        put(ring, 4);
+        assertEquals(4, takeNow(ring));
+    }
+
+    @Test
+    public void producerAndConsumerThreadsKeepEveryPacketInOrder() throws InterruptedException {
+        final int packets = 100000;
+        final MicrophonePacketRing ring = new MicrophonePacketRing(8, 16);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < packets; i++) {
+                    MicrophonePacketRing.Slot slot = ring.take(10000);
+                    if (slot == null) {
+                        failure.set("Timed out waiting for packet " + i);
+                        return;
+                    }
+                    if (slot.captureTimeNs != i || slot.length != (i % 16) + 1) {
+                        failure.set("Packet " + i + " arrived as " + slot.captureTimeNs);
+                        return;
+                    }
+                    ring.release();
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < packets; i++) {
+            MicrophonePacketRing.Slot slot;
+            while ((slot = ring.claim()) == null) {
+                Thread.yield();
+            }
+            slot.length = (i % 16) + 1;
+            slot.captureTimeNs = i;
+            ring.publish();
+        }
+
+        consumer.join(30000);
+        assertNull(failure.get(), failure.get());
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,112 @@
+package com.limelight.binding.crypto;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.X509KeyManager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the client crypto setup cost paid per HTTPS request.
+ *
+ * "Per request" is what every poll and asset load used to do: a new provider loads and parses the
+ * identity from disk, and a new SSLContext is initialised with it. "Cached" is a read of the shared
+ * identity and reuse of a context built once, as AndroidCryptoProvider and HttpClientRegistry now
+ * do. Only runs with -Pbenchmarks.
+ */
+public class CryptoProviderBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
+    private static volatile Object sink;
+
+    private static SSLContext createSslContext(final ClientIdentity identity) throws Exception {
+        X509KeyManager keyManager = new X509KeyManager() {
+            public String chooseClientAlias(String[] keyTypes,
+                    Principal[] issuers, Socket socket) { return "Limelight-RSA"; }
+            public String chooseServerAlias(String keyType, Principal[] issuers,
+                    Socket socket) { return null; }
+            public X509Certificate[] getCertificateChain(String alias) {
+                return new X509Certificate[] {identity.cert};
+            }
+            public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
+            public PrivateKey getPrivateKey(String alias) {
+                return identity.key;
+            }
+            public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
+        };
+
+        SSLContext sc = SSLContext.getInstance("TLS");
+        sc.init(new KeyManager[] { keyManager }, null, new SecureRandom());
+        return sc;
+    }
+
+    private static long runPerRequest(File certFile, File keyFile, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ClientIdentity identity = ClientIdentity.load(certFile, keyFile);
+            sink = createSslContext(identity).getSocketFactory();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runCached(ClientIdentity cachedIdentity, SSLContext sharedContext, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = cachedIdentity.key;
+            sink = sharedContext.getSocketFactory();
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void perRequestSetupVersusCached() throws Exception {
+        assumeTrue("Benchmarks only run with -Pbenchmarks", Boolean.getBoolean("benchmarks"));
+
+        File dir = Files.createTempDirectory("client-identity").toFile();
+        File certFile = new File(dir, "client.crt");
+        File keyFile = new File(dir, "client.key");
+        try {
+            ClientIdentity cachedIdentity = ClientIdentity.generate(certFile, keyFile);
+            assertNotNull(cachedIdentity);
+
+            // What's read back must match what was cached, or the comparison is meaningless
+            ClientIdentity loaded = ClientIdentity.load(certFile, keyFile);
+            assertNotNull(loaded);
+            assertEquals(cachedIdentity.cert, loaded.cert);
+            assertArrayEquals(cachedIdentity.pemCertBytes, loaded.pemCertBytes);
+
+            SSLContext sharedContext = createSslContext(cachedIdentity);
+
+            runPerRequest(certFile, keyFile, WARMUP_ITERATIONS);
+            runCached(cachedIdentity, sharedContext, WARMUP_ITERATIONS);
+
+            long perRequestNs = runPerRequest(certFile, keyFile, ITERATIONS);
+            long cachedNs = runCached(cachedIdentity, sharedContext, ITERATIONS);
+
+            System.out.println(String.format(Locale.US,
+                    "%d requests: per request setup %.1f us/request, cached %.3f us/request (%.0fx)",
+                    ITERATIONS, perRequestNs / 1000.0 / ITERATIONS, cachedNs / 1000.0 / ITERATIONS,
+                    (double) perRequestNs / Math.max(cachedNs, 1)));
+        } finally {
+            certFile.delete();
+            keyFile.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.limelight.binding.input;
+
+import com.limelight.nvstream.input.ControllerPacket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds a {@link ControllerStateFilter} the kind of traffic a session produces and checks what
+ * reaches the host.
+ *
+ * A 1000 Hz USB pad reports the same state over and over while it's held still, and a gyro
+ * mapped to the right stick submits a new state for every sensor event. The first should be
+ * almost entirely dropped as duplicates, the second capped at the configured rate, and button
+ * presses must never be delayed or reordered in either case.
+ */
+public class ControllerStateFilterTest {
+
+    private static final int MAX_RATE_HZ = 250;
+    private static final long MS = 1000000L;
+
+    private static class Packet {
+        final long timeNs;
+        final int buttonFlags;
+        final short rightStickX;
+
+        Packet(long timeNs, int buttonFlags, short rightStickX) {
+            this.timeNs = timeNs;
+            this.buttonFlags = buttonFlags;
+            this.rightStickX = rightStickX;
+        }
+    }
+
+    private static class RecordingSink implements ControllerStateFilter.Sink {
+        final List<Packet> packets = new ArrayList<>();
+        long nowNs;
+
+        @Override
+        public void sendControllerInput(short controllerNumber, short activeGamepadMask, int buttonFlags,
+                                        byte leftTrigger, byte rightTrigger,
+                                        short leftStickX, short leftStickY,
+                                        short rightStickX, short rightStickY) {
+            packets.add(new Packet(nowNs, buttonFlags, rightStickX));
+        }
+    }
+
+    // Runs the filter for one second of 1 ms ticks, flushing held back states when asked to
+    private static void run(RecordingSink sink, int maxRateHz, boolean gyro) {
+        ControllerStateFilter filter = new ControllerStateFilter(sink, maxRateHz);
+        long flushAtNs = -1;
+
+        for (int ms = 0; ms < 1000; ms++) {
+            long nowNs = ms * MS;
+            sink.nowNs = nowNs;
+
+            if (flushAtNs >= 0 && nowNs >= flushAtNs) {
+                long delayMs = filter.flushPending(nowNs);
+                flushAtNs = delayMs > 0 ? nowNs + delayMs * MS : -1;
+            }
+
+            // A held still pad, except for pressing A from 300 to 310 ms
+            int buttons = ms >= 300 && ms < 310 ? ControllerPacket.A_FLAG : 0;
+            short rightStickX = gyro ? (short) (ms * 30) : 0;
+
+            long delayMs = filter.submit((short) 0, (short) 1, buttons, (byte) 0, (byte) 0,
+                    (short) 0, (short) 0, rightStickX, (short) 0, nowNs);
+            if (delayMs > 0 && flushAtNs < 0) {
+                flushAtNs = nowNs + delayMs * MS;
+            }
+        }
+
+        // The last state must eventually make it out
+        sink.nowNs = 2000 * MS;
+        filter.flushPending(sink.nowNs);
+    }
+
+    private static void assertButtonsSentInOrder(RecordingSink sink) {
+        boolean pressedAt300 = false, releasedAt310 = false;
+        for (Packet p : sink.packets) {
+            if (p.timeNs == 300 * MS && p.buttonFlags == ControllerPacket.A_FLAG) {
+                pressedAt300 = true;
+            }
+            if (p.timeNs == 310 * MS && p.buttonFlags == 0) {
+                releasedAt310 = true;
+            }
+        }
+        assertTrue("Button press was delayed", pressedAt300);
+        assertTrue("Button release was delayed", releasedAt310);
+
+        for (int i = 1; i < sink.packets.size(); i++) {
+            assertTrue("Packets out of order", sink.packets.get(i).timeNs >= sink.packets.get(i - 1).timeNs);
+        }
+    }
+
+    @Test
+    public void heldStillPadOnlySendsChanges() {
+        RecordingSink sink = new RecordingSink();
+        run(sink, 0, false);
+
+        // The first state and the two button transitions
+        assertEquals(3, sink.packets.size());
+        assertButtonsSentInOrder(sink);
+    }
+
+    @Test
+    public void everyChangeIsSentWithoutRateLimit() {
+        RecordingSink sink = new RecordingSink();
+        run(sink, 0, true);
+
+        assertEquals(1000, sink.packets.size());
+    }
+
+    @Test
+    public void analogUpdatesAreCappedAtMaxRate() {
+        RecordingSink sink = new RecordingSink();
+        run(sink, MAX_RATE_HZ, true);
+
+        assertButtonsSentInOrder(sink);
+        assertTrue("Sent "+sink.packets.size()+" packets", sink.packets.size() <= MAX_RATE_HZ + 3);
+        assertEquals((short) (999 * 30), sink.packets.get(sink.packets.size() - 1).rightStickX);
+    }
+}
@@ -0,0 +1,148 @@
+package com.limelight.binding.input;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds a {@link MotionResampler} synthetic sensor streams and checks the output rate, the
+ * total rotation and the added latency.
+ *
+ * A USB pad's IMU reports at 1000 Hz while the host asked for 200 Hz, and a phone gyro reports
+ * at an uneven ~400 Hz while the gyro-to-right-stick mapping wants a fixed 250 Hz.
+ */
+public class MotionResamplerTest {
+
+    private static final long MS = 1000000L;
+
+    private static class IntegratingSink implements MotionResampler.Sink {
+        long nowNs;
+        long lastNs = -1;
+        float lastX;
+        double angle;
+        int packets;
+        long firstNonZeroNs = -1;
+
+        @Override
+        public void onMotion(float x, float y, float z) {
+            if (lastNs >= 0) {
+                angle += lastX * (nowNs - lastNs) / 1e9;
+            }
+            lastX = x;
+            lastNs = nowNs;
+            packets++;
+            if (x != 0 && firstNonZeroNs < 0) {
+                firstNonZeroNs = nowNs;
+            }
+        }
+
+        void finish(long endNs) {
+            angle += lastX * (endNs - lastNs) / 1e9;
+        }
+    }
+
+    // deg/s of a wrist turn: still for 100 ms, then a sine sweep, then still again for the
+    // last 100 ms so the output has caught up when the rotations are compared
+    private static float rotationRate(long tNs) {
+        if (tNs < 100 * MS || tNs >= 900 * MS) {
+            return 0;
+        }
+        return (float) (180 * Math.sin(2 * Math.PI * 2 * (tNs - 100 * MS) / 1e9));
+    }
+
+    private static long[] usbPadTimes() {
+        long[] times = new long[1000];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * MS;
+        }
+        return times;
+    }
+
+    // About 400 Hz with jitter between 1.5 and 3.5 ms
+    private static long[] phoneGyroTimes() {
+        long[] times = new long[400];
+        long t = 0;
+        for (int i = 0; i < times.length; i++) {
+            times[i] = t;
+            t += 1500000L + (i * 7919L % 2000) * 1000L;
+        }
+        return times;
+    }
+
+    private static void assertRotationPreserved(int outputHz, long[] sampleTimesNs) {
+        IntegratingSink sink = new IntegratingSink();
+        MotionResampler resampler = new MotionResampler(sink, outputHz);
+
+        double inputAngle = 0;
+        for (int i = 0; i < sampleTimesNs.length; i++) {
+            long t = sampleTimesNs[i];
+            if (i > 0) {
+                inputAngle += rotationRate(sampleTimesNs[i - 1]) * (t - sampleTimesNs[i - 1]) / 1e9;
+            }
+            sink.nowNs = t;
+            resampler.addSample(rotationRate(t), 0, 0, t);
+        }
+        sink.finish(sampleTimesNs[sampleTimesNs.length - 1]);
+
+        assertEquals(inputAngle, sink.angle, 0.1);
+
+        long latencyMs = (sink.firstNonZeroNs - 100 * MS) / MS;
+        assertTrue("First motion after "+latencyMs+" ms", latencyMs <= 1000 / outputHz + 5);
+    }
+
+    // Every sample differs from the last, so nothing is dropped as unchanged
+    private static double measureOutputRate(int outputHz, long[] sampleTimesNs) {
+        IntegratingSink sink = new IntegratingSink();
+        MotionResampler resampler = new MotionResampler(sink, outputHz);
+        for (int i = 0; i < sampleTimesNs.length; i++) {
+            resampler.addSample(i, 0, 0, sampleTimesNs[i]);
+        }
+        return sink.packets / (sampleTimesNs[sampleTimesNs.length - 1] / 1e9);
+    }
+
+    @Test
+    public void usbPadKeepsRotation() {
+        assertRotationPreserved(200, usbPadTimes());
+    }
+
+    @Test
+    public void jitteryPhoneGyroKeepsRotation() {
+        assertRotationPreserved(250, phoneGyroTimes());
+    }
+
+    @Test
+    public void outputRateMatchesRequestedRate() {
+        double usbPadRate = measureOutputRate(200, usbPadTimes());
+        assertTrue("USB pad output at "+usbPadRate+" Hz", usbPadRate >= 200 * 0.97 && usbPadRate <= 200 * 1.03);
+
+        double phoneRate = measureOutputRate(250, phoneGyroTimes());
+        assertTrue("Phone gyro output at "+phoneRate+" Hz", phoneRate >= 250 * 0.97 && phoneRate <= 250 * 1.03);
+    }
+
+    @Test
+    public void stalledSensorDoesntBurst() {
+        IntegratingSink sink = new IntegratingSink();
+        MotionResampler resampler = new MotionResampler(sink, 200);
+        for (int i = 0; i < 100; i++) {
+            resampler.addSample(i, 0, 0, i * MS);
+        }
+
+        // No samples for 100 ms, then one per millisecond again
+        int packetsBeforeStall = sink.packets;
+        for (int i = 0; i < 5; i++) {
+            resampler.addSample(100 + i, 0, 0, (200 + i) * MS);
+        }
+        assertTrue("Sent "+(sink.packets - packetsBeforeStall)+" packets", sink.packets - packetsBeforeStall <= 2);
+    }
+
+    @Test
+    public void unchangedReadingsAreSentOnce() {
+        IntegratingSink sink = new IntegratingSink();
+        MotionResampler resampler = new MotionResampler(sink, 200);
+        for (int i = 0; i < 1000; i++) {
+            resampler.addSample(0.1f, 9.8f, 0.2f, i * MS);
+        }
+        assertEquals(1, sink.packets);
+    }
+}
@@ -0,0 +1,137 @@
+package com.limelight.binding.input.advance_setting.element;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks {@link ElementHitGrid} against a linear scan over every element.
+ *
+ * Overlapping elements are placed on a 2400x1080 screen and queried at random points. Every
+ * query must return the same elements in the same top to bottom order as the scan, including
+ * after elements are dragged and moved between layers in edit mode.
+ */
+public class ElementHitGridTest {
+
+    private static final int SCREEN_WIDTH = 2400;
+    private static final int SCREEN_HEIGHT = 1080;
+    private static final int CELL_SIZE = 128;
+    private static final int QUERIES = 2000;
+
+    private static class FakeElement {
+        int left, top, right, bottom;
+        long order;
+    }
+
+    private static void place(FakeElement element, Random random) {
+        int width = 80 + random.nextInt(240);
+        int height = 80 + random.nextInt(240);
+        element.left = random.nextInt(SCREEN_WIDTH - width);
+        element.top = random.nextInt(SCREEN_HEIGHT - height);
+        element.right = element.left + width;
+        element.bottom = element.top + height;
+    }
+
+    private static void put(ElementHitGrid<FakeElement> grid, FakeElement element) {
+        grid.put(element, element.left, element.top, element.right, element.bottom, element.order);
+    }
+
+    // What the per-element loop did before: look at every element, then order by layer
+    private static List<FakeElement> linearQuery(List<FakeElement> elements, float x, float y) {
+        List<FakeElement> out = new ArrayList<>();
+        for (FakeElement element : elements) {
+            if (element.left < x && element.right > x && element.top < y && element.bottom > y) {
+                int i = 0;
+                while (i < out.size() && out.get(i).order > element.order) {
+                    i++;
+                }
+                out.add(i, element);
+            }
+        }
+        return out;
+    }
+
+    private static void assertMatchesScan(ElementHitGrid<FakeElement> grid, List<FakeElement> elements, Random random) {
+        for (int i = 0; i < QUERIES; i++) {
+            float x = random.nextInt(SCREEN_WIDTH);
+            float y = random.nextInt(SCREEN_HEIGHT);
+            List<FakeElement> expected = linearQuery(elements, x, y);
+            List<FakeElement> actual = new ArrayList<>();
+            grid.query(x, y, actual);
+
+            assertEquals("Query at "+x+","+y, expected, actual);
+            assertSame(expected.isEmpty() ? null : expected.get(0), grid.findTopmost(x, y));
+        }
+    }
+
+    private static List<FakeElement> createLayout(ElementHitGrid<FakeElement> grid, int count, Random random) {
+        List<FakeElement> elements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            FakeElement element = new FakeElement();
+            place(element, random);
+            // A few layers, with insertion order breaking ties like the element list does
+            element.order = i + ((long) random.nextInt(4) << 48);
+            elements.add(element);
+            put(grid, element);
+        }
+        return elements;
+    }
+
+    @Test
+    public void matchesLinearScan() {
+        Random random = new Random(24);
+        for (int count : new int[] {60, 200, 500}) {
+            ElementHitGrid<FakeElement> grid = new ElementHitGrid<>(SCREEN_WIDTH, SCREEN_HEIGHT, CELL_SIZE);
+            List<FakeElement> elements = createLayout(grid, count, random);
+            assertEquals(count, grid.size());
+            assertMatchesScan(grid, elements, random);
+        }
+    }
+
+    @Test
+    public void movedAndRemovedElementsAreUpdated() {
+        Random random = new Random(24);
+        ElementHitGrid<FakeElement> grid = new ElementHitGrid<>(SCREEN_WIDTH, SCREEN_HEIGHT, CELL_SIZE);
+        List<FakeElement> elements = createLayout(grid, 200, random);
+
+        // Drag some elements around and change their layers, as edit mode does
+        for (int i = 0; i < 50; i++) {
+            FakeElement element = elements.get(random.nextInt(elements.size()));
+            place(element, random);
+            element.order = (element.order & 0xFFFFFFFFFFFFL) + ((long) random.nextInt(4) << 48);
+            put(grid, element);
+        }
+        grid.remove(elements.remove(0));
+
+        assertEquals(elements.size(), grid.size());
+        assertMatchesScan(grid, elements, random);
+    }
+
+    @Test
+    public void resizeKeepsElements() {
+        Random random = new Random(24);
+        ElementHitGrid<FakeElement> grid = new ElementHitGrid<>(SCREEN_HEIGHT, SCREEN_WIDTH, CELL_SIZE);
+        List<FakeElement> elements = createLayout(grid, 200, random);
+
+        // Rotated to landscape after the layout was loaded
+        grid.resize(SCREEN_WIDTH, SCREEN_HEIGHT);
+        assertMatchesScan(grid, elements, random);
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        Random random = new Random(24);
+        ElementHitGrid<FakeElement> grid = new ElementHitGrid<>(SCREEN_WIDTH, SCREEN_HEIGHT, CELL_SIZE);
+        FakeElement element = createLayout(grid, 10, random).get(0);
+
+        grid.clear();
+        assertEquals(0, grid.size());
+        assertNull(grid.findTopmost(element.left + 1, element.top + 1));
+    }
+}
@@ -0,0 +1,103 @@
+package com.limelight.binding.input.advance_setting.sqlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElementUpdateQueueTest {
+
+    private static Iterable<Map.Entry<String, Object>> values(Object... keysAndValues) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            values.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return values.entrySet();
+    }
+
+    private static List<ElementUpdateQueue.Update> updates(ElementUpdateQueue queue) {
+        return new ArrayList<>(queue.getUpdates());
+    }
+
+    @Test
+    public void startsEmpty() {
+        ElementUpdateQueue queue = new ElementUpdateQueue();
+
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.getUpdates().isEmpty());
+    }
+
+    @Test
+    public void laterValuesOverrideEarlierOnes() {
+        ElementUpdateQueue queue = new ElementUpdateQueue();
+        queue.queue(1, 10, values("element_central_x", 100L, "element_central_y", 200L));
+        queue.queue(1, 10, values("element_central_x", 150L));
+        queue.queue(1, 10, values("element_text", "A"));
+        queue.queue(1, 10, values("element_central_x", 175L, "element_text", "AB"));
+
+        List<ElementUpdateQueue.Update> updates = updates(queue);
+        assertEquals(1, updates.size());
+        assertEquals(1, updates.get(0).configId);
+        assertEquals(10, updates.get(0).elementId);
+
+        Map<String, Object> merged = updates.get(0).values;
+        assertEquals(3, merged.size());
+        assertEquals(175L, merged.get("element_central_x"));
+        assertEquals(200L, merged.get("element_central_y"));
+        assertEquals("AB", merged.get("element_text"));
+    }
+
+    @Test
+    public void nullValuesAreKept() {
+        ElementUpdateQueue queue = new ElementUpdateQueue();
+        queue.queue(1, 10, values("element_background_icon", "icon.png"));
+        queue.queue(1, 10, values("element_background_icon", null));
+
+        Map<String, Object> merged = updates(queue).get(0).values;
+        assertTrue(merged.containsKey("element_background_icon"));
+        assertNull(merged.get("element_background_icon"));
+    }
+
+    @Test
+    public void elementsAreKeptApartAndInFirstUpdateOrder() {
+        ElementUpdateQueue queue = new ElementUpdateQueue();
+        queue.queue(1, 30, values("element_layer", 1L));
+        queue.queue(1, 10, values("element_layer", 2L));
+        // Same element ID in another config is a different element
+        queue.queue(2, 30, values("element_layer", 3L));
+        queue.queue(1, 30, values("element_layer", 4L));
+
+        List<ElementUpdateQueue.Update> updates = updates(queue);
+        assertEquals(3, updates.size());
+
+        List<String> order = new ArrayList<>();
+        for (ElementUpdateQueue.Update update : updates) {
+            order.add(update.configId + ":" + update.elementId + "=" + update.values.get("element_layer"));
+        }
+        assertEquals(Arrays.asList("1:30=4", "1:10=2", "2:30=3"), order);
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        ElementUpdateQueue queue = new ElementUpdateQueue();
+        queue.queue(1, 10, values("element_central_x", 100L));
+        assertFalse(queue.isEmpty());
+
+        queue.clear();
+        assertTrue(queue.isEmpty());
+
+        // A new update after clearing doesn't bring back the old columns
+        queue.queue(1, 10, values("element_central_y", 200L));
+        Map<String, Object> merged = updates(queue).get(0).values;
+        assertEquals(1, merged.size());
+        assertEquals(200L, merged.get("element_central_y"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.limelight.binding.input.driver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UsbReportStatsTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void noReports() {
+        UsbReportStats stats = new UsbReportStats();
+
+        assertEquals(0, stats.getReportCount());
+        assertEquals(0, stats.getReportRateHz(), 0);
+        assertEquals(0, stats.getJitterUs(), 0);
+        assertEquals(0, stats.getMaxIntervalUs(), 0);
+    }
+
+    @Test
+    public void steadyReportsHaveNoJitter() {
+        UsbReportStats stats = new UsbReportStats();
+        for (int i = 0; i < 1000; i++) {
+            stats.onReport(i * MS);
+        }
+
+        assertEquals(1000, stats.getReportCount());
+        assertEquals(1000, stats.getReportRateHz(), 0.01);
+        assertEquals(0, stats.getJitterUs(), 0.01);
+        assertEquals(1000, stats.getMaxIntervalUs(), 0.01);
+    }
+
+    @Test
+    public void alternatingIntervalsShowAsJitter() {
+        UsbReportStats stats = new UsbReportStats();
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            // 0.5 ms and 1.5 ms apart, so 1000 Hz on average
+            now += i % 2 == 0 ? MS / 2 : MS * 3 / 2;
+            stats.onReport(now);
+        }
+
+        assertEquals(1000, stats.getReportRateHz(), 100);
+        assertTrue("Jitter "+stats.getJitterUs(), stats.getJitterUs() > 300 && stats.getJitterUs() < 700);
+        assertEquals(1500, stats.getMaxIntervalUs(), 0.01);
+    }
+
+    @Test
+    public void idleGapsAreIgnored() {
+        UsbReportStats stats = new UsbReportStats();
+        for (int i = 0; i < 100; i++) {
+            stats.onReport(i * 4 * MS);
+        }
+        // Nothing changed on the pad for a second
+        long resume = 99 * 4 * MS + 1000 * MS;
+        for (int i = 0; i < 100; i++) {
+            stats.onReport(resume + i * 4 * MS);
+        }
+
+        assertEquals(200, stats.getReportCount());
+        assertEquals(250, stats.getReportRateHz(), 0.01);
+        assertEquals(0, stats.getJitterUs(), 0.01);
+        assertEquals(4000, stats.getMaxIntervalUs(), 0.01);
+    }
+}
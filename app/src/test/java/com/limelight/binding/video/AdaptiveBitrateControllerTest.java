@@ -0,0 +1,198 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link AdaptiveBitrateController} against a simple bottleneck link model.
+ *
+ * Each step is one stats window. The link has a time-varying capacity and a drop-tail queue
+ * sized to a fixed amount of delay. Sending faster than capacity fills the queue (raising RTT)
+ * and then overflows it (losing frames). Bitrate requests take effect on the next step, like a
+ * round trip to the host would.
+ */
+public class AdaptiveBitrateControllerTest {
+
+    private static final int BASE_RTT_MS = 8;
+    private static final int QUEUE_LIMIT_MS = 80;
+    private static final int FPS = 60;
+    private static final int MAX_BITRATE_KBPS = 50000;
+
+    private static class Result {
+        int windows;
+        int lossyWindows;
+        int requests;
+        long rttMsSum;
+        int finalBitrateKbps;
+    }
+
+    // Applies every request right away, like a host that always accepts the new bitrate
+    private static class FakeRequester implements AdaptiveBitrateController.BitrateRequester {
+        int bitrateKbps;
+        int pendingRequestKbps = -1;
+        int requests;
+
+        FakeRequester(int bitrateKbps) {
+            this.bitrateKbps = bitrateKbps;
+        }
+
+        @Override
+        public int getCurrentBitrate() {
+            return bitrateKbps;
+        }
+
+        @Override
+        public void requestBitrate(int bitrateKbps) {
+            pendingRequestKbps = bitrateKbps;
+            requests++;
+        }
+
+        void completeRequest(AdaptiveBitrateController controller) {
+            if (pendingRequestKbps >= 0) {
+                bitrateKbps = pendingRequestKbps;
+                controller.onBitrateRequestComplete(pendingRequestKbps, true);
+                pendingRequestKbps = -1;
+            }
+        }
+    }
+
+    private static AdaptiveBitrateController.Sample cleanSample(long timestampMs) {
+        AdaptiveBitrateController.Sample sample = new AdaptiveBitrateController.Sample();
+        sample.timestampMs = timestampMs;
+        sample.totalFrames = FPS;
+        sample.rttMs = BASE_RTT_MS;
+        sample.rttVarianceMs = 2;
+        sample.decoderBackPressure = DecoderBackPressureListener.BACK_PRESSURE_NONE;
+        return sample;
+    }
+
+    // With adaptive set to false, the stream stays at MAX_BITRATE_KBPS
+    private static Result run(int[] capacityKbps, boolean adaptive) {
+        Random random = new Random(0);
+        Result result = new Result();
+        FakeRequester requester = new FakeRequester(MAX_BITRATE_KBPS);
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(requester, MAX_BITRATE_KBPS, MAX_BITRATE_KBPS / 10);
+        double queueKbits = 0;
+
+        for (int window = 0; window < capacityKbps.length; window++) {
+            // Apply the request sent during the previous window
+            requester.completeRequest(controller);
+
+            int bitrate = requester.bitrateKbps;
+            int capacity = capacityKbps[window];
+            double queueLimitKbits = capacity * QUEUE_LIMIT_MS / 1000.0;
+
+            queueKbits += bitrate - capacity;
+            double lostKbits = 0;
+            if (queueKbits > queueLimitKbits) {
+                lostKbits = queueKbits - queueLimitKbits;
+                queueKbits = queueLimitKbits;
+            }
+            else if (queueKbits < 0) {
+                queueKbits = 0;
+            }
+
+            AdaptiveBitrateController.Sample sample = cleanSample(window * 1000L);
+            sample.rttMs = BASE_RTT_MS + (int) (queueKbits * 1000 / capacity) + (int) Math.abs(random.nextGaussian() * 2);
+
+            // Any loss within a frame loses the frame, so spread lost data across frames pessimistically
+            sample.framesLost = (int) Math.min(FPS, Math.ceil(lostKbits / Math.max(bitrate, 1) * FPS * 4));
+
+            result.windows++;
+            result.rttMsSum += sample.rttMs;
+            if (sample.framesLost > 0) {
+                result.lossyWindows++;
+            }
+
+            if (adaptive) {
+                controller.onSample(sample);
+            }
+        }
+
+        result.requests = requester.requests;
+        result.finalBitrateKbps = requester.bitrateKbps;
+        return result;
+    }
+
+    // A user walking between rooms: good, then poor, then bad, then fair
+    private static int[] roamingTrace() {
+        Random random = new Random(0);
+        int[] levels = {80000, 25000, 8000, 60000};
+        int[] durations = {60, 60, 30, 90};
+
+        int[] trace = new int[240];
+        int window = 0;
+        for (int i = 0; i < levels.length; i++) {
+            for (int j = 0; j < durations[i]; j++) {
+                // Wi-Fi capacity wobbles by around 10% second to second
+                trace[window++] = (int) (levels[i] * (1 + random.nextGaussian() * 0.1));
+            }
+        }
+        return trace;
+    }
+
+    @Test
+    public void cutsLossAndDelayOnRoamingLink() {
+        int[] trace = roamingTrace();
+        Result fixed = run(trace, false);
+        Result adaptive = run(trace, true);
+
+        assertTrue("Adaptive had "+adaptive.lossyWindows+" lossy windows, fixed "+fixed.lossyWindows,
+                adaptive.lossyWindows * 4 < fixed.lossyWindows);
+        assertTrue(adaptive.rttMsSum < fixed.rttMsSum / 2);
+
+        // Requests are rate limited, so there is at most one every other window
+        assertTrue("Sent "+adaptive.requests+" requests", adaptive.requests < adaptive.windows / 2);
+    }
+
+    @Test
+    public void recoversToCeilingOnceLinkIsGood() {
+        int[] trace = new int[300];
+        Arrays.fill(trace, 0, 30, 10000);
+        Arrays.fill(trace, 30, trace.length, 100000);
+
+        assertEquals(MAX_BITRATE_KBPS, run(trace, true).finalBitrateKbps);
+    }
+
+    @Test
+    public void stallBetweenSamplesCutsBitrate() {
+        FakeRequester requester = new FakeRequester(MAX_BITRATE_KBPS);
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(requester, MAX_BITRATE_KBPS, MAX_BITRATE_KBPS / 10);
+        controller.onSample(cleanSample(1000));
+
+        // The decoder stalls and recovers before the next stats window is sampled
+        controller.onDecoderBackPressureChanged(DecoderBackPressureListener.BACK_PRESSURE_SEVERE);
+        controller.onDecoderBackPressureChanged(DecoderBackPressureListener.BACK_PRESSURE_NONE);
+        controller.onSample(cleanSample(2000));
+
+        assertEquals(1, requester.requests);
+        assertTrue(requester.pendingRequestKbps < MAX_BITRATE_KBPS * 3 / 4);
+
+        // The stall is only counted once
+        requester.completeRequest(controller);
+        int cutBitrate = requester.bitrateKbps;
+        controller.onSample(cleanSample(5000));
+        assertEquals(cutBitrate, controller.getTargetBitrateKbps());
+    }
+
+    @Test
+    public void manualChangeBecomesCeiling() {
+        FakeRequester requester = new FakeRequester(MAX_BITRATE_KBPS);
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(requester, MAX_BITRATE_KBPS, MAX_BITRATE_KBPS / 10);
+
+        // Changed from the game menu
+        requester.bitrateKbps = 20000;
+        for (int window = 1; window <= 60; window++) {
+            controller.onSample(cleanSample(window * 1000L));
+            requester.completeRequest(controller);
+        }
+
+        assertEquals(20000, controller.getTargetBitrateKbps());
+        assertEquals(0, requester.requests);
+    }
+}
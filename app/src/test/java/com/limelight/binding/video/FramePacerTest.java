@@ -0,0 +1,154 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays generated frame arrival traces against the frame pacers.
+ *
+ * Vsyncs tick at a fixed interval. Frames are queued in the same {@link IntRingBuffer} the
+ * renderer uses, each vsync asks the pacer what to do, and a rendered frame is considered on
+ * screen at the following vsync. This doesn't model SurfaceFlinger latching, so release
+ * timestamp advances aren't reflected.
+ */
+public class FramePacerTest {
+
+    private static final int QUEUE_CAPACITY = 2;
+
+    private static class Result {
+        int framesArrived;
+        int framesRendered;
+        int stutters;
+        long totalLatencyNs;
+
+        double getAverageLatencyMs() {
+            return framesRendered > 0 ? totalLatencyNs / 1000000.0 / framesRendered : 0;
+        }
+    }
+
+    private static Result run(FramePacer pacer, long[] arrivalTimesNanos, long firstVsyncNanos, long vsyncIntervalNs) {
+        Result result = new Result();
+        IntRingBuffer queue = new IntRingBuffer(QUEUE_CAPACITY);
+        FramePacer.Decision decision = new FramePacer.Decision();
+
+        long streamIntervalNs = (arrivalTimesNanos[arrivalTimesNanos.length - 1] - arrivalTimesNanos[0]) /
+                (arrivalTimesNanos.length - 1);
+        long stutterThresholdNs = Math.max(vsyncIntervalNs, streamIntervalNs) * 3 / 2;
+        long endTime = arrivalTimesNanos[arrivalTimesNanos.length - 1] + vsyncIntervalNs * 4;
+        long lastDisplayTime = 0;
+        int nextArrival = 0;
+
+        for (long vsync = firstVsyncNanos; vsync <= endTime; vsync += vsyncIntervalNs) {
+            // Deliver every frame that was decoded before this vsync
+            while (nextArrival < arrivalTimesNanos.length && arrivalTimesNanos[nextArrival] <= vsync) {
+                queue.offerDropOldest(nextArrival);
+                pacer.onFrameDecoded(arrivalTimesNanos[nextArrival]);
+                result.framesArrived++;
+                nextArrival++;
+            }
+
+            pacer.onVsync(vsync, queue.size(), decision);
+            for (int i = 0; i < decision.framesToDrop; i++) {
+                queue.poll();
+            }
+
+            int frame = decision.render ? queue.poll() : IntRingBuffer.EMPTY;
+            if (frame == IntRingBuffer.EMPTY) {
+                continue;
+            }
+            pacer.onFrameRendered(decision.releaseTimeNanos);
+
+            long displayTime = vsync + vsyncIntervalNs;
+            result.framesRendered++;
+            result.totalLatencyNs += displayTime - arrivalTimesNanos[frame];
+            if (lastDisplayTime != 0 && displayTime - lastDisplayTime > stutterThresholdNs) {
+                result.stutters++;
+            }
+            lastDisplayTime = displayTime;
+        }
+
+        return result;
+    }
+
+    // One minute of frames with Gaussian jitter around the nominal interval, starting at offsetNs
+    private static long[] generateTrace(int fps, long jitterStdDevNs, long offsetNs, long seed) {
+        Random random = new Random(seed);
+        long intervalNs = 1000000000L / fps;
+        long[] trace = new long[fps * 60];
+
+        long lastArrival = 0;
+        for (int i = 0; i < trace.length; i++) {
+            long arrival = 1000000000L + offsetNs + i * intervalNs + (long) (random.nextGaussian() * jitterStdDevNs);
+
+            // Frames come out of the decoder in order
+            trace[i] = Math.max(arrival, lastArrival + 1);
+            lastArrival = trace[i];
+        }
+        return trace;
+    }
+
+    @Test
+    public void adaptiveNeverStuttersMoreThanFixed() {
+        int[][] modes = { {60, 60}, {90, 90}, {120, 120}, {60, 120} };
+        long[] jitters = { 0, 200000, 500000, 1000000, 2000000, 4000000 };
+        float[] displayDrifts = { 1.0f, 0.999f, 1.001f };
+
+        for (int[] mode : modes) {
+            for (float drift : displayDrifts) {
+                long vsyncIntervalNs = (long) (1000000000L / (mode[1] * drift));
+                for (long jitter : jitters) {
+                    // Arrivals right on vsync are the worst case for a single queued frame
+                    for (long offset : new long[] {0, vsyncIntervalNs / 8, vsyncIntervalNs / 2, vsyncIntervalNs * 7 / 8}) {
+                        for (long seed = 0; seed < 2; seed++) {
+                            long[] trace = generateTrace(mode[0], jitter, offset, seed);
+                            Result fixed = run(new FixedFramePacer(mode[0], false), trace, 1000000000L, vsyncIntervalNs);
+                            Result adaptive = run(new AdaptiveFramePacer(mode[0], QUEUE_CAPACITY), trace, 1000000000L, vsyncIntervalNs);
+
+                            assertTrue(mode[0]+" FPS at "+mode[1]*drift+" Hz, jitter "+jitter+" ns, offset "+offset+
+                                            " ns: adaptive "+adaptive.stutters+" stutters, fixed "+fixed.stutters,
+                                    adaptive.stutters <= fixed.stutters);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void adaptiveKeepsSpareFrameWhenArrivalsHugVsync() {
+        // Steady arrivals, but landing within half a millisecond of each vsync
+        long[] trace = generateTrace(60, 500000, 0, 0);
+        AdaptiveFramePacer adaptive = new AdaptiveFramePacer(60, QUEUE_CAPACITY);
+        Result result = run(adaptive, trace, 1000000000L, 1000000000L / 60);
+
+        assertEquals(QUEUE_CAPACITY, adaptive.getTargetQueueDepth());
+        assertTrue("Stuttered "+result.stutters+" times", result.stutters <= 1);
+    }
+
+    @Test
+    public void adaptiveShedsLatencyWhenDisplayRunsSlow() {
+        // A 59.94 Hz display falls behind a 60 FPS stream and the queue fills up
+        long vsyncIntervalNs = (long) (1000000000L / 59.94);
+        long[] trace = generateTrace(60, 200000, vsyncIntervalNs / 8, 0);
+        Result fixed = run(new FixedFramePacer(60, false), trace, 1000000000L, vsyncIntervalNs);
+        Result result = run(new AdaptiveFramePacer(60, QUEUE_CAPACITY), trace, 1000000000L, vsyncIntervalNs);
+
+        assertTrue(result.stutters <= fixed.stutters);
+        assertTrue("Adaptive "+result.getAverageLatencyMs()+" ms, fixed "+fixed.getAverageLatencyMs()+" ms",
+                result.getAverageLatencyMs() < fixed.getAverageLatencyMs() - 1);
+    }
+
+    @Test
+    public void fixedRendersEveryFrameOnFasterDisplay() {
+        // 60 FPS on 120 Hz must not render two frames in consecutive vsyncs
+        long[] trace = generateTrace(60, 1000000, 1000000000L / 240, 0);
+        Result result = run(new FixedFramePacer(60, false), trace, 1000000000L, 1000000000L / 120);
+
+        assertEquals(result.framesArrived, result.framesRendered);
+        assertEquals(0, result.stutters);
+    }
+}
@@ -0,0 +1,146 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class IntRingBufferTest {
+
+    private static final int OPERATIONS = 2000000;
+
+    @Test
+    public void dropsOldestWhenFull() {
+        IntRingBuffer ring = new IntRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(IntRingBuffer.EMPTY, ring.offerDropOldest(i));
+        }
+        assertEquals(0, ring.offerDropOldest(4));
+        assertEquals(1, ring.offerDropOldest(5));
+        assertEquals(2, ring.getOverflowCount());
+        assertEquals(4, ring.size());
+
+        for (int i = 2; i < 6; i++) {
+            assertEquals(i, ring.poll());
+        }
+        assertEquals(IntRingBuffer.EMPTY, ring.poll());
+    }
+
+    @Test
+    public void everyValueIsPolledOrDroppedOnce() throws InterruptedException {
+        final IntRingBuffer ring = new IntRingBuffer(8);
+        final boolean[] seen = new boolean[OPERATIONS];
+        final AtomicBoolean producerDone = new AtomicBoolean();
+        final String[] consumerError = new String[1];
+
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                int last = -1;
+                for (;;) {
+                    int value = ring.poll();
+                    if (value == IntRingBuffer.EMPTY) {
+                        if (producerDone.get() && ring.size() == 0) {
+                            return;
+                        }
+                        continue;
+                    }
+                    // Values come out in order even when some were dropped in between
+                    synchronized (seen) {
+                        if (value <= last || seen[value]) {
+                            consumerError[0] = "Value "+value+" polled out of order or twice";
+                        }
+                        seen[value] = true;
+                    }
+                    last = value;
+                }
+            }
+        };
+        consumer.start();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int dropped = ring.offerDropOldest(i);
+            if (dropped != IntRingBuffer.EMPTY) {
+                synchronized (seen) {
+                    assertTrue("Value dropped after being polled: "+dropped, !seen[dropped]);
+                    seen[dropped] = true;
+                }
+            }
+        }
+        producerDone.set(true);
+        consumer.join();
+
+        assertEquals(null, consumerError[0]);
+        for (int i = 0; i < OPERATIONS; i++) {
+            assertTrue("Value lost: "+i, seen[i]);
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstLinkedBlockingQueue() throws InterruptedException {
+        assumeTrue("Benchmarks only run with -Pbenchmarks", Boolean.getBoolean("benchmarks"));
+
+        // Warm up both, then time the same handoff pattern the renderer uses
+        long ringNs = 0, queueNs = 0;
+        for (int round = 0; round < 3; round++) {
+            ringNs = timeRing();
+            queueNs = timeQueue();
+        }
+
+        assertTrue(String.format(Locale.US, "IntRingBuffer %.1f ns/op, LinkedBlockingQueue %.1f ns/op",
+                (double) ringNs / OPERATIONS, (double) queueNs / OPERATIONS), ringNs < queueNs * 2);
+    }
+
+    private static long timeRing() throws InterruptedException {
+        final IntRingBuffer ring = new IntRingBuffer(8);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get() || ring.size() > 0) {
+                    ring.poll();
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        consumer.start();
+        for (int i = 0; i < OPERATIONS; i++) {
+            ring.offerDropOldest(i);
+        }
+        done.set(true);
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+
+    private static long timeQueue() throws InterruptedException {
+        final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get() || !queue.isEmpty()) {
+                    queue.poll();
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        consumer.start();
+        for (int i = 0; i < OPERATIONS; i++) {
+            // Same drop-oldest policy the renderer used to implement around the queue
+            if (queue.size() == 8) {
+                queue.poll();
+            }
+            queue.add(i);
+        }
+        done.set(true);
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,122 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VideoStatsWindowsTest {
+
+    @Test
+    public void flipWaitsForWriterHoldingOldWindow() {
+        VideoStatsWindows windows = new VideoStatsWindows();
+
+        // A decoder thread picks up the window and then blocks in fetchNextInputBuffer
+        VideoStats held = windows.acquire();
+        held.totalFrames++;
+
+        assertNull("Window was handed out while still being written", windows.flip(1000));
+
+        // New writers go to the new window in the meantime
+        VideoStats next = windows.acquire();
+        assertTrue(next != held);
+        next.totalFrames++;
+        windows.release(next);
+
+        held.totalFramesReceived++;
+        windows.release(held);
+
+        VideoStats closed = windows.flip(1005);
+        assertSame(held, closed);
+        assertEquals(1, closed.totalFrames);
+        assertEquals(1, closed.totalFramesReceived);
+        closed.clear();
+
+        // The next flip closes the window that collected the sample above
+        VideoStats second = windows.flip(2000);
+        assertSame(next, second);
+        assertEquals(1, second.totalFrames);
+    }
+
+    @Test
+    public void concurrentWritersLoseNoSamples() throws InterruptedException {
+        final VideoStatsWindows windows = new VideoStatsWindows();
+        final int samples = 2000000;
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < samples; i++) {
+                    VideoStats window = windows.acquire();
+                    window.totalFrames++;
+                    window.decoderLatency.recordMs(i % 20);
+                    if (i % 100000 == 0) {
+                        // Hold the window for a while, like a blocking input buffer dequeue
+                        Thread.yield();
+                    }
+                    windows.release(window);
+                }
+                done.set(true);
+            }
+        };
+        writer.start();
+
+        VideoStats total = new VideoStats();
+        int flips = 0;
+        long now = 1;
+        while (!done.get()) {
+            VideoStats closed = windows.flip(now++);
+            if (closed != null) {
+                total.add(closed);
+                closed.clear();
+                flips++;
+            }
+        }
+        writer.join();
+        windows.drainInto(total);
+
+        assertTrue("Windows were never flipped", flips > 0);
+        assertEquals(samples, total.totalFrames);
+        assertEquals(samples, total.decoderLatency.getTotalCount());
+    }
+
+    @Test
+    public void writerPathDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        VideoStatsWindows windows = new VideoStatsWindows();
+        for (int round = 0; round < 3; round++) {
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100000; i++) {
+                VideoStats window = windows.acquire();
+                window.totalFrames++;
+                window.receiveLatency.recordMs(i % 50);
+                window.hostProcessingLatency.recordTenthsMs(i % 500);
+                windows.release(window);
+            }
+            long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+            VideoStats closed = windows.flip(round + 1);
+            assertNotNull(closed);
+            closed.clear();
+
+            // Allow for the JIT's own bookkeeping on the first rounds, but nothing per sample
+            if (round == 2) {
+                assertTrue("Writer path allocated "+allocated+" bytes", allocated < 1024);
+            }
+        }
+    }
+}
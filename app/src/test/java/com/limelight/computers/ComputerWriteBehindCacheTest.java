@@ -0,0 +1,186 @@
+package com.limelight.computers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.limelight.nvstream.http.ComputerDetails;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ComputerWriteBehindCacheTest {
+
+    private static final int WRITE_DELAY_MS = 50;
+
+    private ScheduledExecutorService writer;
+
+    private static class RecordingStore implements ComputerWriteBehindCache.Store {
+        final List<List<String>> batches = new ArrayList<>();
+        int failuresLeft;
+
+        @Override
+        public synchronized void writeBatch(List<ComputerRecord> upserts, List<String> deletes) {
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                onFailure();
+                throw new IllegalStateException("Expected by the test");
+            }
+
+            List<String> batch = new ArrayList<>();
+            for (ComputerRecord record : upserts) {
+                batch.add("upsert " + record.uuid + " " + record.remoteAddress);
+            }
+            for (String uuid : deletes) {
+                batch.add("delete " + uuid);
+            }
+            batches.add(batch);
+        }
+
+        void onFailure() {
+        }
+
+        synchronized int getRows() {
+            int rows = 0;
+            for (List<String> batch : batches) {
+                rows += batch.size();
+            }
+            return rows;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        writer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    private static ComputerRecord host(int i, int remotePort) {
+        return new ComputerRecord("uuid-" + i, "Host " + i,
+                new ComputerDetails.AddressTuple("192.168.1." + (10 + i), 47989),
+                new ComputerDetails.AddressTuple("203.0.113." + (10 + i), remotePort),
+                null, null, "00:1a:2b:3c:4d:" + (10 + i), null);
+    }
+
+    // What runPoll() does with a successful poll: merge into the stored copy and store it again
+    private static void poll(ComputerWriteBehindCache cache, ComputerRecord reported) {
+        ComputerRecord existing = cache.get(reported.uuid);
+        cache.update(new ComputerRecord(existing.uuid, reported.name,
+                reported.localAddress != null ? reported.localAddress : existing.localAddress,
+                reported.remoteAddress != null ? reported.remoteAddress : existing.remoteAddress,
+                existing.manualAddress, existing.ipv6Address,
+                reported.macAddress != null ? reported.macAddress : existing.macAddress,
+                reported.serverCert != null ? reported.serverCert : existing.serverCert));
+    }
+
+    private ComputerWriteBehindCache createCache(RecordingStore store, int hosts) {
+        ComputerWriteBehindCache cache = new ComputerWriteBehindCache(store, writer, WRITE_DELAY_MS);
+        List<ComputerRecord> stored = new ArrayList<>();
+        for (int i = 0; i < hosts; i++) {
+            stored.add(host(i, 47989));
+        }
+        cache.load(stored);
+        return cache;
+    }
+
+    @Test
+    public void unchangedPollsDontWrite() throws InterruptedException {
+        RecordingStore store = new RecordingStore();
+        ComputerWriteBehindCache cache = createCache(store, 4);
+
+        // Every poll reports the same thing in new objects, like a fresh serverinfo parse does
+        for (int p = 0; p < 1000; p++) {
+            for (int i = 0; i < 4; i++) {
+                poll(cache, host(i, 47989));
+            }
+        }
+        Thread.sleep(WRITE_DELAY_MS * 3);
+        cache.flush();
+
+        assertEquals(0, store.getRows());
+        assertEquals(0, cache.getWrittenBatches());
+        assertEquals(4000, cache.getSkippedUpdates());
+    }
+
+    @Test
+    public void burstIsWrittenInOneBatch() throws InterruptedException {
+        RecordingStore store = new RecordingStore();
+        ComputerWriteBehindCache cache = createCache(store, 2);
+
+        // Two hosts change their external port twice in quick succession
+        poll(cache, host(0, 47990));
+        poll(cache, host(1, 47990));
+        poll(cache, host(0, 47991));
+        poll(cache, host(1, 47991));
+        Thread.sleep(WRITE_DELAY_MS * 3);
+
+        assertEquals(1, store.batches.size());
+        assertEquals(2, store.getRows());
+        assertEquals("upsert uuid-0 203.0.113.10:47991", store.batches.get(0).get(0));
+    }
+
+    @Test
+    public void deletedHostIsntWrittenBack() {
+        RecordingStore store = new RecordingStore();
+        ComputerWriteBehindCache cache = createCache(store, 3);
+
+        poll(cache, host(2, 47992));
+        cache.delete("uuid-2");
+        cache.close();
+
+        assertEquals(1, store.batches.size());
+        assertEquals("[delete uuid-2]", store.batches.get(0).toString());
+        assertNull(cache.get("uuid-2"));
+    }
+
+    @Test
+    public void failedBatchIsRetried() throws InterruptedException {
+        RecordingStore store = new RecordingStore();
+        store.failuresLeft = 2;
+        ComputerWriteBehindCache cache = createCache(store, 2);
+
+        poll(cache, host(0, 47990));
+        cache.delete("uuid-1");
+
+        // Retries back off from the write delay: 50 + 50 + 100 ms
+        Thread.sleep(WRITE_DELAY_MS * 10);
+
+        assertEquals(1, store.batches.size());
+        assertEquals("[upsert uuid-0 203.0.113.10:47990, delete uuid-1]", store.batches.get(0).toString());
+    }
+
+    @Test
+    public void failedBatchDoesntOverwriteNewerChanges() {
+        final ComputerWriteBehindCache[] cache = new ComputerWriteBehindCache[1];
+        RecordingStore store = new RecordingStore() {
+            @Override
+            void onFailure() {
+                // Changed again while the failing batch was being written
+                poll(cache[0], host(0, 47991));
+                cache[0].delete("uuid-1");
+            }
+        };
+        store.failuresLeft = 1;
+        cache[0] = createCache(store, 3);
+
+        poll(cache[0], host(0, 47990));
+        poll(cache[0], host(1, 47990));
+        poll(cache[0], host(2, 47990));
+        cache[0].close();
+        assertEquals(0, store.batches.size());
+
+        cache[0].flush();
+        assertEquals(1, store.batches.size());
+        assertEquals("[upsert uuid-0 203.0.113.10:47991, upsert uuid-2 203.0.113.12:47990, delete uuid-1]",
+                store.batches.get(0).toString());
+    }
+}
@@ -0,0 +1,266 @@
+package com.limelight.computers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PollSchedulerTest {
+
+    private static final int HOST_THREADS = 4;
+    private static final int PROBE_THREADS = 8;
+    private static final int HOSTS = 100;
+
+    private final AtomicLong fakeTimeMs = new AtomicLong(1000);
+    private final PollScheduler.Clock fakeClock = new PollScheduler.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return fakeTimeMs.get();
+        }
+    };
+
+    private PollScheduler scheduler;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    @Before
+    public void setUp() {
+        scheduler = new PollScheduler(HOST_THREADS, PROBE_THREADS, fakeClock);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+        if (server != null) {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+    }
+
+    // Stands in for the serverinfo endpoint of every host, which is told apart by the path
+    private int startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = ("<root status_code=\"200\"><hostname>" +
+                        exchange.getRequestURI().getPath().substring(1) +
+                        "</hostname></root>").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    private static int findClosedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static boolean fetch(String url) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+            try {
+                InputStream in = conn.getInputStream();
+                while (in.read() >= 0) {
+                    // Drain the response like a real poll
+                }
+                in.close();
+                return conn.getResponseCode() == 200;
+            } finally {
+                conn.disconnect();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Like a real host: two addresses that answer and a dead one
+    private Runnable createHostPoll(final String name, final int port, final int deadPort,
+                                    final AtomicInteger onlinePolls, final CountDownLatch polled) {
+        final String[] urls = {
+                "http://127.0.0.1:" + port + "/" + name,
+                "http://127.0.0.1:" + port + "/" + name + "-remote",
+                "http://127.0.0.1:" + deadPort + "/" + name,
+        };
+        return new Runnable() {
+            @Override
+            public void run() {
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (final String url : urls) {
+                    futures.add(scheduler.submitProbe(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return fetch(url);
+                        }
+                    }));
+                }
+
+                boolean online = false;
+                try {
+                    for (Future<Boolean> future : futures) {
+                        online |= future.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+
+                if (online) {
+                    onlinePolls.incrementAndGet();
+                }
+                polled.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void threadsDontGrowWithHosts() throws Exception {
+        int port = startServer();
+        int deadPort = findClosedPort();
+
+        AtomicInteger onlinePolls = new AtomicInteger();
+        List<PollScheduler.Handle> handles = new ArrayList<>();
+        List<CountDownLatch> polled = new ArrayList<>();
+        for (int i = 0; i < HOSTS; i++) {
+            CountDownLatch latch = new CountDownLatch(2);
+            polled.add(latch);
+            handles.add(scheduler.scheduleHost("Host " + i,
+                    createHostPoll("host" + i, port, deadPort, onlinePolls, latch), 10));
+        }
+
+        // Every host gets polled repeatedly
+        for (int i = 0; i < HOSTS; i++) {
+            assertTrue(handles.get(i).name + " wasn't polled twice", polled.get(i).await(30, TimeUnit.SECONDS));
+        }
+
+        assertTrue("Polling threads: " + scheduler.getLargestThreadCount(),
+                scheduler.getLargestThreadCount() <= HOST_THREADS + PROBE_THREADS);
+
+        int totalPolls = 0;
+        for (PollScheduler.Handle handle : handles) {
+            totalPolls += handle.getPollCount();
+        }
+        assertTrue(onlinePolls.get() >= HOSTS * 2);
+        assertTrue(onlinePolls.get() <= totalPolls);
+    }
+
+    @Test
+    public void slowHostDoesntOverlapItsOwnPolls() throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch polls = new CountDownLatch(5);
+        PollScheduler.Handle handle = scheduler.scheduleHost("Slow host", new Runnable() {
+            @Override
+            public void run() {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                // Takes 300 ms as far as the stats can tell
+                fakeTimeMs.addAndGet(300);
+                running.decrementAndGet();
+                polls.countDown();
+            }
+        }, 1);
+
+        assertTrue(polls.await(5, TimeUnit.SECONDS));
+        scheduler.remove(handle);
+
+        assertFalse(overlapped.get());
+        assertTrue(handle.getPollCount() >= 4);
+        assertEquals(300, handle.getLastLatencyMs());
+        assertEquals(300, handle.getMaxLatencyMs());
+        assertEquals(300, handle.getAverageLatencyMs(), 0.001);
+    }
+
+    @Test
+    public void cancelInterruptsAndStopsPolls() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch never = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        PollScheduler.Handle handle = scheduler.scheduleHost("Host", new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                started.countDown();
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, 1);
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.remove(handle);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(handle.isCancelled());
+
+        // Give the cancelled host plenty of chances to run again while another host polls
+        final CountDownLatch otherPolls = new CountDownLatch(20);
+        scheduler.scheduleHost("Other host", new Runnable() {
+            @Override
+            public void run() {
+                otherPolls.countDown();
+            }
+        }, 1);
+        assertTrue(otherPolls.await(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void exceptionDoesntStopPolling() throws InterruptedException {
+        final CountDownLatch polls = new CountDownLatch(3);
+        scheduler.scheduleHost("Broken host", new Runnable() {
+            @Override
+            public void run() {
+                polls.countDown();
+                throw new IllegalStateException("Expected by the test");
+            }
+        }, 10);
+
+        assertTrue(polls.await(5, TimeUnit.SECONDS));
+    }
+}
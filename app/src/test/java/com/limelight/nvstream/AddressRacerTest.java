@@ -0,0 +1,278 @@
+package com.limelight.nvstream;
+
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AddressRacerTest {
+
+    private static final Executor THREAD_PER_ATTEMPT = new Executor() {
+        @Override
+        public void execute(Runnable r) {
+            new Thread(r, "Address race test").start();
+        }
+    };
+
+    private static List<AddressRacer.Candidate<String>> candidates(String... addressesAndFamilies) {
+        List<AddressRacer.Candidate<String>> candidates = new ArrayList<>();
+        for (int i = 0; i < addressesAndFamilies.length; i += 2) {
+            candidates.add(new AddressRacer.Candidate<>(addressesAndFamilies[i], addressesAndFamilies[i + 1]));
+        }
+        return candidates;
+    }
+
+    @Test
+    public void stuckAddressIsTrackedApartFromItsFamily() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger stuckAttempts = new AtomicInteger();
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 0, 0, false);
+        AddressRacer.Attempt<String, String> attempt = new AddressRacer.Attempt<String, String>() {
+            @Override
+            public String attempt(String address, AddressRacer.Abort abort) throws Exception {
+                if (address.equals("10.0.0.1")) {
+                    // Hangs until the end of the test
+                    stuckAttempts.incrementAndGet();
+                    release.await();
+                    return null;
+                }
+                return address;
+            }
+        };
+
+        try {
+            List<AddressRacer.Candidate<String>> candidates = candidates("10.0.0.1", "ipv4", "10.0.0.2", "ipv4");
+            AddressRacer.Result<String, String> first = racer.race("same family", candidates, attempt, null);
+            assertNotNull(first);
+            assertEquals("10.0.0.2", first.address);
+
+            // 10.0.0.1 is still in flight, so only 10.0.0.2 is raced again
+            AddressRacer.Result<String, String> second = racer.race("same family", candidates, attempt, null);
+            assertNotNull(second);
+            assertEquals("10.0.0.2", second.address);
+            assertEquals(1, stuckAttempts.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void lateSuccessBecomesRememberedWinner() throws InterruptedException {
+        final CountDownLatch lateSuccess = new CountDownLatch(1);
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 0, 0, false);
+
+        AddressRacer.Result<String, String> result = racer.race("late", candidates("local", "local", "remote", "remote"),
+                new AddressRacer.Attempt<String, String>() {
+                    @Override
+                    public String attempt(String address, AddressRacer.Abort abort) throws Exception {
+                        if (address.equals("local")) {
+                            Thread.sleep(200);
+                        }
+                        return address;
+                    }
+                },
+                new AddressRacer.LateSuccessListener<String, String>() {
+                    @Override
+                    public void onLateSuccess(String address, String value) {
+                        lateSuccess.countDown();
+                    }
+                });
+
+        assertNotNull(result);
+        assertEquals("remote", result.address);
+        assertTrue(lateSuccess.await(5, TimeUnit.SECONDS));
+        assertEquals("local", AddressRacer.getRememberedWinner("late"));
+    }
+
+    @Test
+    public void onlyRecentHostsAreRemembered() throws InterruptedException {
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 0, 0, false);
+        AddressRacer.Attempt<String, String> attempt = new AddressRacer.Attempt<String, String>() {
+            @Override
+            public String attempt(String address, AddressRacer.Abort abort) {
+                return address;
+            }
+        };
+
+        for (int i = 0; i < 100; i++) {
+            racer.race("host " + i, candidates("address", "local"), attempt, null);
+        }
+        assertNull(AddressRacer.getRememberedWinner("host 0"));
+        assertEquals("local", AddressRacer.getRememberedWinner("host 99"));
+
+        AddressRacer.forgetHost("host 99");
+        assertNull(AddressRacer.getRememberedWinner("host 99"));
+    }
+
+    @Test
+    public void nextAttemptWaitsForStaggerDelay() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLongArray startNs = new AtomicLongArray(2);
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 300, 0, true);
+
+        try {
+            AddressRacer.Result<String, String> result = racer.race(null, candidates("slow", "local", "fast", "remote"),
+                    new AddressRacer.Attempt<String, String>() {
+                        @Override
+                        public String attempt(String address, AddressRacer.Abort abort) throws Exception {
+                            if (address.equals("slow")) {
+                                startNs.set(0, System.nanoTime());
+                                release.await();
+                                return null;
+                            }
+                            startNs.set(1, System.nanoTime());
+                            return address;
+                        }
+                    }, null);
+
+            assertNotNull(result);
+            assertEquals("fast", result.address);
+            assertTrue(startNs.get(1) - startNs.get(0) >= TimeUnit.MILLISECONDS.toNanos(250));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void nextAttemptStartsEarlyWhenEverythingFailed() throws InterruptedException {
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 10000, 0, true);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        long startNs = System.nanoTime();
+        AddressRacer.Result<String, String> result = racer.race(null, candidates("bad", "local", "good", "remote"),
+                new AddressRacer.Attempt<String, String>() {
+                    @Override
+                    public String attempt(String address, AddressRacer.Abort abort) {
+                        attempts.incrementAndGet();
+                        return address.equals("good") ? address : null;
+                    }
+                }, null);
+
+        assertNotNull(result);
+        assertEquals("good", result.address);
+        assertEquals(2, attempts.get());
+        assertTrue(System.nanoTime() - startNs < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void betterAddressWinsWithinPrecedenceGrace() throws InterruptedException {
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 0, 5000, true);
+
+        AddressRacer.Result<String, String> result = racer.race(null, candidates("local", "local", "remote", "remote"),
+                new AddressRacer.Attempt<String, String>() {
+                    @Override
+                    public String attempt(String address, AddressRacer.Abort abort) throws Exception {
+                        if (address.equals("local")) {
+                            Thread.sleep(100);
+                        }
+                        return address;
+                    }
+                }, null);
+
+        assertNotNull(result);
+        assertEquals("local", result.address);
+        assertEquals(2, result.successfulAddresses.size());
+    }
+
+    @Test
+    public void precedenceGraceIsBounded() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 0, 300, true);
+
+        try {
+            long startNs = System.nanoTime();
+            AddressRacer.Result<String, String> result = racer.race(null, candidates("local", "local", "remote", "remote"),
+                    new AddressRacer.Attempt<String, String>() {
+                        @Override
+                        public String attempt(String address, AddressRacer.Abort abort) throws Exception {
+                            if (address.equals("local")) {
+                                release.await();
+                            }
+                            return address;
+                        }
+                    }, null);
+            long elapsedNs = System.nanoTime() - startNs;
+
+            assertNotNull(result);
+            assertEquals("remote", result.address);
+            assertTrue(elapsedNs >= TimeUnit.MILLISECONDS.toNanos(250));
+            assertTrue(elapsedNs < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static AddressRacer.Result<String, String> raceAgainstBlockedAttempt(
+            boolean cancelLosers, final CountDownLatch aborted, final CountDownLatch interrupted,
+            final CountDownLatch release) throws InterruptedException {
+        AddressRacer racer = new AddressRacer(THREAD_PER_ATTEMPT, 0, 0, cancelLosers);
+        return racer.race(null, candidates("blocked", "local", "fast", "remote"),
+                new AddressRacer.Attempt<String, String>() {
+                    @Override
+                    public String attempt(String address, AddressRacer.Abort abort) throws Exception {
+                        if (!address.equals("blocked")) {
+                            return address;
+                        }
+
+                        abort.onAbort(new Closeable() {
+                            @Override
+                            public void close() {
+                                aborted.countDown();
+                            }
+                        });
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                        }
+                        return null;
+                    }
+                }, null);
+    }
+
+    @Test
+    public void losersAreCancelled() throws InterruptedException {
+        CountDownLatch aborted = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            AddressRacer.Result<String, String> result = raceAgainstBlockedAttempt(true, aborted, interrupted, release);
+            assertNotNull(result);
+            assertEquals("fast", result.address);
+            assertTrue(aborted.await(5, TimeUnit.SECONDS));
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void losersKeepRunningUnlessCancelled() throws InterruptedException {
+        CountDownLatch aborted = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            AddressRacer.Result<String, String> result = raceAgainstBlockedAttempt(false, aborted, interrupted, release);
+            assertNotNull(result);
+            assertEquals("fast", result.address);
+            assertFalse(aborted.await(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, interrupted.getCount());
+        } finally {
+            release.countDown();
+        }
+    }
+}
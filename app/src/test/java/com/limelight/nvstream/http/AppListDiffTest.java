@@ -0,0 +1,124 @@
+package com.limelight.nvstream.http;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AppListDiffTest {
+
+    private static NvApp app(int id, String name) {
+        return new NvApp(name, id, false);
+    }
+
+    private static List<NvApp> list(NvApp... apps) {
+        return new ArrayList<>(Arrays.asList(apps));
+    }
+
+    private static List<Integer> ids(List<NvApp> apps) {
+        List<Integer> ids = new ArrayList<>();
+        for (NvApp app : apps) {
+            ids.add(app.getAppId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void identicalListsAreEmpty() {
+        AppListDiff diff = AppListDiff.compute(
+                list(app(1, "Desktop"), app(2, "Steam")),
+                list(app(1, "Desktop"), app(2, "Steam")));
+
+        assertTrue(diff.isEmpty());
+        assertEquals(Arrays.asList(1, 2), ids(diff.newList));
+    }
+
+    @Test
+    public void emptyLists() {
+        assertTrue(AppListDiff.compute(Collections.<NvApp>emptyList(), Collections.<NvApp>emptyList()).isEmpty());
+
+        AppListDiff fromEmpty = AppListDiff.compute(Collections.<NvApp>emptyList(), list(app(1, "Desktop"), app(2, "Steam")));
+        assertEquals(Arrays.asList(1, 2), ids(fromEmpty.added));
+        assertTrue(fromEmpty.removed.isEmpty());
+        assertFalse(fromEmpty.orderChanged);
+
+        AppListDiff toEmpty = AppListDiff.compute(list(app(1, "Desktop"), app(2, "Steam")), Collections.<NvApp>emptyList());
+        assertEquals(Arrays.asList(1, 2), ids(toEmpty.removed));
+        assertTrue(toEmpty.added.isEmpty());
+        assertFalse(toEmpty.orderChanged);
+        assertTrue(toEmpty.newList.isEmpty());
+    }
+
+    @Test
+    public void reorderIsDetected() {
+        AppListDiff diff = AppListDiff.compute(
+                list(app(1, "Desktop"), app(2, "Steam"), app(3, "Game")),
+                list(app(3, "Game"), app(1, "Desktop"), app(2, "Steam")));
+
+        assertTrue(diff.orderChanged);
+        assertTrue(diff.added.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+        assertTrue(diff.changed.isEmpty());
+        assertFalse(diff.isEmpty());
+        assertEquals(Arrays.asList(3, 1, 2), ids(diff.newList));
+    }
+
+    @Test
+    public void insertKeepsOrderOfTheRest() {
+        NvApp inserted = app(4, "New game");
+        AppListDiff diff = AppListDiff.compute(
+                list(app(1, "Desktop"), app(2, "Steam")),
+                list(app(1, "Desktop"), inserted, app(2, "Steam")));
+
+        assertEquals(1, diff.added.size());
+        assertSame(inserted, diff.added.get(0));
+        assertTrue(diff.removed.isEmpty());
+        assertFalse(diff.orderChanged);
+        assertEquals(Arrays.asList(1, 4, 2), ids(diff.newList));
+    }
+
+    @Test
+    public void removalKeepsOrderOfTheRest() {
+        AppListDiff diff = AppListDiff.compute(
+                list(app(1, "Desktop"), app(2, "Steam"), app(3, "Game")),
+                list(app(1, "Desktop"), app(3, "Game")));
+
+        assertEquals(Arrays.asList(2), ids(diff.removed));
+        assertTrue(diff.added.isEmpty());
+        assertFalse(diff.orderChanged);
+    }
+
+    @Test
+    public void inPlaceChangesAreReported() {
+        NvApp renamed = app(2, "Steam Big Picture");
+        NvApp hdr = new NvApp("Game", 3, true);
+        NvApp withCommands = app(1, "Desktop");
+        withCommands.setCmdList("[{\"id\":\"1\",\"name\":\"Sleep\"}]");
+
+        AppListDiff diff = AppListDiff.compute(
+                list(app(1, "Desktop"), app(2, "Steam"), app(3, "Game")),
+                list(withCommands, renamed, hdr));
+
+        assertEquals(Arrays.asList(1, 2, 3), ids(diff.changed));
+        assertSame(renamed, diff.changed.get(1));
+        assertTrue(diff.added.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+        assertFalse(diff.orderChanged);
+    }
+
+    @Test
+    public void hashTracksContent() {
+        String raw = "<root status_code=\"200\"><App><AppTitle>Desktop</AppTitle><ID>1</ID></App></root>";
+
+        assertEquals(AppListDiff.hash(raw), AppListDiff.hash(new String(raw)));
+        assertNotEquals(AppListDiff.hash(raw), AppListDiff.hash(raw.replace("Desktop", "Desktoq")));
+    }
+}
@@ -0,0 +1,159 @@
+package com.limelight.nvstream.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class HttpClientRegistryTest {
+
+    // Self-signed certificates, only their identity matters here
+    private static final String HOST_1_CERT =
+            "-----BEGIN CERTIFICATE-----\n" +
+            "MIIBOTCB36ADAgECAghRdNt27Uhm0TAKBggqhkjOPQQDAjAQMQ4wDAYDVQQDEwVo\n" +
+            "b3N0MTAgFw0yNjEwMTgxNDAyMTJaGA8yMTI2MDkyNDE0MDIxMlowEDEOMAwGA1UE\n" +
+            "AxMFaG9zdDEwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAARg/PE2Q/12vU3myZIF\n" +
+            "zomLBev0J1dUTzZx8TPlQcbm2QAqDcUwhlJOAvs0CztboCyeY+0+EmC4tTefxV1c\n" +
+            "o4HEoyEwHzAdBgNVHQ4EFgQU95I7RvRt54xfKop8/azeIUG+hsIwCgYIKoZIzj0E\n" +
+            "AwIDSQAwRgIhAOGzTpd+IjfMOz9ZDemId/+yYcDDh04kmq474pP+ZvNeAiEAoVqW\n" +
+            "1+uupj8JrqXaQkbhhse1oyqeXQdtToYOMTLqGYM=\n" +
+            "-----END CERTIFICATE-----\n";
+
+    private static final String HOST_2_CERT =
+            "-----BEGIN CERTIFICATE-----\n" +
+            "MIIBOTCB36ADAgECAgh1LDnnu9Cz+DAKBggqhkjOPQQDAjAQMQ4wDAYDVQQDEwVo\n" +
+            "b3N0MjAgFw0yNjEwMTgxNDAyMTVaGA8yMTI2MDkyNDE0MDIxNVowEDEOMAwGA1UE\n" +
+            "AxMFaG9zdDIwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAASse4EOk/Z2RZTpax3k\n" +
+            "a6r7gyKpNl9qFfLGkMDMbfB9EufDTh8gmcFMNpptzo7/oW6JCR8vrFQ78kWJg1M6\n" +
+            "Qb9RoyEwHzAdBgNVHQ4EFgQUntoDXAoIZHvYWFw2kHYJ2ufrXzYwCgYIKoZIzj0E\n" +
+            "AwIDSQAwRgIhAL4Zfs6XKeOvu+bK8oyYSJVTWkyO08F7lSUV2rzbed+xAiEA2NvK\n" +
+            "WORjP6j7QV+hyQNDd6g5tcyVRHysAYWy2r2g5Q4=\n" +
+            "-----END CERTIFICATE-----\n";
+
+    private static final String CLIENT_1_CERT =
+            "-----BEGIN CERTIFICATE-----\n" +
+            "MIIBPTCB5KADAgECAgkA3e/dW7TRzP0wCgYIKoZIzj0EAwIwEjEQMA4GA1UEAxMH\n" +
+            "Y2xpZW50MTAgFw0yNjEwMTgxNDAyMTdaGA8yMTI2MDkyNDE0MDIxN1owEjEQMA4G\n" +
+            "A1UEAxMHY2xpZW50MTBZMBMGByqGSM49AgEGCCqGSM49AwEHA0IABKkhcye2lkJA\n" +
+            "x+ubkh+fyse7lGamyHkKVG+1Ok36Qhte0z0kZb4rrDSRQK/FoZI+E9/EkzqTSfkg\n" +
+            "6nS9NW1Bm3WjITAfMB0GA1UdDgQWBBT6guG4SbPocEOnbspegT94Mz4TUzAKBggq\n" +
+            "hkjOPQQDAgNIADBFAiBhc3SAZ/5cT5XrLifRaEvR8OzVnl7Td/i9sUQB6lTUDgIh\n" +
+            "ANqYXc3Q9nrYZhVEhvfNMdSt7ud7u7lKdma9GMut1zkm\n" +
+            "-----END CERTIFICATE-----\n";
+
+    private static final String CLIENT_2_CERT =
+            "-----BEGIN CERTIFICATE-----\n" +
+            "MIIBPDCB5KADAgECAgkAtKZqpfyirgswCgYIKoZIzj0EAwIwEjEQMA4GA1UEAxMH\n" +
+            "Y2xpZW50MjAgFw0yNjEwMTgxNDAyMTlaGA8yMTI2MDkyNDE0MDIxOVowEjEQMA4G\n" +
+            "A1UEAxMHY2xpZW50MjBZMBMGByqGSM49AgEGCCqGSM49AwEHA0IABAOZlginCc7r\n" +
+            "kl9tvu7lxUt1rGz5aCGmJi0iPuqVExZJgrOSnJqW4IVPvhWiQgZ5kfYY+pVF6RhV\n" +
+            "HCFdeN291+6jITAfMB0GA1UdDgQWBBQwppzIQD+KSehk9cRXHNNqZXnJOTAKBggq\n" +
+            "hkjOPQQDAgNHADBEAiBdZlL8BNdDlMn4xGLSqUzzRQ9Ti7l3L4S+EvCqPMLTRwIg\n" +
+            "X/kQl62NTbdjET5Rjnhh3qLlHIzDA9MYc/yT4sQoAIs=\n" +
+            "-----END CERTIFICATE-----\n";
+
+    private static X509Certificate parse(String pem) {
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+        } catch (CertificateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final X509Certificate host1 = parse(HOST_1_CERT);
+    private static final X509Certificate host2 = parse(HOST_2_CERT);
+
+    private static LimelightCryptoProvider provider(final String clientCertPem) {
+        final X509Certificate clientCert = parse(clientCertPem);
+        return new LimelightCryptoProvider() {
+            @Override
+            public X509Certificate getClientCertificate() {
+                return clientCert;
+            }
+
+            @Override
+            public PrivateKey getClientPrivateKey() {
+                // Only needed once a handshake asks for it
+                return null;
+            }
+
+            @Override
+            public byte[] getPemEncodedClientCertificate() {
+                return clientCertPem.getBytes(StandardCharsets.US_ASCII);
+            }
+
+            @Override
+            public String encodeBase64String(byte[] data) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        HttpClientRegistry.removeServerCert(host1);
+        HttpClientRegistry.removeServerCert(host2);
+        HttpClientRegistry.removeServerCert(null);
+    }
+
+    @Test
+    public void samePairSharesConnectionsAndSessions() {
+        HttpClientRegistry.Clients first = HttpClientRegistry.getClients(host1, provider(CLIENT_1_CERT));
+        // A new provider with the same identity, like a new NvHTTP for another address of the host
+        HttpClientRegistry.Clients second = HttpClientRegistry.getClients(host1, provider(CLIENT_1_CERT));
+
+        assertSame(first, second);
+
+        // Every timeout variant uses the entry's pool and SSLContext, so connections are kept
+        // alive and TLS sessions resumed across them
+        assertSame(first.connectionPool, first.longConnectTimeout.connectionPool());
+        assertSame(first.connectionPool, first.shortConnectTimeout.connectionPool());
+        assertSame(first.connectionPool, first.longConnectNoReadTimeout.connectionPool());
+        assertSame(first.longConnectTimeout.sslSocketFactory(), first.shortConnectTimeout.sslSocketFactory());
+        assertSame(first.longConnectTimeout.sslSocketFactory(), first.longConnectNoReadTimeout.sslSocketFactory());
+    }
+
+    @Test
+    public void differentPinsDontShare() {
+        HttpClientRegistry.Clients pinned1 = HttpClientRegistry.getClients(host1, provider(CLIENT_1_CERT));
+        HttpClientRegistry.Clients pinned2 = HttpClientRegistry.getClients(host2, provider(CLIENT_1_CERT));
+        HttpClientRegistry.Clients unpinned = HttpClientRegistry.getClients(null, provider(CLIENT_1_CERT));
+
+        assertNotSame(pinned1, pinned2);
+        assertNotSame(pinned1, unpinned);
+        assertNotSame(pinned1.connectionPool, pinned2.connectionPool);
+        assertNotSame(pinned1.longConnectTimeout.sslSocketFactory(), unpinned.longConnectTimeout.sslSocketFactory());
+    }
+
+    @Test
+    public void differentClientIdentitiesDontShare() {
+        HttpClientRegistry.Clients client1 = HttpClientRegistry.getClients(host1, provider(CLIENT_1_CERT));
+        HttpClientRegistry.Clients client2 = HttpClientRegistry.getClients(host1, provider(CLIENT_2_CERT));
+
+        assertNotSame(client1, client2);
+        assertNotSame(client1.longConnectTimeout.sslSocketFactory(), client2.longConnectTimeout.sslSocketFactory());
+    }
+
+    @Test
+    public void removeServerCertEvictsOnlyThatPin() {
+        HttpClientRegistry.Clients host1Client1 = HttpClientRegistry.getClients(host1, provider(CLIENT_1_CERT));
+        HttpClientRegistry.Clients host1Client2 = HttpClientRegistry.getClients(host1, provider(CLIENT_2_CERT));
+        HttpClientRegistry.Clients host2Client1 = HttpClientRegistry.getClients(host2, provider(CLIENT_1_CERT));
+
+        HttpClientRegistry.removeServerCert(host1);
+
+        // Nothing validated under the old pairing is handed out again
+        assertNotSame(host1Client1, HttpClientRegistry.getClients(host1, provider(CLIENT_1_CERT)));
+        assertNotSame(host1Client2, HttpClientRegistry.getClients(host1, provider(CLIENT_2_CERT)));
+        assertSame(host2Client1, HttpClientRegistry.getClients(host2, provider(CLIENT_1_CERT)));
+    }
+}
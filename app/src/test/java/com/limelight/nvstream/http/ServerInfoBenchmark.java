@@ -0,0 +1,113 @@
+package com.limelight.nvstream.http;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.Stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures serverinfo parse time per poll against the old way of reading a poll's fields: a fresh
+ * parser per field that scans the response until it finds it. The timing only runs with
+ * -Pbenchmarks, and nothing is asserted about it.
+ */
+public class ServerInfoBenchmark {
+
+    private static final int ITERATIONS = 5000;
+
+    // Fields read by a poll: getServerInfo() checks the version, then getComputerDetails()
+    private static final String[] POLL_FIELDS = {
+            "appversion", "hostname", "uniqueid", "HttpsPort", "mac", "LocalIP", "ExternalPort",
+            "ExternalIP", "PairStatus", "state", "currentgame", "state"
+    };
+
+    private static volatile Object sink;
+
+    // The old per-field lookup
+    private static String lookupField(String str, String tagname) throws XmlPullParserException, IOException {
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XmlPullParser xpp = factory.newPullParser();
+        xpp.setInput(new StringReader(str));
+        int eventType = xpp.getEventType();
+        Stack<String> currentTag = new Stack<String>();
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+            case (XmlPullParser.START_TAG):
+                if (xpp.getName().equals("root")) {
+                    ServerInfo.verifyResponseStatus(xpp);
+                }
+                currentTag.push(xpp.getName());
+                break;
+            case (XmlPullParser.END_TAG):
+                currentTag.pop();
+                break;
+            case (XmlPullParser.TEXT):
+                if (currentTag.peek().equals(tagname)) {
+                    return xpp.getText();
+                }
+                break;
+            }
+            eventType = xpp.next();
+        }
+        return null;
+    }
+
+    private static long runPerField(String response, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String field : POLL_FIELDS) {
+                sink = lookupField(response, field);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runSinglePass(String response, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // Every poll gets a new response, so skip the last response cache
+            ServerInfo info = ServerInfo.parseUncached(response);
+            for (String field : POLL_FIELDS) {
+                sink = info.getString(field, false);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void singlePassAgreesWithPerFieldLookup() throws Exception {
+        for (String response : new String[] {ServerInfoTest.GFE_RESPONSE, ServerInfoTest.SUNSHINE_RESPONSE}) {
+            ServerInfo info = ServerInfo.parseUncached(response);
+            for (String field : POLL_FIELDS) {
+                assertEquals(field, lookupField(response, field), info.getString(field, false));
+            }
+        }
+    }
+
+    @Test
+    public void perFieldVersusSinglePass() throws Exception {
+        assumeTrue("Benchmarks only run with -Pbenchmarks", Boolean.getBoolean("benchmarks"));
+
+        for (String response : new String[] {ServerInfoTest.GFE_RESPONSE, ServerInfoTest.SUNSHINE_RESPONSE}) {
+            runPerField(response, ITERATIONS / 10);
+            runSinglePass(response, ITERATIONS / 10);
+
+            long perFieldNs = runPerField(response, ITERATIONS);
+            long singlePassNs = runSinglePass(response, ITERATIONS);
+
+            System.out.println(String.format(Locale.US, "%s: per field %.1f us/poll, single pass %.1f us/poll (%.1fx)",
+                    response == ServerInfoTest.GFE_RESPONSE ? "GFE" : "Sunshine",
+                    perFieldNs / 1000.0 / ITERATIONS, singlePassNs / 1000.0 / ITERATIONS,
+                    (double) perFieldNs / singlePassNs));
+        }
+    }
+}
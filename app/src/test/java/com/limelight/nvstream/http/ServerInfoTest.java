@@ -0,0 +1,153 @@
+package com.limelight.nvstream.http;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServerInfoTest {
+
+    // Recorded from GFE 3.23 (identifiers changed)
+    static final String GFE_RESPONSE =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+            "<root protocol_version=\"0.1\" query=\"serverinfo\" status_code=\"200\" status_message=\"OK\">\n" +
+            "<hostname>DESKTOP-GFE</hostname>\n" +
+            "<appversion>7.1.450.0</appversion>\n" +
+            "<GfeVersion>3.23.0.74</GfeVersion>\n" +
+            "<uniqueid>6D1E8C5A44B2F8C1</uniqueid>\n" +
+            "<mac>00:1a:2b:3c:4d:5e</mac>\n" +
+            "<MaxLumaPixelsH264>1048576</MaxLumaPixelsH264>\n" +
+            "<MaxLumaPixelsHEVC>8912896</MaxLumaPixelsHEVC>\n" +
+            "<LocalIP>192.168.1.20</LocalIP>\n" +
+            "<ExternalIP>203.0.113.7</ExternalIP>\n" +
+            "<ServerCodecModeSupport>259</ServerCodecModeSupport>\n" +
+            "<SupportedDisplayMode>\n" +
+            "<DisplayMode><Width>3840</Width><Height>2160</Height><RefreshRate>60</RefreshRate></DisplayMode>\n" +
+            "<DisplayMode><Width>1920</Width><Height>1080</Height><RefreshRate>120</RefreshRate></DisplayMode>\n" +
+            "</SupportedDisplayMode>\n" +
+            "<PairStatus>1</PairStatus>\n" +
+            "<currentgame>100021</currentgame>\n" +
+            "<state>MJOLNIR_STATE_SERVER_BUSY</state>\n" +
+            "<gputype>GeForce RTX 3080</gputype>\n" +
+            "<HttpsPort>47984</HttpsPort>\n" +
+            "<ExternalPort>47989</ExternalPort>\n" +
+            "<numofapps>12</numofapps>\n" +
+            "</root>\n";
+
+    // Recorded from Sunshine (identifiers changed)
+    static final String SUNSHINE_RESPONSE =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<root status_code=\"200\">\n" +
+            "\t<hostname>living-room</hostname>\n" +
+            "\t<appversion>7.1.431.-1</appversion>\n" +
+            "\t<GfeVersion>3.23.0.74</GfeVersion>\n" +
+            "\t<uniqueid>f3b0c8a2-51d4-4e7b-9a0c-2d5e6f7a8b9c</uniqueid>\n" +
+            "\t<HttpsPort>47984</HttpsPort>\n" +
+            "\t<ExternalPort>47989</ExternalPort>\n" +
+            "\t<MaxLumaPixelsHEVC>1869449984</MaxLumaPixelsHEVC>\n" +
+            "\t<mac>3c:7c:3f:11:22:33</mac>\n" +
+            "\t<Permission>2130837247</Permission>\n" +
+            "\t<LocalIP>192.168.1.30</LocalIP>\n" +
+            "\t<ServerCodecModeSupport>3843</ServerCodecModeSupport>\n" +
+            "\t<SupportedDisplayMode/>\n" +
+            "\t<PairStatus>1</PairStatus>\n" +
+            "\t<currentgame>0</currentgame>\n" +
+            "\t<currentgameuuid/>\n" +
+            "\t<state>SUNSHINE_SERVER_FREE</state>\n" +
+            "</root>\n";
+
+    private static final String ERROR_RESPONSE =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<root status_code=\"401\" status_message=\"The client is not authorized. Certificate verification failed.\"/>\n";
+
+    @Test
+    public void parsesGfeResponse() throws Exception {
+        ServerInfo info = ServerInfo.parse(GFE_RESPONSE);
+
+        assertEquals("DESKTOP-GFE", info.getHostname());
+        assertEquals("6D1E8C5A44B2F8C1", info.getUniqueId());
+        assertEquals("00:1a:2b:3c:4d:5e", info.getMacAddress());
+        assertEquals("192.168.1.20", info.getLocalIp());
+        assertEquals("203.0.113.7", info.getExternalIp());
+        assertTrue(info.isNvidiaServer());
+        assertEquals(PairingManager.PairState.PAIRED, info.getPairState());
+        assertEquals(100021, info.getCurrentGame());
+        assertEquals(47984, info.getHttpsPort());
+        assertEquals(47989, info.getExternalPort(1234));
+        assertEquals(259, info.getServerCodecModeSupport());
+        assertEquals(1048576, info.getMaxLumaPixelsH264());
+        assertEquals("GeForce RTX 3080", info.getGpuType());
+        assertArrayEquals(new int[] {7, 1, 450, 0}, info.getServerAppVersionQuad());
+        assertTrue(info.supports4K());
+    }
+
+    @Test
+    public void parsesSunshineResponse() throws Exception {
+        ServerInfo info = ServerInfo.parse(SUNSHINE_RESPONSE);
+
+        assertEquals("living-room", info.getHostname());
+        assertEquals("f3b0c8a2-51d4-4e7b-9a0c-2d5e6f7a8b9c", info.getUniqueId());
+        assertFalse(info.isNvidiaServer());
+        assertEquals(0, info.getCurrentGame());
+        assertEquals(47989, info.getExternalPort(1234));
+        assertNull(info.getExternalIp());
+        assertNull(info.getGpuType());
+        assertEquals(0, info.getMaxLumaPixelsH264());
+        assertEquals(1869449984L, info.getMaxLumaPixelsHEVC());
+        assertEquals(3843, info.getServerCodecModeSupport());
+    }
+
+    @Test
+    public void firstElementWins() throws Exception {
+        ServerInfo info = ServerInfo.parse(GFE_RESPONSE);
+
+        // Only the first display mode is visible, like the old per-field scan
+        assertEquals("3840", info.getString("Width", false));
+        assertEquals("60", info.getString("RefreshRate", false));
+    }
+
+    @Test
+    public void emptyElementsAreMissing() throws Exception {
+        ServerInfo info = ServerInfo.parse(SUNSHINE_RESPONSE);
+
+        assertNull(info.getString("SupportedDisplayMode", false));
+        assertNull(info.getString("currentgameuuid", false));
+    }
+
+    @Test
+    public void missingMandatoryFieldThrowsWhenRead() throws Exception {
+        ServerInfo info = ServerInfo.parse(SUNSHINE_RESPONSE);
+        assertNull(info.getString("missing", false));
+
+        try {
+            info.getString("missing", true);
+            fail("Missing mandatory field was returned");
+        } catch (XmlPullParserException expected) {
+        }
+    }
+
+    @Test
+    public void errorStatusThrows() throws Exception {
+        try {
+            ServerInfo.parse(ERROR_RESPONSE);
+            fail("Error status was parsed");
+        } catch (HostHttpResponseException e) {
+            assertEquals(401, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void sameResponseIsParsedOnce() throws Exception {
+        ServerInfo first = ServerInfo.parse(GFE_RESPONSE);
+        assertSame(first, ServerInfo.parse(GFE_RESPONSE));
+
+        ServerInfo other = ServerInfo.parse(SUNSHINE_RESPONSE);
+        assertEquals("living-room", other.getHostname());
+    }
+}
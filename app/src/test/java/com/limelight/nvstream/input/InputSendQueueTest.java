@@ -0,0 +1,185 @@
+package com.limelight.nvstream.input;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives an {@link InputSendQueue} from several producer threads at once, like the UI thread,
+ * USB controller threads and sensor callbacks do.
+ */
+public class InputSendQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int RECORDS_PER_PRODUCER = 200000;
+    private static final int CAPACITY = 1024;
+
+    // Records of this type are timed instead of checked
+    private static final int TYPE_TIMED = 100;
+
+    private static class CheckingSink implements InputSendQueue.Sink {
+        final int[] lastSeen = new int[PRODUCERS];
+        volatile int received;
+        volatile String error;
+        volatile long timedRecordNs;
+
+        CheckingSink() {
+            for (int i = 0; i < PRODUCERS; i++) {
+                lastSeen[i] = -1;
+            }
+        }
+
+        @Override
+        public void send(InputSendQueue.Record record) {
+            if (record.type == TYPE_TIMED) {
+                timedRecordNs = System.nanoTime();
+                return;
+            }
+
+            int producer = record.type;
+            int seq = record.ints[0];
+            boolean payloadOk = seq % 2 == 0 ? record.ints[8] == seq * 3 : record.floats[4] == seq;
+            if (seq != lastSeen[producer] + 1 || !payloadOk) {
+                error = "Producer "+producer+" record "+seq+" arrived after "+lastSeen[producer];
+            }
+            lastSeen[producer] = seq;
+            received++;
+        }
+    }
+
+    @Test
+    public void recordsArriveInOrderFromEveryProducer() throws InterruptedException {
+        final CheckingSink sink = new CheckingSink();
+        // Nothing may be dropped here, however long the sender gets descheduled
+        final InputSendQueue queue = new InputSendQueue(sink, CAPACITY, "Input Sender", 60000000000L);
+        queue.start();
+
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                        // Alternate record layouts so stale slot contents would show up
+                        if (i % 2 == 0) {
+                            queue.enqueue(producer, i, 0, 0, 0, 0, 0, 0, 0, i * 3);
+                        }
+                        else {
+                            queue.enqueue(producer, i, 0, 0, 0, 0, 0f, 0f, 0f, 0f, i);
+                        }
+                    }
+                }
+            };
+            producers[p].start();
+        }
+
+        go.countDown();
+        for (Thread t : producers) {
+            t.join();
+        }
+        queue.stop();
+
+        assertNull(sink.error);
+        assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, sink.received);
+        assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, queue.getSentCount());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void stuckSenderDropsInsteadOfBlocking() throws InterruptedException {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        InputSendQueue queue = new InputSendQueue(new InputSendQueue.Sink() {
+            @Override
+            public void send(InputSendQueue.Record record) {
+                sending.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, 2, "Input Sender", 10000000L);
+        queue.start();
+
+        // The sender takes the first record and gets stuck on it, then two fill the ring
+        queue.enqueue(0, 0, 0, 0, 0);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        queue.enqueue(0, 1, 0, 0, 0);
+        queue.enqueue(0, 2, 0, 0, 0);
+        assertEquals(0, queue.getDroppedCount());
+
+        long startNs = System.nanoTime();
+        queue.enqueue(0, 3, 0, 0, 0);
+        long waitedNs = System.nanoTime() - startNs;
+
+        assertEquals(1, queue.getDroppedCount());
+        assertTrue(waitedNs >= 10000000L);
+        assertTrue(waitedNs < 5000000000L);
+
+        unblock.countDown();
+        queue.stop();
+        assertEquals(3, queue.getSentCount());
+    }
+
+    @Test
+    public void delayHoldsLaterRecordsWithoutBlockingProducer() throws InterruptedException {
+        CheckingSink sink = new CheckingSink();
+        InputSendQueue queue = new InputSendQueue(sink, 16, "Input Sender");
+        queue.start();
+
+        // A button release held for the minimum press time
+        queue.enqueue(0, 0, 0, 0, 0, 0, 0f, 0f, 0f, 0f, 0f);
+        long enqueueNs = System.nanoTime();
+        queue.enqueueDelay(20000000L);
+        queue.enqueue(TYPE_TIMED, 0, 0, 0, 0);
+        long returnedNs = System.nanoTime();
+
+        Thread.sleep(100);
+        queue.stop();
+
+        assertEquals(1, sink.received);
+        assertTrue(sink.timedRecordNs - enqueueNs >= 20000000L);
+        assertTrue(returnedNs - enqueueNs < 10000000L);
+    }
+
+    @Test
+    public void recordsBeforeStartAreDropped() {
+        CheckingSink sink = new CheckingSink();
+        InputSendQueue queue = new InputSendQueue(sink, 16, "Input Sender");
+
+        // More than fit in the ring, which must not block with nothing draining it
+        for (int i = 0; i < 100; i++) {
+            queue.enqueue(TYPE_TIMED, 0, 0, 0, 0);
+        }
+        queue.stop();
+
+        assertEquals(0, queue.getSentCount());
+        assertEquals(0, sink.timedRecordNs);
+    }
+
+    @Test
+    public void stopSendsWhatsQueued() {
+        CheckingSink sink = new CheckingSink();
+        InputSendQueue queue = new InputSendQueue(sink, 16, "Input Sender");
+        queue.start();
+
+        queue.enqueueDelay(10000000000L);
+        queue.enqueue(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+        queue.stop();
+
+        // The delay is ignored once stopping
+        assertEquals(1, sink.received);
+    }
+}
@@ -0,0 +1,168 @@
+package com.limelight.nvstream.input;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds a {@link MouseMotionCoalescer} synthetic event streams and checks what would reach the
+ * host.
+ *
+ * A 1000 Hz gaming mouse is dispatched as one MotionEvent per 60 Hz frame carrying about 16
+ * samples, and a 240 Hz touch panel driving the relative touch mouse replays 4 historical
+ * samples per frame.
+ */
+public class MouseMotionCoalescerTest {
+
+    private static final long MS = 1000000L;
+
+    private static class RecordingSink implements MouseMotionCoalescer.Sink {
+        final List<String> packets = new ArrayList<>();
+        long sumX, sumY;
+        int lastX = -1, lastY = -1;
+
+        @Override
+        public void sendMouseMove(short deltaX, short deltaY) {
+            packets.add("move");
+            sumX += deltaX;
+            sumY += deltaY;
+        }
+
+        @Override
+        public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight) {
+            packets.add("position");
+            lastX = x;
+            lastY = y;
+        }
+
+        @Override
+        public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+            packets.add("moveAsPosition");
+            sumX += deltaX;
+            sumY += deltaY;
+        }
+
+        void buttonDown() {
+            packets.add("button");
+        }
+    }
+
+    @Test
+    public void batchBecomesOnePacketWithTheSameMotion() {
+        RecordingSink sink = new RecordingSink();
+        MouseMotionCoalescer coalescer = new MouseMotionCoalescer(sink);
+
+        long expectedX = 0, expectedY = 0;
+        for (int frame = 0; frame < 60; frame++) {
+            coalescer.beginBatch();
+            for (int sample = 0; sample < 16; sample++) {
+                int dx = (frame + sample) % 7 - 2;
+                int dy = sample % 3;
+                expectedX += dx;
+                expectedY += dy;
+                coalescer.addRelative(dx, dy, (frame * 16 + sample) * MS);
+            }
+            coalescer.endBatch((frame * 16 + 16) * MS);
+        }
+
+        assertEquals(expectedX, sink.sumX);
+        assertEquals(expectedY, sink.sumY);
+        assertEquals(60, coalescer.getPacketsOut());
+    }
+
+    @Test
+    public void motionIsSentBeforeButton() {
+        RecordingSink sink = new RecordingSink();
+        MouseMotionCoalescer coalescer = new MouseMotionCoalescer(sink);
+
+        // Clicking mid-frame: the click's own event flushes before sending it
+        coalescer.beginBatch();
+        coalescer.addRelative(5, 5, 0);
+        coalescer.flush();
+        sink.buttonDown();
+        coalescer.endBatch(0);
+
+        assertEquals("[move, button]", sink.packets.toString());
+        assertEquals(5, sink.sumX);
+    }
+
+    @Test
+    public void intervalHoldsMotionWithoutLosingAny() {
+        RecordingSink sink = new RecordingSink();
+        MouseMotionCoalescer coalescer = new MouseMotionCoalescer(sink);
+        coalescer.setInterval(8);
+
+        long flushAtNs = -1;
+        long expectedX = 0;
+        for (int ms = 0; ms < 1000; ms++) {
+            long nowNs = ms * MS;
+            if (flushAtNs >= 0 && nowNs >= flushAtNs) {
+                long delayMs = coalescer.flushIfDue(nowNs);
+                flushAtNs = delayMs > 0 ? nowNs + delayMs * MS : -1;
+            }
+
+            // 240 Hz touch samples, replayed as a batch every 4 ms
+            if (ms % 4 == 0) {
+                coalescer.beginBatch();
+                for (int sample = 0; sample < 4; sample++) {
+                    coalescer.addRelativeAsPosition(1, 0, (short) 1920, (short) 1080, nowNs);
+                    expectedX++;
+                }
+                long delayMs = coalescer.endBatch(nowNs);
+                if (delayMs > 0 && flushAtNs < 0) {
+                    flushAtNs = nowNs + delayMs * MS;
+                }
+            }
+        }
+        coalescer.flushIfDue(2000 * MS);
+
+        assertEquals(expectedX, sink.sumX);
+        assertTrue("Sent "+coalescer.getPacketsOut()+" packets", coalescer.getPacketsOut() <= 1000 / 8 + 1);
+    }
+
+    @Test
+    public void motionOutsideBatchIsSentRightAway() {
+        RecordingSink sink = new RecordingSink();
+        MouseMotionCoalescer coalescer = new MouseMotionCoalescer(sink);
+
+        coalescer.addRelative(1, 1, 0);
+        coalescer.setPosition(100, 200, (short) 1920, (short) 1080, 0);
+
+        assertEquals("[move, position]", sink.packets.toString());
+    }
+
+    @Test
+    public void onlyLastPositionInBatchIsSent() {
+        RecordingSink sink = new RecordingSink();
+        MouseMotionCoalescer coalescer = new MouseMotionCoalescer(sink);
+
+        coalescer.beginBatch();
+        for (int i = 0; i < 10; i++) {
+            coalescer.setPosition(300 + i, 400, (short) 1920, (short) 1080, 0);
+        }
+        coalescer.endBatch(0);
+
+        assertEquals(1, sink.packets.size());
+        assertEquals(309, sink.lastX);
+        assertEquals(400, sink.lastY);
+    }
+
+    @Test
+    public void largeSumsAreSplitAcrossPackets() {
+        RecordingSink sink = new RecordingSink();
+        MouseMotionCoalescer coalescer = new MouseMotionCoalescer(sink);
+
+        coalescer.beginBatch();
+        for (int i = 0; i < 100; i++) {
+            coalescer.addRelative(1000, -1000, 0);
+        }
+        coalescer.endBatch(0);
+
+        assertEquals(100000, sink.sumX);
+        assertEquals(-100000, sink.sumY);
+    }
+}
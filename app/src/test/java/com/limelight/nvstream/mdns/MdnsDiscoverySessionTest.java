@@ -0,0 +1,151 @@
+package com.limelight.nvstream.mdns;
+
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link MdnsDiscoverySession} against an in-process fake responder.
+ *
+ * The fake responder has three hosts: one that resolves right away and later changes its
+ * address, one that only resolves on the fourth try, and a stale record that never resolves.
+ * Time is scaled down so a run takes a few seconds.
+ */
+public class MdnsDiscoverySessionTest {
+
+    private static final int BASE_INTERVAL_MS = 10;
+    private static final int MAX_QUERY_INTERVAL_MS = 160;
+    private static final int MAX_RESOLVE_BACKOFF_MS = 300;
+    private static final int TTL_MS = 400;
+    private static final int RUN_MS = 3000;
+
+    private static class FakeHost {
+        final int triesBeforeAnswer;
+        volatile Inet4Address address;
+        final AtomicInteger tries = new AtomicInteger();
+
+        FakeHost(int triesBeforeAnswer, Inet4Address address) {
+            this.triesBeforeAnswer = triesBeforeAnswer;
+            this.address = address;
+        }
+    }
+
+    private static class FakeResponder implements MdnsDiscoverySession.Resolver {
+        final Map<String, FakeHost> hosts = new ConcurrentHashMap<>();
+        final AtomicInteger opened = new AtomicInteger();
+        final Set<String> announced = ConcurrentHashMap.newKeySet();
+        MdnsDiscoverySession session;
+
+        @Override
+        public void open() {
+            opened.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            opened.decrementAndGet();
+        }
+
+        @Override
+        public void query() {
+            // Every host answers the browse query, but like jmDNS we only raise an
+            // event the first time a name shows up
+            for (String name : hosts.keySet()) {
+                if (announced.add(name)) {
+                    session.serviceAdded(name);
+                }
+            }
+        }
+
+        @Override
+        public MdnsDiscoverySession.ResolvedService resolve(String name) {
+            FakeHost host = hosts.get(name);
+            if (host == null || host.triesBeforeAnswer < 0 || host.tries.incrementAndGet() <= host.triesBeforeAnswer) {
+                return null;
+            }
+            return new MdnsDiscoverySession.ResolvedService(name, 47989,
+                    new Inet4Address[] {host.address}, new Inet6Address[0]);
+        }
+    }
+
+    private static class Run {
+        final Map<String, AtomicInteger> notifications = new ConcurrentHashMap<>();
+        int queries;
+        int resolves;
+        int unresolved;
+        int openResolvers;
+    }
+
+    private static Inet4Address v4(String addr) throws Exception {
+        return (Inet4Address) InetAddress.getByName(addr);
+    }
+
+    private static Run run() throws Exception {
+        final Run run = new Run();
+        FakeResponder responder = new FakeResponder();
+        responder.hosts.put("Quick", new FakeHost(0, v4("192.168.1.10")));
+        responder.hosts.put("Slow", new FakeHost(3, v4("192.168.1.11")));
+        responder.hosts.put("Stale", new FakeHost(-1, null));
+
+        MdnsDiscoverySession.Listener listener = new MdnsDiscoverySession.Listener() {
+            @Override
+            public void onServiceResolved(MdnsDiscoverySession.ResolvedService service) {
+                run.notifications.putIfAbsent(service.name, new AtomicInteger());
+                run.notifications.get(service.name).incrementAndGet();
+            }
+
+            @Override
+            public void onServiceRemoved(String name) {
+            }
+        };
+
+        MdnsDiscoverySession session = new MdnsDiscoverySession(responder, listener,
+                BASE_INTERVAL_MS, MAX_QUERY_INTERVAL_MS, MAX_RESOLVE_BACKOFF_MS, TTL_MS);
+        responder.session = session;
+        session.start();
+
+        // The quick host gets a new address halfway through, which a refresh must pick up
+        Thread.sleep(RUN_MS / 2);
+        responder.hosts.get("Quick").address = v4("192.168.1.20");
+        Thread.sleep(RUN_MS / 2);
+
+        run.queries = session.getQueryCount();
+        run.resolves = session.getResolveAttemptCount();
+        run.unresolved = session.getUnresolvedCount();
+        session.stop();
+        Thread.sleep(100);
+        run.openResolvers = responder.opened.get();
+        return run;
+    }
+
+    @Test
+    public void hostsAreReportedWhenFoundAndWhenChanged() throws Exception {
+        Run run = run();
+
+        assertEquals(2, run.notifications.get("Quick").get());
+        assertEquals(1, run.notifications.get("Slow").get());
+        assertNull(run.notifications.get("Stale"));
+        assertEquals(1, run.unresolved);
+    }
+
+    @Test
+    public void backsOffAndClosesOnStop() throws Exception {
+        Run run = run();
+
+        // A fixed rate loop would query and retry the stale name on every pass
+        int fixedRatePasses = RUN_MS / BASE_INTERVAL_MS;
+        assertTrue("Sent "+run.queries+" queries", run.queries < fixedRatePasses);
+        assertTrue("Made "+run.resolves+" resolve attempts", run.resolves < fixedRatePasses);
+        assertEquals(0, run.openResolvers);
+    }
+}